@@ -1,6 +1,5 @@
 package com.firefly.ragdemo.dto;
 
-import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import java.util.List;
 import lombok.Data;
@@ -10,9 +9,12 @@ public class ChatRequest {
 
     private String model;
 
-    @NotEmpty(message = "消息列表不能为空")
+    // 完整对话历史（旧客户端）；与 message 二选一
     private List<ChatMessage> messages;
 
+    // 本轮的用户消息，历史由服务端按 sessionId 从会话窗口读取
+    private String message;
+
     private Boolean stream = false;
 
     private String langid;
@@ -27,5 +29,8 @@ public class ChatRequest {
 
         @NotNull(message = "内容不能为空")
         private String content;
+
+        // 消息序号（会话历史接口返回的 seq），本轮新消息为空；用于跳过已折叠进摘要的消息
+        private Integer seq;
     }
 }
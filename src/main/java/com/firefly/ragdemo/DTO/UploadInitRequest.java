@@ -0,0 +1,19 @@
+package com.firefly.ragdemo.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Data;
+
+@Data
+public class UploadInitRequest {
+
+    @NotBlank(message = "文件名不能为空")
+    private String filename;
+
+    @NotNull(message = "文件大小不能为空")
+    @Positive(message = "文件大小必须大于0")
+    private Long fileSize;
+
+    private String kbId;
+}
@@ -0,0 +1,21 @@
+package com.firefly.ragdemo.vo;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BulkIngestReportVO {
+
+    private String kbId;
+    private Integer discovered;
+    private Integer imported;
+    private Integer skipped;
+    private Integer failed;
+    private Long totalBytes;
+    private Long elapsedMs;
+    private Double filesPerSecond;
+    private Double mbPerSecond;
+    private List<FileVO> files;
+}
@@ -13,6 +13,8 @@ public class FileProcessingNotification {
     String filename;
     String status;
     String message;
+    Integer processedChunks;
+    Integer totalChunks;
     LocalDateTime timestamp;
 
     public static FileProcessingNotification from(UploadedFile file, UploadedFile.FileStatus status, String message) {
@@ -24,4 +26,16 @@ public class FileProcessingNotification {
                 .timestamp(LocalDateTime.now())
                 .build();
     }
+
+    public static FileProcessingNotification progress(UploadedFile file, int processedChunks, int totalChunks, String message) {
+        return FileProcessingNotification.builder()
+                .fileId(file.getId())
+                .filename(file.getFilename())
+                .status(UploadedFile.FileStatus.PROCESSING.name())
+                .message(message)
+                .processedChunks(processedChunks)
+                .totalChunks(totalChunks)
+                .timestamp(LocalDateTime.now())
+                .build();
+    }
 }
@@ -0,0 +1,28 @@
+package com.firefly.ragdemo.vo;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class IndexingStatsVO {
+
+    private Integer workers;
+    private Integer activeWorkers;
+    private List<LaneStats> lanes;
+
+    @Data
+    @Builder
+    public static class LaneStats {
+        private String lane;
+        private Integer queued;
+        private Integer capacity;
+        private Integer waitingUsers;
+        private Long submitted;
+        private Long rejected;
+        private Long completed;
+        private Long avgWaitMs;
+        private Long maxWaitMs;
+    }
+}
@@ -0,0 +1,18 @@
+package com.firefly.ragdemo.vo;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class UploadSessionVO {
+
+    private String uploadId;
+    private String filename;
+    private Long fileSize;
+    private Long partSize;
+    private Integer partCount;
+    private Long receivedBytes;
+    private List<Integer> missingParts;
+}
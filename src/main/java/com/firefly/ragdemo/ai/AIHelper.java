@@ -1,6 +1,5 @@
 package com.firefly.ragdemo.ai;
 
-import com.firefly.ragdemo.dto.ChatRequest;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
@@ -39,22 +38,22 @@ public class AIHelper {
 
     /**
      * 同步调用AI
-     * @param prompt 完整提示词
+     * @param messages 按角色区分的消息
      * @return AI响应
      */
-    public String call(String prompt) {
+    public String call(List<PromptMessage> messages) {
         this.lastAccessedAt = LocalDateTime.now();
-        return model.call(prompt);
+        return model.call(messages);
     }
 
     /**
      * 流式调用AI
-     * @param prompt 完整提示词
+     * @param messages 按角色区分的消息
      * @return 流式响应
      */
-    public Flux<String> stream(String prompt) {
+    public Flux<String> stream(List<PromptMessage> messages) {
         this.lastAccessedAt = LocalDateTime.now();
-        return model.stream(prompt);
+        return model.stream(messages);
     }
 
     /**
@@ -64,6 +63,20 @@ public class AIHelper {
         return model.getModelName();
     }
 
+    /**
+     * 模型的上下文窗口（token）
+     */
+    public int getContextWindow() {
+        return model.getContextWindow();
+    }
+
+    /**
+     * 模型的采样温度
+     */
+    public double getTemperature() {
+        return model.getTemperature();
+    }
+
     /**
      * 检查是否过期（超过指定分钟未访问）
      */
@@ -2,6 +2,8 @@ package com.firefly.ragdemo.ai;
 
 import reactor.core.publisher.Flux;
 
+import java.util.List;
+
 /**
  * AI模型统一接口，支持多种AI模型实现（OpenAI、Ollama等）
  */
@@ -12,19 +14,47 @@ public interface AIModel {
      */
     String getModelName();
 
+    /**
+     * 模型的上下文窗口（token），用于分配提示词预算
+     */
+    int getContextWindow();
+
+    /**
+     * 采样温度，参与回答缓存的键
+     */
+    double getTemperature();
+
     /**
      * 同步调用AI模型
-     * @param prompt 完整的提示词
+     * @param messages 按角色区分的消息，依次为系统提示、上下文与对话历史
      * @return AI响应内容
      */
-    String call(String prompt);
+    String call(List<PromptMessage> messages);
 
     /**
      * 流式调用AI模型
-     * @param prompt 完整的提示词
+     * @param messages 按角色区分的消息，依次为系统提示、上下文与对话历史
      * @return 流式响应
      */
-    Flux<String> stream(String prompt);
+    Flux<String> stream(List<PromptMessage> messages);
+
+    /**
+     * 同步调用AI模型
+     * @param prompt 完整的提示词，作为单条用户消息发送
+     * @return AI响应内容
+     */
+    default String call(String prompt) {
+        return call(List.of(PromptMessage.user(prompt)));
+    }
+
+    /**
+     * 流式调用AI模型
+     * @param prompt 完整的提示词，作为单条用户消息发送
+     * @return 流式响应
+     */
+    default Flux<String> stream(String prompt) {
+        return stream(List.of(PromptMessage.user(prompt)));
+    }
 
     /**
      * 检查模型是否可用
@@ -37,8 +37,19 @@ public class AIModelConfig {
     private double temperature = 0.7;
 
     /**
-     * 最大token数
+     * 单次回答的最大 token 数（输出上限），与上下文窗口分开配置
      */
     @Builder.Default
     private int maxTokens = 4096;
+
+    /**
+     * 上下文窗口（token），提示词与回答共用；不大于 0 时由工厂取 app.prompt.context-window
+     */
+    private int contextWindow;
+
+    /**
+     * 客户端内部是否对失败请求重试；路由池中的后端关闭，由路由切换到其他后端
+     */
+    @Builder.Default
+    private boolean retryEnabled = true;
 }
@@ -2,10 +2,14 @@ package com.firefly.ragdemo.ai;
 
 import com.firefly.ragdemo.ai.impl.OllamaModel;
 import com.firefly.ragdemo.ai.impl.OpenAICompatibleModel;
+import com.firefly.ragdemo.ai.impl.RoutingModel;
+import com.firefly.ragdemo.config.LlmRouterProperties;
+import com.firefly.ragdemo.config.PromptProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
@@ -30,8 +34,15 @@ public class AIModelFactory {
 
     private final OpenAiChatModel defaultOpenAiChatModel;
 
-    public AIModelFactory(OpenAiChatModel defaultOpenAiChatModel) {
+    private final LlmRouterProperties routerProperties;
+
+    private final PromptProperties promptProperties;
+
+    public AIModelFactory(OpenAiChatModel defaultOpenAiChatModel, LlmRouterProperties routerProperties,
+                          PromptProperties promptProperties) {
         this.defaultOpenAiChatModel = defaultOpenAiChatModel;
+        this.routerProperties = routerProperties;
+        this.promptProperties = promptProperties;
         registerDefaultCreators();
     }
 
@@ -45,6 +56,9 @@ public class AIModelFactory {
         // Ollama本地模型
         register("ollama", OllamaModel::new);
 
+        // 多后端路由，后端列表来自 app.llm-router.backends
+        register("routing", config -> createRouter());
+
         log.info("AI模型工厂初始化完成，已注册模型类型: {}", creators.keySet());
     }
 
@@ -69,7 +83,7 @@ public class AIModelFactory {
         if (creator == null) {
             throw new IllegalArgumentException("不支持的AI模型类型: " + type + "，支持的类型: " + creators.keySet());
         }
-        return creator.apply(config);
+        return creator.apply(withDefaultContextWindow(config));
     }
 
     /**
@@ -83,18 +97,57 @@ public class AIModelFactory {
     }
 
     /**
-     * 获取默认的OpenAI模型
+     * 获取默认模型：启用路由且配置了后端时为路由模型，否则为默认的OpenAI模型
      */
     public AIModel getDefaultModel() {
         return modelCache.computeIfAbsent("default", k -> {
+            if (routerProperties.isEnabled() && !routerProperties.getBackends().isEmpty()) {
+                return createRouter();
+            }
             AIModelConfig config = AIModelConfig.builder()
                     .type("openai")
                     .modelName("default")
+                    .contextWindow(promptProperties.getContextWindow())
                     .build();
             return new OpenAICompatibleModel(config, defaultOpenAiChatModel);
         });
     }
 
+    /**
+     * 按 app.llm-router.backends 创建各后端（关闭客户端内部重试，由路由切换后端）并组成路由模型
+     */
+    private AIModel createRouter() {
+        List<RoutingModel.Route> routes = routerProperties.getBackends().stream()
+                .map(backend -> {
+                    if ("routing".equalsIgnoreCase(backend.getType())) {
+                        throw new IllegalArgumentException("路由后端不能是 routing 类型");
+                    }
+                    AIModelConfig config = AIModelConfig.builder()
+                            .type(backend.getType())
+                            .modelName(backend.getModelName())
+                            .baseUrl(backend.getBaseUrl())
+                            .apiKey(backend.getApiKey())
+                            .temperature(backend.getTemperature())
+                            .maxTokens(backend.getMaxTokens())
+                            .contextWindow(backend.getContextWindow())
+                            .retryEnabled(false)
+                            .build();
+                    return new RoutingModel.Route(create(config), backend.getMaxConcurrency());
+                })
+                .toList();
+        return new RoutingModel(routes, routerProperties);
+    }
+
+    /**
+     * 未单独配置上下文窗口的模型使用 app.prompt.context-window，输出上限 maxTokens 不参与提示词预算
+     */
+    private AIModelConfig withDefaultContextWindow(AIModelConfig config) {
+        if (config.getContextWindow() <= 0) {
+            config.setContextWindow(promptProperties.getContextWindow());
+        }
+        return config;
+    }
+
     /**
      * 移除缓存的模型实例
      */
@@ -0,0 +1,310 @@
+package com.firefly.ragdemo.ai;
+
+import com.firefly.ragdemo.config.AdmissionProperties;
+import com.firefly.ragdemo.exception.AdmissionRejectedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+/**
+ * 模型调用准入控制：
+ * - 全局并发上限按流式调用的首 token 延迟自适应（AIMD），上游变慢或返回限流时收缩，恢复后逐步放开；
+ *   同步调用的总耗时主要取决于输出长度，不作为延迟样本，只在限流/超时时收缩
+ * - 每个用户的并发数与排队数各有上限，一个用户的突发请求不会占满全局配额
+ * - 超出上限的请求进入公平队列：按用户轮转放行，每轮每个用户最多放行一个；排队超过 maxWaitMs 或队列已满时拒绝并给出 Retry-After
+ * 所有状态由一把锁保护，队列长度有上限，放行与位置通知在锁外执行
+ */
+@Component
+@Slf4j
+public class LlmAdmissionController {
+
+    private static final double SERVICE_TIME_ALPHA = 0.2;
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final AdmissionProperties properties;
+    private final Object lock = new Object();
+
+    private double limit;
+    private int inFlight;
+    private double serviceMillis = 5000;
+    private final Map<String, Integer> inFlightByUser = new HashMap<>();
+    private final LinkedHashMap<String, ArrayDeque<Waiter>> queues = new LinkedHashMap<>();
+    private final Set<Waiter> arrival = new LinkedHashSet<>();
+
+    public LlmAdmissionController(AdmissionProperties properties) {
+        this.properties = properties;
+        this.limit = Math.min(Math.max(properties.getInitialLimit(), properties.getMinLimit()), properties.getMaxLimit());
+    }
+
+    /**
+     * 申请一次模型调用；有空闲配额时立即返回已完成的 Future，否则排队
+     *
+     * @param onQueued 排队位置变化时回调（从 1 开始），可为 null
+     * @return 获准时完成；排队超时以 TimeoutException 失败，调用方取消 Future 即退出排队
+     * @throws AdmissionRejectedException 队列已满或该用户排队数已达上限
+     */
+    public CompletableFuture<Permit> acquire(String userId, IntConsumer onQueued) {
+        if (!properties.isEnabled()) {
+            return CompletableFuture.completedFuture(new Permit(null, userId));
+        }
+        Waiter waiter;
+        int position;
+        synchronized (lock) {
+            if (inFlight < currentLimit() && userInFlight(userId) < properties.getPerUserLimit()) {
+                return CompletableFuture.completedFuture(admit(userId));
+            }
+            ArrayDeque<Waiter> queue = queues.get(userId);
+            int queued = queue != null ? queue.size() : 0;
+            if (arrival.size() >= properties.getMaxQueue() || queued >= properties.getPerUserQueue()) {
+                throw new AdmissionRejectedException("请求过多，请稍后重试", retryAfterSecondsLocked());
+            }
+            waiter = new Waiter(userId, onQueued, new CompletableFuture<>());
+            queues.computeIfAbsent(userId, k -> new ArrayDeque<>()).add(waiter);
+            arrival.add(waiter);
+            position = arrival.size();
+        }
+        waiter.notifyPosition(position);
+        waiter.future.orTimeout(properties.getMaxWaitMs(), TimeUnit.MILLISECONDS)
+                .whenComplete((permit, error) -> {
+                    if (error != null) {
+                        abandon(waiter);
+                    }
+                });
+        return waiter.future;
+    }
+
+    /**
+     * 按当前排队长度与平均占用时间估算的重试等待（秒）
+     */
+    public long retryAfterSeconds() {
+        synchronized (lock) {
+            return retryAfterSecondsLocked();
+        }
+    }
+
+    /**
+     * 当前的全局并发上限
+     */
+    public int limit() {
+        synchronized (lock) {
+            return currentLimit();
+        }
+    }
+
+    private Permit admit(String userId) {
+        inFlight++;
+        inFlightByUser.merge(userId, 1, Integer::sum);
+        return new Permit(this, userId);
+    }
+
+    private void abandon(Waiter waiter) {
+        List<Runnable> actions;
+        synchronized (lock) {
+            if (!arrival.remove(waiter)) {
+                return;
+            }
+            ArrayDeque<Waiter> queue = queues.get(waiter.userId);
+            if (queue != null) {
+                queue.remove(waiter);
+                if (queue.isEmpty()) {
+                    queues.remove(waiter.userId);
+                }
+            }
+            actions = positionsLocked();
+        }
+        actions.forEach(Runnable::run);
+    }
+
+    private void onRelease(Permit permit, Throwable error) {
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - permit.startedAt);
+        List<Runnable> actions;
+        synchronized (lock) {
+            inFlight--;
+            inFlightByUser.computeIfPresent(permit.userId, (k, v) -> v > 1 ? v - 1 : null);
+            serviceMillis += SERVICE_TIME_ALPHA * (elapsedMs - serviceMillis);
+            if (error != null && isOverload(error)) {
+                decreaseLocked();
+            }
+            actions = drainLocked();
+        }
+        actions.forEach(Runnable::run);
+    }
+
+    private void onFirstToken(Permit permit) {
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - permit.startedAt);
+        List<Runnable> actions;
+        synchronized (lock) {
+            sampleLocked(latencyMs);
+            actions = drainLocked();
+        }
+        actions.forEach(Runnable::run);
+    }
+
+    /**
+     * 加性增：每个正常样本加 1/limit，约每一轮并发满载后上限加 1；乘性减：延迟超标时乘以 backoffRatio
+     */
+    private void sampleLocked(long latencyMs) {
+        if (latencyMs > properties.getLatencyThresholdMs()) {
+            decreaseLocked();
+        } else {
+            limit = Math.min(limit + 1.0 / Math.max(limit, 1.0), properties.getMaxLimit());
+        }
+    }
+
+    private void decreaseLocked() {
+        double previous = limit;
+        limit = Math.max(limit * properties.getBackoffRatio(), properties.getMinLimit());
+        if ((int) previous != (int) limit) {
+            log.info("模型调用并发上限下调: {} → {}", (int) previous, (int) limit);
+        }
+    }
+
+    /**
+     * 按用户轮转放行排队的请求；放行过的用户移到队尾
+     */
+    private List<Runnable> drainLocked() {
+        List<Runnable> actions = new ArrayList<>();
+        boolean progressed = true;
+        while (progressed && inFlight < currentLimit() && !queues.isEmpty()) {
+            progressed = false;
+            List<String> rotated = new ArrayList<>();
+            Iterator<Map.Entry<String, ArrayDeque<Waiter>>> it = queues.entrySet().iterator();
+            while (it.hasNext() && inFlight < currentLimit()) {
+                Map.Entry<String, ArrayDeque<Waiter>> entry = it.next();
+                if (userInFlight(entry.getKey()) >= properties.getPerUserLimit()) {
+                    continue;
+                }
+                Waiter waiter = entry.getValue().poll();
+                arrival.remove(waiter);
+                if (entry.getValue().isEmpty()) {
+                    it.remove();
+                } else {
+                    rotated.add(entry.getKey());
+                }
+                Permit permit = admit(waiter.userId);
+                // 排队已超时或被取消时归还配额
+                actions.add(() -> {
+                    if (!waiter.future.complete(permit)) {
+                        permit.release();
+                    }
+                });
+                progressed = true;
+            }
+            for (String userId : rotated) {
+                queues.put(userId, queues.remove(userId));
+            }
+        }
+        if (!actions.isEmpty()) {
+            actions.addAll(positionsLocked());
+        }
+        return actions;
+    }
+
+    private List<Runnable> positionsLocked() {
+        List<Runnable> actions = new ArrayList<>(arrival.size());
+        int position = 0;
+        for (Waiter waiter : arrival) {
+            int current = ++position;
+            actions.add(() -> waiter.notifyPosition(current));
+        }
+        return actions;
+    }
+
+    private int currentLimit() {
+        return Math.max((int) limit, 1);
+    }
+
+    private int userInFlight(String userId) {
+        return inFlightByUser.getOrDefault(userId, 0);
+    }
+
+    private long retryAfterSecondsLocked() {
+        double seconds = (arrival.size() + 1) * serviceMillis / currentLimit() / 1000.0;
+        return Math.min(Math.max((long) Math.ceil(seconds), 1), MAX_RETRY_AFTER_SECONDS);
+    }
+
+    /**
+     * 上游限流或超时：按过载处理，收缩并发上限
+     */
+    static boolean isOverload(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof HttpClientErrorException.TooManyRequests
+                    || t instanceof TimeoutException
+                    || t instanceof SocketTimeoutException
+                    || (t.getMessage() != null && (t.getMessage().contains("429")
+                    || t.getMessage().contains("Too Many Requests")))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一次获准的模型调用；release 可重复调用，只生效一次
+     */
+    public static final class Permit {
+
+        private final LlmAdmissionController owner;
+        private final String userId;
+        private final long startedAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean sampled;
+
+        private Permit(LlmAdmissionController owner, String userId) {
+            this.owner = owner;
+            this.userId = userId;
+        }
+
+        /**
+         * 流式调用收到首个片段时调用，用首 token 延迟调整并发上限；已释放的许可不再采样
+         */
+        public void firstToken() {
+            if (owner != null && !sampled && !released.get()) {
+                sampled = true;
+                owner.onFirstToken(this);
+            }
+        }
+
+        public void release() {
+            release(null);
+        }
+
+        /**
+         * @param error 调用失败的原因，限流/超时会收缩并发上限
+         */
+        public void release(Throwable error) {
+            if (owner != null && released.compareAndSet(false, true)) {
+                owner.onRelease(this, error);
+            }
+        }
+    }
+
+    private record Waiter(String userId, IntConsumer onQueued, CompletableFuture<Permit> future) {
+
+        void notifyPosition(int position) {
+            if (onQueued != null && !future.isDone()) {
+                try {
+                    onQueued.accept(position);
+                } catch (Exception e) {
+                    log.debug("发送排队位置失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
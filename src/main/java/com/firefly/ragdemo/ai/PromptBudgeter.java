@@ -0,0 +1,184 @@
+package com.firefly.ragdemo.ai;
+
+import com.firefly.ragdemo.config.PromptProperties;
+import com.firefly.ragdemo.dto.ChatRequest;
+import com.firefly.ragdemo.service.Tokenizer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 提示词 token 预算：上下文窗口（模型 contextWindow）扣除回答预留后，依次分配给
+ * 静态系统提示、语言偏好与对话摘要 → 最后一条消息（必须保留，超长时截断）→ 知识库片段（按检索得分顺序，放不下的截断或丢弃）→ 对话历史（从新到旧，放不下即停止）
+ * 计数使用本地分词器，每条消息另计角色等格式开销，与 OpenAI 的计费口径一致
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PromptBudgeter {
+
+    /**
+     * 每条消息的格式开销（角色、分隔符）
+     */
+    static final int MESSAGE_OVERHEAD = 4;
+
+    /**
+     * 回答开头的固定开销
+     */
+    static final int REPLY_PRIMING = 3;
+
+    private final Tokenizer tokenizer;
+    private final PromptProperties properties;
+
+    private volatile int systemPrefixTokens = -1;
+
+    /**
+     * @param contextWindow 模型的上下文窗口
+     * @param langHint  用户指定的语言，可为空
+     * @param summary   早期对话的滚动摘要，可为空，与语言偏好一起优先计入
+     * @param contexts  知识库片段，按得分从高到低
+     * @param history   对话历史，按时间顺序
+     */
+    public BudgetedPrompt budget(int contextWindow, String langHint, String summary, List<String> contexts,
+                                 List<ChatRequest.ChatMessage> history) {
+        int budget = Math.max(contextWindow - properties.getCompletionReserveTokens(), 0);
+        int baseContextTokens = tokenizer.count(PromptLayout.requestContext(langHint, summary, null));
+        int used = REPLY_PRIMING + systemPrefixTokens() + MESSAGE_OVERHEAD + baseContextTokens + MESSAGE_OVERHEAD;
+
+        List<ChatRequest.ChatMessage> window = window(history);
+        ChatRequest.ChatMessage latest = window.isEmpty() ? null : window.get(window.size() - 1);
+        if (latest != null) {
+            int latestTokens = tokenizer.count(latest.getContent());
+            int room = Math.max(budget - used - MESSAGE_OVERHEAD, 0);
+            if (latestTokens > room) {
+                latest = truncated(latest, room);
+                latestTokens = tokenizer.count(latest.getContent());
+                log.info("最后一条消息超出上下文预算，已截断至 {} tokens", latestTokens);
+            }
+            used += latestTokens + MESSAGE_OVERHEAD;
+        }
+
+        List<String> kept = fitContexts(langHint, summary, contexts, baseContextTokens,
+                (int) (Math.max(budget - used, 0) * properties.getContextShare()));
+        if (!kept.isEmpty()) {
+            used += tokenizer.count(PromptLayout.requestContext(langHint, summary, kept)) - baseContextTokens;
+        }
+
+        List<ChatRequest.ChatMessage> keptHistory = new ArrayList<>(window.size());
+        for (int i = window.size() - 2; i >= 0; i--) {
+            int cost = tokenizer.count(window.get(i).getContent()) + MESSAGE_OVERHEAD;
+            if (used + cost > budget) {
+                break;
+            }
+            keptHistory.add(window.get(i));
+            used += cost;
+        }
+        Collections.reverse(keptHistory);
+        if (latest != null) {
+            keptHistory.add(latest);
+        }
+
+        int droppedContexts = (contexts != null ? contexts.size() : 0) - kept.size();
+        int droppedHistory = window.size() - keptHistory.size();
+        if (droppedContexts > 0 || droppedHistory > 0) {
+            log.debug("提示词超出预算 {} tokens：丢弃/截断知识库片段 {} 个，丢弃历史消息 {} 条",
+                    budget, droppedContexts, droppedHistory);
+        }
+        List<PromptMessage> messages = PromptLayout.assemble(langHint, summary, kept, keptHistory, keptHistory.size());
+        return new BudgetedPrompt(messages, count(messages));
+    }
+
+    /**
+     * 消息列表的 token 数（含每条消息的格式开销）
+     */
+    public int count(List<PromptMessage> messages) {
+        int tokens = REPLY_PRIMING;
+        for (PromptMessage message : messages) {
+            tokens += tokenizer.count(message.content()) + MESSAGE_OVERHEAD;
+        }
+        return tokens;
+    }
+
+    /**
+     * 回答文本的 token 数
+     */
+    public int count(String text) {
+        return tokenizer.count(text);
+    }
+
+    /**
+     * 按得分顺序放入片段，第一个放不下的片段截断到剩余预算（不足 minSnippetTokens 时丢弃），其后的片段全部丢弃
+     */
+    private List<String> fitContexts(String langHint, String summary, List<String> contexts,
+                                     int baseContextTokens, int contextBudget) {
+        if (contexts == null || contexts.isEmpty() || contextBudget <= 0) {
+            return List.of();
+        }
+        List<String> kept = new ArrayList<>(contexts.size());
+        int used = 0;
+        for (String context : contexts) {
+            if (context == null || context.isBlank()) {
+                continue;
+            }
+            // 片段标题与分隔符的开销：首个片段另含检索结果的说明行
+            kept.add("");
+            int overhead = tokenizer.count(PromptLayout.requestContext(langHint, summary, kept)) - baseContextTokens - used;
+            kept.remove(kept.size() - 1);
+            int tokens = tokenizer.count(context);
+            if (used + overhead + tokens <= contextBudget) {
+                kept.add(context);
+                used += overhead + tokens;
+                continue;
+            }
+            int room = contextBudget - used - overhead;
+            if (room >= properties.getMinSnippetTokens()) {
+                kept.add(context.substring(0, tokenizer.truncate(context, 0, context.length(), room)));
+            }
+            break;
+        }
+        return kept;
+    }
+
+    private List<ChatRequest.ChatMessage> window(List<ChatRequest.ChatMessage> history) {
+        if (history == null || history.isEmpty()) {
+            return List.of();
+        }
+        List<ChatRequest.ChatMessage> window = new ArrayList<>(Math.min(history.size(), properties.getMaxHistoryMessages()));
+        for (int i = history.size() - 1; i >= 0 && window.size() < properties.getMaxHistoryMessages(); i--) {
+            ChatRequest.ChatMessage message = history.get(i);
+            if (message != null && message.getContent() != null) {
+                window.add(message);
+            }
+        }
+        Collections.reverse(window);
+        return window;
+    }
+
+    private ChatRequest.ChatMessage truncated(ChatRequest.ChatMessage message, int maxTokens) {
+        String content = message.getContent();
+        ChatRequest.ChatMessage copy = new ChatRequest.ChatMessage();
+        copy.setRole(message.getRole());
+        copy.setContent(maxTokens > 0 ? content.substring(0, tokenizer.truncate(content, 0, content.length(), maxTokens)) : "");
+        return copy;
+    }
+
+    private int systemPrefixTokens() {
+        int tokens = systemPrefixTokens;
+        if (tokens < 0) {
+            tokens = tokenizer.count(PromptLayout.SYSTEM_PREFIX);
+            systemPrefixTokens = tokens;
+        }
+        return tokens;
+    }
+
+    /**
+     * @param messages     预算内的消息
+     * @param promptTokens 提示词 token 数
+     */
+    public record BudgetedPrompt(List<PromptMessage> messages, int promptTokens) {
+    }
+}
@@ -0,0 +1,113 @@
+package com.firefly.ragdemo.ai;
+
+import com.firefly.ragdemo.dto.ChatRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对话提示词布局：静态系统提示 → 本次请求的语言偏好、早期对话摘要与知识库片段 → 对话历史（按原角色）
+ * 静态系统提示是类加载时确定的常量，所有请求的消息前缀逐字节相同，OpenAI 兼容接口与 Ollama 的前缀缓存（KV cache）可以命中；
+ * 随请求变化的内容都放在它之后
+ */
+public final class PromptLayout {
+
+    /**
+     * 静态系统提示，不要拼入任何随请求变化的内容
+     */
+    public static final String SYSTEM_PREFIX = "你是一名重庆大学大数据与软件学院的 C++ 与操作系统课程助教（Teaching Assistant，TA）。\n"
+            + "你的目标是帮助学生清晰、高效地理解课程内容，并提供正确、可运行的示例代码。\n\n"
+            + "请严格遵循以下要求：\n"
+            + "- 角色定位：重庆大学大数据与软件学院 C++ 与操作系统课程助教。\n"
+            + "- 回答风格：语言简洁易懂，逻辑清楚，避免不必要的冗余说明,不要长篇大论，尽量简洁，尽量简短。\n"
+            + "- 专业性：解释必须准确；必要时说明时间/空间复杂度及边界条件。\n"
+            + "- 结构化表达：先给出结论，再列出要点或步骤；示例尽量简短直观。\n"
+            + "- 示例代码：默认使用 C++17。\n"
+            + "- 格式规范：严格使用 Markdown；代码块必须以 ```cpp 开头，便于前端识别。\n"
+            + "- 安全与诚信：不编造不存在的库或接口；不确定时请说明限制或先澄清需求。\n"
+            + "- 交互方式：若问题不明确，仅用 1–2 句提出澄清问题后再继续回答。\n"
+            + "- 知识库片段：如随后提供了检索结果，仅作参考，请结合对话与题意回答最后一条用户消息。";
+
+    private static final String DEFAULT_LANGUAGE = "- 回答语言：使用简体中文。";
+    private static final String LANGUAGE_PREFIX = "- 回答语言：优先使用简体中文；如用户指定 '";
+    private static final String LANGUAGE_SUFFIX = "' 或上下文明确要求其它语言，则遵循用户偏好。";
+    private static final String SUMMARY_HEADER = "\n\n[此前对话摘要，之后的消息接续这段对话]\n";
+    private static final String CONTEXT_HEADER = "\n\n[知识库检索结果，仅作参考，请结合对话与题意作答]\n";
+    private static final String SNIPPET_PREFIX = "# 片段";
+
+    private PromptLayout() {
+    }
+
+    /**
+     * @param langHint   用户指定的语言，可为空
+     * @param contexts   检索到的知识库片段，可为空
+     * @param history    对话历史，按时间顺序
+     * @param maxHistory 最多保留的历史消息数
+     */
+    public static List<PromptMessage> assemble(String langHint, List<String> contexts,
+                                               List<ChatRequest.ChatMessage> history, int maxHistory) {
+        return assemble(langHint, null, contexts, history, maxHistory);
+    }
+
+    /**
+     * @param langHint   用户指定的语言，可为空
+     * @param summary    早期对话的滚动摘要，可为空；history 只需包含摘要之后的消息
+     * @param contexts   检索到的知识库片段，可为空
+     * @param history    对话历史，按时间顺序
+     * @param maxHistory 最多保留的历史消息数
+     */
+    public static List<PromptMessage> assemble(String langHint, String summary, List<String> contexts,
+                                               List<ChatRequest.ChatMessage> history, int maxHistory) {
+        int from = history != null ? Math.max(0, history.size() - maxHistory) : 0;
+        int historySize = history != null ? history.size() - from : 0;
+        List<PromptMessage> messages = new ArrayList<>(historySize + 2);
+        messages.add(PromptMessage.system(SYSTEM_PREFIX));
+        messages.add(PromptMessage.system(requestContext(langHint, summary, contexts)));
+        for (int i = from; history != null && i < history.size(); i++) {
+            ChatRequest.ChatMessage message = history.get(i);
+            if (message == null || message.getContent() == null) {
+                continue;
+            }
+            // 客户端传来的 system 等其它角色一律按用户消息处理，不允许覆盖系统提示
+            messages.add("assistant".equalsIgnoreCase(message.getRole())
+                    ? PromptMessage.assistant(message.getContent())
+                    : PromptMessage.user(message.getContent()));
+        }
+        return messages;
+    }
+
+    /**
+     * 语言偏好、对话摘要与知识库片段，按最终长度一次分配缓冲区
+     */
+    static String requestContext(String langHint, String summary, List<String> contexts) {
+        boolean hasLang = langHint != null && !langHint.isBlank();
+        boolean hasSummary = summary != null && !summary.isBlank();
+        int capacity = hasLang ? LANGUAGE_PREFIX.length() + langHint.length() + LANGUAGE_SUFFIX.length()
+                : DEFAULT_LANGUAGE.length();
+        if (hasSummary) {
+            capacity += SUMMARY_HEADER.length() + summary.length();
+        }
+        if (contexts != null && !contexts.isEmpty()) {
+            capacity += CONTEXT_HEADER.length();
+            for (String context : contexts) {
+                capacity += SNIPPET_PREFIX.length() + 5 + (context != null ? context.length() : 0);
+            }
+        }
+        StringBuilder sb = new StringBuilder(capacity);
+        if (hasLang) {
+            sb.append(LANGUAGE_PREFIX).append(langHint).append(LANGUAGE_SUFFIX);
+        } else {
+            sb.append(DEFAULT_LANGUAGE);
+        }
+        if (hasSummary) {
+            sb.append(SUMMARY_HEADER).append(summary);
+        }
+        if (contexts != null && !contexts.isEmpty()) {
+            sb.append(CONTEXT_HEADER);
+            for (int i = 0; i < contexts.size(); i++) {
+                sb.append(SNIPPET_PREFIX).append(i + 1).append('\n').append(contexts.get(i)).append("\n\n");
+            }
+        }
+        return sb.toString();
+    }
+}
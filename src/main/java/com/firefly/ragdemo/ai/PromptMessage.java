@@ -0,0 +1,36 @@
+package com.firefly.ragdemo.ai;
+
+/**
+ * 按角色区分的提示词消息，对应 OpenAI / Ollama chat 接口的 messages 数组元素
+ */
+public record PromptMessage(Role role, String content) {
+
+    public enum Role {
+        SYSTEM("system"), USER("user"), ASSISTANT("assistant");
+
+        private final String value;
+
+        Role(String value) {
+            this.value = value;
+        }
+
+        /**
+         * 接口中使用的角色名
+         */
+        public String value() {
+            return value;
+        }
+    }
+
+    public static PromptMessage system(String content) {
+        return new PromptMessage(Role.SYSTEM, content);
+    }
+
+    public static PromptMessage user(String content) {
+        return new PromptMessage(Role.USER, content);
+    }
+
+    public static PromptMessage assistant(String content) {
+        return new PromptMessage(Role.ASSISTANT, content);
+    }
+}
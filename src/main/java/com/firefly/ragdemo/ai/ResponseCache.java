@@ -0,0 +1,166 @@
+package com.firefly.ragdemo.ai;
+
+import com.firefly.ragdemo.config.LlmCacheProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * 模型回答缓存：按完整提示词 + 模型名 + 温度精确匹配
+ * - 已完成的回答保存在 Redis（rag:llm:cache:{sha256}），带 TTL，多个实例共享
+ * - 正在生成的请求登记在本地（single-flight）：相同的流式请求订阅同一个上游 Flux（replay() 回放已输出的片段），
+ *   相同的同步请求等待同一次调用；上游出错时不缓存，所有等待者收到同一个错误
+ * - 按订阅者计数共享上游：所有订阅者都取消后立即取消上游，不再占用模型并发
+ * 课堂上多名学生同时提交相同问题时只调用一次模型
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ResponseCache {
+
+    private static final String KEY_PREFIX = "rag:llm:cache:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final LlmCacheProperties properties;
+
+    private final ConcurrentMap<String, CompletableFuture<String>> calls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Flux<String>> streams = new ConcurrentHashMap<>();
+
+    /**
+     * 同步调用：缓存命中直接返回；相同请求正在生成时等待其结果
+     */
+    public String call(AIHelper helper, List<PromptMessage> messages) {
+        if (!properties.isEnabled()) {
+            return helper.call(messages);
+        }
+        String key = key(helper.getModelName(), helper.getTemperature(), messages);
+        String cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        Flux<String> streaming = streams.get(key);
+        if (streaming != null) {
+            return streaming.collect(Collectors.joining()).block();
+        }
+        CompletableFuture<String> flight = new CompletableFuture<>();
+        CompletableFuture<String> existing = calls.putIfAbsent(key, flight);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            String content = helper.call(messages);
+            store(key, content);
+            flight.complete(content);
+            return content;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, flight);
+        }
+    }
+
+    /**
+     * 流式调用：缓存命中时一次输出完整回答；相同请求正在生成时加入同一个上游，先回放已生成的片段
+     *
+     * @param onUpstreamToken 上游（真正的模型调用）每输出一个片段时回调，只挂在发起调用的请求上；
+     *                        缓存命中与加入他人调用时不回调，首 token 延迟样本只来自真实的模型调用
+     */
+    public Flux<String> stream(AIHelper helper, List<PromptMessage> messages, Runnable onUpstreamToken) {
+        if (!properties.isEnabled()) {
+            return helper.stream(messages).doOnNext(chunk -> onUpstreamToken.run());
+        }
+        String key = key(helper.getModelName(), helper.getTemperature(), messages);
+        return Flux.defer(() -> {
+            String cached = lookup(key);
+            if (cached != null) {
+                return Flux.just(cached);
+            }
+            return streams.computeIfAbsent(key,
+                    k -> share(k, helper.stream(messages).doOnNext(chunk -> onUpstreamToken.run())));
+        });
+    }
+
+    /**
+     * 共享上游：所有片段拼接后在完成时写入缓存，结束（含出错、全部订阅者取消）后从登记表移除；
+     * 拼接状态按每次连接新建，取消后被重新订阅时不会混入上一次的片段
+     */
+    private Flux<String> share(String key, Flux<String> upstream) {
+        return Flux.defer(() -> {
+                    StringBuilder content = new StringBuilder();
+                    return upstream
+                            .doOnNext(content::append)
+                            .doOnComplete(() -> store(key, content.toString()));
+                })
+                .doFinally(signal -> streams.remove(key))
+                .replay()
+                .refCount();
+    }
+
+    /**
+     * 请求键：模型名、温度与按角色区分的全部消息；字段之间用不会出现在文本中的分隔符隔开
+     */
+    static String key(String modelName, double temperature, List<PromptMessage> messages) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((modelName + '\u0000' + temperature + '\u0000').getBytes(StandardCharsets.UTF_8));
+            for (PromptMessage message : messages) {
+                digest.update(message.role().value().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                if (message.content() != null) {
+                    digest.update(message.content().getBytes(StandardCharsets.UTF_8));
+                }
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private String lookup(String key) {
+        try {
+            return stringRedisTemplate.opsForValue().get(KEY_PREFIX + key);
+        } catch (Exception e) {
+            log.warn("读取回答缓存失败，直接调用模型: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void store(String key, String content) {
+        if (content == null || content.isEmpty() || content.length() > properties.getMaxEntryChars()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForValue().set(KEY_PREFIX + key, content,
+                    Duration.ofSeconds(Math.max(properties.getTtlSeconds(), 1)));
+        } catch (Exception e) {
+            log.warn("写入回答缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private static String await(CompletableFuture<String> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
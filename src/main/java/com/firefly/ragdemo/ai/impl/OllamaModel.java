@@ -2,17 +2,20 @@ package com.firefly.ragdemo.ai.impl;
 
 import com.firefly.ragdemo.ai.AIModel;
 import com.firefly.ragdemo.ai.AIModelConfig;
+import com.firefly.ragdemo.ai.PromptMessage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Ollama本地模型实现
- * 通过Ollama API调用本地部署的大语言模型
+ * 通过Ollama /api/chat 接口调用本地部署的大语言模型，消息按角色发送；
+ * 静态系统提示在最前且逐字节不变，Ollama 可以复用上次请求已计算的前缀 KV cache
  */
 @Slf4j
 public class OllamaModel implements AIModel {
@@ -35,29 +38,27 @@ public class OllamaModel implements AIModel {
     }
 
     @Override
-    public String call(String prompt) {
-        try {
-            Map<String, Object> request = Map.of(
-                    "model", config.getModelName(),
-                    "prompt", prompt,
-                    "stream", false,
-                    "options", Map.of(
-                            "temperature", config.getTemperature()
-                    )
-            );
+    public int getContextWindow() {
+        return config.getContextWindow();
+    }
 
+    @Override
+    public double getTemperature() {
+        return config.getTemperature();
+    }
+
+    @Override
+    public String call(List<PromptMessage> messages) {
+        try {
             Map<?, ?> response = webClient.post()
-                    .uri("/api/generate")
+                    .uri("/api/chat")
                     .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(request)
+                    .bodyValue(chatRequest(messages, false))
                     .retrieve()
                     .bodyToMono(Map.class)
                     .block();
 
-            if (response != null && response.containsKey("response")) {
-                return (String) response.get("response");
-            }
-            return "";
+            return response != null ? content(response) : "";
         } catch (Exception e) {
             log.error("Ollama API调用失败: {}", e.getMessage());
             throw new RuntimeException("Ollama调用失败: " + e.getMessage(), e);
@@ -65,27 +66,15 @@ public class OllamaModel implements AIModel {
     }
 
     @Override
-    public Flux<String> stream(String prompt) {
+    public Flux<String> stream(List<PromptMessage> messages) {
         try {
-            Map<String, Object> request = Map.of(
-                    "model", config.getModelName(),
-                    "prompt", prompt,
-                    "stream", true,
-                    "options", Map.of(
-                            "temperature", config.getTemperature()
-                    )
-            );
-
             return webClient.post()
-                    .uri("/api/generate")
+                    .uri("/api/chat")
                     .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(request)
+                    .bodyValue(chatRequest(messages, true))
                     .retrieve()
                     .bodyToFlux(Map.class)
-                    .map(chunk -> {
-                        Object response = chunk.get("response");
-                        return response != null ? response.toString() : "";
-                    })
+                    .map(this::content)
                     .filter(content -> !content.isEmpty());
         } catch (Exception e) {
             log.error("Ollama API流式调用失败: {}", e.getMessage());
@@ -93,6 +82,31 @@ public class OllamaModel implements AIModel {
         }
     }
 
+    private Map<String, Object> chatRequest(List<PromptMessage> messages, boolean stream) {
+        List<Map<String, String>> body = new ArrayList<>(messages.size());
+        for (PromptMessage message : messages) {
+            body.add(Map.of("role", message.role().value(), "content", message.content()));
+        }
+        return Map.of(
+                "model", config.getModelName(),
+                "messages", body,
+                "stream", stream,
+                "options", Map.of(
+                        "temperature", config.getTemperature()
+                )
+        );
+    }
+
+    /**
+     * /api/chat 的响应（流式时为每一行）中 message.content 为生成的文本
+     */
+    private String content(Map<?, ?> chunk) {
+        if (chunk.get("message") instanceof Map<?, ?> message && message.get("content") != null) {
+            return message.get("content").toString();
+        }
+        return "";
+    }
+
     @Override
     public boolean isAvailable() {
         try {
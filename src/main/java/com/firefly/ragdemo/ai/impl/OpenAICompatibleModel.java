@@ -2,13 +2,29 @@ package com.firefly.ragdemo.ai.impl;
 
 import com.firefly.ragdemo.ai.AIModel;
 import com.firefly.ragdemo.ai.AIModelConfig;
+import com.firefly.ragdemo.ai.PromptMessage;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.retry.RetryUtils;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.util.StringUtils;
 import reactor.core.publisher.Flux;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * OpenAI兼容API模型实现
  * 支持OpenAI官方API及其兼容API（如DeepSeek、Claude等）
+ * 配置了 baseUrl 或 apiKey 时使用独立的客户端（按配置的模型名与温度请求），否则使用 spring.ai.openai 的默认客户端
  */
 @Slf4j
 public class OpenAICompatibleModel implements AIModel {
@@ -16,9 +32,9 @@ public class OpenAICompatibleModel implements AIModel {
     private final AIModelConfig config;
     private final OpenAiChatModel chatModel;
 
-    public OpenAICompatibleModel(AIModelConfig config, OpenAiChatModel chatModel) {
+    public OpenAICompatibleModel(AIModelConfig config, OpenAiChatModel defaultChatModel) {
         this.config = config;
-        this.chatModel = chatModel;
+        this.chatModel = hasOwnEndpoint(config) ? dedicatedChatModel(config) : defaultChatModel;
         log.info("初始化OpenAI兼容模型: {} (baseUrl: {})", config.getModelName(), config.getBaseUrl());
     }
 
@@ -28,9 +44,19 @@ public class OpenAICompatibleModel implements AIModel {
     }
 
     @Override
-    public String call(String prompt) {
+    public int getContextWindow() {
+        return config.getContextWindow();
+    }
+
+    @Override
+    public double getTemperature() {
+        return config.getTemperature();
+    }
+
+    @Override
+    public String call(List<PromptMessage> messages) {
         try {
-            return chatModel.call(prompt);
+            return text(chatModel.call(toPrompt(messages)));
         } catch (Exception e) {
             log.error("OpenAI API调用失败: {}", e.getMessage());
             throw new RuntimeException("AI调用失败: " + e.getMessage(), e);
@@ -38,10 +64,10 @@ public class OpenAICompatibleModel implements AIModel {
     }
 
     @Override
-    public Flux<String> stream(String prompt) {
+    public Flux<String> stream(List<PromptMessage> messages) {
         try {
-            return chatModel.stream(prompt)
-                    .map(chunk -> chunk != null ? chunk : "")
+            return chatModel.stream(toPrompt(messages))
+                    .map(this::text)
                     .filter(content -> !content.isEmpty());
         } catch (Exception e) {
             log.error("OpenAI API流式调用失败: {}", e.getMessage());
@@ -49,6 +75,52 @@ public class OpenAICompatibleModel implements AIModel {
         }
     }
 
+    private static boolean hasOwnEndpoint(AIModelConfig config) {
+        return StringUtils.hasText(config.getBaseUrl()) || StringUtils.hasText(config.getApiKey());
+    }
+
+    private static OpenAiChatModel dedicatedChatModel(AIModelConfig config) {
+        OpenAiApi.Builder api = OpenAiApi.builder()
+                // 本地部署的兼容服务（vLLM 等）通常不校验密钥
+                .apiKey(StringUtils.hasText(config.getApiKey()) ? config.getApiKey() : "none");
+        if (StringUtils.hasText(config.getBaseUrl())) {
+            api.baseUrl(config.getBaseUrl());
+        }
+        return OpenAiChatModel.builder()
+                .openAiApi(api.build())
+                .defaultOptions(OpenAiChatOptions.builder()
+                        .model(config.getModelName())
+                        .temperature(config.getTemperature())
+                        .build())
+                .retryTemplate(config.isRetryEnabled()
+                        ? RetryUtils.DEFAULT_RETRY_TEMPLATE
+                        : RetryTemplate.builder().maxAttempts(1).build())
+                .build();
+    }
+
+    /**
+     * 按角色映射为 Spring AI 消息，保持原有顺序（静态系统提示在最前，便于命中前缀缓存）
+     */
+    private Prompt toPrompt(List<PromptMessage> messages) {
+        List<Message> converted = new ArrayList<>(messages.size());
+        for (PromptMessage message : messages) {
+            converted.add(switch (message.role()) {
+                case SYSTEM -> new SystemMessage(message.content());
+                case ASSISTANT -> new AssistantMessage(message.content());
+                case USER -> new UserMessage(message.content());
+            });
+        }
+        return new Prompt(converted);
+    }
+
+    private String text(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        String text = response.getResult().getOutput().getText();
+        return text != null ? text : "";
+    }
+
     @Override
     public boolean isAvailable() {
         return chatModel != null && config.getApiKey() != null;
@@ -0,0 +1,374 @@
+package com.firefly.ragdemo.ai.impl;
+
+import com.firefly.ragdemo.ai.AIModel;
+import com.firefly.ragdemo.ai.PromptMessage;
+import com.firefly.ragdemo.config.LlmRouterProperties;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 多后端路由模型：持有一组模型后端（多个 API Key、多个兼容服务或本地 Ollama），每次请求选择得分最低的后端
+ * - 得分 = EWMA 延迟 ×（在途请求数 + 1）+ EWMA 错误率 × errorPenaltyMs；同步调用用总耗时，流式调用用首 token 延迟，未采样的后端优先试用
+ * - 每个后端有并发上限；连续失败达到 failureThreshold 次后暂停使用 cooldownMs
+ * - 同步调用超过首选后端延迟的高分位估计（EWMA 均值 + k × EWMA 平均偏差）未返回时向另一个后端发出对冲请求，
+ *   先成功的结果生效，落败的请求被取消并中断调用线程；失败时换下一个后端
+ * - 流式调用在收到首个片段前出错或超过 firstTokenTimeoutMs 时切换到下一个后端，已输出片段后不再切换
+ */
+@Slf4j
+public class RoutingModel implements AIModel {
+
+    private static final ExecutorService CALL_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setName("llm-router-" + thread.getId());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Backend> backends;
+    private final LlmRouterProperties properties;
+    private final String modelName;
+
+    public RoutingModel(List<Route> routes, LlmRouterProperties properties) {
+        if (routes.isEmpty()) {
+            throw new IllegalArgumentException("路由模型至少需要一个后端");
+        }
+        this.backends = routes.stream().map(Backend::new).toList();
+        this.properties = properties;
+        this.modelName = "router:" + routes.stream()
+                .map(route -> route.model().getModelName())
+                .collect(Collectors.joining(","));
+        log.info("初始化路由模型: {} 个后端 {}", backends.size(), modelName);
+    }
+
+    @Override
+    public String getModelName() {
+        return modelName;
+    }
+
+    /**
+     * 取各后端上下文窗口的最小值，保证提示词可以发往任一后端
+     */
+    @Override
+    public int getContextWindow() {
+        return backends.stream().mapToInt(backend -> backend.model.getContextWindow()).min().getAsInt();
+    }
+
+    @Override
+    public double getTemperature() {
+        return backends.get(0).model.getTemperature();
+    }
+
+    @Override
+    public String call(List<PromptMessage> messages) {
+        Set<Backend> tried = new HashSet<>();
+        List<Call> running = new ArrayList<>(2);
+        Throwable lastError = null;
+        boolean hedged = properties.getHedgeDelayMs() <= 0;
+        long hedgeDelayMs = 0;
+        while (true) {
+            if (running.isEmpty()) {
+                Backend backend = acquire(tried, false);
+                if (backend == null) {
+                    throw failure(lastError);
+                }
+                hedgeDelayMs = backend.hedgeDelayMs();
+                running.add(submit(backend, messages));
+            }
+            CompletableFuture<Object> any = CompletableFuture.anyOf(running.stream()
+                    .map(Call::settled).toArray(CompletableFuture[]::new));
+            try {
+                if (hedged) {
+                    any.join();
+                } else {
+                    any.get(hedgeDelayMs, TimeUnit.MILLISECONDS);
+                }
+            } catch (TimeoutException e) {
+                hedged = true;
+                Backend hedge = acquire(tried, false);
+                if (hedge != null) {
+                    log.debug("同步调用超过 {} ms 未返回，向 {} 发出对冲请求", hedgeDelayMs, hedge.model.getModelName());
+                    running.add(submit(hedge, messages));
+                }
+                continue;
+            } catch (InterruptedException e) {
+                running.forEach(Call::cancel);
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("AI调用被中断", e);
+            } catch (ExecutionException | CompletionException ignored) {
+                // 失败的请求在下面逐个处理
+            }
+            Iterator<Call> it = running.iterator();
+            while (it.hasNext()) {
+                Call call = it.next();
+                if (!call.settled().isDone()) {
+                    continue;
+                }
+                if (!call.settled().isCompletedExceptionally()) {
+                    // 取消仍在执行的对冲请求，释放其后端并发与调用线程
+                    running.stream().filter(other -> other != call).forEach(Call::cancel);
+                    return call.settled().join();
+                }
+                lastError = cause(call.settled());
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public Flux<String> stream(List<PromptMessage> messages) {
+        return Flux.defer(() -> streamFrom(messages, new HashSet<>(), null));
+    }
+
+    @Override
+    public boolean isAvailable() {
+        long now = System.currentTimeMillis();
+        return backends.stream().anyMatch(backend -> backend.available(now));
+    }
+
+    private Flux<String> streamFrom(List<PromptMessage> messages, Set<Backend> tried, Throwable lastError) {
+        Backend backend = acquire(tried, true);
+        if (backend == null) {
+            return Flux.error(failure(lastError));
+        }
+        long startedAt = System.nanoTime();
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                backend.release();
+            }
+        };
+        Flux<String> upstream = backend.model.stream(messages);
+        if (properties.getFirstTokenTimeoutMs() > 0) {
+            upstream = upstream.timeout(Mono.delay(Duration.ofMillis(properties.getFirstTokenTimeoutMs())),
+                    chunk -> Flux.never());
+        }
+        return upstream
+                .doOnNext(chunk -> {
+                    if (started.compareAndSet(false, true)) {
+                        backend.recordSuccess(elapsedMs(startedAt), true);
+                    }
+                })
+                .doFinally(signal -> release.run())
+                .onErrorResume(error -> {
+                    release.run();
+                    backend.recordFailure();
+                    if (started.get()) {
+                        return Flux.error(error);
+                    }
+                    log.warn("模型后端 {} 在首个片段前失败，切换后端: {}", backend.model.getModelName(), error.getMessage());
+                    return streamFrom(messages, tried, error);
+                });
+    }
+
+    private Call submit(Backend backend, List<PromptMessage> messages) {
+        long startedAt = System.nanoTime();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        // 等待方看到结果时并发已归还、延迟已记录
+        CompletableFuture<String> settled = result.whenComplete((content, error) -> {
+            backend.release();
+            if (error == null) {
+                backend.recordSuccess(elapsedMs(startedAt), false);
+            } else if (error instanceof CancellationException) {
+                backend.recordCancelled(elapsedMs(startedAt));
+            } else {
+                backend.recordFailure();
+                log.warn("模型后端 {} 调用失败: {}", backend.model.getModelName(), cause(error).getMessage());
+            }
+        });
+        Future<?> task = CALL_EXECUTOR.submit(() -> {
+            try {
+                result.complete(backend.model.call(messages));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return new Call(result, settled, task);
+    }
+
+    /**
+     * 选择未尝试过、未暂停且有空闲并发的得分最低的后端并占用一个并发
+     *
+     * @return 没有可用后端时为 null
+     */
+    private Backend acquire(Set<Backend> tried, boolean streaming) {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Backend best = null;
+            double bestScore = Double.MAX_VALUE;
+            for (Backend backend : backends) {
+                if (tried.contains(backend) || !backend.available(now)) {
+                    continue;
+                }
+                double score = backend.score(streaming);
+                if (score < bestScore) {
+                    best = backend;
+                    bestScore = score;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            if (best.tryAcquire()) {
+                tried.add(best);
+                return best;
+            }
+        }
+    }
+
+    private static RuntimeException failure(Throwable lastError) {
+        if (lastError == null) {
+            return new RuntimeException("AI调用失败: 模型后端均已满载或暂停使用");
+        }
+        return new RuntimeException("AI调用失败: 所有模型后端均出错: " + lastError.getMessage(), lastError);
+    }
+
+    private static Throwable cause(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return null;
+        } catch (CompletionException e) {
+            return cause(e);
+        }
+    }
+
+    private static Throwable cause(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static long elapsedMs(long startedAt) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    /**
+     * 一次同步调用：result 由调用线程完成，settled 在归还并发、记录延迟之后完成；cancel 结束等待并中断调用线程
+     */
+    private record Call(CompletableFuture<String> result, CompletableFuture<String> settled, Future<?> task) {
+
+        void cancel() {
+            result.cancel(false);
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * @param maxConcurrency 该后端同时处理的请求数上限
+     */
+    public record Route(AIModel model, int maxConcurrency) {
+    }
+
+    private final class Backend {
+
+        private final AIModel model;
+        private final int maxConcurrency;
+
+        private int inFlight;
+        private double callLatencyMs = -1;
+        private double callDeviationMs;
+        private double firstTokenMs = -1;
+        private double errorRate;
+        private int consecutiveFailures;
+        private long pausedUntil;
+
+        private Backend(Route route) {
+            this.model = route.model();
+            this.maxConcurrency = Math.max(route.maxConcurrency(), 1);
+        }
+
+        synchronized boolean available(long now) {
+            return inFlight < maxConcurrency && now >= pausedUntil;
+        }
+
+        synchronized boolean tryAcquire() {
+            if (inFlight >= maxConcurrency) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+
+        synchronized void release() {
+            inFlight--;
+        }
+
+        /**
+         * 未采样的后端延迟按 0 计，优先获得样本；同分时在途请求少的优先
+         */
+        synchronized double score(boolean streaming) {
+            double latency = Math.max(streaming ? firstTokenMs : callLatencyMs, 0);
+            return latency * (inFlight + 1) + errorRate * properties.getErrorPenaltyMs() + inFlight;
+        }
+
+        /**
+         * 同步调用的对冲等待：EWMA 均值 + k × EWMA 平均偏差，近似延迟的高分位；尚无样本时用配置的 hedgeDelayMs
+         */
+        synchronized long hedgeDelayMs() {
+            if (callLatencyMs < 0) {
+                return properties.getHedgeDelayMs();
+            }
+            return Math.max(Math.round(callLatencyMs + properties.getHedgeDeviationFactor() * callDeviationMs), 1);
+        }
+
+        synchronized void recordSuccess(long latencyMs, boolean firstToken) {
+            double alpha = properties.getEwmaAlpha();
+            if (firstToken) {
+                firstTokenMs = firstTokenMs < 0 ? latencyMs : firstTokenMs + alpha * (latencyMs - firstTokenMs);
+            } else {
+                sampleCallLatency(latencyMs);
+            }
+            errorRate *= 1 - alpha;
+            consecutiveFailures = 0;
+        }
+
+        /**
+         * 对冲落败被取消：已耗时是实际延迟的下界，只在高于当前均值时计入，避免慢后端因总被取消而一直显得很快
+         */
+        synchronized void recordCancelled(long elapsedMs) {
+            if (elapsedMs > callLatencyMs) {
+                sampleCallLatency(elapsedMs);
+            }
+        }
+
+        /**
+         * 首个样本的偏差取延迟的一半，之后按 |样本 - 均值| 做 EWMA（与 TCP 估算重传超时的方式相同）
+         */
+        private void sampleCallLatency(long latencyMs) {
+            double alpha = properties.getEwmaAlpha();
+            if (callLatencyMs < 0) {
+                callLatencyMs = latencyMs;
+                callDeviationMs = latencyMs / 2.0;
+            } else {
+                callDeviationMs += alpha * (Math.abs(latencyMs - callLatencyMs) - callDeviationMs);
+                callLatencyMs += alpha * (latencyMs - callLatencyMs);
+            }
+        }
+
+        synchronized void recordFailure() {
+            errorRate += properties.getEwmaAlpha() * (1 - errorRate);
+            if (++consecutiveFailures >= properties.getFailureThreshold()) {
+                pausedUntil = System.currentTimeMillis() + properties.getCooldownMs();
+                log.warn("模型后端 {} 连续失败 {} 次，暂停使用 {} ms", model.getModelName(), consecutiveFailures,
+                        properties.getCooldownMs());
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 模型调用准入控制配置
+ * 全局并发上限在 [minLimit, maxLimit] 之间按观测到的首 token 延迟自适应（AIMD）：
+ * 首 token 延迟正常时每次加 1/limit，延迟超过 latencyThresholdMs 或上游返回限流/超时时乘以 backoffRatio
+ */
+@Data
+@ConfigurationProperties(prefix = "app.admission")
+public class AdmissionProperties {
+
+    private boolean enabled = true;
+
+    private int initialLimit = 16;
+
+    private int minLimit = 2;
+
+    private int maxLimit = 64;
+
+    /**
+     * 单个用户同时进行的模型调用数
+     */
+    private int perUserLimit = 2;
+
+    /**
+     * 单个用户最多排队的请求数，超出时立即拒绝
+     */
+    private int perUserQueue = 3;
+
+    /**
+     * 全局排队上限，超出时立即拒绝
+     */
+    private int maxQueue = 200;
+
+    /**
+     * 排队最长等待（毫秒），超时后拒绝
+     */
+    private long maxWaitMs = 30000;
+
+    /**
+     * 流式调用的首 token 延迟超过该值视为上游过载；同步调用的总耗时随输出长度变化，不与该值比较
+     */
+    private long latencyThresholdMs = 8000;
+
+    private double backoffRatio = 0.7;
+}
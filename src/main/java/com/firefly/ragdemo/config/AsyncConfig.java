@@ -1,6 +1,7 @@
 package com.firefly.ragdemo.config;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -15,28 +16,31 @@ import java.util.concurrent.ThreadPoolExecutor;
  */
 @Configuration
 @EnableAsync
+@EnableConfigurationProperties({IndexingProperties.class, BulkIngestProperties.class, UploadProperties.class,
+        ChunkStoreProperties.class, EmbeddingProperties.class, RetrievalProperties.class, PromptProperties.class,
+        ChatSummaryProperties.class, ChatHistoryProperties.class, LlmCacheProperties.class,
+        AdmissionProperties.class, LlmRouterProperties.class})
 @Slf4j
 public class AsyncConfig {
 
     /**
      * RAG文件索引专用线程池
-     * - 核心线程数: 2 (处理日常文件上传)
-     * - 最大线程数: 5 (高峰期扩容)
-     * - 队列容量: 100 (超过100个任务会触发拒绝策略)
-     * - 拒绝策略: CallerRunsPolicy (由调用线程执行，防止任务丢失)
+     * - 线程数: app.indexing.workers (核心 = 最大，固定大小)
+     * - 队列: 只存放"取任务令牌"，令牌数与 IndexingScheduler 中排队的任务数一致，
+     *   任务容量由 IndexingScheduler 按队列/用户限制，超出时显式拒绝
+     * - 拒绝策略: AbortPolicy (不在提交线程上执行索引)
      */
     @Bean(name = "ragIndexExecutor")
-    public Executor ragIndexExecutor() {
+    public Executor ragIndexExecutor(IndexingProperties indexingProperties) {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
 
+        int workers = Math.max(indexingProperties.getWorkers(), 1);
+
         // 核心线程数
-        executor.setCorePoolSize(2);
+        executor.setCorePoolSize(workers);
 
         // 最大线程数
-        executor.setMaxPoolSize(5);
-
-        // 队列容量
-        executor.setQueueCapacity(100);
+        executor.setMaxPoolSize(workers);
 
         // 线程名称前缀
         executor.setThreadNamePrefix("rag-index-");
@@ -44,8 +48,8 @@ public class AsyncConfig {
         // 线程空闲时间(秒)
         executor.setKeepAliveSeconds(60);
 
-        // 拒绝策略: 由调用线程执行
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        // 拒绝策略: 直接抛出，由调度器标记拒绝
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
 
         // 等待所有任务完成后关闭线程池
         executor.setWaitForTasksToCompleteOnShutdown(true);
@@ -56,9 +60,78 @@ public class AsyncConfig {
         // 初始化
         executor.initialize();
 
-        log.info("RAG索引线程池初始化完成: corePoolSize={}, maxPoolSize={}, queueCapacity={}",
-                executor.getCorePoolSize(), executor.getMaxPoolSize(), executor.getQueueCapacity());
+        log.info("RAG索引线程池初始化完成: workers={}, interactiveCapacity={}, bulkCapacity={}",
+                workers, indexingProperties.getInteractive().getCapacity(), indexingProperties.getBulk().getCapacity());
+
+        return executor;
+    }
 
+    /**
+     * 目录批量导入线程池
+     * - 线程数: app.bulk-ingest.workers
+     * - 队列: 有界，队列满时由遍历目录的调用线程自己执行，形成背压，避免一次性堆积全部文件
+     */
+    @Bean(name = "bulkIngestExecutor")
+    public Executor bulkIngestExecutor(BulkIngestProperties bulkIngestProperties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        int workers = Math.max(bulkIngestProperties.getWorkers(), 1);
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(workers * 4);
+        executor.setThreadNamePrefix("bulk-ingest-");
+        executor.setKeepAliveSeconds(60);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 删除文件/知识库后的后台清理线程池：单线程顺序执行，避免大批量 UNLINK 挤占 Redis
+     * 任务丢失（如进程退出）不影响正确性，墓碑标记仍在，由 ChunkGarbageCollector 定时补做
+     */
+    @Bean(name = "chunkGcExecutor")
+    public Executor chunkGcExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("chunk-gc-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 向量空间迁移线程池：单线程，迁移本身按 app.embedding.migration 限速，不与索引线程池争抢
+     */
+    @Bean(name = "embeddingMigrationExecutor")
+    public Executor embeddingMigrationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(1);
+        executor.setThreadNamePrefix("embedding-migration-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 会话摘要线程池：摘要在回复持久化之后生成，不在请求路径上；队列满时丢弃，下次持久化时会重新检查
+     */
+    @Bean(name = "chatSummaryExecutor")
+    public Executor chatSummaryExecutor(ChatSummaryProperties chatSummaryProperties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        int workers = Math.max(chatSummaryProperties.getWorkers(), 1);
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix("chat-summary-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
         return executor;
     }
 }
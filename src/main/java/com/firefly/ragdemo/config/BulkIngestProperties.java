@@ -0,0 +1,32 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 目录/归档批量导入配置
+ */
+@Data
+@ConfigurationProperties(prefix = "app.bulk-ingest")
+public class BulkIngestProperties {
+
+    /**
+     * 并行导入文件的工作线程数
+     */
+    private int workers = 4;
+
+    /**
+     * uploaded_files 多行插入的批大小，每批插入后提交对应的索引任务
+     */
+    private int batchSize = 200;
+
+    /**
+     * 遍历目录时是否跟随符号链接
+     */
+    private boolean followLinks = false;
+
+    /**
+     * 单个归档最多处理的条目数，超出部分不再读取（防止条目数异常的压缩炸弹）
+     */
+    private int maxArchiveEntries = 10000;
+}
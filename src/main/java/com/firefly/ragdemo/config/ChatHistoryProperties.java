@@ -0,0 +1,23 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 会话最近消息窗口（Redis）配置
+ * 回复完成时追加到窗口，客户端只需发送新消息与 sessionId；窗口过期或不存在时从 MySQL 预热
+ */
+@Data
+@ConfigurationProperties(prefix = "app.chat.history")
+public class ChatHistoryProperties {
+
+    /**
+     * 窗口保留的最近消息数，应不小于 app.prompt.max-history-messages
+     */
+    private int windowMessages = 40;
+
+    /**
+     * 窗口的空闲过期时间（分钟），每次追加时顺延
+     */
+    private long ttlMinutes = 720;
+}
@@ -0,0 +1,38 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 会话滚动摘要配置
+ * 未摘要的消息超过 triggerTokens 时，把除最近 keepRecentMessages 条之外的消息与已有摘要一起折叠成新摘要；
+ * 每次只处理新增的消息，不会从头重新摘要
+ */
+@Data
+@ConfigurationProperties(prefix = "app.chat.summary")
+public class ChatSummaryProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * 未摘要消息的 token 数超过该值时触发折叠
+     */
+    private int triggerTokens = 3000;
+
+    /**
+     * 折叠时保留原文的最近消息数
+     */
+    private int keepRecentMessages = 6;
+
+    /**
+     * 单次最多折叠的消息数，积压更多时分多次完成
+     */
+    private int maxFoldMessages = 40;
+
+    /**
+     * 摘要长度上限（token），超出部分截断
+     */
+    private int maxSummaryTokens = 600;
+
+    private int workers = 1;
+}
@@ -0,0 +1,48 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Redis 分块存储配置
+ */
+@Data
+@ConfigurationProperties(prefix = "app.chunk-store")
+public class ChunkStoreProperties {
+
+    private Compression compression = new Compression();
+
+    @Data
+    public static class Compression {
+
+        /**
+         * 是否压缩分块正文；关闭后新写入的正文不压缩，已压缩的仍可读取
+         */
+        private boolean enabled = true;
+
+        /**
+         * UTF-8 字节数达到该值才压缩，过短的正文压缩收益低于解压开销
+         */
+        private int minBytes = 256;
+
+        /**
+         * Deflater 压缩级别（1-9）
+         */
+        private int level = 6;
+
+        /**
+         * 共享字典大小上限（字节），不超过 32KB（Deflate 回溯窗口）
+         */
+        private int dictionarySize = 32 * 1024;
+
+        /**
+         * 训练字典时抽样的分块数，分块少于该值的一半时暂不训练
+         */
+        private int sampleSize = 2000;
+
+        /**
+         * 字典重新训练间隔（小时）
+         */
+        private int retrainHours = 24;
+    }
+}
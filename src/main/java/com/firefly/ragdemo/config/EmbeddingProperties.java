@@ -0,0 +1,63 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 向量空间配置
+ * 向量空间 ID = 模型名（version 非空时为 "模型名@version"），每个分块按空间分别保存向量，
+ * 更换模型后由后台任务逐个知识库补齐新空间的向量，补齐后再切换检索
+ */
+@Data
+@ConfigurationProperties(prefix = "app.embedding")
+public class EmbeddingProperties {
+
+    /**
+     * 空间版本号：模型不变但需要整体重新向量化（如调整了分块预处理）时修改
+     */
+    private String version = "";
+
+    /**
+     * 升级前写入的向量（Hash 字段 v）所属的空间，首次启动时记录到 Redis；
+     * 为空时取当前空间，升级前已经改过模型的部署需要填写原来的模型名
+     */
+    private String legacySpace = "";
+
+    private Migration migration = new Migration();
+
+    /**
+     * 模型对应的空间 ID
+     */
+    public String spaceOf(String model) {
+        return version == null || version.isBlank() ? model : model + "@" + version.trim();
+    }
+
+    @Data
+    public static class Migration {
+
+        /**
+         * 是否在后台为旧空间的知识库补齐当前空间的向量
+         */
+        private boolean enabled = true;
+
+        /**
+         * 每次调用 Embedding API 的分块数
+         */
+        private int batchSize = 32;
+
+        /**
+         * 迁移速率上限（分块/秒），避免占满 Embedding API 配额
+         */
+        private int maxChunksPerSecond = 20;
+
+        /**
+         * 交互式上传排队时暂停迁移的最长等待（毫秒），超时后仍按限速继续
+         */
+        private long yieldMaxWaitMs = 30000;
+
+        /**
+         * 切换后保留旧空间向量的时间（秒），等待正在进行的检索结束后再删除
+         */
+        private long retireDelaySeconds = 300;
+    }
+}
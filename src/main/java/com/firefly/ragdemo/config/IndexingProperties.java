@@ -0,0 +1,82 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 文件索引调度配置
+ */
+@Data
+@ConfigurationProperties(prefix = "app.indexing")
+public class IndexingProperties {
+
+    /**
+     * 索引工作线程数
+     */
+    private int workers = 3;
+
+    /**
+     * 两条队列都有任务时，每调度多少次至少分给批量队列一次，防止批量任务饿死
+     */
+    private int bulkEvery = 4;
+
+    /**
+     * 每批生成向量并写入Redis的分块数，每批完成后记录一次断点
+     */
+    private int batchSize = 32;
+
+    /**
+     * 单个分块的最大 token 数（由 app.tokenizer 配置的分词器计数）
+     */
+    private int chunkTokens = 512;
+
+    /**
+     * 相邻分块的重叠 token 数，不超过 chunkTokens 的一半
+     */
+    private int overlapTokens = 64;
+
+    /**
+     * 默认分块器（Bean 名称）
+     */
+    private String defaultChunker = "markdownStructureChunker";
+
+    /**
+     * 按文件类型（扩展名）指定分块器，未配置的类型使用 defaultChunker
+     */
+    private Map<String, String> chunkers = new HashMap<>();
+
+    /**
+     * 交互式上传队列（学生/教师单文件上传）
+     */
+    private Lane interactive = new Lane(200, 20);
+
+    /**
+     * 批量导入队列（BulkPublicKbUploader 等）
+     */
+    private Lane bulk = new Lane(5000, 5000);
+
+    @Data
+    public static class Lane {
+
+        /**
+         * 队列容量，超过后直接拒绝
+         */
+        private int capacity;
+
+        /**
+         * 单个用户在该队列中允许排队的最大任务数
+         */
+        private int perUserLimit;
+
+        public Lane() {
+        }
+
+        public Lane(int capacity, int perUserLimit) {
+            this.capacity = capacity;
+            this.perUserLimit = perUserLimit;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 模型回答缓存配置
+ * 键为完整提示词（含系统提示、知识库片段与历史）加模型名与温度的哈希，只有逐字节相同的请求才会命中
+ */
+@Data
+@ConfigurationProperties(prefix = "app.llm-cache")
+public class LlmCacheProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * 已完成回答的保存时间（秒）
+     */
+    private long ttlSeconds = 600;
+
+    /**
+     * 超过该长度（字符）的回答不缓存
+     */
+    private int maxEntryChars = 20000;
+}
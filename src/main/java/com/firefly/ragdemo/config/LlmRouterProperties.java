@@ -0,0 +1,85 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多后端模型路由配置
+ * 启用且配置了后端时，默认模型替换为路由模型：每次请求按 EWMA 延迟、错误率与在途请求数选择后端
+ */
+@Data
+@ConfigurationProperties(prefix = "app.llm-router")
+public class LlmRouterProperties {
+
+    private boolean enabled = false;
+
+    private List<Backend> backends = new ArrayList<>();
+
+    /**
+     * 延迟与错误率 EWMA 的平滑系数，越大越偏向最近的样本
+     */
+    private double ewmaAlpha = 0.3;
+
+    /**
+     * 同步调用的对冲等待按后端延迟的高分位估计：EWMA 均值 + hedgeDeviationFactor × EWMA 平均偏差，超过仍未返回时
+     * 向另一个后端发出对冲请求，先返回的结果生效；后端尚无延迟样本时使用该值，0 表示不对冲
+     */
+    private long hedgeDelayMs = 3000;
+
+    /**
+     * 对冲等待中平均偏差的倍数，越大对冲越少（4 约等于 TCP 重传超时的取法）
+     */
+    private double hedgeDeviationFactor = 4;
+
+    /**
+     * 流式调用在该时间内没有收到首个片段时切换到其他后端（已输出片段后不再切换）
+     */
+    private long firstTokenTimeoutMs = 15000;
+
+    /**
+     * 选择后端时每单位错误率折算的延迟惩罚
+     */
+    private long errorPenaltyMs = 10000;
+
+    /**
+     * 连续失败达到该次数后暂停使用该后端 cooldownMs
+     */
+    private int failureThreshold = 3;
+
+    private long cooldownMs = 30000;
+
+    @Data
+    public static class Backend {
+
+        /**
+         * 模型类型：openai, ollama
+         */
+        private String type = "openai";
+
+        private String modelName;
+
+        private String baseUrl;
+
+        private String apiKey;
+
+        private double temperature = 0.7;
+
+        /**
+         * 单次回答的最大 token 数（输出上限）
+         */
+        private int maxTokens = 4096;
+
+        /**
+         * 上下文窗口（token），不配置时取 app.prompt.context-window
+         */
+        private int contextWindow;
+
+        /**
+         * 该后端同时处理的请求数上限
+         */
+        private int maxConcurrency = 8;
+    }
+}
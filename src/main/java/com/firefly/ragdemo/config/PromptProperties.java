@@ -0,0 +1,37 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 对话提示词预算配置：上下文窗口取模型配置的 contextWindow（未配置时取 {@link #contextWindow}），按本地分词器计数分配给系统提示、知识库片段与对话历史
+ */
+@Data
+@ConfigurationProperties(prefix = "app.prompt")
+public class PromptProperties {
+
+    /**
+     * 模型未单独配置上下文窗口时使用的默认值（token），与回答的输出上限 maxTokens 无关
+     */
+    private int contextWindow = 32768;
+
+    /**
+     * 为模型回答预留的 token 数，不参与提示词分配
+     */
+    private int completionReserveTokens = 1024;
+
+    /**
+     * 知识库片段最多占用剩余预算的比例，剩下的留给对话历史；片段用不完的部分也归历史使用
+     */
+    private double contextShare = 0.5;
+
+    /**
+     * 截断后不足该 token 数的片段直接丢弃，避免只剩半句话的片段干扰回答
+     */
+    private int minSnippetTokens = 64;
+
+    /**
+     * 最多保留的历史消息数（预算足够时）
+     */
+    private int maxHistoryMessages = 20;
+}
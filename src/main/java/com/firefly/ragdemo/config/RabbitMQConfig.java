@@ -2,8 +2,13 @@ package com.firefly.ragdemo.config;
 
 import com.firefly.ragdemo.messaging.ChunkSyncMessagingProperties;
 import com.firefly.ragdemo.messaging.ChatSessionMessagingProperties;
+import com.firefly.ragdemo.messaging.IndexJobMessagingProperties;
+import com.firefly.ragdemo.messaging.OutboxProperties;
+import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.QueueBuilder;
@@ -18,15 +23,21 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * RabbitMQ配置
  * 消息队列用于：
  * 1. 文档分块同步到MySQL
  * 2. 聊天记录异步持久化
+ * 3. 文件索引任务（持久化、可多节点消费、延迟重试 + 死信）
+ * 分块同步与聊天记录事件先写入发件箱（event_outbox），由 OutboxRelay 批量投递并等待发布确认
  */
 @Configuration
 @EnableRabbit
-@EnableConfigurationProperties({ChunkSyncMessagingProperties.class, ChatSessionMessagingProperties.class})
+@EnableConfigurationProperties({ChunkSyncMessagingProperties.class, ChatSessionMessagingProperties.class,
+        IndexJobMessagingProperties.class, OutboxProperties.class})
 public class RabbitMQConfig {
 
     // 文档分块同步队列
@@ -69,6 +80,52 @@ public class RabbitMQConfig {
                 .with(properties.getRoutingKey());
     }
 
+    // 文件索引任务队列（优先级队列：交互式上传优先于批量导入）
+    @Bean
+    public Queue indexJobQueue(IndexJobMessagingProperties properties) {
+        return QueueBuilder.durable(properties.getQueue())
+                .maxPriority(properties.getMaxPriority())
+                .build();
+    }
+
+    @Bean
+    public DirectExchange indexJobExchange(IndexJobMessagingProperties properties) {
+        return new DirectExchange(properties.getExchange());
+    }
+
+    @Bean
+    public Binding indexJobBinding(Queue indexJobQueue,
+                                   DirectExchange indexJobExchange,
+                                   IndexJobMessagingProperties properties) {
+        return BindingBuilder.bind(indexJobQueue)
+                .to(indexJobExchange)
+                .with(properties.getRoutingKey());
+    }
+
+    /**
+     * 索引任务重试拓扑：每级重试一个带 TTL 的队列，到期后死信回主交换机；重试耗尽后进入死信队列
+     */
+    @Bean
+    public Declarables indexJobRetryDeclarables(IndexJobMessagingProperties properties) {
+        List<Declarable> declarables = new ArrayList<>();
+        DirectExchange retryExchange = new DirectExchange(properties.getRetryExchange());
+        declarables.add(retryExchange);
+        List<Long> delays = properties.getRetryDelaysMs();
+        for (int tier = 0; tier < delays.size(); tier++) {
+            Queue retryQueue = QueueBuilder.durable(properties.retryQueueName(tier))
+                    .ttl(delays.get(tier).intValue())
+                    .deadLetterExchange(properties.getExchange())
+                    .deadLetterRoutingKey(properties.getRoutingKey())
+                    .build();
+            declarables.add(retryQueue);
+            declarables.add(BindingBuilder.bind(retryQueue).to(retryExchange).with(properties.retryRoutingKey(tier)));
+        }
+        Queue deadLetterQueue = QueueBuilder.durable(properties.getDeadLetterQueue()).build();
+        declarables.add(deadLetterQueue);
+        declarables.add(BindingBuilder.bind(deadLetterQueue).to(retryExchange).with(properties.getDeadLetterRoutingKey()));
+        return new Declarables(declarables);
+    }
+
     @Bean
     public MessageConverter jacksonMessageConverter() {
         return new Jackson2JsonMessageConverter();
@@ -92,4 +149,25 @@ public class RabbitMQConfig {
         factory.setMessageConverter(messageConverter);
         return factory;
     }
+
+    /**
+     * 索引任务专用监听容器：手动确认，消费线程把任务交给调度器后即返回，索引结束时由调度器回调确认消息
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory indexJobListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            IndexJobMessagingProperties properties) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setMessageConverter(messageConverter);
+        factory.setConcurrentConsumers(properties.getConcurrency());
+        factory.setMaxConcurrentConsumers(Math.max(properties.getConcurrency(), properties.getMaxConcurrency()));
+        factory.setPrefetchCount(properties.getPrefetch());
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        // 失败已由监听器转入重试队列，异常时不再原地重新入队
+        factory.setDefaultRequeueRejected(false);
+        return factory;
+    }
 }
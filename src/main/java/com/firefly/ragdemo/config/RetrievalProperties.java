@@ -0,0 +1,41 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 检索配置
+ */
+@Data
+@ConfigurationProperties(prefix = "app.retrieval")
+public class RetrievalProperties {
+
+    public enum Mode {
+        /**
+         * 候选分块直接用完整向量打分
+         */
+        EXACT,
+        /**
+         * 先用截断的前缀向量粗排全部候选，再用完整向量重排前 rerankSize 个
+         */
+        COARSE_TO_FINE
+    }
+
+    private Mode mode = Mode.EXACT;
+
+    /**
+     * 写入分块时另存的前缀向量维度（Matryoshka 截断并重新归一化），0 表示不保存；
+     * 只对维度大于该值的向量生效，修改后旧前缀在检索时按新维度重新生成
+     */
+    private int prefixDims = 256;
+
+    /**
+     * 粗排时每个知识库（或按用户检索时每个用户）扫描的最近分块数，0 表示全部
+     */
+    private int coarseScanLimit = 5000;
+
+    /**
+     * 粗排后进入完整向量重排的分块数
+     */
+    private int rerankSize = 300;
+}
@@ -0,0 +1,44 @@
+package com.firefly.ragdemo.config;
+
+import com.firefly.ragdemo.service.Tokenizer;
+import com.firefly.ragdemo.service.impl.BpeTokenizer;
+import com.firefly.ragdemo.service.impl.EstimatingTokenizer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.util.StringUtils;
+
+import java.io.InputStream;
+
+/**
+ * 分词器配置
+ * 优先加载 classpath 中的 BPE 词表，找不到时使用估算分词器
+ */
+@Configuration
+@EnableConfigurationProperties(TokenizerProperties.class)
+@Slf4j
+public class TokenizerConfig {
+
+    @Bean
+    public Tokenizer tokenizer(TokenizerProperties properties, ResourceLoader resourceLoader) {
+        String location = properties.getVocabulary();
+        if (StringUtils.hasText(location)) {
+            Resource resource = resourceLoader.getResource(location);
+            if (resource.exists()) {
+                try (InputStream in = resource.getInputStream()) {
+                    BpeTokenizer tokenizer = BpeTokenizer.load(in, properties.getName(), properties.getCacheSize());
+                    log.info("已加载BPE词表 {}，词条数: {}", location, tokenizer.vocabularySize());
+                    return tokenizer;
+                } catch (Exception e) {
+                    log.warn("加载BPE词表失败 {}，使用估算分词器: {}", location, e.getMessage());
+                }
+            } else {
+                log.info("未找到BPE词表 {}，使用估算分词器", location);
+            }
+        }
+        return new EstimatingTokenizer();
+    }
+}
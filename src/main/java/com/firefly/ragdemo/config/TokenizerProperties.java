@@ -0,0 +1,27 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 本地分词器配置
+ */
+@Data
+@ConfigurationProperties(prefix = "app.tokenizer")
+public class TokenizerProperties {
+
+    /**
+     * tiktoken 格式的 BPE 词表位置；文件不存在时退化为按字符类别估算
+     */
+    private String vocabulary = "classpath:tokenizer/cl100k_base.tiktoken";
+
+    /**
+     * 词表名称，参与分块配置指纹
+     */
+    private String name = "cl100k_base";
+
+    /**
+     * 预分词片段的 token 数缓存上限
+     */
+    private int cacheSize = 50000;
+}
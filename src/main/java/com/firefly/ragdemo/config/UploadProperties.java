@@ -0,0 +1,27 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 分片/断点续传上传配置
+ */
+@Data
+@ConfigurationProperties(prefix = "app.upload")
+public class UploadProperties {
+
+    /**
+     * 分片大小（字节），除最后一片外每片必须等于该值
+     */
+    private long partSize = 8L * 1024 * 1024;
+
+    /**
+     * 分片上传允许的最大文件大小（字节），普通 multipart 上传仍限制为 10MB
+     */
+    private long maxFileSize = 200L * 1024 * 1024;
+
+    /**
+     * 上传会话有效期（小时），每收到一个分片顺延；过期后临时文件由定时任务清理
+     */
+    private int sessionTtlHours = 24;
+}
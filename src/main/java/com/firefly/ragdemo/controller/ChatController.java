@@ -1,6 +1,8 @@
 package com.firefly.ragdemo.controller;
 
+import com.firefly.ragdemo.ai.LlmAdmissionController;
 import com.firefly.ragdemo.dto.ChatRequest;
+import com.firefly.ragdemo.exception.AdmissionRejectedException;
 import com.firefly.ragdemo.vo.ApiResponse;
 import com.firefly.ragdemo.vo.ChatResponseVO;
 import com.firefly.ragdemo.vo.ChatSessionVO;
@@ -29,10 +31,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.UUID;
@@ -53,12 +59,16 @@ public class ChatController {
     private final ChatService chatService;
     private final ChatSessionService chatSessionService;
     private final ChatHistoryQueueProducer chatHistoryQueueProducer;
+    private final LlmAdmissionController admissionController;
 
     @Value("${spring.ai.openai.chat.options.model}")
     private String configuredChatModel;
 
+    /**
+     * 流式对话的启动线程：只负责检索、组装提示词并订阅模型输出，并发已由准入控制限制，线程数固定
+     */
     private final ExecutorService executorService =
-        new DelegatingSecurityContextExecutorService(Executors.newCachedThreadPool());
+        new DelegatingSecurityContextExecutorService(streamStarterPool());
 
     private final ScheduledExecutorService heartbeatScheduler =
         Executors.newScheduledThreadPool(1, runnable -> {
@@ -70,6 +80,7 @@ public class ChatController {
 
     private static final long SSE_TIMEOUT_MS = 0L;
     private static final long HEARTBEAT_INTERVAL_MS = 15000L;
+    private static final int STREAM_STARTER_THREADS = 32;
 
     @PostMapping("/ask")
     public Object ask(@Valid @RequestBody ChatRequest request,
@@ -80,6 +91,10 @@ public class ChatController {
                     .body(ApiResponse.error("服务端未配置模型"));
         }
         request.setModel(configuredChatModel);
+        if (!StringUtils.hasText(request.getMessage())
+                && (request.getMessages() == null || request.getMessages().isEmpty())) {
+            return ResponseEntity.status(400).body(ApiResponse.error("消息不能为空", 400));
+        }
 
         try {
             String userId = principal.getUserId();
@@ -158,11 +173,25 @@ public class ChatController {
      * 非流式响应：直接调用ChatService，对话完成后异步持久化到数据库
      */
     private ResponseEntity<ApiResponse<ChatResponseVO>> handleNormalResponse(
-            ChatRequest request, String userId, String sessionId, String sessionTitle) {
+            ChatRequest request, String userId, String sessionId, String sessionTitle) throws InterruptedException {
         String userMessage = extractLatestUserMessage(request);
 
-        // 直接调用ChatService
-        ChatResponseVO response = chatService.chat(request, userId);
+        LlmAdmissionController.Permit permit;
+        try {
+            permit = admissionController.acquire(userId, null).get();
+        } catch (AdmissionRejectedException e) {
+            return tooManyRequests(e.getRetryAfterSeconds());
+        } catch (ExecutionException e) {
+            return tooManyRequests(admissionController.retryAfterSeconds());
+        }
+        ChatResponseVO response;
+        try {
+            response = chatService.chat(request, userId);
+            permit.release();
+        } catch (RuntimeException e) {
+            permit.release(e);
+            throw e;
+        }
 
         // 异步持久化聊天记录到消息队列
         if (response != null && StringUtils.hasText(response.getResponse())) {
@@ -175,7 +204,7 @@ public class ChatController {
     /**
      * 流式响应：通过SSE返回，完成后异步持久化
      */
-    private ResponseEntity<SseEmitter> handleStreamResponse(
+    private ResponseEntity<?> handleStreamResponse(
             ChatRequest request, String userId, String sessionId, String sessionTitle) {
         SseEmitter emitter = new SseEmitter(SSE_TIMEOUT_MS);
         String userMessage = extractLatestUserMessage(request);
@@ -193,9 +222,18 @@ public class ChatController {
             log.warn("发送会话信息失败: {}", sendSessionError.getMessage());
         }
 
+        // 排队时先返回 SSE 连接，通过 queue 事件告知位置；队列已满则直接返回 429
+        CompletableFuture<LlmAdmissionController.Permit> admission;
+        try {
+            admission = admissionController.acquire(userId, position -> sendQueuePosition(emitter, position));
+        } catch (AdmissionRejectedException e) {
+            return tooManyRequests(e.getRetryAfterSeconds());
+        }
+
         emitter.onCompletion(() -> {
             log.debug("SSE连接完成");
             isCompleted.set(true);
+            admission.cancel(false);
             cancelHeartbeat(heartbeatRef[0]);
             if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
                 subscriptionRef[0].dispose();
@@ -203,6 +241,7 @@ public class ChatController {
         });
         emitter.onTimeout(() -> {
             log.debug("SSE连接超时");
+            admission.cancel(false);
             if (!isCompleted.get()) {
                 isCompleted.set(true);
                 emitter.complete();
@@ -214,6 +253,7 @@ public class ChatController {
         });
         emitter.onError(throwable -> {
             log.error("SSE连接出错", throwable);
+            admission.cancel(false);
             if (!isCompleted.get()) {
                 isCompleted.set(true);
                 try { emitter.complete(); } catch (Exception ignore) {}
@@ -226,93 +266,106 @@ public class ChatController {
 
         SecurityContext securityContext = SecurityContextHolder.getContext();
 
-        executorService.execute(() -> {
-            SecurityContextHolder.setContext(securityContext);
-            try {
-                Flux<String> responseStream = chatService.chatStream(request, userId);
-                heartbeatRef[0] = scheduleHeartbeat(emitter, isCompleted, subscriptionRef);
-
-                subscriptionRef[0] = responseStream.subscribe(
-                        chunk -> {
-                            if (isCompleted.get()) return;
-                            try {
-                                String payload = chunk.replace("\"", "\\\"").replace("\n", "\\n");
-                                String json = "{\"message\":{\"content\":\"" + payload + "\"}}";
-                                assistantBuilder.append(chunk);
-                                emitter.send(SseEmitter.event().data(json));
-                            } catch (Exception e) {
-                                log.error("发送SSE数据失败", e);
+        admission.whenComplete((permit, admissionError) -> {
+            if (admissionError != null) {
+                sendAdmissionTimeout(emitter, isCompleted);
+                return;
+            }
+            executorService.execute(() -> {
+                if (isCompleted.get()) {
+                    permit.release();
+                    return;
+                }
+                SecurityContextHolder.setContext(securityContext);
+                try {
+                    Flux<String> responseStream = chatService.chatStream(request, userId, permit::firstToken)
+                            .doOnError(permit::release)
+                            .doFinally(signal -> permit.release());
+                    heartbeatRef[0] = scheduleHeartbeat(emitter, isCompleted, subscriptionRef);
+
+                    subscriptionRef[0] = responseStream.subscribe(
+                            chunk -> {
+                                if (isCompleted.get()) return;
+                                try {
+                                    String payload = chunk.replace("\"", "\\\"").replace("\n", "\\n");
+                                    String json = "{\"message\":{\"content\":\"" + payload + "\"}}";
+                                    assistantBuilder.append(chunk);
+                                    emitter.send(SseEmitter.event().data(json));
+                                } catch (Exception e) {
+                                    log.error("发送SSE数据失败", e);
+                                    if (!isCompleted.get()) {
+                                        isCompleted.set(true);
+                                        try { emitter.complete(); } catch (Exception ignore) {}
+                                    }
+                                    if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
+                                        subscriptionRef[0].dispose();
+                                    }
+                                    cancelHeartbeat(heartbeatRef[0]);
+                                }
+                            },
+                            error -> {
+                                log.error("流式对话出错", error);
                                 if (!isCompleted.get()) {
-                                    isCompleted.set(true);
-                                    try { emitter.complete(); } catch (Exception ignore) {}
+                                    try {
+                                        String errorMsg = error.getMessage() == null ? "unknown" : error.getMessage();
+                                        String safeMsg = errorMsg.replace("\"", "\\\"").replace("\n", "\\n");
+                                        String json = "{\"error\":\"" + safeMsg + "\"}";
+                                        emitter.send(SseEmitter.event().data(json));
+                                    } catch (Exception e) {
+                                        log.error("发送错误信息失败", e);
+                                    } finally {
+                                        isCompleted.set(true);
+                                        try { emitter.complete(); } catch (Exception ignore) {}
+                                    }
                                 }
                                 if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
                                     subscriptionRef[0].dispose();
                                 }
                                 cancelHeartbeat(heartbeatRef[0]);
-                            }
-                        },
-                        error -> {
-                            log.error("流式对话出错", error);
-                            if (!isCompleted.get()) {
-                                try {
-                                    String errorMsg = error.getMessage() == null ? "unknown" : error.getMessage();
-                                    String safeMsg = errorMsg.replace("\"", "\\\"").replace("\n", "\\n");
-                                    String json = "{\"error\":\"" + safeMsg + "\"}";
-                                    emitter.send(SseEmitter.event().data(json));
-                                } catch (Exception e) {
-                                    log.error("发送错误信息失败", e);
-                                } finally {
-                                    isCompleted.set(true);
-                                    try { emitter.complete(); } catch (Exception ignore) {}
+                            },
+                            () -> {
+                                log.info("流式对话完成");
+                                if (!isCompleted.get()) {
+                                    try {
+                                        String json = "{\"done\":true}";
+                                        emitter.send(SseEmitter.event().data(json));
+                                        // 异步持久化聊天记录
+                                        publishHistory(sessionId, userId, sessionTitle, userMessage,
+                                                assistantBuilder.toString(), request.getModel());
+                                    } catch (Exception e) {
+                                        log.error("发送完成信号失败", e);
+                                    } finally {
+                                        isCompleted.set(true);
+                                        try { emitter.complete(); } catch (Exception ignore) {}
+                                    }
                                 }
-                            }
-                            if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
-                                subscriptionRef[0].dispose();
-                            }
-                            cancelHeartbeat(heartbeatRef[0]);
-                        },
-                        () -> {
-                            log.info("流式对话完成");
-                            if (!isCompleted.get()) {
-                                try {
-                                    String json = "{\"done\":true}";
-                                    emitter.send(SseEmitter.event().data(json));
-                                    // 异步持久化聊天记录
-                                    publishHistory(sessionId, userId, sessionTitle, userMessage,
-                                            assistantBuilder.toString(), request.getModel());
-                                } catch (Exception e) {
-                                    log.error("发送完成信号失败", e);
-                                } finally {
-                                    isCompleted.set(true);
-                                    try { emitter.complete(); } catch (Exception ignore) {}
+                                if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
+                                    subscriptionRef[0].dispose();
                                 }
-                            }
-                            if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
-                                subscriptionRef[0].dispose();
-                            }
-                            cancelHeartbeat(heartbeatRef[0]);
-                        });
-
-            } catch (Exception e) {
-                log.error("启动流式对话失败", e);
-                if (!isCompleted.get()) {
-                    try {
-                        String errorMsg = e.getMessage() == null ? "unknown" : e.getMessage();
-                        String safeMsg = errorMsg.replace("\"", "\\\"").replace("\n", "\\n");
-                        String json = "{\"error\":\"" + safeMsg + "\"}";
-                        emitter.send(SseEmitter.event().data(json));
-                    } catch (Exception sendError) {
-                        log.error("发送初始错误信息失败", sendError);
-                    } finally {
-                        isCompleted.set(true);
-                        try { emitter.complete(); } catch (Exception ignore) {}
+                                cancelHeartbeat(heartbeatRef[0]);
+                            });
+
+                } catch (Exception e) {
+                    log.error("启动流式对话失败", e);
+                    permit.release(e);
+                    if (!isCompleted.get()) {
+                        try {
+                            String errorMsg = e.getMessage() == null ? "unknown" : e.getMessage();
+                            String safeMsg = errorMsg.replace("\"", "\\\"").replace("\n", "\\n");
+                            String json = "{\"error\":\"" + safeMsg + "\"}";
+                            emitter.send(SseEmitter.event().data(json));
+                        } catch (Exception sendError) {
+                            log.error("发送初始错误信息失败", sendError);
+                        } finally {
+                            isCompleted.set(true);
+                            try { emitter.complete(); } catch (Exception ignore) {}
+                        }
                     }
+                    cancelHeartbeat(heartbeatRef[0]);
+                } finally {
+                    SecurityContextHolder.clearContext();
                 }
-                cancelHeartbeat(heartbeatRef[0]);
-            } finally {
-                SecurityContextHolder.clearContext();
-            }
+            });
         });
 
         return ResponseEntity.ok()
@@ -331,16 +384,23 @@ public class ChatController {
     }
 
     private String deriveSessionTitle(ChatRequest request) {
-        if (request == null || request.getMessages() == null) {
+        if (request == null) {
             return null;
         }
-        for (ChatRequest.ChatMessage msg : request.getMessages()) {
-            if (msg != null && "user".equalsIgnoreCase(msg.getRole()) && StringUtils.hasText(msg.getContent())) {
-                String trimmed = msg.getContent().strip();
-                return trimmed.length() > 50 ? trimmed.substring(0, 50) : trimmed;
+        String first = request.getMessage();
+        if (request.getMessages() != null) {
+            for (ChatRequest.ChatMessage msg : request.getMessages()) {
+                if (msg != null && "user".equalsIgnoreCase(msg.getRole()) && StringUtils.hasText(msg.getContent())) {
+                    first = msg.getContent();
+                    break;
+                }
             }
         }
-        return null;
+        if (!StringUtils.hasText(first)) {
+            return null;
+        }
+        String trimmed = first.strip();
+        return trimmed.length() > 50 ? trimmed.substring(0, 50) : trimmed;
     }
 
     private ChatSessionVO toSessionVO(ChatSession session) {
@@ -372,6 +432,9 @@ public class ChatController {
     }
 
     private String extractLatestUserMessage(ChatRequest request) {
+        if (request != null && StringUtils.hasText(request.getMessage())) {
+            return request.getMessage();
+        }
         if (request == null || request.getMessages() == null) {
             return null;
         }
@@ -385,7 +448,7 @@ public class ChatController {
     }
 
     /**
-     * 将聊天记录发送到消息队列，异步持久化到数据库
+     * 将这一轮对话追加到会话窗口，并发送到消息队列异步持久化到数据库
      */
     private void publishHistory(String sessionId, String userId, String sessionTitle,
                                 String userMessage, String assistantReply, String model) {
@@ -414,6 +477,14 @@ public class ChatController {
                 .messages(messages)
                 .build();
         chatHistoryQueueProducer.publish(payload);
+        chatSessionService.appendHistory(sessionId, userId, messages.stream()
+                .map(message -> {
+                    ChatRequest.ChatMessage turn = new ChatRequest.ChatMessage();
+                    turn.setRole(message.getRole());
+                    turn.setContent(message.getContent());
+                    return turn;
+                })
+                .collect(Collectors.toList()));
     }
 
     private String escapeJson(String input) {
@@ -449,4 +520,44 @@ public class ChatController {
             heartbeatFuture.cancel(true);
         }
     }
+
+    private <T> ResponseEntity<ApiResponse<T>> tooManyRequests(long retryAfterSeconds) {
+        return ResponseEntity.status(429)
+                .header("Retry-After", String.valueOf(retryAfterSeconds))
+                .body(ApiResponse.error("请求过多，请稍后重试", 429));
+    }
+
+    private void sendQueuePosition(SseEmitter emitter, int position) {
+        try {
+            emitter.send(SseEmitter.event().name("queue").data("{\"position\":" + position + "}"));
+        } catch (Exception e) {
+            log.debug("发送排队位置失败: {}", e.getMessage());
+        }
+    }
+
+    private void sendAdmissionTimeout(SseEmitter emitter, AtomicBoolean isCompleted) {
+        if (!isCompleted.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event().data("{\"error\":\"排队超时，请稍后重试\",\"retryAfter\":"
+                    + admissionController.retryAfterSeconds() + "}"));
+        } catch (Exception e) {
+            log.debug("发送排队超时信息失败: {}", e.getMessage());
+        } finally {
+            try { emitter.complete(); } catch (Exception ignore) {}
+        }
+    }
+
+    private static ThreadPoolExecutor streamStarterPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(STREAM_STARTER_THREADS, STREAM_STARTER_THREADS,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable);
+                    thread.setName("chat-stream-" + thread.getId());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
 }
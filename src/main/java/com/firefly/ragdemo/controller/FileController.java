@@ -1,11 +1,16 @@
 package com.firefly.ragdemo.controller;
 
 import com.firefly.ragdemo.vo.ApiResponse;
+import com.firefly.ragdemo.vo.BulkIngestReportVO;
 import com.firefly.ragdemo.vo.FileVO;
+import com.firefly.ragdemo.vo.IndexingStatsVO;
 import com.firefly.ragdemo.entity.User;
 import com.firefly.ragdemo.security.CustomUserPrincipal;
+import com.firefly.ragdemo.service.ArchiveIngestService;
 import com.firefly.ragdemo.service.FileProcessingNotificationService;
 import com.firefly.ragdemo.service.FileService;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import com.firefly.ragdemo.service.KnowledgeBaseService;
 import com.firefly.ragdemo.util.PageResult;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -28,6 +33,9 @@ public class FileController {
 
     private final FileService fileService;
     private final FileProcessingNotificationService fileProcessingNotificationService;
+    private final IndexingScheduler indexingScheduler;
+    private final ArchiveIngestService archiveIngestService;
+    private final KnowledgeBaseService knowledgeBaseService;
 
     @PostMapping("/upload")
     public ResponseEntity<ApiResponse<FileVO>> uploadFile(@RequestParam("file") MultipartFile file,
@@ -62,6 +70,39 @@ public class FileController {
         }
     }
 
+    /**
+     * 上传 zip / tar.gz / tar 归档，每个受支持的条目作为独立文件登记并提交索引任务，登记结束即返回导入报告（索引进度通过文件状态通知获取）
+     */
+    @PostMapping("/upload/archive")
+    public ResponseEntity<ApiResponse<BulkIngestReportVO>> uploadArchive(@RequestParam("file") MultipartFile file,
+            @RequestParam(value = "kbId", required = false) String kbId,
+            @AuthenticationPrincipal CustomUserPrincipal principal) {
+
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("请选择要上传的归档文件", 400));
+        }
+
+        try {
+            BulkIngestReportVO report = archiveIngestService.uploadArchive(file, principal.getUser(), kbId);
+            String message = String.format("归档已接收：%d 个文件等待索引，跳过 %d 个，失败 %d 个",
+                    report.getImported(), report.getSkipped(), report.getFailed());
+            return ResponseEntity.ok(ApiResponse.success(message, report));
+        } catch (AccessDeniedException e) {
+            log.warn("归档上传权限不足 for user {}: {}", principal.getUserId(), e.getMessage());
+            return ResponseEntity.status(403)
+                    .body(ApiResponse.error(e.getMessage(), 403));
+        } catch (IllegalArgumentException e) {
+            log.warn("归档上传验证失败 for user {}: {}", principal.getUserId(), e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage(), 400));
+        } catch (Exception e) {
+            log.error("归档上传失败 for user {}: {}", principal.getUserId(), e.getMessage(), e);
+            return ResponseEntity.status(500)
+                    .body(ApiResponse.error("归档上传失败"));
+        }
+    }
+
     @GetMapping("/files")
     public ResponseEntity<ApiResponse<Map<String, Object>>> getFiles(
             @RequestParam(defaultValue = "1") int page,
@@ -108,6 +149,15 @@ public class FileController {
         }
     }
 
+    @GetMapping("/files/indexing/stats")
+    public ResponseEntity<ApiResponse<IndexingStatsVO>> indexingStats(
+            @AuthenticationPrincipal CustomUserPrincipal principal) {
+        if (!knowledgeBaseService.isPlatformAdmin(principal.getUserId())) {
+            return ResponseEntity.status(403).body(ApiResponse.error("仅管理员可查看索引队列状态", 403));
+        }
+        return ResponseEntity.ok(ApiResponse.success("获取索引队列状态成功", indexingScheduler.stats()));
+    }
+
     @GetMapping(value = "/files/processing-stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public SseEmitter subscribeProcessing(@AuthenticationPrincipal CustomUserPrincipal principal) {
         return fileProcessingNotificationService.subscribe(principal.getUserId());
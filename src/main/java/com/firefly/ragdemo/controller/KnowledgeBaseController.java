@@ -0,0 +1,42 @@
+package com.firefly.ragdemo.controller;
+
+import com.firefly.ragdemo.security.CustomUserPrincipal;
+import com.firefly.ragdemo.service.KnowledgeBaseService;
+import com.firefly.ragdemo.vo.ApiResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/knowledge-bases")
+@RequiredArgsConstructor
+@Slf4j
+public class KnowledgeBaseController {
+
+    private final KnowledgeBaseService knowledgeBaseService;
+
+    /**
+     * 异步删除：知识库立即对检索不可见，返回 202，分块与文件在后台清理
+     */
+    @DeleteMapping("/{kbId}")
+    public ResponseEntity<ApiResponse<Void>> delete(@PathVariable String kbId,
+            @AuthenticationPrincipal CustomUserPrincipal principal) {
+        try {
+            knowledgeBaseService.deleteKnowledgeBase(principal.getUserId(), kbId);
+            return ResponseEntity.accepted().body(ApiResponse.success("知识库已删除，正在后台清理", null));
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(403).body(ApiResponse.error(e.getMessage(), 403));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage(), 400));
+        } catch (Exception e) {
+            log.error("删除知识库失败 kbId={}: {}", kbId, e.getMessage(), e);
+            return ResponseEntity.status(500).body(ApiResponse.error("删除知识库失败"));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.firefly.ragdemo.controller;
+
+import com.firefly.ragdemo.dto.UploadInitRequest;
+import com.firefly.ragdemo.security.CustomUserPrincipal;
+import com.firefly.ragdemo.service.ResumableUploadService;
+import com.firefly.ragdemo.vo.ApiResponse;
+import com.firefly.ragdemo.vo.FileVO;
+import com.firefly.ragdemo.vo.UploadSessionVO;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 分片/断点续传上传
+ * 1. POST /upload/sessions 创建会话，返回 uploadId 与分片大小
+ * 2. PUT /upload/sessions/{uploadId}/parts?offset=N 请求体为分片原始字节，可并发、可乱序、可重传
+ * 3. GET /upload/sessions/{uploadId} 查询缺失分片，断线后据此续传
+ * 4. POST /upload/sessions/{uploadId}/complete 合并完成并提交索引
+ */
+@RestController
+@RequestMapping("/upload/sessions")
+@RequiredArgsConstructor
+@Slf4j
+public class UploadSessionController {
+
+    private final ResumableUploadService resumableUploadService;
+
+    @PostMapping
+    public ResponseEntity<ApiResponse<UploadSessionVO>> initiate(@Valid @RequestBody UploadInitRequest request,
+            @AuthenticationPrincipal CustomUserPrincipal principal) {
+        try {
+            UploadSessionVO session = resumableUploadService.initiate(
+                    principal.getUser(), request.getFilename(), request.getFileSize(), request.getKbId());
+            return ResponseEntity.status(201).body(ApiResponse.success("上传会话已创建", session));
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(403).body(ApiResponse.error(e.getMessage(), 403));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage(), 400));
+        } catch (Exception e) {
+            log.error("创建上传会话失败 for user {}: {}", principal.getUserId(), e.getMessage(), e);
+            return ResponseEntity.status(500).body(ApiResponse.error("创建上传会话失败"));
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<ApiResponse<UploadSessionVO>> status(@PathVariable String uploadId,
+            @AuthenticationPrincipal CustomUserPrincipal principal) {
+        try {
+            return ResponseEntity.ok(ApiResponse.success("获取上传进度成功",
+                    resumableUploadService.status(principal.getUserId(), uploadId)));
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(403).body(ApiResponse.error(e.getMessage(), 403));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(404).body(ApiResponse.error(e.getMessage(), 404));
+        } catch (Exception e) {
+            log.error("获取上传进度失败 uploadId={}: {}", uploadId, e.getMessage(), e);
+            return ResponseEntity.status(500).body(ApiResponse.error("获取上传进度失败"));
+        }
+    }
+
+    @PutMapping("/{uploadId}/parts")
+    public ResponseEntity<ApiResponse<UploadSessionVO>> uploadPart(@PathVariable String uploadId,
+            @RequestParam("offset") long offset,
+            HttpServletRequest request,
+            @AuthenticationPrincipal CustomUserPrincipal principal) {
+        try {
+            UploadSessionVO session = resumableUploadService.writePart(principal.getUserId(), uploadId, offset,
+                    request.getContentLengthLong(), request.getInputStream());
+            return ResponseEntity.ok(ApiResponse.success("分片上传成功", session));
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(403).body(ApiResponse.error(e.getMessage(), 403));
+        } catch (IllegalArgumentException e) {
+            log.warn("分片上传验证失败 uploadId={}, offset={}: {}", uploadId, offset, e.getMessage());
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage(), 400));
+        } catch (Exception e) {
+            log.error("分片上传失败 uploadId={}, offset={}: {}", uploadId, offset, e.getMessage(), e);
+            return ResponseEntity.status(500).body(ApiResponse.error("分片上传失败，请重传该分片"));
+        }
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<ApiResponse<FileVO>> complete(@PathVariable String uploadId,
+            @RequestParam(value = "sha256", required = false) String sha256,
+            @AuthenticationPrincipal CustomUserPrincipal principal) {
+        try {
+            FileVO fileVO = resumableUploadService.complete(principal.getUser(), uploadId, sha256);
+            return ResponseEntity.ok(ApiResponse.success("文件上传成功，开始处理", fileVO));
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(403).body(ApiResponse.error(e.getMessage(), 403));
+        } catch (IllegalArgumentException e) {
+            log.warn("完成分片上传失败 uploadId={}: {}", uploadId, e.getMessage());
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage(), 400));
+        } catch (Exception e) {
+            log.error("完成分片上传失败 uploadId={}: {}", uploadId, e.getMessage(), e);
+            return ResponseEntity.status(500).body(ApiResponse.error("文件上传失败"));
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<ApiResponse<Void>> abort(@PathVariable String uploadId,
+            @AuthenticationPrincipal CustomUserPrincipal principal) {
+        try {
+            resumableUploadService.abort(principal.getUserId(), uploadId);
+            return ResponseEntity.ok(ApiResponse.success("已取消上传", null));
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(403).body(ApiResponse.error(e.getMessage(), 403));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(404).body(ApiResponse.error(e.getMessage(), 404));
+        } catch (Exception e) {
+            log.error("取消上传失败 uploadId={}: {}", uploadId, e.getMessage(), e);
+            return ResponseEntity.status(500).body(ApiResponse.error("取消上传失败"));
+        }
+    }
+}
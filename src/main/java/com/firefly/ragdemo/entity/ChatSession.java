@@ -18,6 +18,9 @@ public class ChatSession {
     private String firstMessage;
     private String model;
     private Integer messageCount;
+    // 滚动摘要，覆盖 seq <= summarySeq 的消息
+    private String summary;
+    private Integer summarySeq;
     private LocalDateTime lastMessageAt;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
@@ -25,7 +25,16 @@ public class DocumentChunk {
 
     private String content;
 
-    // 将embedding以JSON数组字符串形式存储（MySQL可用JSON/TEXT字段）
+    // 分块所在的标题路径，如 "第3章 类 > 3.2 构造函数"
+    private String headingPath;
+
+    // 向量（float32），Redis 与 MySQL 中均以二进制保存
+    private float[] embedding;
+
+    // embedding 所属的向量空间（模型名[@版本]），为空表示 base 空间
+    private String embeddingSpace;
+
+    // 旧版 Redis JSON 中的向量（JSON 数组字符串），仅在迁移旧数据时读取
     private String embeddingJson;
 
     private LocalDateTime createdAt;
@@ -0,0 +1,31 @@
+package com.firefly.ragdemo.entity;
+
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 待投递到 RabbitMQ 的事件，先写入本地 outbox 表，再由 OutboxRelay 异步批量投递
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxEvent {
+
+    private Long id;
+    private String exchange;
+    private String routingKey;
+    // 消息体的 Java 类型，投递时写入 __TypeId__ 头，与 Jackson2JsonMessageConverter 的行为一致
+    private String payloadType;
+    private String payload;
+    private Integer attempts;
+    private LocalDateTime nextAttemptAt;
+    private String claimedBy;
+    private LocalDateTime claimedUntil;
+    private LocalDateTime publishedAt;
+    private String lastError;
+    private LocalDateTime createdAt;
+}
@@ -29,6 +29,11 @@ public class UploadedFile {
 
     private String kbId;
 
+    /**
+     * 文件内容的 SHA-256，内容相同的文件共用同一份存储；归档条目为条目内容的哈希
+     */
+    private String contentHash;
+
     @Builder.Default
     private FileStatus status = FileStatus.PROCESSING;
 
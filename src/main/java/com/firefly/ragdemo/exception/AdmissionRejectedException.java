@@ -0,0 +1,17 @@
+package com.firefly.ragdemo.exception;
+
+import lombok.Getter;
+
+/**
+ * 模型调用未获准入（排队已满或排队超时），调用方应返回 429 并带上 Retry-After
+ */
+@Getter
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
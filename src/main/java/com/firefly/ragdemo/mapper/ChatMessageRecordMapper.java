@@ -12,5 +12,21 @@ public interface ChatMessageRecordMapper {
                                           @Param("userId") String userId,
                                           @Param("limit") int limit);
 
+    /**
+     * 会话最近的 limit 条消息，按 seq 降序
+     */
+    List<ChatMessageRecord> findRecentBySession(@Param("sessionId") String sessionId,
+                                                @Param("userId") String userId,
+                                                @Param("limit") int limit);
+
+    /**
+     * 会话中 seq 大于 afterSeq 的消息，按 seq 升序
+     */
+    List<ChatMessageRecord> findAfterSeq(@Param("sessionId") String sessionId,
+                                         @Param("afterSeq") int afterSeq,
+                                         @Param("limit") int limit);
+
     int batchInsert(@Param("messages") List<ChatMessageRecord> messages);
+
+    int countById(@Param("id") String id);
 }
@@ -23,4 +23,9 @@ public interface ChatSessionMapper {
     int updateStats(@Param("id") String id,
                     @Param("messageCount") int messageCount,
                     @Param("lastMessageAt") LocalDateTime lastMessageAt);
+
+    int updateSummary(@Param("id") String id,
+                      @Param("summary") String summary,
+                      @Param("summarySeq") int summarySeq,
+                      @Param("expectedSeq") int expectedSeq);
 }
@@ -1,14 +1,16 @@
 package com.firefly.ragdemo.mapper;
 
 import com.firefly.ragdemo.entity.DocumentChunk;
-import java.util.List;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
 @Mapper
 public interface DocumentChunkMapper {
 
-    int batchInsertIgnore(@Param("chunks") List<DocumentChunk> chunks);
+    /**
+     * 单行插入，已存在的分块忽略；批量写入时在 BATCH 会话中逐行调用
+     */
+    int insertIgnore(DocumentChunk chunk);
 
     int deleteByFileId(@Param("fileId") String fileId);
 }
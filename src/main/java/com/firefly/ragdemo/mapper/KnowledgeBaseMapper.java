@@ -18,5 +18,16 @@ public interface KnowledgeBaseMapper {
 
     List<String> findActiveSharedIds();
 
+    List<String> findActiveIds();
+
     int insert(KnowledgeBase knowledgeBase);
+
+    /**
+     * 用户对知识库的授权角色（ADMIN/WRITER/READER），未授权时返回 null
+     */
+    String findAccessRole(@Param("userId") String userId, @Param("kbId") String kbId);
+
+    int deactivate(@Param("id") String id);
+
+    int deleteById(@Param("id") String id);
 }
@@ -0,0 +1,37 @@
+package com.firefly.ragdemo.mapper;
+
+import com.firefly.ragdemo.entity.OutboxEvent;
+import java.util.List;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface OutboxEventMapper {
+
+    int insert(OutboxEvent event);
+
+    /**
+     * 认领一批到期未投递的事件（租约过期的认领视为失效），多节点各自认领互不重叠
+     */
+    int claimBatch(@Param("owner") String owner,
+                   @Param("leaseSeconds") int leaseSeconds,
+                   @Param("limit") int limit);
+
+    List<OutboxEvent> findClaimed(@Param("owner") String owner);
+
+    int markPublished(@Param("ids") List<Long> ids);
+
+    int markFailed(@Param("id") Long id,
+                   @Param("error") String error,
+                   @Param("delaySeconds") long delaySeconds);
+
+    /**
+     * 把最近 minutes 分钟内写入且已投递的事件重新标记为待投递，exchange 为空时不限交换机
+     * 时间均以数据库时钟计算，避免应用与数据库时区不一致
+     */
+    int resetForReplay(@Param("minutes") long minutes, @Param("exchange") String exchange);
+
+    int deletePublishedBefore(@Param("retentionHours") int retentionHours);
+
+    long countPending();
+}
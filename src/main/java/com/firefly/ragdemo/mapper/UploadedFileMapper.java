@@ -4,6 +4,8 @@ import com.firefly.ragdemo.entity.UploadedFile;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,8 +20,63 @@ public interface UploadedFileMapper {
 
     long countByUserId(@Param("userId") String userId);
 
+    /**
+     * 按主键游标分页查询索引租约已过期的 PROCESSING 文件；没有租约的旧记录按上传时间早于 uploadedBefore 判断
+     */
+    List<UploadedFile> findExpiredIndexLeases(@Param("now") LocalDateTime now,
+                                              @Param("uploadedBefore") LocalDateTime uploadedBefore,
+                                              @Param("afterId") String afterId,
+                                              @Param("limit") int limit);
+
+    /**
+     * 续期索引任务租约：入队、进入重试队列与处理过程中的心跳
+     */
+    int renewIndexLease(@Param("id") String id, @Param("until") LocalDateTime until);
+
+    /**
+     * 租约仍过期时占有租约，多个节点同时启动时只有一个重新投递
+     *
+     * @return 占有成功为 1
+     */
+    int claimExpiredIndexLease(@Param("id") String id,
+                               @Param("now") LocalDateTime now,
+                               @Param("until") LocalDateTime until);
+
+    /**
+     * 在给定 ID 中查询已结束索引（非 PROCESSING）的文件，只返回 id 与 status
+     */
+    List<UploadedFile> findFinishedByIds(@Param("ids") Collection<String> ids);
+
+    /**
+     * 查找内容相同且已索引完成的另一个文件，用于复用其分块
+     */
+    Optional<UploadedFile> findCompletedByContentHash(@Param("contentHash") String contentHash,
+                                                      @Param("excludeId") String excludeId);
+
+    /**
+     * 同一用户在同一知识库中内容相同的文件（不含索引失败的记录，重新上传失败的文件会重新登记并索引）
+     */
+    Optional<UploadedFile> findByContentHashAndOwner(@Param("contentHash") String contentHash,
+                                                     @Param("userId") String userId,
+                                                     @Param("kbId") String kbId);
+
+    /**
+     * 引用同一存储文件的记录数（存储文件的引用计数）
+     */
+    long countByContentHashAndPath(@Param("contentHash") String contentHash, @Param("filePath") String filePath);
+
+    /**
+     * 知识库中的文件（分页），删除知识库时用于逐批清理
+     */
+    List<UploadedFile> findByKbId(@Param("kbId") String kbId, @Param("limit") int limit);
+
     int insert(UploadedFile file);
 
+    /**
+     * 多行插入，用于目录批量导入
+     */
+    int batchInsert(@Param("files") List<UploadedFile> files);
+
     int updateStatus(@Param("id") String id, @Param("status") String status);
 
     int update(UploadedFile file);
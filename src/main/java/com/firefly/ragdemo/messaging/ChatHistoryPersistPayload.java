@@ -13,6 +13,8 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class ChatHistoryPersistPayload {
 
+    // 事件唯一标识，消息重投或重放时据此去重
+    private String eventId;
     private String sessionId;
     private String userId;
     private String sessionTitle;
@@ -1,6 +1,7 @@
 package com.firefly.ragdemo.messaging;
 
 import com.firefly.ragdemo.service.ChatSessionService;
+import com.firefly.ragdemo.service.ChatSummarizer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
@@ -12,6 +13,7 @@ import org.springframework.stereotype.Component;
 public class ChatHistoryQueueListener {
 
     private final ChatSessionService chatSessionService;
+    private final ChatSummarizer chatSummarizer;
 
     @RabbitListener(queues = "${app.messaging.chat-session.queue}", concurrency = "${app.messaging.chat-session.concurrency:2}")
     public void handle(ChatHistoryPersistPayload payload) {
@@ -21,6 +23,8 @@ public class ChatHistoryQueueListener {
         }
         try {
             chatSessionService.persistFromQueue(payload);
+            // 事务已提交，摘要在后台线程检查，不阻塞消费
+            chatSummarizer.schedule(payload.getSessionId());
         } catch (Exception e) {
             log.error("消费会话持久化消息失败 sessionId={}, userId={}", payload.getSessionId(), payload.getUserId(), e);
             throw e;
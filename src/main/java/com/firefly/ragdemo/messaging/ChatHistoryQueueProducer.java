@@ -1,9 +1,9 @@
 package com.firefly.ragdemo.messaging;
 
 import java.time.Instant;
+import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -11,7 +11,7 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class ChatHistoryQueueProducer {
 
-    private final RabbitTemplate rabbitTemplate;
+    private final OutboxPublisher outboxPublisher;
     private final ChatSessionMessagingProperties properties;
 
     public void publish(ChatHistoryPersistPayload payload) {
@@ -21,7 +21,10 @@ public class ChatHistoryQueueProducer {
         if (payload.getCreatedAt() == null) {
             payload.setCreatedAt(Instant.now());
         }
-        rabbitTemplate.convertAndSend(properties.getExchange(), properties.getRoutingKey(), payload);
-        log.debug("已写入会话持久化队列 sessionId={}, userId={}", payload.getSessionId(), payload.getUserId());
+        if (payload.getEventId() == null) {
+            payload.setEventId(UUID.randomUUID().toString());
+        }
+        outboxPublisher.append(properties.getExchange(), properties.getRoutingKey(), payload);
+        log.debug("会话持久化事件已写入发件箱 sessionId={}, userId={}", payload.getSessionId(), payload.getUserId());
     }
 }
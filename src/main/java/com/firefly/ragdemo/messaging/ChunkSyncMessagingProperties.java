@@ -11,4 +11,14 @@ public class ChunkSyncMessagingProperties {
     private String queue = "kb.chunk.sync.queue";
     private String routingKey = "kb.chunk.sync.routing";
     private int concurrency = 2;
+
+    /**
+     * 每个 JDBC 批次写入的分块数，决定改写后单条 INSERT 的大小
+     */
+    private int batchSize = 200;
+
+    /**
+     * 每次 SSCAN 的 COUNT 提示值
+     */
+    private int scanCount = 200;
 }
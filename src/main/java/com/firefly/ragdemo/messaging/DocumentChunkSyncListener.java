@@ -3,19 +3,32 @@ package com.firefly.ragdemo.messaging;
 import com.firefly.ragdemo.entity.DocumentChunk;
 import com.firefly.ragdemo.mapper.DocumentChunkMapper;
 import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository.ChunkIdPage;
+import com.firefly.ragdemo.service.EmbeddingService;
 import java.util.List;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 
+/**
+ * 将文件的分块从 Redis 同步到 MySQL
+ * 用 SSCAN 分页遍历文件的分块集合，每页按 batchSize 分批经 BATCH 执行器写入（驱动开启 rewriteBatchedStatements 后改写为有界的多行 INSERT），
+ * 每页提交后记录 SSCAN cursor；消息重投时从断点继续，INSERT IGNORE 保证重复写入无副作用
+ * 同步的是当前向量空间的向量，embedding_space 列记录其所属空间
+ */
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class DocumentChunkSyncListener {
 
     private final RedisDocumentChunkRepository redisDocumentChunkRepository;
-    private final DocumentChunkMapper documentChunkMapper;
+    private final SqlSessionFactory sqlSessionFactory;
+    private final ChunkSyncMessagingProperties properties;
+    private final EmbeddingService embeddingService;
 
     @RabbitListener(queues = "${app.messaging.chunk-sync.queue}", concurrency = "${app.messaging.chunk-sync.concurrency:2}")
     public void handle(DocumentChunkSyncPayload payload) {
@@ -23,13 +36,53 @@ public class DocumentChunkSyncListener {
             log.warn("收到空的分块同步消息，忽略");
             return;
         }
-        log.info("开始消费分块同步消息 fileId={}, kbId={}", payload.getFileId(), payload.getKbId());
-        List<DocumentChunk> chunks = redisDocumentChunkRepository.findByFileId(payload.getFileId());
-        if (chunks.isEmpty()) {
-            log.info("Redis 未找到需要同步的分块 fileId={}", payload.getFileId());
+        String fileId = payload.getFileId();
+        String cursor = redisDocumentChunkRepository.loadSyncCursor(fileId);
+        if (!"0".equals(cursor)) {
+            log.info("从断点继续分块同步 fileId={}, cursor={}", fileId, cursor);
+        } else {
+            log.info("开始消费分块同步消息 fileId={}, kbId={}", fileId, payload.getKbId());
+        }
+
+        long start = System.currentTimeMillis();
+        int written = 0;
+        ChunkIdPage page;
+        do {
+            page = redisDocumentChunkRepository.scanFileChunkIds(fileId, cursor, properties.getScanCount());
+            if (!page.chunkIds().isEmpty()) {
+                written += write(redisDocumentChunkRepository.findWithVectorsByIds(page.chunkIds(),
+                        embeddingService.currentSpace()));
+            }
+            cursor = page.nextCursor();
+            if (!page.finished()) {
+                redisDocumentChunkRepository.saveSyncCursor(fileId, cursor);
+            }
+        } while (!page.finished());
+        redisDocumentChunkRepository.clearSyncCursor(fileId);
+
+        if (written == 0) {
+            log.info("Redis 未找到需要同步的分块 fileId={}", fileId);
             return;
         }
-        int inserted = documentChunkMapper.batchInsertIgnore(chunks);
-        log.info("完成分块同步 fileId={}, total={}, inserted={}", payload.getFileId(), chunks.size(), inserted);
+        log.info("完成分块同步 fileId={}, written={}, 耗时 {}ms", fileId, written, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 按 batchSize 分批写入，每批一次往返并单独提交，避免长时间持有锁
+     */
+    private int write(List<DocumentChunk> chunks) {
+        int batchSize = Math.max(properties.getBatchSize(), 1);
+        for (int from = 0; from < chunks.size(); from += batchSize) {
+            List<DocumentChunk> batch = chunks.subList(from, Math.min(from + batchSize, chunks.size()));
+            try (SqlSession session = sqlSessionFactory.openSession(ExecutorType.BATCH, false)) {
+                DocumentChunkMapper mapper = session.getMapper(DocumentChunkMapper.class);
+                for (DocumentChunk chunk : batch) {
+                    mapper.insertIgnore(chunk);
+                }
+                session.flushStatements();
+                session.commit();
+            }
+        }
+        return chunks.size();
     }
 }
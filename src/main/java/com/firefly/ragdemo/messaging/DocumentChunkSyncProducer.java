@@ -3,7 +3,6 @@ package com.firefly.ragdemo.messaging;
 import java.time.Instant;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -11,7 +10,7 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class DocumentChunkSyncProducer {
 
-    private final RabbitTemplate rabbitTemplate;
+    private final OutboxPublisher outboxPublisher;
     private final ChunkSyncMessagingProperties properties;
 
     public void publish(String fileId, String userId, String kbId) {
@@ -21,7 +20,7 @@ public class DocumentChunkSyncProducer {
                 .kbId(kbId)
                 .createdAt(Instant.now())
                 .build();
-        rabbitTemplate.convertAndSend(properties.getExchange(), properties.getRoutingKey(), payload);
-        log.debug("已写入分块同步队列, fileId={}, kbId={}", fileId, kbId);
+        outboxPublisher.append(properties.getExchange(), properties.getRoutingKey(), payload);
+        log.debug("分块同步事件已写入发件箱, fileId={}, kbId={}", fileId, kbId);
     }
 }
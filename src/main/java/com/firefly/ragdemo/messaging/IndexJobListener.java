@@ -0,0 +1,231 @@
+package com.firefly.ragdemo.messaging;
+
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 索引任务消费者：可在多个节点上水平扩展
+ * 同一 fileId 的重复投递通过"状态检查 + Redis 处理锁"保证幂等
+ * 消费线程只把任务交给本节点的 IndexingScheduler 就返回，消息在索引结束后由调度器回调手动确认；
+ * 预取量决定每个节点最多持有多少未确认任务，调度器据此按优先级与用户轮转排队、报告位置
+ * 处理期间按 heartbeatMinutes 续期文件的索引租约与处理锁，节点宕机后消息重新投递、租约过期后由启动扫描补投
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class IndexJobListener {
+
+    private static final String LOCK_PREFIX = "rag:index:lock:";
+    private static final DefaultRedisScript<Long> RELEASE_LOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end",
+            Long.class);
+    private static final DefaultRedisScript<Long> EXTEND_LOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+
+    private final UploadedFileMapper uploadedFileMapper;
+    private final IndexingScheduler indexingScheduler;
+    private final IndexJobProducer indexJobProducer;
+    private final IndexJobMessagingProperties properties;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 已交给调度器、尚未结束的任务：fileId → 处理锁令牌
+     */
+    private final Map<String, String> inFlight = new ConcurrentHashMap<>();
+
+    @RabbitListener(queues = "${app.messaging.index-job.queue:kb.index.job.queue}",
+            containerFactory = "indexJobListenerContainerFactory")
+    public void handle(IndexJobPayload payload, Channel channel,
+                       @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        handle(payload, new Delivery() {
+            @Override
+            public void ack() {
+                try {
+                    channel.basicAck(deliveryTag, false);
+                } catch (IOException e) {
+                    log.warn("确认索引任务消息失败 deliveryTag={}: {}", deliveryTag, e.getMessage());
+                }
+            }
+
+            @Override
+            public void requeue() {
+                try {
+                    channel.basicNack(deliveryTag, false, true);
+                } catch (IOException e) {
+                    log.warn("退回索引任务消息失败 deliveryTag={}: {}", deliveryTag, e.getMessage());
+                }
+            }
+        });
+    }
+
+    void handle(IndexJobPayload payload, Delivery delivery) {
+        try {
+            if (!dispatch(payload, delivery)) {
+                delivery.ack();
+            }
+        } catch (RuntimeException e) {
+            log.warn("处理索引任务消息失败，退回队列 fileId={}: {}", payload != null ? payload.getFileId() : null,
+                    e.getMessage());
+            delivery.requeue();
+        }
+    }
+
+    /**
+     * @return 已交给调度器（由完成回调确认消息）时为 true；其余情况由调用方立即确认
+     */
+    private boolean dispatch(IndexJobPayload payload, Delivery delivery) {
+        if (payload == null || payload.getFileId() == null) {
+            log.warn("收到空的索引任务消息，忽略");
+            return false;
+        }
+        String fileId = payload.getFileId();
+        Optional<UploadedFile> fileOpt = uploadedFileMapper.findById(fileId);
+        if (fileOpt.isEmpty()) {
+            log.info("索引任务对应的文件已删除，忽略 fileId={}", fileId);
+            return false;
+        }
+        if (fileOpt.get().getStatus() == UploadedFile.FileStatus.COMPLETED) {
+            log.info("文件已完成索引，忽略重复任务 fileId={}", fileId);
+            return false;
+        }
+
+        String lockKey = LOCK_PREFIX + fileId;
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(lockKey, token, Duration.ofMinutes(properties.getLockTtlMinutes()));
+        if (!Boolean.TRUE.equals(locked)) {
+            log.info("文件正在由其他节点索引，忽略重复任务 fileId={}", fileId);
+            return false;
+        }
+        IndexingScheduler.Submission submission;
+        try {
+            renewLease(fileId);
+            if (fileOpt.get().getStatus() == UploadedFile.FileStatus.FAILED) {
+                uploadedFileMapper.updateStatus(fileId, UploadedFile.FileStatus.PROCESSING.name());
+            }
+            submission = indexingScheduler.submit(fileId, payload.getUserId(), resolveLane(payload.getLane()));
+        } catch (RuntimeException e) {
+            releaseLock(lockKey, token);
+            throw e;
+        }
+        if (!submission.accepted()) {
+            // 本节点队列已满不是索引失败：以原重试次数延迟重投，由其他节点或稍后的本节点处理
+            releaseLock(lockKey, token);
+            indexJobProducer.publishRetry(payload, 0);
+            return false;
+        }
+        inFlight.put(fileId, token);
+        submission.completion().whenComplete((ignored, error) -> finish(payload, lockKey, token, error, delivery));
+        return true;
+    }
+
+    /**
+     * 索引结束（调度器工作线程上回调）：失败时转入下一级重试，然后释放处理锁并确认消息
+     */
+    private void finish(IndexJobPayload payload, String lockKey, String token, Throwable error, Delivery delivery) {
+        String fileId = payload.getFileId();
+        inFlight.remove(fileId, token);
+        try {
+            if (error != null) {
+                log.warn("索引任务执行异常 fileId={}: {}", fileId, error.getMessage());
+            }
+            UploadedFile.FileStatus status = uploadedFileMapper.findById(fileId)
+                    .map(UploadedFile::getStatus)
+                    .orElse(UploadedFile.FileStatus.COMPLETED);
+            if (status == UploadedFile.FileStatus.FAILED) {
+                retryOrDeadLetter(payload);
+            }
+        } catch (RuntimeException e) {
+            log.warn("索引任务收尾失败，退回队列 fileId={}: {}", fileId, e.getMessage());
+            releaseLock(lockKey, token);
+            delivery.requeue();
+            return;
+        }
+        releaseLock(lockKey, token);
+        delivery.ack();
+    }
+
+    /**
+     * 为本节点正在排队或执行的任务续期租约与处理锁
+     */
+    @Scheduled(initialDelayString = "#{${app.messaging.index-job.heartbeat-minutes:5} * 60000}",
+            fixedDelayString = "#{${app.messaging.index-job.heartbeat-minutes:5} * 60000}")
+    public void heartbeat() {
+        String ttlMs = String.valueOf(TimeUnit.MINUTES.toMillis(properties.getLockTtlMinutes()));
+        inFlight.forEach((fileId, token) -> {
+            renewLease(fileId);
+            try {
+                stringRedisTemplate.execute(EXTEND_LOCK_SCRIPT, Collections.singletonList(LOCK_PREFIX + fileId), token, ttlMs);
+            } catch (Exception e) {
+                log.warn("续期索引处理锁失败 fileId={}: {}", fileId, e.getMessage());
+            }
+        });
+    }
+
+    private void releaseLock(String lockKey, String token) {
+        try {
+            stringRedisTemplate.execute(RELEASE_LOCK_SCRIPT, Collections.singletonList(lockKey), token);
+        } catch (Exception e) {
+            log.warn("释放索引处理锁失败 {}: {}", lockKey, e.getMessage());
+        }
+    }
+
+    private void renewLease(String fileId) {
+        try {
+            uploadedFileMapper.renewIndexLease(fileId, LocalDateTime.now().plusMinutes(properties.getLockTtlMinutes()));
+        } catch (Exception e) {
+            log.warn("续期索引任务租约失败 fileId={}: {}", fileId, e.getMessage());
+        }
+    }
+
+    private void retryOrDeadLetter(IndexJobPayload payload) {
+        int tier = payload.getAttempt();
+        payload.setAttempt(tier + 1);
+        if (tier < properties.getRetryDelaysMs().size()) {
+            indexJobProducer.publishRetry(payload, tier);
+        } else {
+            indexJobProducer.publishDeadLetter(payload);
+        }
+    }
+
+    private IndexingScheduler.Lane resolveLane(String lane) {
+        if (IndexingScheduler.Lane.BULK.name().equals(lane)) {
+            return IndexingScheduler.Lane.BULK;
+        }
+        return IndexingScheduler.Lane.INTERACTIVE;
+    }
+
+    /**
+     * 一条消息的确认方式
+     */
+    interface Delivery {
+
+        void ack();
+
+        /**
+         * 处理出错（非索引失败）时退回队列重新投递
+         */
+        void requeue();
+    }
+}
@@ -0,0 +1,70 @@
+package com.firefly.ragdemo.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.messaging.index-job")
+public class IndexJobMessagingProperties {
+
+    private String exchange = "kb.index.job.exchange";
+    private String queue = "kb.index.job.queue";
+    private String routingKey = "kb.index.job.routing";
+
+    /**
+     * 延迟重试交换机：各级重试队列按 TTL 到期后死信回主交换机
+     */
+    private String retryExchange = "kb.index.job.retry.exchange";
+    private String retryQueuePrefix = "kb.index.job.retry.";
+    private String deadLetterQueue = "kb.index.job.dlq";
+    private String deadLetterRoutingKey = "kb.index.job.dead";
+
+    /**
+     * 各级重试延迟（毫秒），长度即最大重试次数
+     */
+    private List<Long> retryDelaysMs = new ArrayList<>(List.of(10_000L, 60_000L, 300_000L));
+
+    /**
+     * 消费者并发数（每个节点）；消费线程只负责把任务交给调度器，不需要与 app.indexing.workers 对应
+     */
+    private int concurrency = 2;
+    private int maxConcurrency = 2;
+
+    /**
+     * 每个消费者最多持有的未确认任务数；concurrency × prefetch 即本节点调度器可排队的任务数，
+     * 应不超过 app.indexing 各队列的 capacity，超出的任务按原重试次数延迟重投
+     */
+    private int prefetch = 50;
+
+    private int maxPriority = 10;
+
+    /**
+     * 文件级处理锁的过期时间（分钟），防止同一文件被多个节点同时索引
+     */
+    private long lockTtlMinutes = 30;
+
+    /**
+     * 入队（含进入重试队列）时授予的租约（分钟），应覆盖高峰时的排队时长；
+     * 处理中的任务按 heartbeatMinutes 续期 lockTtlMinutes。启动时只重新投递租约已过期的 PROCESSING 文件
+     */
+    private long queueLeaseMinutes = 120;
+
+    private long heartbeatMinutes = 5;
+
+    /**
+     * 没有租约的旧记录：上传超过该时长仍处于 PROCESSING 时重新入队
+     */
+    private long staleAfterMinutes = 15;
+
+    private int sweepBatchSize = 500;
+
+    public String retryQueueName(int tier) {
+        return retryQueuePrefix + tier;
+    }
+
+    public String retryRoutingKey(int tier) {
+        return "retry." + tier;
+    }
+}
@@ -0,0 +1,23 @@
+package com.firefly.ragdemo.messaging;
+
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IndexJobPayload {
+
+    private String fileId;
+    private String userId;
+    private String kbId;
+    // IndexingScheduler.Lane 名称
+    private String lane;
+    // 已失败次数
+    private int attempt;
+    private Instant createdAt;
+}
@@ -0,0 +1,78 @@
+package com.firefly.ragdemo.messaging;
+
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * 索引任务生产者：任务写入持久化队列，节点重启不会丢失；交互式上传使用更高的消息优先级
+ * 每次入队同时续期文件的索引租约，启动扫描不会重新投递仍在队列中等待的任务
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class IndexJobProducer {
+
+    private static final int INTERACTIVE_PRIORITY = 9;
+    private static final int BULK_PRIORITY = 1;
+
+    private final RabbitTemplate rabbitTemplate;
+    private final IndexJobMessagingProperties properties;
+    private final UploadedFileMapper uploadedFileMapper;
+
+    public void publish(String fileId, String userId, String kbId, IndexingScheduler.Lane lane) {
+        IndexJobPayload payload = IndexJobPayload.builder()
+                .fileId(fileId)
+                .userId(userId)
+                .kbId(kbId)
+                .lane((lane != null ? lane : IndexingScheduler.Lane.INTERACTIVE).name())
+                .attempt(0)
+                .createdAt(Instant.now())
+                .build();
+        renewLease(fileId, properties.getQueueLeaseMinutes() * 60_000L);
+        rabbitTemplate.convertAndSend(properties.getExchange(), properties.getRoutingKey(), payload, persistent(payload));
+        log.debug("已写入索引任务队列 fileId={}, lane={}", fileId, payload.getLane());
+    }
+
+    /**
+     * 投递到第 tier 级延迟重试队列，到期后自动回到主队列
+     */
+    public void publishRetry(IndexJobPayload payload, int tier) {
+        renewLease(payload.getFileId(),
+                properties.getRetryDelaysMs().get(tier) + properties.getQueueLeaseMinutes() * 60_000L);
+        rabbitTemplate.convertAndSend(properties.getRetryExchange(), properties.retryRoutingKey(tier), payload, persistent(payload));
+        log.info("索引任务进入第{}级重试队列 fileId={}, attempt={}", tier, payload.getFileId(), payload.getAttempt());
+    }
+
+    public void publishDeadLetter(IndexJobPayload payload) {
+        rabbitTemplate.convertAndSend(properties.getRetryExchange(), properties.getDeadLetterRoutingKey(), payload, persistent(payload));
+        log.warn("索引任务重试耗尽，已转入死信队列 fileId={}, attempt={}", payload.getFileId(), payload.getAttempt());
+    }
+
+    /**
+     * 租约续期失败不影响投递，最坏情况是启动扫描重复投递一次，由 IndexJobListener 幂等处理
+     */
+    private void renewLease(String fileId, long leaseMillis) {
+        try {
+            uploadedFileMapper.renewIndexLease(fileId, LocalDateTime.now().plusNanos(leaseMillis * 1_000_000L));
+        } catch (Exception e) {
+            log.warn("续期索引任务租约失败 fileId={}: {}", fileId, e.getMessage());
+        }
+    }
+
+    private MessagePostProcessor persistent(IndexJobPayload payload) {
+        int priority = IndexingScheduler.Lane.BULK.name().equals(payload.getLane()) ? BULK_PRIORITY : INTERACTIVE_PRIORITY;
+        return message -> {
+            message.getMessageProperties().setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+            message.getMessageProperties().setPriority(priority);
+            return message;
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package com.firefly.ragdemo.messaging;
+
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import java.time.LocalDateTime;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * 启动时把索引租约已过期的 PROCESSING 文件重新投递到索引队列
+ * （例如节点在索引过程中宕机导致任务丢失）。仍在队列或重试队列中等待、或正在处理的任务持有未过期的租约，不会重复投递；
+ * 重新投递前先用条件更新占有租约，多个节点同时启动时只投递一次。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class IndexJobRecoverySweeper {
+
+    private final UploadedFileMapper uploadedFileMapper;
+    private final IndexJobProducer indexJobProducer;
+    private final IndexJobMessagingProperties properties;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void requeueStaleFiles() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime before = now.minusMinutes(properties.getStaleAfterMinutes());
+        LocalDateTime claimUntil = now.plusMinutes(properties.getQueueLeaseMinutes());
+        int total = 0;
+        String afterId = "";
+        try {
+            while (true) {
+                List<UploadedFile> stale = uploadedFileMapper.findExpiredIndexLeases(
+                        now, before, afterId, properties.getSweepBatchSize());
+                if (stale.isEmpty()) {
+                    break;
+                }
+                for (UploadedFile file : stale) {
+                    if (uploadedFileMapper.claimExpiredIndexLease(file.getId(), now, claimUntil) == 0) {
+                        continue;
+                    }
+                    indexJobProducer.publish(file.getId(), file.getUserId(), file.getKbId(), IndexingScheduler.Lane.BULK);
+                    total++;
+                }
+                afterId = stale.get(stale.size() - 1).getId();
+            }
+        } catch (Exception e) {
+            log.error("重新投递滞留索引任务失败，已投递{}个", total, e);
+            return;
+        }
+        if (total > 0) {
+            log.info("已重新投递{}个索引租约过期的PROCESSING文件", total);
+        }
+    }
+}
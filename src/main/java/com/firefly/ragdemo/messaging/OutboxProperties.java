@@ -0,0 +1,39 @@
+package com.firefly.ragdemo.messaging;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "app.outbox")
+public class OutboxProperties {
+
+    /**
+     * 每批认领并投递的事件数
+     */
+    private int batchSize = 100;
+
+    /**
+     * 轮询待投递事件的间隔（毫秒）
+     */
+    private long pollIntervalMs = 500;
+
+    /**
+     * 等待 broker 发布确认的超时（毫秒），超时视为投递失败，稍后重试
+     */
+    private long confirmTimeoutMs = 5000;
+
+    /**
+     * 认领租约（秒），节点宕机后租约到期，事件由其他节点接手
+     */
+    private int leaseSeconds = 30;
+
+    /**
+     * 投递失败后的重试退避上限（秒），按 2^attempts 递增
+     */
+    private int maxBackoffSeconds = 60;
+
+    /**
+     * 已投递事件的保留时长（小时），保留期内可重放
+     */
+    private int retentionHours = 72;
+}
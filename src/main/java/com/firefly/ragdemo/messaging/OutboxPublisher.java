@@ -0,0 +1,39 @@
+package com.firefly.ragdemo.messaging;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.firefly.ragdemo.entity.OutboxEvent;
+import com.firefly.ragdemo.mapper.OutboxEventMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * 事件发件箱：业务线程只把事件写入本地 outbox 表（与调用方的事务一起提交），不直接访问 broker；
+ * 由 {@link OutboxRelay} 异步批量投递并等待发布确认，broker 故障期间事件保留在表中，恢复后自动补发
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxPublisher {
+
+    private final OutboxEventMapper outboxEventMapper;
+    private final ObjectMapper objectMapper;
+
+    public void append(String exchange, String routingKey, Object payload) {
+        String body;
+        try {
+            body = objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize outbox payload", e);
+        }
+        OutboxEvent event = OutboxEvent.builder()
+                .exchange(exchange)
+                .routingKey(routingKey)
+                .payloadType(payload.getClass().getName())
+                .payload(body)
+                .build();
+        outboxEventMapper.insert(event);
+        log.debug("事件已写入发件箱 id={}, exchange={}, routingKey={}", event.getId(), exchange, routingKey);
+    }
+}
@@ -0,0 +1,162 @@
+package com.firefly.ragdemo.messaging;
+
+import com.firefly.ragdemo.entity.OutboxEvent;
+import com.firefly.ragdemo.mapper.OutboxEventMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发件箱中继：认领一批待投递事件，全部发出后统一等待发布确认，确认成功的标记为已投递，
+ * 被拒绝或超时的按指数退避重新排期；broker 不可用时事件留在表中，恢复后自动补发。
+ * 已投递的事件保留 retentionHours 小时，期间可通过 {@link #replay} 重新投递（消费端需幂等）
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxRelay {
+
+    private static final int MAX_BATCHES_PER_TICK = 20;
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final OutboxEventMapper outboxEventMapper;
+    private final RabbitTemplate rabbitTemplate;
+    private final OutboxProperties properties;
+
+    private final String owner = UUID.randomUUID().toString();
+    private volatile boolean warnedNoConfirms;
+
+    @Scheduled(fixedDelayString = "${app.outbox.poll-interval-ms:500}")
+    public void relay() {
+        try {
+            for (int i = 0; i < MAX_BATCHES_PER_TICK; i++) {
+                if (relayBatch() < properties.getBatchSize()) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("发件箱投递失败，稍后重试: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return 本批认领的事件数
+     */
+    int relayBatch() {
+        int claimed = outboxEventMapper.claimBatch(owner, properties.getLeaseSeconds(), Math.max(properties.getBatchSize(), 1));
+        if (claimed == 0) {
+            return 0;
+        }
+        List<OutboxEvent> events = outboxEventMapper.findClaimed(owner);
+        boolean confirms = confirmsEnabled();
+        List<CorrelationData> pending = new ArrayList<>(events.size());
+        for (OutboxEvent event : events) {
+            CorrelationData correlation = new CorrelationData(String.valueOf(event.getId()));
+            try {
+                rabbitTemplate.send(event.getExchange(), event.getRoutingKey(), toMessage(event), correlation);
+                pending.add(correlation);
+            } catch (Exception e) {
+                pending.add(null);
+                fail(event, e.getMessage());
+            }
+        }
+
+        List<Long> published = new ArrayList<>(events.size());
+        long deadline = System.currentTimeMillis() + properties.getConfirmTimeoutMs();
+        for (int i = 0; i < events.size(); i++) {
+            CorrelationData correlation = pending.get(i);
+            if (correlation == null) {
+                continue;
+            }
+            OutboxEvent event = events.get(i);
+            if (!confirms) {
+                published.add(event.getId());
+                continue;
+            }
+            try {
+                long wait = Math.max(deadline - System.currentTimeMillis(), 1);
+                CorrelationData.Confirm confirm = correlation.getFuture().get(wait, TimeUnit.MILLISECONDS);
+                if (confirm.isAck()) {
+                    published.add(event.getId());
+                } else {
+                    fail(event, "broker nack: " + confirm.getReason());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(event, "interrupted");
+            } catch (Exception e) {
+                fail(event, "confirm timeout");
+            }
+        }
+        if (!published.isEmpty()) {
+            outboxEventMapper.markPublished(published);
+        }
+        log.debug("发件箱投递完成: 认领 {}, 已确认 {}", events.size(), published.size());
+        return claimed;
+    }
+
+    /**
+     * 重新投递最近 minutes 分钟内的事件（用于 broker 丢失队列数据后恢复消息流）
+     *
+     * @param exchange 只重放该交换机的事件，为空时全部重放
+     * @return 重新排期的事件数
+     */
+    public int replay(long minutes, String exchange) {
+        int count = outboxEventMapper.resetForReplay(minutes, exchange);
+        log.info("已重新排期 {} 个发件箱事件 (最近 {} 分钟, exchange={})", count, minutes, exchange);
+        return count;
+    }
+
+    @Scheduled(fixedRate = 3600000)
+    public void purgePublished() {
+        try {
+            int deleted;
+            do {
+                deleted = outboxEventMapper.deletePublishedBefore(properties.getRetentionHours());
+            } while (deleted > 0 && !Thread.currentThread().isInterrupted());
+        } catch (Exception e) {
+            log.warn("清理已投递的发件箱事件失败: {}", e.getMessage());
+        }
+    }
+
+    private Message toMessage(OutboxEvent event) {
+        MessageProperties messageProperties = new MessageProperties();
+        messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        messageProperties.setContentEncoding(StandardCharsets.UTF_8.name());
+        messageProperties.setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+        // 重放时 messageId 不变，消费端可据此去重
+        messageProperties.setMessageId("outbox-" + event.getId());
+        messageProperties.setHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME, event.getPayloadType());
+        return new Message(event.getPayload().getBytes(StandardCharsets.UTF_8), messageProperties);
+    }
+
+    private void fail(OutboxEvent event, String error) {
+        int attempts = event.getAttempts() != null ? event.getAttempts() : 0;
+        long delay = Math.min(1L << Math.min(attempts, 20), Math.max(properties.getMaxBackoffSeconds(), 1));
+        String message = error != null && error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+        outboxEventMapper.markFailed(event.getId(), message, delay);
+        log.warn("发件箱事件投递失败 id={}, attempts={}, {}s 后重试: {}", event.getId(), attempts + 1, delay, error);
+    }
+
+    private boolean confirmsEnabled() {
+        boolean enabled = rabbitTemplate.getConnectionFactory().isPublisherConfirms();
+        if (!enabled && !warnedNoConfirms) {
+            warnedNoConfirms = true;
+            log.warn("未开启 publisher confirms (spring.rabbitmq.publisher-confirm-type=correlated)，发件箱发送成功即视为已投递");
+        }
+        return enabled;
+    }
+}
@@ -0,0 +1,110 @@
+package com.firefly.ragdemo.repository;
+
+import com.firefly.ragdemo.config.ChunkStoreProperties;
+import com.firefly.ragdemo.util.ChunkTextCodec;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分块正文的透明压缩，字典保存在 Redis 中供所有节点共用：
+ * - rag:chunk-dict：Hash，字典 Adler-32（十六进制）→ 字典内容，重新训练后旧字典保留，已压缩的正文仍可解压
+ * - rag:chunk-dict:active：当前用于压缩的字典标识
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ChunkTextCompressor {
+
+    private static final String DICTIONARIES_KEY = "rag:chunk-dict";
+    private static final String ACTIVE_KEY = "rag:chunk-dict:active";
+    private static final String TRAINING_LOCK_KEY = "rag:chunk-dict:training";
+    private static final long ACTIVE_REFRESH_MS = 60_000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ChunkStoreProperties properties;
+
+    private final Map<Long, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private volatile byte[] activeDictionary;
+    private volatile long activeCheckedAt;
+
+    public byte[] compress(String text) {
+        ChunkStoreProperties.Compression compression = properties.getCompression();
+        if (!compression.isEnabled()) {
+            return ChunkTextCodec.encode(text, Integer.MAX_VALUE, compression.getLevel(), null);
+        }
+        return ChunkTextCodec.encode(text, compression.getMinBytes(), compression.getLevel(), activeDictionary());
+    }
+
+    public String decompress(byte[] stored) {
+        return ChunkTextCodec.decode(stored, this::dictionary);
+    }
+
+    public boolean hasActiveDictionary() {
+        return activeDictionary() != null;
+    }
+
+    /**
+     * 保存新字典并设为当前字典
+     */
+    public void install(byte[] dictionary) {
+        long id = ChunkTextCodec.dictionaryId(dictionary);
+        byte[] field = Long.toHexString(id).getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.hSet(DICTIONARIES_KEY.getBytes(StandardCharsets.UTF_8), field, dictionary);
+            return null;
+        });
+        stringRedisTemplate.opsForValue().set(ACTIVE_KEY, Long.toHexString(id));
+        dictionaries.put(id, dictionary);
+        activeDictionary = dictionary;
+        activeCheckedAt = System.currentTimeMillis();
+        log.info("已启用分块压缩字典 {} ({} 字节)", Long.toHexString(id), dictionary.length);
+    }
+
+    /**
+     * 多节点只由一个节点训练字典：在间隔内抢到训练名额的节点执行
+     */
+    public boolean tryAcquireTrainingSlot(Duration interval) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                .setIfAbsent(TRAINING_LOCK_KEY, String.valueOf(System.currentTimeMillis()), interval));
+    }
+
+    /**
+     * 当前字典可能由其他节点更新，每分钟最多向 Redis 确认一次
+     */
+    private byte[] activeDictionary() {
+        long now = System.currentTimeMillis();
+        if (now - activeCheckedAt < ACTIVE_REFRESH_MS) {
+            return activeDictionary;
+        }
+        activeCheckedAt = now;
+        try {
+            String active = stringRedisTemplate.opsForValue().get(ACTIVE_KEY);
+            activeDictionary = active != null ? dictionary(Long.parseUnsignedLong(active, 16)) : null;
+        } catch (Exception e) {
+            log.warn("读取分块压缩字典失败，沿用当前字典: {}", e.getMessage());
+        }
+        return activeDictionary;
+    }
+
+    private byte[] dictionary(long id) {
+        byte[] cached = dictionaries.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] field = Long.toHexString(id).getBytes(StandardCharsets.UTF_8);
+        byte[] loaded = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.hGet(DICTIONARIES_KEY.getBytes(StandardCharsets.UTF_8), field));
+        if (loaded != null) {
+            dictionaries.put(id, loaded);
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,222 @@
+package com.firefly.ragdemo.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.firefly.ragdemo.entity.ChatMessageRecord;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 会话最近消息窗口（热数据），客户端只需发送新消息与 sessionId：
+ * - rag:chat:history:{userId}:{sessionId}：List，元素为 {"role","content"} JSON，只保留最近 N 条
+ * - ...:seq：窗口最后一条消息的序号（与 chat_messages.seq 一致），窗口第 i 条的序号 = seq - size + 1 + i
+ * - ...:summary：Hash {s: 摘要覆盖到的序号, t: 摘要正文}
+ * seq 键存在即表示窗口已从 MySQL 预热；追加只作用于已预热的窗口，未预热时由调用方先预热再追加
+ * 键中带 userId，其他用户读取同一 sessionId 只会得到空窗口
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class RedisChatHistoryRepository {
+
+    private static final String KEY_PREFIX = "rag:chat:history:";
+    private static final String SEQ_SUFFIX = ":seq";
+    private static final String SUMMARY_SUFFIX = ":summary";
+
+    /**
+     * 返回 [seq, 摘要序号, 摘要正文, 消息...]；未预热时返回空列表
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> READ_SCRIPT = new DefaultRedisScript<>("""
+            local seq = redis.call('GET', KEYS[2])
+            if not seq then
+                return {}
+            end
+            local summary = redis.call('HMGET', KEYS[3], 's', 't')
+            local result = {seq, summary[1] or '0', summary[2] or ''}
+            for _, item in ipairs(redis.call('LRANGE', KEYS[1], 0, -1)) do
+                table.insert(result, item)
+            end
+            return result
+            """, List.class);
+
+    /**
+     * ARGV: ttlMillis, 窗口大小, 消息...；未预热时返回 -1，否则返回追加后的 seq
+     */
+    private static final DefaultRedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[2]) == 0 then
+                return -1
+            end
+            for i = 3, #ARGV do
+                redis.call('RPUSH', KEYS[1], ARGV[i])
+            end
+            redis.call('LTRIM', KEYS[1], -tonumber(ARGV[2]), -1)
+            local seq = redis.call('INCRBY', KEYS[2], #ARGV - 2)
+            for i = 1, 3 do
+                redis.call('PEXPIRE', KEYS[i], ARGV[1])
+            end
+            return seq
+            """, Long.class);
+
+    /**
+     * ARGV: ttlMillis, seq, 摘要序号, 摘要正文, 消息...；已预热（并发请求先完成了预热）时不覆盖
+     */
+    private static final DefaultRedisScript<Long> WARM_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[2]) == 1 then
+                return 0
+            end
+            redis.call('DEL', KEYS[1], KEYS[3])
+            for i = 5, #ARGV do
+                redis.call('RPUSH', KEYS[1], ARGV[i])
+            end
+            redis.call('SET', KEYS[2], ARGV[2], 'PX', ARGV[1])
+            if ARGV[4] ~= '' then
+                redis.call('HSET', KEYS[3], 's', ARGV[3], 't', ARGV[4])
+            end
+            redis.call('PEXPIRE', KEYS[1], ARGV[1])
+            redis.call('PEXPIRE', KEYS[3], ARGV[1])
+            return 1
+            """, Long.class);
+
+    /**
+     * ARGV: 摘要序号, 摘要正文；只在窗口已预热且序号前进时写入
+     */
+    private static final DefaultRedisScript<Long> SUMMARY_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[2]) == 0 then
+                return 0
+            end
+            local current = tonumber(redis.call('HGET', KEYS[3], 's') or '0')
+            if tonumber(ARGV[1]) <= current then
+                return 0
+            end
+            redis.call('HSET', KEYS[3], 's', ARGV[1], 't', ARGV[2])
+            local ttl = redis.call('PTTL', KEYS[2])
+            if ttl > 0 then
+                redis.call('PEXPIRE', KEYS[3], ttl)
+            end
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * @return 未预热时为空
+     */
+    public Optional<HistoryWindow> find(String userId, String sessionId) {
+        List<?> reply = stringRedisTemplate.execute(READ_SCRIPT, keys(userId, sessionId));
+        if (reply == null || reply.size() < 3) {
+            return Optional.empty();
+        }
+        int seq = parseInt(reply.get(0));
+        int summarySeq = parseInt(reply.get(1));
+        String summary = String.valueOf(reply.get(2));
+        int size = reply.size() - 3;
+        List<ChatMessageRecord> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ChatMessageRecord record = decode(String.valueOf(reply.get(i + 3)));
+            if (record != null) {
+                record.setSessionId(sessionId);
+                record.setUserId(userId);
+                record.setSeq(seq - size + 1 + i);
+                messages.add(record);
+            }
+        }
+        return Optional.of(new HistoryWindow(summary.isEmpty() ? null : summary, summarySeq, messages));
+    }
+
+    /**
+     * 用 MySQL 中的最近消息预热窗口
+     *
+     * @param seq 最后一条消息的序号（没有消息时为会话当前的消息数）
+     */
+    public void warm(String userId, String sessionId, HistoryWindow window, int seq, Duration ttl) {
+        List<String> args = new ArrayList<>(window.messages().size() + 4);
+        args.add(String.valueOf(ttl.toMillis()));
+        args.add(String.valueOf(seq));
+        args.add(String.valueOf(window.summarySeq()));
+        args.add(window.summary() != null ? window.summary() : "");
+        for (ChatMessageRecord record : window.messages()) {
+            args.add(encode(record.getRole(), record.getContent()));
+        }
+        stringRedisTemplate.execute(WARM_SCRIPT, keys(userId, sessionId), args.toArray());
+    }
+
+    /**
+     * 追加一轮对话
+     *
+     * @return 窗口未预热时返回 false，不写入
+     */
+    public boolean append(String userId, String sessionId, List<ChatMessageRecord> messages, int windowSize,
+                          Duration ttl) {
+        List<String> args = new ArrayList<>(messages.size() + 2);
+        args.add(String.valueOf(ttl.toMillis()));
+        args.add(String.valueOf(Math.max(windowSize, 1)));
+        for (ChatMessageRecord record : messages) {
+            args.add(encode(record.getRole(), record.getContent()));
+        }
+        Long seq = stringRedisTemplate.execute(APPEND_SCRIPT, keys(userId, sessionId), args.toArray());
+        return seq != null && seq >= 0;
+    }
+
+    /**
+     * 摘要更新后同步到窗口；窗口未预热时忽略，预热时会从 MySQL 读取
+     */
+    public void saveSummary(String userId, String sessionId, String summary, int summarySeq) {
+        stringRedisTemplate.execute(SUMMARY_SCRIPT, keys(userId, sessionId), String.valueOf(summarySeq), summary);
+    }
+
+    private List<String> keys(String userId, String sessionId) {
+        String key = KEY_PREFIX + userId + ":" + sessionId;
+        return List.of(key, key + SEQ_SUFFIX, key + SUMMARY_SUFFIX);
+    }
+
+    private String encode(String role, String content) {
+        try {
+            return objectMapper.writeValueAsString(new Entry(role, content));
+        } catch (Exception e) {
+            throw new IllegalStateException("序列化会话消息失败", e);
+        }
+    }
+
+    private ChatMessageRecord decode(String json) {
+        try {
+            Entry entry = objectMapper.readValue(json, Entry.class);
+            return ChatMessageRecord.builder().role(entry.role()).content(entry.content()).build();
+        } catch (Exception e) {
+            log.warn("会话窗口中的消息格式错误，忽略: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static int parseInt(Object value) {
+        try {
+            return Integer.parseInt(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    record Entry(String role, String content) {
+    }
+
+    /**
+     * @param summary    滚动摘要，可为空
+     * @param summarySeq 摘要覆盖到的消息序号
+     * @param messages   最近的消息，按 seq 升序
+     */
+    public record HistoryWindow(String summary, int summarySeq, List<ChatMessageRecord> messages) {
+
+        public static HistoryWindow empty() {
+            return new HistoryWindow(null, 0, Collections.emptyList());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.firefly.ragdemo.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 启动时把旧版（整段 JSON 字符串）分块转换为 Hash 布局，完成后写入标记，之后启动不再扫描
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RedisChunkLayoutMigrator {
+
+    private static final String LAYOUT_MARKER_KEY = "rag:meta:chunk-layout";
+    private static final String LAYOUT_VERSION = "hash-v1";
+    private static final int SCAN_BATCH_SIZE = 500;
+
+    private final RedisDocumentChunkRepository redisDocumentChunkRepository;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        try {
+            if (LAYOUT_VERSION.equals(stringRedisTemplate.opsForValue().get(LAYOUT_MARKER_KEY))) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int migrated = redisDocumentChunkRepository.migrateLegacyChunks(SCAN_BATCH_SIZE);
+            stringRedisTemplate.opsForValue().set(LAYOUT_MARKER_KEY, LAYOUT_VERSION);
+            log.info("Redis 分块布局迁移完成: 转换 {} 个分块, 耗时 {}ms", migrated, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Redis 分块布局迁移失败，下次启动时重试", e);
+        }
+    }
+}
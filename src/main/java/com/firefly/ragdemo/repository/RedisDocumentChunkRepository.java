@@ -1,22 +1,48 @@
 package com.firefly.ragdemo.repository;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.firefly.ragdemo.config.RetrievalProperties;
 import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.util.VectorCodec;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Repository;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Set;
 
+/**
+ * 文档分块的 Redis 存储，每个分块一个 Hash（rag:chunk:{chunkId}）：
+ * - v / v:{空间ID}：各向量空间的向量，小端 float32 二进制（字段名见 {@link RedisEmbeddingSpaceRepository}）
+ * - p / p:{空间ID}：向量截断到 app.retrieval.prefix-dims 维并重新归一化的前缀向量，供粗排使用
+ * - c：正文（UTF-8，超过阈值时由 {@link ChunkTextCompressor} 压缩）
+ * - m：紧凑元数据 JSON（用户、文件、知识库、序号、标题路径、创建时间）
+ * 检索分两阶段：先只取候选分块的 v 打分，再只为胜出的 top-k 取 c 与 m（也只有这些正文需要解压）
+ * 启动迁移完成前仍可能遇到旧版 JSON 字符串格式的分块：读取时按分块回退为 GET 并在内存中转换，脚本按 TYPE 区分两种布局
+ */
 @Repository
 @RequiredArgsConstructor
 @Slf4j
@@ -24,11 +50,94 @@ public class RedisDocumentChunkRepository {
 
     private final StringRedisTemplate stringRedisTemplate;
     private final ObjectMapper objectMapper;
+    private final ChunkTextCompressor chunkTextCompressor;
+    private final RedisEmbeddingSpaceRepository embeddingSpaces;
+    private final RetrievalProperties retrievalProperties;
 
     private static final String USER_CHUNKS_PREFIX = "rag:user:";
     private static final String FILE_CHUNKS_PREFIX = "rag:file:";
     private static final String KB_CHUNKS_PREFIX = "rag:kb:";
     private static final String CHUNK_PREFIX = "rag:chunk:";
+    private static final String MIGRATING_SUFFIX = ":migrating";
+    private static final String QUARANTINE_PREFIX = "rag:chunk-quarantine:";
+    private static final String SYNC_CURSOR_PREFIX = "rag:chunk-sync:";
+    private static final String FILE_TOMBSTONES_KEY = "rag:tombstone:file";
+    private static final String KB_TOMBSTONES_KEY = "rag:tombstone:kb";
+    private static final int PURGE_BATCH_SIZE = 200;
+    private static final Duration SYNC_CURSOR_TTL = Duration.ofDays(1);
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> SSCAN_PAGE_SCRIPT = new DefaultRedisScript<>(
+            "return redis.call('SSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[2])", List.class);
+
+    /**
+     * KEYS: 文件集合、用户 ZSet、知识库 ZSet；ARGV: cursor、COUNT、分块 key 前缀、是否清理用户索引、是否清理知识库索引
+     * 返回 {下一个 cursor, 本页删除数}，cursor 为 0 时文件集合已清空
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> PURGE_FILE_PAGE_SCRIPT = new DefaultRedisScript<>("""
+            local page = redis.call('SSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[2])
+            local ids = page[2]
+            for i = 1, #ids do
+                redis.call('UNLINK', ARGV[3] .. ids[i])
+            end
+            if #ids > 0 then
+                if ARGV[4] == '1' then redis.call('ZREM', KEYS[2], unpack(ids)) end
+                if ARGV[5] == '1' then redis.call('ZREM', KEYS[3], unpack(ids)) end
+                redis.call('SREM', KEYS[1], unpack(ids))
+            end
+            if page[1] == '0' then redis.call('UNLINK', KEYS[1]) end
+            return {page[1], #ids}
+            """, List.class);
+
+    /**
+     * KEYS: 知识库 ZSet；ARGV: 每页数量、分块/用户/文件 key 前缀
+     * 元数据取自 Hash 的 m 字段，旧版 JSON 字符串分块取 userId / fileId
+     * 返回 {本页删除数, 剩余数}
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> PURGE_KB_PAGE_SCRIPT = new DefaultRedisScript<>("""
+            local ids = redis.call('ZRANGE', KEYS[1], 0, tonumber(ARGV[1]) - 1)
+            for i = 1, #ids do
+                local key = ARGV[2] .. ids[i]
+                local kind = redis.call('TYPE', key).ok
+                local user, file
+                if kind == 'hash' then
+                    local meta = redis.call('HGET', key, 'm')
+                    if meta then
+                        local ok, m = pcall(cjson.decode, meta)
+                        if ok then user, file = m.u, m.f end
+                    end
+                elseif kind == 'string' then
+                    local ok, m = pcall(cjson.decode, redis.call('GET', key))
+                    if ok and type(m) == 'table' then user, file = m.userId, m.fileId end
+                end
+                if type(user) == 'string' then redis.call('ZREM', ARGV[3] .. user .. ':chunks', ids[i]) end
+                if type(file) == 'string' then redis.call('SREM', ARGV[4] .. file .. ':chunks', ids[i]) end
+                redis.call('UNLINK', key)
+            end
+            if #ids > 0 then redis.call('ZREM', KEYS[1], unpack(ids)) end
+            local left = redis.call('ZCARD', KEYS[1])
+            return {#ids, left}
+            """, List.class);
+
+    /**
+     * KEYS: 分块 key；ARGV: 字段名, 各分块的值。只写入仍存在的 Hash 分块，避免给已删除的分块留下残缺的 Hash；
+     * 尚未迁移的旧版字符串分块跳过
+     */
+    private static final byte[] SET_FIELD_IF_EXISTS_SCRIPT = bytes("""
+            local written = 0
+            for i = 1, #KEYS do
+                if redis.call('TYPE', KEYS[i]).ok == 'hash' then
+                    redis.call('HSET', KEYS[i], ARGV[1], ARGV[i + 1])
+                    written = written + 1
+                end
+            end
+            return written
+            """);
+
+    private static final byte[] FIELD_CONTENT = bytes("c");
+    private static final byte[] FIELD_META = bytes("m");
 
     /**
      * 批量保存DocumentChunk，使用Pipeline优化性能
@@ -41,38 +150,36 @@ public class RedisDocumentChunkRepository {
 
         long startTime = System.currentTimeMillis();
 
+        // 序列化放在 Pipeline 之外，避免占用连接时做 CPU 计算
+        List<Map<byte[], byte[]>> hashes = new ArrayList<>(chunks.size());
+        for (DocumentChunk chunk : chunks) {
+            hashes.add(chunk == null || chunk.getId() == null ? null : toHash(chunk));
+        }
+
         // 使用Pipeline批量执行Redis操作
         stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
-            for (DocumentChunk chunk : chunks) {
-                if (chunk == null || chunk.getId() == null) {
+            for (int i = 0; i < chunks.size(); i++) {
+                DocumentChunk chunk = chunks.get(i);
+                if (hashes.get(i) == null) {
                     continue;
                 }
 
-                String serialized = serialize(chunk);
-                byte[] chunkKeyBytes = chunkKey(chunk.getId()).getBytes();
-                byte[] serializedBytes = serialized.getBytes();
-
-                // 1. 保存chunk内容
-                connection.set(chunkKeyBytes, serializedBytes);
+                // 1. 保存chunk的向量、正文与元数据
+                connection.hMSet(bytes(chunkKey(chunk.getId())), hashes.get(i));
 
                 // 2. 添加到用户的ZSet (按时间排序)
-                double score = chunk.getCreatedAt() != null
-                        ? chunk.getCreatedAt().toEpochSecond(ZoneOffset.UTC)
-                        : System.currentTimeMillis() / 1000.0;
-                byte[] userChunksKeyBytes = userChunksKey(chunk.getUserId()).getBytes();
-                byte[] chunkIdBytes = chunk.getId().getBytes();
-                connection.zAdd(userChunksKeyBytes, score, chunkIdBytes);
+                double score = score(chunk);
+                byte[] chunkIdBytes = bytes(chunk.getId());
+                connection.zAdd(bytes(userChunksKey(chunk.getUserId())), score, chunkIdBytes);
 
                 // 3. 添加到文件的Set (用于删除时级联)
                 if (chunk.getFileId() != null) {
-                    byte[] fileChunksKeyBytes = fileChunksKey(chunk.getFileId()).getBytes();
-                    connection.sAdd(fileChunksKeyBytes, chunkIdBytes);
+                    connection.sAdd(bytes(fileChunksKey(chunk.getFileId())), chunkIdBytes);
                 }
 
                 // 4. 添加到知识库ZSet（支持公共/私人检索）
                 if (chunk.getKbId() != null && !chunk.getKbId().isBlank()) {
-                    byte[] kbChunksKeyBytes = kbChunksKey(chunk.getKbId()).getBytes();
-                    connection.zAdd(kbChunksKeyBytes, score, chunkIdBytes);
+                    connection.zAdd(bytes(kbChunksKey(chunk.getKbId())), score, chunkIdBytes);
                 }
             }
             return null;
@@ -83,174 +190,712 @@ public class RedisDocumentChunkRepository {
     }
 
     /**
-     * 查询用户的文档块，使用Pipeline批量获取
+     * 检索第一阶段：取用户最近的候选分块向量（不含正文），coarse 为 true 时取前缀向量
+     * 用户的分块可能分属不同向量空间的知识库：有知识库切换过空间时先读元数据确定每个分块的空间，再按空间取向量
      */
-    public List<DocumentChunk> findByUser(String userId, int candidateLimit) {
+    public List<ChunkVector> findVectorsByUser(String userId, int candidateLimit, boolean coarse) {
         if (userId == null || userId.isBlank()) {
             return Collections.emptyList();
         }
-
         int range = candidateLimit > 0 ? candidateLimit : 200;
-
-        // 1. 先获取chunk IDs
         Set<String> chunkIds = stringRedisTemplate.opsForZSet()
                 .reverseRange(userChunksKey(userId), 0, range - 1);
-
         if (chunkIds == null || chunkIds.isEmpty()) {
             return Collections.emptyList();
         }
-
-        // 2. 使用Pipeline批量获取chunk内容
-        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
-            for (String chunkId : chunkIds) {
-                if (chunkId != null) {
-                    byte[] key = chunkKey(chunkId).getBytes();
-                    connection.get(key);
-                }
-            }
-            return null;
-        });
-
-        // 3. 反序列化结果
-        List<DocumentChunk> resultChunks = new ArrayList<>(chunkIds.size());
-        for (Object result : results) {
-            if (result == null) {
+        if (embeddingSpaces.activeSpaces().isEmpty()) {
+            return fetchCandidates(chunkIds, embeddingSpaces.baseSpace(), coarse);
+        }
+        List<String> ids = new ArrayList<>(chunkIds);
+        List<byte[][]> metas = readFields(ids, FIELD_META);
+        Map<String, List<String>> bySpace = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] meta = metas.get(i)[0];
+            if (meta == null) {
                 continue;
             }
-            String json = result.toString();
-            DocumentChunk chunk = deserialize(json);
-            if (chunk != null && Objects.equals(userId, chunk.getUserId())) {
-                resultChunks.add(chunk);
+            String kbId = null;
+            try {
+                kbId = objectMapper.readValue(meta, ChunkMeta.class).k();
+            } catch (Exception e) {
+                log.warn("解析分块元数据失败 chunkId={}: {}", ids.get(i), e.getMessage());
             }
+            bySpace.computeIfAbsent(embeddingSpaces.activeSpace(kbId), k -> new ArrayList<>()).add(ids.get(i));
         }
-
-        return resultChunks;
+        List<ChunkVector> vectors = new ArrayList<>(ids.size());
+        for (Map.Entry<String, List<String>> entry : bySpace.entrySet()) {
+            vectors.addAll(fetchCandidates(entry.getValue(), entry.getKey(), coarse));
+        }
+        return vectors;
     }
 
     /**
-     * 按知识库集合批量查询分块，每个知识库各取指定数量的候选
+     * 检索第一阶段：每个知识库各取指定数量的候选分块在指定向量空间中的向量（不含正文），跨知识库去重
+     * coarse 为 true 时取前缀向量，数据量约为完整向量的 prefix-dims / 维度
      */
-    public List<DocumentChunk> findByKnowledgeBases(List<String> kbIds, int candidatePerKb) {
+    public List<ChunkVector> findVectorsByKnowledgeBases(List<String> kbIds, int candidatePerKb, String space,
+                                                         boolean coarse) {
         if (kbIds == null || kbIds.isEmpty()) {
             return Collections.emptyList();
         }
         int limit = candidatePerKb > 0 ? candidatePerKb : 50;
-        List<DocumentChunk> all = new ArrayList<>();
-        Set<String> seenChunkIds = new HashSet<>();
+        Set<String> chunkIds = new LinkedHashSet<>();
         for (String kbId : kbIds) {
             if (kbId == null || kbId.isBlank()) {
                 continue;
             }
-            Set<String> chunkIds = stringRedisTemplate.opsForZSet()
-                    .reverseRange(kbChunksKey(kbId), 0, limit - 1);
-            if (chunkIds == null || chunkIds.isEmpty()) {
-                continue;
+            Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(kbChunksKey(kbId), 0, limit - 1);
+            if (ids != null) {
+                chunkIds.addAll(ids);
             }
-            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
-                for (String chunkId : chunkIds) {
-                    if (chunkId != null) {
-                        connection.get(chunkKey(chunkId).getBytes());
-                    }
-                }
-                return null;
-            });
-            for (int i = 0; i < results.size(); i++) {
-                Object result = results.get(i);
-                if (result == null) {
-                    continue;
-                }
-                DocumentChunk chunk = deserialize(result.toString());
-                if (chunk != null && chunk.getId() != null && seenChunkIds.add(chunk.getId())) {
-                    all.add(chunk);
-                }
+        }
+        if (chunkIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return fetchCandidates(chunkIds, space, coarse);
+    }
+
+    /**
+     * 粗排后的重排：取指定分块的完整向量
+     */
+    public List<ChunkVector> findVectorsByIds(Collection<String> chunkIds, String space) {
+        if (chunkIds == null || chunkIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return fetchVectors(chunkIds, space);
+    }
+
+    /**
+     * 检索第二阶段：按给定顺序取分块正文与元数据（不含向量），不存在的分块被跳过
+     */
+    public List<DocumentChunk> findByIds(List<String> chunkIds) {
+        if (chunkIds == null || chunkIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<byte[][]> results = readFields(chunkIds, FIELD_CONTENT, FIELD_META);
+        List<DocumentChunk> chunks = new ArrayList<>(chunkIds.size());
+        for (int i = 0; i < results.size(); i++) {
+            byte[][] fields = results.get(i);
+            DocumentChunk chunk = fromFields(chunkIds.get(i), null, fields[0], fields[1]);
+            if (chunk != null) {
+                chunks.add(chunk);
             }
         }
-        return all;
+        return chunks;
     }
 
     /**
-     * 按文件ID获取分块
+     * 按文件ID获取分块（含指定向量空间的向量，分块没有该空间的向量时 embedding 为 null）
      */
-    public List<DocumentChunk> findByFileId(String fileId) {
+    public List<DocumentChunk> findByFileId(String fileId, String space) {
         if (fileId == null || fileId.isBlank()) {
             return Collections.emptyList();
         }
-        Set<String> chunkIds = stringRedisTemplate.opsForSet().members(fileChunksKey(fileId));
+        Set<String> members = stringRedisTemplate.opsForSet().members(fileChunksKey(fileId));
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return findWithVectorsByIds(new ArrayList<>(members), space);
+    }
+
+    /**
+     * 按给定顺序取分块在指定向量空间中的向量、正文与元数据，不存在的分块被跳过
+     */
+    public List<DocumentChunk> findWithVectorsByIds(List<String> chunkIds, String space) {
         if (chunkIds == null || chunkIds.isEmpty()) {
             return Collections.emptyList();
         }
-        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+        byte[] vectorField = embeddingSpaces.vectorField(space);
+        List<byte[][]> results = readFields(chunkIds, vectorField, FIELD_CONTENT, FIELD_META);
+        List<DocumentChunk> chunks = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            byte[][] fields = results.get(i);
+            DocumentChunk chunk = fromFields(chunkIds.get(i), fields[0], fields[1], fields[2]);
+            if (chunk != null) {
+                chunk.setEmbeddingSpace(space);
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * 按排名分页读取知识库的分块ID（从最早写入的开始）
+     */
+    public List<String> findKnowledgeBaseChunkIds(String kbId, long offset, int count) {
+        Set<String> ids = stringRedisTemplate.opsForZSet().range(kbChunksKey(kbId), offset, offset + count - 1);
+        return ids != null ? new ArrayList<>(ids) : Collections.emptyList();
+    }
+
+    /**
+     * 筛选出缺少指定向量空间向量的分块；索引中残留但分块已删除的ID不算缺少
+     */
+    public List<String> findMissingVectors(List<String> chunkIds, String space) {
+        if (chunkIds == null || chunkIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        byte[] vectorField = embeddingSpaces.vectorField(space);
+        List<Object> results = executePipelinedTolerant(connection -> {
             for (String chunkId : chunkIds) {
-                connection.get(chunkKey(chunkId).getBytes());
+                byte[] key = bytes(chunkKey(chunkId));
+                connection.hExists(key, vectorField);
+                connection.type(key);
             }
             return null;
         });
-        List<DocumentChunk> chunks = new ArrayList<>(results.size());
-        for (Object result : results) {
-            if (result == null) {
-                continue;
+        List<String> legacy = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < chunkIds.size(); i++) {
+            Object hasVector = results.get(2 * i);
+            if (hasVector instanceof Throwable) {
+                legacy.add(chunkIds.get(i));
+            } else if (!Boolean.TRUE.equals(hasVector) && results.get(2 * i + 1) != DataType.NONE) {
+                missing.add(chunkIds.get(i));
             }
-            DocumentChunk chunk = deserialize(result.toString());
-            if (chunk != null) {
-                chunks.add(chunk);
+        }
+        if (!legacy.isEmpty()) {
+            String field = new String(vectorField, StandardCharsets.UTF_8);
+            Map<String, Map<String, byte[]>> hashes = legacyHashes(legacy);
+            for (String chunkId : legacy) {
+                Map<String, byte[]> hash = hashes.get(chunkId);
+                if (hash != null && !hash.containsKey(field)) {
+                    missing.add(chunkId);
+                }
             }
         }
-        return chunks;
+        return missing;
     }
 
     /**
-     * 删除指定文件的所有chunks，使用Pipeline批量操作
+     * 统计知识库中缺少指定向量空间向量的分块数，用于确认迁移完成
+     * 用 ZSCAN 遍历：扫描期间一直存在的分块都会被检查到，不会因并发删除导致排名偏移而漏掉
      */
-    public void deleteByFileIdAndUser(String fileId, String userId, String kbId) {
-        if (fileId == null || fileId.isBlank()) {
-            return;
+    public int countMissingVectors(String kbId, String space, int batchSize) {
+        int missing = 0;
+        List<String> batch = new ArrayList<>(batchSize);
+        ScanOptions options = ScanOptions.scanOptions().count(batchSize).build();
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor =
+                     stringRedisTemplate.opsForZSet().scan(kbChunksKey(kbId), options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next().getValue());
+                if (batch.size() >= batchSize) {
+                    missing += findMissingVectors(batch, space).size();
+                    batch.clear();
+                }
+            }
         }
+        if (!batch.isEmpty()) {
+            missing += findMissingVectors(batch, space).size();
+        }
+        return missing;
+    }
 
-        // 1. 获取文件的所有chunk IDs
-        Set<String> chunkIds = stringRedisTemplate.opsForSet().members(fileChunksKey(fileId));
+    /**
+     * 为已有分块写入指定向量空间的向量，已删除的分块被跳过
+     *
+     * @return 写入的分块数
+     */
+    public int saveVectors(String space, Map<String, float[]> vectors) {
+        if (vectors == null || vectors.isEmpty()) {
+            return 0;
+        }
+        Map<String, byte[]> encoded = new LinkedHashMap<>();
+        Map<String, byte[]> prefixes = new LinkedHashMap<>();
+        for (Map.Entry<String, float[]> entry : vectors.entrySet()) {
+            encoded.put(entry.getKey(), VectorCodec.encode(entry.getValue()));
+            float[] prefix = prefixOf(entry.getValue());
+            if (prefix != null) {
+                prefixes.put(entry.getKey(), VectorCodec.encode(prefix));
+            }
+        }
+        int written = setFieldIfExists(embeddingSpaces.vectorField(space), encoded);
+        setFieldIfExists(embeddingSpaces.prefixField(space), prefixes);
+        return written;
+    }
+
+    /**
+     * 删除分块在指定向量空间中的向量（知识库切换空间后释放旧空间占用的内存）
+     */
+    public void removeVectors(String space, List<String> chunkIds) {
         if (chunkIds == null || chunkIds.isEmpty()) {
             return;
         }
-
-        // 2. 使用Pipeline批量删除
-        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+        byte[] vectorField = embeddingSpaces.vectorField(space);
+        byte[] prefixField = embeddingSpaces.prefixField(space);
+        // 旧版字符串分块只有 base 空间的向量，HDEL 报 WRONGTYPE 时忽略
+        executePipelinedTolerant(connection -> {
             for (String chunkId : chunkIds) {
-                // 删除chunk内容
-                byte[] chunkKeyBytes = chunkKey(chunkId).getBytes();
-                connection.del(chunkKeyBytes);
-
-                // 从用户ZSet中移除
-                if (userId != null) {
-                    byte[] userChunksKeyBytes = userChunksKey(userId).getBytes();
-                    byte[] chunkIdBytes = chunkId.getBytes();
-                    connection.zRem(userChunksKeyBytes, chunkIdBytes);
+                connection.hDel(bytes(chunkKey(chunkId)), vectorField, prefixField);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 用 SSCAN 分页遍历文件的分块ID，每次只返回一页；cursor 为 "0" 表示从头开始
+     * 返回的 nextCursor 可保存下来，中断后从该位置继续（SSCAN 保证遍历期间一直存在的元素至少返回一次）
+     */
+    public ChunkIdPage scanFileChunkIds(String fileId, String cursor, int count) {
+        List<?> reply = stringRedisTemplate.execute(SSCAN_PAGE_SCRIPT,
+                List.of(fileChunksKey(fileId)), cursor != null ? cursor : "0", String.valueOf(Math.max(count, 1)));
+        if (reply == null || reply.size() < 2) {
+            return new ChunkIdPage("0", Collections.emptyList());
+        }
+        List<String> chunkIds = new ArrayList<>();
+        for (Object member : (List<?>) reply.get(1)) {
+            chunkIds.add(String.valueOf(member));
+        }
+        return new ChunkIdPage(String.valueOf(reply.get(0)), chunkIds);
+    }
+
+    /**
+     * 读取文件同步到 MySQL 的断点（已提交页之后的 SSCAN cursor），没有断点时返回 "0"
+     */
+    public String loadSyncCursor(String fileId) {
+        String cursor = stringRedisTemplate.opsForValue().get(syncCursorKey(fileId));
+        return cursor != null ? cursor : "0";
+    }
+
+    public void saveSyncCursor(String fileId, String cursor) {
+        stringRedisTemplate.opsForValue().set(syncCursorKey(fileId), cursor, SYNC_CURSOR_TTL);
+    }
+
+    public void clearSyncCursor(String fileId) {
+        stringRedisTemplate.delete(syncCursorKey(fileId));
+    }
+
+    /**
+     * 抽样读取分块正文（已解压），用于训练压缩字典
+     */
+    public List<String> sampleContents(int limit) {
+        List<String> chunkIds = new ArrayList<>(limit);
+        ScanOptions options = ScanOptions.scanOptions().match(CHUNK_PREFIX + "*").count(500).build();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            while (cursor.hasNext() && chunkIds.size() < limit) {
+                String key = cursor.next();
+                if (!key.endsWith(MIGRATING_SUFFIX)) {
+                    chunkIds.add(key.substring(CHUNK_PREFIX.length()));
                 }
+            }
+        }
+        if (chunkIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> contents = new ArrayList<>(chunkIds.size());
+        for (byte[][] fields : readFields(chunkIds, FIELD_CONTENT)) {
+            if (fields[0] != null) {
+                contents.add(chunkTextCompressor.decompress(fields[0]));
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * 删除指定文件的所有chunks：服务端脚本每次用 SSCAN 取一页分块，UNLINK 分块并从用户/知识库索引中移除，
+     * 单次脚本只处理一页，不会长时间阻塞 Redis
+     *
+     * @return 删除的分块数
+     */
+    public int deleteByFileIdAndUser(String fileId, String userId, String kbId) {
+        if (fileId == null || fileId.isBlank()) {
+            return 0;
+        }
+        boolean hasUser = userId != null && !userId.isBlank();
+        boolean hasKb = kbId != null && !kbId.isBlank();
+        List<String> keys = List.of(fileChunksKey(fileId),
+                hasUser ? userChunksKey(userId) : fileChunksKey(fileId),
+                hasKb ? kbChunksKey(kbId) : fileChunksKey(fileId));
+        String cursor = "0";
+        int deleted = 0;
+        do {
+            List<?> reply = stringRedisTemplate.execute(PURGE_FILE_PAGE_SCRIPT, keys, cursor,
+                    String.valueOf(PURGE_BATCH_SIZE), CHUNK_PREFIX, hasUser ? "1" : "0", hasKb ? "1" : "0");
+            if (reply == null || reply.size() < 2) {
+                break;
+            }
+            cursor = String.valueOf(reply.get(0));
+            deleted += ((Number) reply.get(1)).intValue();
+        } while (!"0".equals(cursor));
+
+        log.info("已删除文件{}的{}个chunks", fileId, deleted);
+        return deleted;
+    }
+
+    /**
+     * 删除知识库的所有chunks：服务端脚本每次取知识库 ZSet 的一页，按分块元数据同步清理用户索引与文件集合
+     *
+     * @return 删除的分块数
+     */
+    public int deleteByKnowledgeBase(String kbId) {
+        if (kbId == null || kbId.isBlank()) {
+            return 0;
+        }
+        List<String> keys = List.of(kbChunksKey(kbId));
+        int deleted = 0;
+        while (true) {
+            List<?> reply = stringRedisTemplate.execute(PURGE_KB_PAGE_SCRIPT, keys, String.valueOf(PURGE_BATCH_SIZE),
+                    CHUNK_PREFIX, USER_CHUNKS_PREFIX, FILE_CHUNKS_PREFIX);
+            if (reply == null || reply.size() < 2) {
+                break;
+            }
+            deleted += ((Number) reply.get(0)).intValue();
+            if (((Number) reply.get(1)).longValue() == 0) {
+                break;
+            }
+        }
+        log.info("已删除知识库{}的{}个chunks", kbId, deleted);
+        return deleted;
+    }
 
-                if (kbId != null && !kbId.isBlank()) {
-                    byte[] kbChunksKeyBytes = kbChunksKey(kbId).getBytes();
-                    connection.zRem(kbChunksKeyBytes, chunkId.getBytes());
+    /**
+     * 标记文件/知识库已删除：检索时立即排除，分块由后台任务清理，完成后移除标记
+     * 文件标记的值为 "userId\nkbId"，后台任务中断后据此恢复清理
+     */
+    public void tombstoneFile(String fileId, String userId, String kbId) {
+        stringRedisTemplate.opsForHash().put(FILE_TOMBSTONES_KEY, fileId,
+                (userId != null ? userId : "") + "\n" + (kbId != null ? kbId : ""));
+    }
+
+    public void tombstoneKnowledgeBase(String kbId) {
+        stringRedisTemplate.opsForHash().put(KB_TOMBSTONES_KEY, kbId, String.valueOf(System.currentTimeMillis()));
+    }
+
+    public void clearFileTombstone(String fileId) {
+        stringRedisTemplate.opsForHash().delete(FILE_TOMBSTONES_KEY, fileId);
+    }
+
+    public void clearKnowledgeBaseTombstone(String kbId) {
+        stringRedisTemplate.opsForHash().delete(KB_TOMBSTONES_KEY, kbId);
+    }
+
+    /**
+     * 待清理的文件：fileId → [userId, kbId]
+     */
+    public Map<String, String[]> pendingFileTombstones() {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(FILE_TOMBSTONES_KEY);
+        Map<String, String[]> pending = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            pending.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()).split("\n", -1));
+        }
+        return pending;
+    }
+
+    public Set<String> pendingKnowledgeBaseTombstones() {
+        Set<String> kbIds = new LinkedHashSet<>();
+        for (Object key : stringRedisTemplate.opsForHash().keys(KB_TOMBSTONES_KEY)) {
+            kbIds.add(String.valueOf(key));
+        }
+        return kbIds;
+    }
+
+    /**
+     * 检索用：一次往返读取已删除但尚未清理完的文件与知识库
+     */
+    public Tombstones loadTombstones() {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hKeys(bytes(FILE_TOMBSTONES_KEY));
+            connection.hKeys(bytes(KB_TOMBSTONES_KEY));
+            return null;
+        });
+        return new Tombstones(toStringSet(results.get(0)), toStringSet(results.get(1)));
+    }
+
+    /**
+     * 把旧版 JSON 字符串格式的分块转换为 Hash：先写入临时 key 再 RENAME 覆盖，读取方不会看到缺失的分块
+     *
+     * @return 本次转换的分块数
+     */
+    public int migrateLegacyChunks(int batchSize) {
+        int migrated = 0;
+        List<String> batch = new ArrayList<>(batchSize);
+        ScanOptions options = ScanOptions.scanOptions().match(CHUNK_PREFIX + "*").count(batchSize).build();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                if (!key.endsWith(MIGRATING_SUFFIX)) {
+                    batch.add(key);
+                }
+                if (batch.size() >= batchSize) {
+                    migrated += migrateBatch(batch);
+                    batch.clear();
                 }
             }
+        }
+        if (!batch.isEmpty()) {
+            migrated += migrateBatch(batch);
+        }
+        return migrated;
+    }
 
-            // 删除文件的chunk集合
-            byte[] fileChunksKeyBytes = fileChunksKey(fileId).getBytes();
-            connection.del(fileChunksKeyBytes);
+    private int migrateBatch(List<String> keys) {
+        List<Object> types = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.type(bytes(key));
+            }
+            return null;
+        });
+        List<String> legacyKeys = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (types.get(i) == DataType.STRING) {
+                legacyKeys.add(keys.get(i));
+            }
+        }
+        if (legacyKeys.isEmpty()) {
+            return 0;
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(legacyKeys);
+        Map<String, Map<byte[], byte[]>> converted = new HashMap<>();
+        for (int i = 0; i < legacyKeys.size(); i++) {
+            String json = values != null ? values.get(i) : null;
+            DocumentChunk chunk = json != null ? deserializeLegacy(json) : null;
+            if (chunk == null || chunk.getId() == null) {
+                if (json != null) {
+                    quarantine(legacyKeys.get(i));
+                }
+                continue;
+            }
+            chunk.setEmbedding(VectorCodec.parseJson(chunk.getEmbeddingJson()));
+            converted.put(legacyKeys.get(i), toHash(chunk));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, Map<byte[], byte[]>> entry : converted.entrySet()) {
+                byte[] temp = bytes(entry.getKey() + MIGRATING_SUFFIX);
+                connection.del(temp);
+                connection.hMSet(temp, entry.getValue());
+                connection.rename(temp, bytes(entry.getKey()));
+            }
+            return null;
+        });
+        return converted.size();
+    }
+
+    private List<ChunkVector> fetchCandidates(Collection<String> ids, String space, boolean coarse) {
+        return coarse ? fetchPrefixes(ids, space) : fetchVectors(ids, space);
+    }
+
+    /**
+     * 读取前缀向量；缺少前缀（升级前写入的分块）或维度与配置不符的分块改读完整向量现场截断，并写回前缀供下次使用
+     */
+    private List<ChunkVector> fetchPrefixes(Collection<String> ids, String space) {
+        List<String> chunkIds = new ArrayList<>(ids);
+        byte[] prefixField = embeddingSpaces.prefixField(space);
+        List<byte[][]> results = readFields(chunkIds, prefixField);
+        int dims = retrievalProperties.getPrefixDims();
+        List<ChunkVector> vectors = new ArrayList<>(chunkIds.size());
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            float[] prefix = VectorCodec.decode(results.get(i)[0]);
+            if (prefix.length > 0 && prefix.length == dims) {
+                vectors.add(new ChunkVector(chunkIds.get(i), prefix, space));
+            } else {
+                missing.add(chunkIds.get(i));
+            }
+        }
+        if (missing.isEmpty()) {
+            return vectors;
+        }
+        Map<String, byte[]> backfill = new LinkedHashMap<>();
+        for (ChunkVector full : fetchVectors(missing, space)) {
+            float[] prefix = VectorCodec.truncate(full.vector(), dims > 0 ? dims : full.vector().length);
+            vectors.add(new ChunkVector(full.chunkId(), prefix, space));
+            if (prefixOf(full.vector()) != null) {
+                backfill.put(full.chunkId(), VectorCodec.encode(prefix));
+            }
+        }
+        setFieldIfExists(prefixField, backfill);
+        return vectors;
+    }
+
+    private int setFieldIfExists(byte[] field, Map<String, byte[]> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        byte[][] keysAndArgs = new byte[values.size() * 2 + 1][];
+        int i = 0;
+        for (String chunkId : values.keySet()) {
+            keysAndArgs[i++] = bytes(chunkKey(chunkId));
+        }
+        keysAndArgs[i++] = field;
+        for (byte[] value : values.values()) {
+            keysAndArgs[i++] = value;
+        }
+        Long written = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.scriptingCommands()
+                .eval(SET_FIELD_IF_EXISTS_SCRIPT, ReturnType.INTEGER, values.size(), keysAndArgs));
+        return written != null ? written.intValue() : 0;
+    }
+
+    /**
+     * 需要另存前缀向量时返回截断并归一化的前缀，否则返回 null
+     */
+    private float[] prefixOf(float[] vector) {
+        int dims = retrievalProperties.getPrefixDims();
+        return dims > 0 && vector.length > dims ? VectorCodec.truncate(vector, dims) : null;
+    }
+
+    private List<ChunkVector> fetchVectors(Collection<String> ids, String space) {
+        List<String> chunkIds = new ArrayList<>(ids);
+        byte[] vectorField = embeddingSpaces.vectorField(space);
+        List<byte[][]> results = readFields(chunkIds, vectorField);
+        List<ChunkVector> vectors = new ArrayList<>(chunkIds.size());
+        for (int i = 0; i < results.size(); i++) {
+            float[] vector = VectorCodec.decode(results.get(i)[0]);
+            if (vector.length > 0) {
+                vectors.add(new ChunkVector(chunkIds.get(i), vector, space));
+            }
+        }
+        return vectors;
+    }
 
+    /**
+     * 流水线读取各分块 Hash 的指定字段；尚未迁移的旧版字符串分块 HMGET 报 WRONGTYPE，改为 GET 后在内存中转换为 Hash 字段
+     *
+     * @return 与 chunkIds 一一对应，每项按 fields 顺序；分块不存在或缺少字段时为 null
+     */
+    private List<byte[][]> readFields(List<String> chunkIds, byte[]... fields) {
+        List<Object> results = executePipelinedTolerant(connection -> {
+            for (String chunkId : chunkIds) {
+                connection.hMGet(bytes(chunkKey(chunkId)), fields);
+            }
             return null;
         });
+        List<byte[][]> values = new ArrayList<>(chunkIds.size());
+        List<String> legacy = new ArrayList<>();
+        for (int i = 0; i < chunkIds.size(); i++) {
+            byte[][] row = new byte[fields.length][];
+            if (i < results.size() && results.get(i) instanceof List<?> reply) {
+                for (int j = 0; j < fields.length && j < reply.size(); j++) {
+                    row[j] = (byte[]) reply.get(j);
+                }
+            } else if (i < results.size() && results.get(i) instanceof Throwable) {
+                legacy.add(chunkIds.get(i));
+            }
+            values.add(row);
+        }
+        if (legacy.isEmpty()) {
+            return values;
+        }
+        Map<String, Map<String, byte[]>> hashes = legacyHashes(legacy);
+        for (int i = 0; i < chunkIds.size(); i++) {
+            Map<String, byte[]> hash = hashes.get(chunkIds.get(i));
+            if (hash == null) {
+                continue;
+            }
+            for (int j = 0; j < fields.length; j++) {
+                values.get(i)[j] = hash.get(new String(fields[j], StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 读取旧版 JSON 字符串分块并转换为 Hash 字段（字段名 → 值）；无法解析的分块不返回，由迁移任务隔离
+     */
+    private Map<String, Map<String, byte[]>> legacyHashes(List<String> chunkIds) {
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(chunkIds.stream().map(this::chunkKey).toList());
+        Map<String, Map<String, byte[]>> hashes = new HashMap<>();
+        for (int i = 0; i < chunkIds.size(); i++) {
+            String json = values != null ? values.get(i) : null;
+            DocumentChunk chunk = json != null ? deserializeLegacy(json) : null;
+            if (chunk == null) {
+                continue;
+            }
+            chunk.setEmbedding(VectorCodec.parseJson(chunk.getEmbeddingJson()));
+            Map<String, byte[]> fields = new HashMap<>();
+            toHash(chunk).forEach((field, value) -> fields.put(new String(field, StandardCharsets.UTF_8), value));
+            hashes.put(chunkIds.get(i), fields);
+        }
+        return hashes;
+    }
+
+    /**
+     * 流水线中个别命令报 WRONGTYPE（旧版字符串分块）时不丢弃整批结果：对应位置为异常对象，其余结果照常返回；其他错误仍抛出
+     */
+    private List<Object> executePipelinedTolerant(RedisCallback<Object> callback) {
+        try {
+            return stringRedisTemplate.executePipelined(callback, null);
+        } catch (RedisPipelineException e) {
+            for (Object result : e.getPipelineResult()) {
+                if (result instanceof Throwable error && !isWrongType(error)) {
+                    throw e;
+                }
+            }
+            return e.getPipelineResult();
+        }
+    }
 
-        log.info("已删除文件{}的{}个chunks", fileId, chunkIds.size());
+    private static boolean isWrongType(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("WRONGTYPE")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 无法解析的旧版分块移出分块命名空间：读取方不再反复尝试，迁移扫描不再遇到；原值保留以便人工排查
+     */
+    private void quarantine(String key) {
+        String target = QUARANTINE_PREFIX + key.substring(CHUNK_PREFIX.length());
+        try {
+            stringRedisTemplate.rename(key, target);
+            log.warn("旧版分块无法解析，已隔离: {} -> {}", key, target);
+        } catch (Exception e) {
+            log.warn("隔离无法解析的旧版分块失败: {} ({})", key, e.getMessage());
+        }
     }
 
-    private String serialize(DocumentChunk chunk) {
+    private Map<byte[], byte[]> toHash(DocumentChunk chunk) {
+        ChunkMeta meta = new ChunkMeta(
+                chunk.getUserId(),
+                chunk.getFileId(),
+                chunk.getKbId(),
+                chunk.getChunkIndex(),
+                chunk.getHeadingPath(),
+                chunk.getCreatedAt() != null ? chunk.getCreatedAt().toEpochSecond(ZoneOffset.UTC) : null);
+        Map<byte[], byte[]> hash = new HashMap<>(8);
         try {
-            return objectMapper.writeValueAsString(chunk);
+            hash.put(FIELD_META, objectMapper.writeValueAsBytes(meta));
         } catch (JsonProcessingException e) {
-            throw new IllegalStateException("Failed to serialize DocumentChunk", e);
+            throw new IllegalStateException("Failed to serialize chunk metadata", e);
+        }
+        float[] embedding = chunk.getEmbedding() != null
+                ? chunk.getEmbedding()
+                : VectorCodec.parseJson(chunk.getEmbeddingJson());
+        hash.put(embeddingSpaces.vectorField(chunk.getEmbeddingSpace()), VectorCodec.encode(embedding));
+        float[] prefix = prefixOf(embedding);
+        if (prefix != null) {
+            hash.put(embeddingSpaces.prefixField(chunk.getEmbeddingSpace()), VectorCodec.encode(prefix));
+        }
+        hash.put(FIELD_CONTENT, chunkTextCompressor.compress(chunk.getContent() != null ? chunk.getContent() : ""));
+        return hash;
+    }
+
+    private DocumentChunk fromFields(String chunkId, byte[] vector, byte[] content, byte[] meta) {
+        if (content == null || meta == null) {
+            return null;
+        }
+        try {
+            ChunkMeta m = objectMapper.readValue(meta, ChunkMeta.class);
+            return DocumentChunk.builder()
+                    .id(chunkId)
+                    .userId(m.u())
+                    .fileId(m.f())
+                    .kbId(m.k())
+                    .chunkIndex(m.i())
+                    .headingPath(m.h())
+                    .content(chunkTextCompressor.decompress(content))
+                    .embedding(vector != null ? VectorCodec.decode(vector) : null)
+                    .createdAt(m.t() != null
+                            ? LocalDateTime.ofInstant(Instant.ofEpochSecond(m.t()), ZoneOffset.UTC) : null)
+                    .build();
+        } catch (Exception e) {
+            log.warn("解析分块元数据失败 chunkId={}: {}", chunkId, e.getMessage());
+            return null;
         }
     }
 
-    private DocumentChunk deserialize(String json) {
+    private DocumentChunk deserializeLegacy(String json) {
         try {
             return objectMapper.readValue(json, DocumentChunk.class);
         } catch (Exception e) {
@@ -259,6 +904,16 @@ public class RedisDocumentChunkRepository {
         }
     }
 
+    private static double score(DocumentChunk chunk) {
+        return chunk.getCreatedAt() != null
+                ? chunk.getCreatedAt().toEpochSecond(ZoneOffset.UTC)
+                : System.currentTimeMillis() / 1000.0;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
     private String userChunksKey(String userId) {
         return USER_CHUNKS_PREFIX + userId + ":chunks";
     }
@@ -274,4 +929,56 @@ public class RedisDocumentChunkRepository {
     private String chunkKey(String chunkId) {
         return CHUNK_PREFIX + chunkId;
     }
+
+    private static Set<String> toStringSet(Object result) {
+        Set<String> values = new LinkedHashSet<>();
+        if (result instanceof Collection<?> collection) {
+            for (Object value : collection) {
+                values.add(String.valueOf(value));
+            }
+        }
+        return values;
+    }
+
+    private String syncCursorKey(String fileId) {
+        return SYNC_CURSOR_PREFIX + fileId;
+    }
+
+    /**
+     * 检索第一阶段的候选：只有分块ID与向量，space 为向量所属的向量空间
+     */
+    public record ChunkVector(String chunkId, float[] vector, String space) {
+    }
+
+    /**
+     * 已删除但尚未清理完的文件与知识库，检索时排除其分块
+     */
+    public record Tombstones(Set<String> fileIds, Set<String> kbIds) {
+
+        public boolean isEmpty() {
+            return fileIds.isEmpty() && kbIds.isEmpty();
+        }
+
+        public boolean hides(DocumentChunk chunk) {
+            return (chunk.getFileId() != null && fileIds.contains(chunk.getFileId()))
+                    || (chunk.getKbId() != null && kbIds.contains(chunk.getKbId()));
+        }
+    }
+
+    /**
+     * SSCAN 的一页结果，nextCursor 为 "0" 表示遍历结束
+     */
+    public record ChunkIdPage(String nextCursor, List<String> chunkIds) {
+
+        public boolean finished() {
+            return "0".equals(nextCursor);
+        }
+    }
+
+    /**
+     * 字段名取单字母以压缩体积：u=userId, f=fileId, k=kbId, i=chunkIndex, h=headingPath, t=创建时间（epoch 秒）
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record ChunkMeta(String u, String f, String k, Integer i, String h, Long t) {
+    }
 }
@@ -0,0 +1,141 @@
+package com.firefly.ragdemo.repository;
+
+import com.firefly.ragdemo.config.EmbeddingProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 向量空间登记：
+ * - rag:embedding:base-space：升级前写入的向量（分块 Hash 字段 v）所属的空间，首次启动时记录，之后不再改变
+ * - rag:embedding:kb-space：知识库 → 检索使用的空间，没有记录的知识库使用 base 空间；
+ *   切换只是一次 HSET，检索方要么看到旧空间要么看到新空间，两个空间的向量在切换前后都完整存在
+ * - rag:embedding:retired：知识库 → "旧空间\n切换时间"，延迟删除旧空间的向量
+ * base 空间的向量保存在字段 v（截断的前缀向量在 p），其他空间保存在 v:{空间ID}（p:{空间ID}）
+ */
+@Repository
+public class RedisEmbeddingSpaceRepository {
+
+    private static final String BASE_SPACE_KEY = "rag:embedding:base-space";
+    private static final String ACTIVE_SPACES_KEY = "rag:embedding:kb-space";
+    private static final String RETIRED_SPACES_KEY = "rag:embedding:retired";
+    private static final String BASE_FIELD = "v";
+    private static final String FIELD_PREFIX = "v:";
+    private static final String BASE_PREFIX_FIELD = "p";
+    private static final String PREFIX_FIELD_PREFIX = "p:";
+    private static final long SNAPSHOT_TTL_MS = 2000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String legacySpace;
+
+    private volatile String baseSpace;
+    private volatile Snapshot snapshot;
+
+    public RedisEmbeddingSpaceRepository(StringRedisTemplate stringRedisTemplate,
+                                         EmbeddingProperties embeddingProperties,
+                                         @Value("${spring.ai.openai.embedding.options.model:text-embedding-ada-002}") String model) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        String configured = embeddingProperties.getLegacySpace();
+        this.legacySpace = configured != null && !configured.isBlank()
+                ? configured.trim() : embeddingProperties.spaceOf(model);
+    }
+
+    /**
+     * base 空间：首次读取时记录（已有记录时保持不变），之后固定不变
+     */
+    public String baseSpace() {
+        String space = baseSpace;
+        if (space == null) {
+            stringRedisTemplate.opsForValue().setIfAbsent(BASE_SPACE_KEY, legacySpace);
+            space = stringRedisTemplate.opsForValue().get(BASE_SPACE_KEY);
+            if (space == null) {
+                space = legacySpace;
+            }
+            baseSpace = space;
+        }
+        return space;
+    }
+
+    /**
+     * 空间对应的分块 Hash 字段
+     */
+    public byte[] vectorField(String space) {
+        String field = space == null || space.equals(baseSpace()) ? BASE_FIELD : FIELD_PREFIX + space;
+        return field.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 空间对应的前缀向量字段
+     */
+    public byte[] prefixField(String space) {
+        String field = space == null || space.equals(baseSpace()) ? BASE_PREFIX_FIELD : PREFIX_FIELD_PREFIX + space;
+        return field.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String activeSpace(String kbId) {
+        String space = kbId != null ? activeSpaces().get(kbId) : null;
+        return space != null ? space : baseSpace();
+    }
+
+    /**
+     * 知识库 → 空间（只含切换过的知识库），检索热路径上使用，缓存 2 秒
+     */
+    public Map<String, String> activeSpaces() {
+        Snapshot current = snapshot;
+        long now = System.currentTimeMillis();
+        if (current != null && now - current.loadedAt() < SNAPSHOT_TTL_MS) {
+            return current.spaces();
+        }
+        Map<String, String> spaces = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : stringRedisTemplate.opsForHash().entries(ACTIVE_SPACES_KEY).entrySet()) {
+            spaces.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+        Snapshot loaded = new Snapshot(Collections.unmodifiableMap(spaces), now);
+        snapshot = loaded;
+        return loaded.spaces();
+    }
+
+    /**
+     * 切换知识库的检索空间，并登记旧空间待删除
+     */
+    public void activate(String kbId, String space, String previousSpace) {
+        stringRedisTemplate.opsForHash().put(ACTIVE_SPACES_KEY, kbId, space);
+        if (previousSpace != null && !previousSpace.equals(space)) {
+            stringRedisTemplate.opsForHash().put(RETIRED_SPACES_KEY, kbId,
+                    previousSpace + "\n" + System.currentTimeMillis());
+        }
+        snapshot = null;
+    }
+
+    /**
+     * 待删除的旧空间：kbId → [空间ID, 切换时间毫秒]
+     */
+    public Map<String, String[]> retiredSpaces() {
+        Map<String, String[]> retired = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : stringRedisTemplate.opsForHash().entries(RETIRED_SPACES_KEY).entrySet()) {
+            retired.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()).split("\n", -1));
+        }
+        return retired;
+    }
+
+    public void clearRetired(String kbId) {
+        stringRedisTemplate.opsForHash().delete(RETIRED_SPACES_KEY, kbId);
+    }
+
+    /**
+     * 知识库删除后清理登记
+     */
+    public void forget(String kbId) {
+        stringRedisTemplate.opsForHash().delete(ACTIVE_SPACES_KEY, kbId);
+        stringRedisTemplate.opsForHash().delete(RETIRED_SPACES_KEY, kbId);
+        snapshot = null;
+    }
+
+    private record Snapshot(Map<String, String> spaces, long loadedAt) {
+    }
+}
@@ -0,0 +1,68 @@
+package com.firefly.ragdemo.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 文件索引断点：记录已写入Redis的分块进度，重试或重启后从断点继续
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class RedisIndexCheckpointRepository {
+
+    private static final String CHECKPOINT_PREFIX = "rag:index:ckpt:";
+    private static final String FIELD_FINGERPRINT = "fingerprint";
+    private static final String FIELD_NEXT_INDEX = "next";
+    private static final String FIELD_TOTAL = "total";
+    // 断点只服务于重试，长时间未续跑的断点自动过期
+    private static final Duration CHECKPOINT_TTL = Duration.ofDays(7);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public Optional<IndexCheckpoint> find(String fileId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(checkpointKey(fileId));
+        if (entries == null || entries.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new IndexCheckpoint(
+                    (String) entries.get(FIELD_FINGERPRINT),
+                    Integer.parseInt((String) entries.get(FIELD_NEXT_INDEX)),
+                    Integer.parseInt((String) entries.get(FIELD_TOTAL))));
+        } catch (Exception e) {
+            log.warn("索引断点格式错误，忽略 fileId={}: {}", fileId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public void save(String fileId, String fingerprint, int nextIndex, int total) {
+        String key = checkpointKey(fileId);
+        stringRedisTemplate.opsForHash().putAll(key, Map.of(
+                FIELD_FINGERPRINT, fingerprint,
+                FIELD_NEXT_INDEX, String.valueOf(nextIndex),
+                FIELD_TOTAL, String.valueOf(total)));
+        stringRedisTemplate.expire(key, CHECKPOINT_TTL);
+    }
+
+    public void delete(String fileId) {
+        stringRedisTemplate.delete(checkpointKey(fileId));
+    }
+
+    private String checkpointKey(String fileId) {
+        return CHECKPOINT_PREFIX + fileId;
+    }
+
+    /**
+     * @param fingerprint 分块配置指纹，配置变化后断点失效
+     * @param nextIndex   下一个待写入的分块序号
+     * @param total       文件分块总数
+     */
+    public record IndexCheckpoint(String fingerprint, int nextIndex, int total) {}
+}
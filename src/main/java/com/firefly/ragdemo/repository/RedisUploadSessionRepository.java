@@ -0,0 +1,132 @@
+package com.firefly.ragdemo.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 分片上传会话：会话元数据存 Hash，已接收的分片存 Bitmap（第 i 位对应第 i 片），断线后据此续传
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class RedisUploadSessionRepository {
+
+    private static final String SESSION_PREFIX = "rag:upload:";
+    private static final String PARTS_SUFFIX = ":parts";
+    private static final String FIELD_USER_ID = "userId";
+    private static final String FIELD_KB_ID = "kbId";
+    private static final String FIELD_FILENAME = "filename";
+    private static final String FIELD_FILE_SIZE = "fileSize";
+    private static final String FIELD_PART_SIZE = "partSize";
+    private static final String FIELD_STAGING_PATH = "stagingPath";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public void save(UploadSession session, Duration ttl) {
+        String key = sessionKey(session.uploadId());
+        stringRedisTemplate.opsForHash().putAll(key, Map.of(
+                FIELD_USER_ID, session.userId(),
+                FIELD_KB_ID, session.kbId(),
+                FIELD_FILENAME, session.filename(),
+                FIELD_FILE_SIZE, String.valueOf(session.fileSize()),
+                FIELD_PART_SIZE, String.valueOf(session.partSize()),
+                FIELD_STAGING_PATH, session.stagingPath()));
+        stringRedisTemplate.expire(key, ttl);
+    }
+
+    public Optional<UploadSession> find(String uploadId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(sessionKey(uploadId));
+        if (entries == null || entries.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new UploadSession(
+                    uploadId,
+                    (String) entries.get(FIELD_USER_ID),
+                    (String) entries.get(FIELD_KB_ID),
+                    (String) entries.get(FIELD_FILENAME),
+                    Long.parseLong((String) entries.get(FIELD_FILE_SIZE)),
+                    Long.parseLong((String) entries.get(FIELD_PART_SIZE)),
+                    (String) entries.get(FIELD_STAGING_PATH)));
+        } catch (Exception e) {
+            log.warn("上传会话格式错误，忽略 uploadId={}: {}", uploadId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public boolean exists(String uploadId) {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(sessionKey(uploadId)));
+    }
+
+    /**
+     * 标记分片已写入，并顺延会话与分片位图的过期时间
+     */
+    public void markPartReceived(String uploadId, int partIndex, Duration ttl) {
+        byte[] sessionKey = sessionKey(uploadId).getBytes(StandardCharsets.UTF_8);
+        byte[] partsKey = partsKey(uploadId).getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.setBit(partsKey, partIndex, true);
+            connection.expire(partsKey, ttl.getSeconds());
+            connection.expire(sessionKey, ttl.getSeconds());
+            return null;
+        });
+    }
+
+    /**
+     * 读取已接收的分片集合
+     */
+    public BitSet receivedParts(String uploadId, int partCount) {
+        byte[] partsKey = partsKey(uploadId).getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < partCount; i++) {
+                connection.getBit(partsKey, i);
+            }
+            return null;
+        });
+        BitSet received = new BitSet(partCount);
+        for (int i = 0; i < results.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                received.set(i);
+            }
+        }
+        return received;
+    }
+
+    public void delete(String uploadId) {
+        stringRedisTemplate.delete(List.of(sessionKey(uploadId), partsKey(uploadId)));
+    }
+
+    private String sessionKey(String uploadId) {
+        return SESSION_PREFIX + uploadId;
+    }
+
+    private String partsKey(String uploadId) {
+        return SESSION_PREFIX + uploadId + PARTS_SUFFIX;
+    }
+
+    /**
+     * @param kbId        已校验权限的目标知识库
+     * @param stagingPath 预分配的临时文件，分片按偏移直接写入
+     */
+    public record UploadSession(String uploadId, String userId, String kbId, String filename,
+                                long fileSize, long partSize, String stagingPath) {
+
+        public int partCount() {
+            return (int) ((fileSize + partSize - 1) / partSize);
+        }
+
+        public long partLength(int partIndex) {
+            return Math.min(partSize, fileSize - partIndex * partSize);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.config.BulkIngestProperties;
+import com.firefly.ragdemo.entity.User;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.util.ArchiveUtils;
+import com.firefly.ragdemo.util.FileTypeUtils;
+import com.firefly.ragdemo.util.HashUtils;
+import com.firefly.ragdemo.vo.BulkIngestReportVO;
+import com.firefly.ragdemo.vo.FileVO;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 归档（zip / tar.gz / tar）导入
+ * 1. 调用线程顺序解码归档流，逐条目按扩展名与大小过滤；归档本身不保存
+ * 2. 条目边读边计算 SHA-256 写入临时文件，再按内容寻址移入存储，内存占用与条目大小无关
+ * 3. 每个条目与单文件上传一样登记为 uploaded_files 记录并写入索引任务队列（BULK），登记完成即返回报告，不等待索引
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ArchiveIngestService {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final KnowledgeBaseService knowledgeBaseService;
+    private final FileStorageService fileStorageService;
+    private final FileService fileService;
+    private final UploadedFileMapper uploadedFileMapper;
+    private final BulkIngestProperties properties;
+
+    /**
+     * 上传归档并导入到指定知识库，条目登记并提交索引任务后返回
+     */
+    public BulkIngestReportVO uploadArchive(MultipartFile archive, User user, String targetKbId) throws IOException {
+        String type = requireArchiveType(archive.getOriginalFilename());
+        try (InputStream in = archive.getInputStream()) {
+            requireArchiveContent(type, FileTypeUtils.readHead(in));
+        }
+        String resolvedKbId = knowledgeBaseService.resolveUploadKb(user.getId(), user.getUsername(), targetKbId);
+        try (InputStream in = archive.getInputStream()) {
+            return ingest(in, type, archive.getOriginalFilename(), user, resolvedKbId);
+        }
+    }
+
+    /**
+     * 导入本地归档文件（命令行批量导入使用），条目登记并提交索引任务后返回
+     */
+    public BulkIngestReportVO importArchive(Path archive, User user, String targetKbId) throws IOException {
+        if (archive == null || !Files.isRegularFile(archive)) {
+            throw new IllegalArgumentException("归档文件不存在或不可访问: " + archive);
+        }
+        String type = requireArchiveType(archive.getFileName().toString());
+        try (InputStream in = Files.newInputStream(archive)) {
+            requireArchiveContent(type, FileTypeUtils.readHead(in));
+        }
+        String resolvedKbId = knowledgeBaseService.resolveUploadKb(user.getId(), user.getUsername(), targetKbId);
+        try (InputStream in = Files.newInputStream(archive)) {
+            return ingest(in, type, archive.getFileName().toString(), user, resolvedKbId);
+        }
+    }
+
+    private BulkIngestReportVO ingest(InputStream archive, String type, String archiveName, User user, String kbId)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        IngestState state = new IngestState();
+
+        try (ArchiveInputStream<? extends ArchiveEntry> in = ArchiveUtils.open(archive, type)) {
+            ArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (state.discovered >= properties.getMaxArchiveEntries()) {
+                    log.warn("归档条目数超过上限 {}，其余条目不再处理: {}", properties.getMaxArchiveEntries(), archiveName);
+                    break;
+                }
+                state.discovered++;
+                String name = ArchiveUtils.normalizeEntryName(entry.getName());
+                long declaredSize = entry.getSize();
+                if (name == null || !FileTypeUtils.isAllowedExtension(FileTypeUtils.extensionOf(name))
+                        || declaredSize == 0 || declaredSize > FileTypeUtils.MAX_FILE_SIZE) {
+                    log.debug("跳过不支持或超出大小限制的归档条目: {} ({} bytes)", entry.getName(), declaredSize);
+                    state.skipped++;
+                    continue;
+                }
+                if (!in.canReadEntryData(entry)) {
+                    log.warn("归档条目已加密或压缩方式不受支持，已跳过: {}", entry.getName());
+                    state.failed++;
+                    continue;
+                }
+                importEntry(in, name, user, kbId, state);
+            }
+        }
+
+        long elapsedMs = Math.max((System.nanoTime() - startNanos) / 1_000_000, 1);
+        double seconds = elapsedMs / 1000.0;
+        BulkIngestReportVO report = BulkIngestReportVO.builder()
+                .kbId(kbId)
+                .discovered(state.discovered)
+                .imported(state.files.size())
+                .skipped(state.skipped)
+                .failed(state.failed)
+                .totalBytes(state.totalBytes)
+                .elapsedMs(elapsedMs)
+                .filesPerSecond(state.files.size() / seconds)
+                .mbPerSecond(state.totalBytes / 1024.0 / 1024.0 / seconds)
+                .files(state.files)
+                .build();
+        log.info("归档登记完成，等待索引: archive={}, kb={}, 条目={}, 导入={}, 跳过={}, 失败={}, 耗时={}ms, {} 文件/秒, {} MB/秒",
+                archiveName, kbId, report.getDiscovered(), report.getImported(), report.getSkipped(),
+                report.getFailed(), elapsedMs, String.format("%.1f", report.getFilesPerSecond()),
+                String.format("%.2f", report.getMbPerSecond()));
+        return report;
+    }
+
+    /**
+     * 把当前条目写入存储并登记；登记与入队由 FileService 完成，与单文件上传走同一条索引任务链路
+     */
+    private void importEntry(InputStream in, String name, User user, String kbId, IngestState state) throws IOException {
+        String extension = FileTypeUtils.extensionOf(name);
+        // 条目大小可能未在头部声明，写入时同样按上限截断判断
+        StagedEntry staged = stage(in);
+        try {
+            if (staged == null || staged.size() == 0) {
+                log.debug("跳过超出大小限制或为空的归档条目: {}", name);
+                state.skipped++;
+                return;
+            }
+            if (!FileTypeUtils.matchesContent(extension, staged.head())) {
+                log.debug("跳过内容与扩展名不符的归档条目: {}", name);
+                state.skipped++;
+                return;
+            }
+            if (!state.contentHashes.add(staged.contentHash())
+                    || uploadedFileMapper.findByContentHashAndOwner(staged.contentHash(), user.getId(), kbId).isPresent()) {
+                log.debug("知识库中已有相同内容的文件，跳过归档条目: {}", name);
+                state.skipped++;
+                return;
+            }
+            FileStorageService.StoredBlob blob = fileStorageService.moveIn(staged.path(), staged.contentHash());
+            try {
+                state.files.add(fileService.registerStoredFile(blob, name, staged.size(), user, kbId,
+                        IndexingScheduler.Lane.BULK));
+                state.totalBytes += staged.size();
+            } catch (RuntimeException e) {
+                log.warn("登记归档条目失败，已跳过: {} ({})", name, e.getMessage());
+                state.failed++;
+                if (!blob.existed()) {
+                    fileStorageService.delete(blob.path());
+                }
+            }
+        } finally {
+            if (staged != null) {
+                // 已移入存储时临时文件不存在，删除为空操作
+                fileStorageService.delete(staged.path());
+            }
+        }
+    }
+
+    /**
+     * 把当前条目边读边计算 SHA-256 写入临时文件，同时保留文件头用于类型嗅探
+     *
+     * @return 超过大小上限时为 null（临时文件已删除）
+     */
+    private StagedEntry stage(InputStream in) throws IOException {
+        Path path = fileStorageService.stagingDirectory().resolve(UUID.randomUUID() + ".tmp");
+        MessageDigest digest = HashUtils.newSha256();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        byte[] head = new byte[FileTypeUtils.SNIFF_LENGTH];
+        int headLength = 0;
+        long size = 0;
+        boolean complete = false;
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                size += read;
+                if (size > FileTypeUtils.MAX_FILE_SIZE) {
+                    return null;
+                }
+                if (headLength < head.length) {
+                    int copied = Math.min(read, head.length - headLength);
+                    System.arraycopy(buffer, 0, head, headLength, copied);
+                    headLength += copied;
+                }
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                fileStorageService.delete(path);
+            }
+        }
+        return new StagedEntry(path, HashUtils.toHex(digest), size, Arrays.copyOf(head, headLength));
+    }
+
+    private static String requireArchiveType(String filename) {
+        String type = ArchiveUtils.archiveType(filename);
+        if (type == null) {
+            throw new IllegalArgumentException("仅支持 zip、tar.gz、tar 格式的归档文件");
+        }
+        return type;
+    }
+
+    private static void requireArchiveContent(String type, byte[] head) {
+        if (!FileTypeUtils.matchesContent(type, head)) {
+            throw new IllegalArgumentException("归档文件内容与扩展名不符，不是有效的 " + type + " 文件");
+        }
+    }
+
+    private record StagedEntry(Path path, String contentHash, long size, byte[] head) {
+    }
+
+    /**
+     * 单次导入的进度，只在调用线程中读写
+     */
+    private static class IngestState {
+        private final List<FileVO> files = new ArrayList<>();
+        private final Set<String> contentHashes = new HashSet<>();
+        private int discovered;
+        private int skipped;
+        private int failed;
+        private long totalBytes;
+    }
+}
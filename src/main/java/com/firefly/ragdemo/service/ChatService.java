@@ -8,5 +8,8 @@ public interface ChatService {
 
     ChatResponseVO chat(ChatRequest request, String userId);
 
-    Flux<String> chatStream(ChatRequest request, String userId);
+    /**
+     * @param onUpstreamToken 真正调用模型时每输出一个片段回调一次（缓存命中或共享他人调用时不回调）
+     */
+    Flux<String> chatStream(ChatRequest request, String userId, Runnable onUpstreamToken);
 }
@@ -4,7 +4,9 @@ import com.firefly.ragdemo.dto.ChatRequest;
 import com.firefly.ragdemo.entity.ChatMessageRecord;
 import com.firefly.ragdemo.entity.ChatSession;
 import com.firefly.ragdemo.messaging.ChatHistoryPersistPayload;
+import com.firefly.ragdemo.repository.RedisChatHistoryRepository;
 import java.util.List;
+import java.util.Optional;
 
 public interface ChatSessionService {
 
@@ -14,7 +16,25 @@ public interface ChatSessionService {
 
     long countSessions(String userId);
 
+    /**
+     * 属于该用户的会话，不存在或无权访问时为空
+     */
+    Optional<ChatSession> findSession(String sessionId, String userId);
+
     List<ChatMessageRecord> listMessages(String sessionId, String userId, int limit);
 
+    /**
+     * 最近的 limit 条消息，优先读取 Redis 窗口
+     */
     List<ChatRequest.ChatMessage> buildHistory(String sessionId, String userId, int limit);
+
+    /**
+     * 会话的摘要与最近消息窗口：优先读取 Redis，不存在时从 MySQL 加载并预热；会话不存在或无权访问时为空窗口
+     */
+    RedisChatHistoryRepository.HistoryWindow recentHistory(String sessionId, String userId);
+
+    /**
+     * 回复完成后把这一轮对话追加到 Redis 窗口（MySQL 仍由消息队列异步持久化）
+     */
+    void appendHistory(String sessionId, String userId, List<ChatRequest.ChatMessage> messages);
 }
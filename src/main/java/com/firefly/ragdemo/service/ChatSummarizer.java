@@ -0,0 +1,181 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.ai.AIModelFactory;
+import com.firefly.ragdemo.ai.LlmAdmissionController;
+import com.firefly.ragdemo.ai.PromptMessage;
+import com.firefly.ragdemo.config.ChatSummaryProperties;
+import com.firefly.ragdemo.exception.AdmissionRejectedException;
+import com.firefly.ragdemo.entity.ChatMessageRecord;
+import com.firefly.ragdemo.entity.ChatSession;
+import com.firefly.ragdemo.mapper.ChatMessageRecordMapper;
+import com.firefly.ragdemo.mapper.ChatSessionMapper;
+import com.firefly.ragdemo.repository.RedisChatHistoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * 会话滚动摘要：对话记录持久化之后在后台检查，未摘要的消息超过阈值时，
+ * 把已有摘要与其后较早的消息交给模型折叠成新摘要，并推进 chat_sessions.summary_seq
+ * 每次只处理 summary_seq 之后的消息，摘要增量更新；并发的两次折叠由 summary_seq 乐观更新保证只有一次生效
+ * 模型调用经过准入控制，所有会话的摘要共用一个后台身份排队，不挤占在线对话的并发配额
+ */
+@Service
+@Slf4j
+public class ChatSummarizer {
+
+    private static final String INSTRUCTION = "你负责维护一段 C++/操作系统课程辅导对话的滚动摘要。"
+            + "根据已有摘要和新增对话，输出更新后的完整摘要：保留学生的问题、已确认的结论、关键代码要点与尚未解决的疑问，"
+            + "省略寒暄和重复内容；使用简体中文，不超过 %d 字，只输出摘要正文。";
+
+    static final String ADMISSION_KEY = "system:chat-summary";
+
+    private final ChatSessionMapper chatSessionMapper;
+    private final ChatMessageRecordMapper chatMessageRecordMapper;
+    private final RedisChatHistoryRepository chatHistoryRepository;
+    private final AIModelFactory aiModelFactory;
+    private final LlmAdmissionController admissionController;
+    private final Tokenizer tokenizer;
+    private final ChatSummaryProperties properties;
+    private final Executor chatSummaryExecutor;
+
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public ChatSummarizer(ChatSessionMapper chatSessionMapper,
+                          ChatMessageRecordMapper chatMessageRecordMapper,
+                          RedisChatHistoryRepository chatHistoryRepository,
+                          AIModelFactory aiModelFactory,
+                          LlmAdmissionController admissionController,
+                          Tokenizer tokenizer,
+                          ChatSummaryProperties properties,
+                          @Qualifier("chatSummaryExecutor") Executor chatSummaryExecutor) {
+        this.chatSessionMapper = chatSessionMapper;
+        this.chatMessageRecordMapper = chatMessageRecordMapper;
+        this.chatHistoryRepository = chatHistoryRepository;
+        this.aiModelFactory = aiModelFactory;
+        this.admissionController = admissionController;
+        this.tokenizer = tokenizer;
+        this.properties = properties;
+        this.chatSummaryExecutor = chatSummaryExecutor;
+    }
+
+    /**
+     * 提交后台检查；同一会话已有任务在执行时忽略，队列满时丢弃（下次持久化会再次检查）
+     */
+    public void schedule(String sessionId) {
+        if (!properties.isEnabled() || !StringUtils.hasText(sessionId) || !inFlight.add(sessionId)) {
+            return;
+        }
+        try {
+            chatSummaryExecutor.execute(() -> {
+                try {
+                    summarize(sessionId);
+                } catch (Exception e) {
+                    log.warn("会话 {} 摘要失败，下次持久化时重试: {}", sessionId, e.getMessage());
+                } finally {
+                    inFlight.remove(sessionId);
+                }
+            });
+        } catch (Exception e) {
+            inFlight.remove(sessionId);
+            log.debug("提交会话摘要任务失败 sessionId={}: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * @return 是否更新了摘要
+     */
+    boolean summarize(String sessionId) {
+        ChatSession session = chatSessionMapper.findById(sessionId).orElse(null);
+        if (session == null) {
+            return false;
+        }
+        int summarySeq = session.getSummarySeq() != null ? session.getSummarySeq() : 0;
+        int keep = Math.max(properties.getKeepRecentMessages(), 0);
+        List<ChatMessageRecord> pending = chatMessageRecordMapper.findAfterSeq(sessionId, summarySeq,
+                Math.max(properties.getMaxFoldMessages(), 1) + keep);
+        int fold = foldCount(pending, keep);
+        if (fold <= 0 || pendingTokens(pending) < properties.getTriggerTokens()) {
+            return false;
+        }
+        List<ChatMessageRecord> folded = pending.subList(0, fold);
+        String summary = callAdmitted(prompt(session.getSummary(), folded));
+        if (!StringUtils.hasText(summary)) {
+            return false;
+        }
+        summary = summary.strip();
+        int cut = tokenizer.truncate(summary, 0, summary.length(), properties.getMaxSummaryTokens());
+        summary = summary.substring(0, cut);
+        int newSeq = folded.get(folded.size() - 1).getSeq();
+        if (chatSessionMapper.updateSummary(sessionId, summary, newSeq, summarySeq) == 0) {
+            log.debug("会话 {} 的摘要已被其他任务更新，放弃本次结果", sessionId);
+            return false;
+        }
+        chatHistoryRepository.saveSummary(session.getUserId(), sessionId, summary, newSeq);
+        log.info("会话 {} 摘要已更新: 折叠 {} 条消息, summary_seq {} → {}", sessionId, fold, summarySeq, newSeq);
+        return true;
+    }
+
+    /**
+     * 获准后调用模型；排队被拒绝或超时时放弃本次摘要，下次持久化会再次检查
+     *
+     * @return 未获准时为 null
+     */
+    private String callAdmitted(List<PromptMessage> prompt) {
+        LlmAdmissionController.Permit permit;
+        try {
+            permit = admissionController.acquire(ADMISSION_KEY, null).get();
+        } catch (AdmissionRejectedException | ExecutionException e) {
+            log.debug("模型调用繁忙，推迟会话摘要: {}", e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            String summary = aiModelFactory.getDefaultModel().call(prompt);
+            permit.release();
+            return summary;
+        } catch (RuntimeException e) {
+            permit.release(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 折叠除最近 keep 条以外的消息，保留部分从用户消息开始，避免把一问一答拆开
+     */
+    static int foldCount(List<ChatMessageRecord> pending, int keep) {
+        int fold = pending.size() - keep;
+        while (fold > 0 && fold < pending.size() && !"user".equalsIgnoreCase(pending.get(fold).getRole())) {
+            fold--;
+        }
+        return fold;
+    }
+
+    private int pendingTokens(List<ChatMessageRecord> pending) {
+        int tokens = 0;
+        for (ChatMessageRecord record : pending) {
+            tokens += tokenizer.count(record.getContent());
+        }
+        return tokens;
+    }
+
+    private List<PromptMessage> prompt(String previous, List<ChatMessageRecord> folded) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[已有摘要]\n").append(StringUtils.hasText(previous) ? previous : "（无）").append("\n\n[新增对话]\n");
+        for (ChatMessageRecord record : folded) {
+            sb.append("assistant".equalsIgnoreCase(record.getRole()) ? "助教: " : "学生: ")
+                    .append(record.getContent()).append('\n');
+        }
+        return List.of(PromptMessage.system(String.format(INSTRUCTION, properties.getMaxSummaryTokens())),
+                PromptMessage.user(sb.toString()));
+    }
+}
@@ -0,0 +1,81 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.config.ChunkStoreProperties;
+import com.firefly.ragdemo.repository.ChunkTextCompressor;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.util.ChunkTextCodec;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 从已入库的分块抽样训练共享压缩字典
+ * 每小时检查一次：已有字典时每 retrainHours 小时重训一次，尚无字典时分块攒够后尽快训练；多节点通过 Redis 锁只由一个节点执行
+ * 新字典只影响之后写入的分块，已有分块不重写
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChunkDictionaryTrainer {
+
+    private static final Duration RETRY_WITHOUT_DICTIONARY = Duration.ofMinutes(30);
+
+    private final RedisDocumentChunkRepository redisDocumentChunkRepository;
+    private final ChunkTextCompressor chunkTextCompressor;
+    private final ChunkStoreProperties chunkStoreProperties;
+
+    @Scheduled(initialDelay = 60000, fixedRate = 3600000)
+    public void scheduledTrain() {
+        ChunkStoreProperties.Compression compression = chunkStoreProperties.getCompression();
+        if (!compression.isEnabled()) {
+            return;
+        }
+        try {
+            Duration interval = chunkTextCompressor.hasActiveDictionary()
+                    ? Duration.ofHours(Math.max(compression.getRetrainHours(), 1))
+                    : RETRY_WITHOUT_DICTIONARY;
+            if (chunkTextCompressor.tryAcquireTrainingSlot(interval)) {
+                train();
+            }
+        } catch (Exception e) {
+            log.warn("训练分块压缩字典失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return 是否生成并启用了新字典
+     */
+    public boolean train() {
+        ChunkStoreProperties.Compression compression = chunkStoreProperties.getCompression();
+        int sampleSize = Math.max(compression.getSampleSize(), 2);
+        List<String> samples = redisDocumentChunkRepository.sampleContents(sampleSize);
+        if (samples.size() < sampleSize / 2) {
+            log.debug("分块样本不足 ({} < {})，暂不训练压缩字典", samples.size(), sampleSize / 2);
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        byte[] dictionary = ChunkTextCodec.trainDictionary(samples, compression.getDictionarySize());
+        if (dictionary.length == 0) {
+            log.info("分块样本没有可复用的公共片段，不生成压缩字典");
+            return false;
+        }
+
+        long rawBytes = 0;
+        long compressedBytes = 0;
+        for (String sample : samples) {
+            rawBytes += sample.getBytes(StandardCharsets.UTF_8).length;
+            compressedBytes += ChunkTextCodec.encode(sample, compression.getMinBytes(), compression.getLevel(),
+                    dictionary).length;
+        }
+        chunkTextCompressor.install(dictionary);
+        log.info("分块压缩字典训练完成: 样本 {} 个, 字典 {} 字节, 样本压缩后 {}/{} 字节 ({}%), 耗时 {}ms",
+                samples.size(), dictionary.length, compressedBytes, rawBytes,
+                rawBytes > 0 ? compressedBytes * 100 / rawBytes : 100, System.currentTimeMillis() - start);
+        return true;
+    }
+}
@@ -0,0 +1,175 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.mapper.KnowledgeBaseMapper;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.repository.RedisEmbeddingSpaceRepository;
+import com.firefly.ragdemo.util.ArchiveUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * 文件/知识库删除后的后台清理
+ * 删除时只写入墓碑（检索立即排除），分块由单线程后台任务分批清理，完成后移除墓碑；
+ * 进程中断留下的墓碑由定时任务补做，多节点通过 Redis 锁避免重复清理
+ */
+@Service
+@Slf4j
+public class ChunkGarbageCollector {
+
+    private static final String LOCK_PREFIX = "rag:gc:lock:";
+    private static final Duration LOCK_TTL = Duration.ofMinutes(10);
+
+    /**
+     * 清理耗时可能超过锁 TTL，锁过期后被其他节点获取时不能把对方的锁删掉，只有令牌一致才释放
+     */
+    private static final DefaultRedisScript<Long> RELEASE_LOCK_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+    private static final int FILE_BATCH_SIZE = 200;
+
+    private final RedisDocumentChunkRepository redisDocumentChunkRepository;
+    private final RedisEmbeddingSpaceRepository embeddingSpaces;
+    private final UploadedFileMapper uploadedFileMapper;
+    private final KnowledgeBaseMapper knowledgeBaseMapper;
+    private final FileStorageService fileStorageService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Executor chunkGcExecutor;
+
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public ChunkGarbageCollector(RedisDocumentChunkRepository redisDocumentChunkRepository,
+                                 RedisEmbeddingSpaceRepository embeddingSpaces,
+                                 UploadedFileMapper uploadedFileMapper,
+                                 KnowledgeBaseMapper knowledgeBaseMapper,
+                                 FileStorageService fileStorageService,
+                                 StringRedisTemplate stringRedisTemplate,
+                                 @Qualifier("chunkGcExecutor") Executor chunkGcExecutor) {
+        this.redisDocumentChunkRepository = redisDocumentChunkRepository;
+        this.embeddingSpaces = embeddingSpaces;
+        this.uploadedFileMapper = uploadedFileMapper;
+        this.knowledgeBaseMapper = knowledgeBaseMapper;
+        this.fileStorageService = fileStorageService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.chunkGcExecutor = chunkGcExecutor;
+    }
+
+    /**
+     * 文件记录已删除后调用：立即对检索隐藏，Redis 分块在后台清理
+     */
+    public void deleteFileChunks(String fileId, String userId, String kbId) {
+        redisDocumentChunkRepository.tombstoneFile(fileId, userId, kbId);
+        submit("file:" + fileId, () -> {
+            redisDocumentChunkRepository.deleteByFileIdAndUser(fileId, userId, kbId);
+            redisDocumentChunkRepository.clearFileTombstone(fileId);
+        });
+    }
+
+    /**
+     * 知识库已停用后调用：立即对检索隐藏，后台依次清理 Redis 分块、文件记录（MySQL 分块随外键级联删除）、存储文件与知识库记录
+     */
+    public void deleteKnowledgeBase(String kbId) {
+        redisDocumentChunkRepository.tombstoneKnowledgeBase(kbId);
+        submit("kb:" + kbId, () -> purgeKnowledgeBase(kbId));
+    }
+
+    /**
+     * 删除文件记录后释放磁盘文件：内容寻址的存储文件可能被多条记录共用，引用计数归零才删除；归档条目不单独占用磁盘文件
+     */
+    public void releaseStoredFile(UploadedFile file) {
+        if (file.getFilePath() == null || ArchiveUtils.isEntryPath(file.getFilePath())) {
+            return;
+        }
+        fileStorageService.deleteIfUnreferenced(Paths.get(file.getFilePath()), file.getContentHash(),
+                () -> file.getContentHash() != null
+                        && uploadedFileMapper.countByContentHashAndPath(file.getContentHash(), file.getFilePath()) > 0);
+    }
+
+    /**
+     * 补做中断的清理任务
+     */
+    @Scheduled(initialDelay = 60000, fixedRate = 600000)
+    public void resumePending() {
+        try {
+            for (Map.Entry<String, String[]> entry : redisDocumentChunkRepository.pendingFileTombstones().entrySet()) {
+                String[] owner = entry.getValue();
+                String userId = owner.length > 0 && !owner[0].isEmpty() ? owner[0] : null;
+                String kbId = owner.length > 1 && !owner[1].isEmpty() ? owner[1] : null;
+                deleteFileChunks(entry.getKey(), userId, kbId);
+            }
+            for (String kbId : redisDocumentChunkRepository.pendingKnowledgeBaseTombstones()) {
+                deleteKnowledgeBase(kbId);
+            }
+        } catch (Exception e) {
+            log.warn("检查待清理的墓碑失败: {}", e.getMessage());
+        }
+    }
+
+    private void purgeKnowledgeBase(String kbId) {
+        long start = System.currentTimeMillis();
+        int chunks = redisDocumentChunkRepository.deleteByKnowledgeBase(kbId);
+        int files = 0;
+        List<UploadedFile> batch;
+        do {
+            batch = uploadedFileMapper.findByKbId(kbId, FILE_BATCH_SIZE);
+            for (UploadedFile file : batch) {
+                uploadedFileMapper.deleteById(file.getId());
+                releaseStoredFile(file);
+            }
+            files += batch.size();
+        } while (!batch.isEmpty());
+        knowledgeBaseMapper.deleteById(kbId);
+        // 清理期间仍在运行的索引任务可能又写入了分块，收尾再清一遍
+        chunks += redisDocumentChunkRepository.deleteByKnowledgeBase(kbId);
+        embeddingSpaces.forget(kbId);
+        redisDocumentChunkRepository.clearKnowledgeBaseTombstone(kbId);
+        log.info("知识库 {} 清理完成: 分块 {} 个, 文件 {} 个, 耗时 {}ms", kbId, chunks, files,
+                System.currentTimeMillis() - start);
+    }
+
+    private void submit(String taskId, Runnable task) {
+        if (!inFlight.add(taskId)) {
+            return;
+        }
+        try {
+            chunkGcExecutor.execute(() -> {
+                String lockKey = LOCK_PREFIX + taskId;
+                String token = UUID.randomUUID().toString();
+                try {
+                    if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, token, LOCK_TTL))) {
+                        return;
+                    }
+                    try {
+                        task.run();
+                    } finally {
+                        stringRedisTemplate.execute(RELEASE_LOCK_SCRIPT, List.of(lockKey), token);
+                    }
+                } catch (Exception e) {
+                    log.warn("后台清理失败 {}，稍后重试: {}", taskId, e.getMessage(), e);
+                } finally {
+                    inFlight.remove(taskId);
+                }
+            });
+        } catch (Exception e) {
+            inFlight.remove(taskId);
+            log.warn("提交后台清理任务失败 {}，稍后重试: {}", taskId, e.getMessage());
+        }
+    }
+}
@@ -7,4 +7,16 @@ public interface EmbeddingService {
     List<Double> embed(String text);
 
     List<List<Double>> embedBatch(List<String> texts);
-} 
\ No newline at end of file
+
+    /**
+     * 当前配置的模型所在的向量空间（模型名，配置了 app.embedding.version 时为 "模型名@version"），新写入的分块都带有该空间的向量
+     */
+    String currentSpace();
+
+    /**
+     * 在指定向量空间中向量化：查询尚未切换到当前空间的知识库时，需要用它原来的模型生成查询向量
+     */
+    List<Double> embed(String text, String space);
+
+    List<List<Double>> embedBatch(List<String> texts, String space);
+}
@@ -0,0 +1,290 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.config.EmbeddingProperties;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.mapper.KnowledgeBaseMapper;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.repository.RedisEmbeddingSpaceRepository;
+import com.firefly.ragdemo.util.VectorCodec;
+import com.firefly.ragdemo.vo.IndexingStatsVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 向量空间在线迁移：更换 Embedding 模型后，逐个知识库在后台补齐当前空间的向量，期间知识库仍用原空间检索；
+ * 补齐后重新检查知识库中仍存在的分块，全部已有当前空间的向量才切换该知识库的检索空间，旧空间的向量延迟一段时间后删除
+ * 迁移按 app.embedding.migration 限速，交互式上传排队时主动让路；已补齐的分块不会重复向量化，中断后重新检查即可继续
+ */
+@Service
+@Slf4j
+public class EmbeddingSpaceMigrator {
+
+    private static final String LOCK_PREFIX = "rag:embedding:lock:";
+    private static final Duration LOCK_TTL = Duration.ofMinutes(10);
+    private static final int PAGE_SIZE = 500;
+    private static final int MAX_PASSES = 3;
+    private static final long YIELD_POLL_MS = 500;
+
+    /**
+     * 只有持有者（值等于本次的令牌）才能续期/释放锁，避免锁过期被其他节点获取后误删对方的锁
+     */
+    private static final DefaultRedisScript<Long> RELEASE_LOCK_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private static final DefaultRedisScript<Long> RENEW_LOCK_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    private final RedisDocumentChunkRepository redisDocumentChunkRepository;
+    private final RedisEmbeddingSpaceRepository embeddingSpaces;
+    private final EmbeddingService embeddingService;
+    private final KnowledgeBaseMapper knowledgeBaseMapper;
+    private final IndexingScheduler indexingScheduler;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final EmbeddingProperties embeddingProperties;
+    private final Executor embeddingMigrationExecutor;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public EmbeddingSpaceMigrator(RedisDocumentChunkRepository redisDocumentChunkRepository,
+                                  RedisEmbeddingSpaceRepository embeddingSpaces,
+                                  EmbeddingService embeddingService,
+                                  KnowledgeBaseMapper knowledgeBaseMapper,
+                                  IndexingScheduler indexingScheduler,
+                                  StringRedisTemplate stringRedisTemplate,
+                                  EmbeddingProperties embeddingProperties,
+                                  @Qualifier("embeddingMigrationExecutor") Executor embeddingMigrationExecutor) {
+        this.redisDocumentChunkRepository = redisDocumentChunkRepository;
+        this.embeddingSpaces = embeddingSpaces;
+        this.embeddingService = embeddingService;
+        this.knowledgeBaseMapper = knowledgeBaseMapper;
+        this.indexingScheduler = indexingScheduler;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.embeddingProperties = embeddingProperties;
+        this.embeddingMigrationExecutor = embeddingMigrationExecutor;
+    }
+
+    /**
+     * 定时检查是否有知识库需要迁移；迁移在专用线程上执行，不占用定时任务线程
+     */
+    @Scheduled(initialDelay = 30000, fixedDelay = 60000)
+    public void schedule() {
+        if (!embeddingProperties.getMigration().isEnabled() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            embeddingMigrationExecutor.execute(() -> {
+                try {
+                    migratePending();
+                    retireOldSpaces();
+                } catch (Exception e) {
+                    log.warn("向量空间迁移失败，稍后重试: {}", e.getMessage(), e);
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (Exception e) {
+            running.set(false);
+            log.warn("提交向量空间迁移任务失败: {}", e.getMessage());
+        }
+    }
+
+    private void migratePending() {
+        String target = embeddingService.currentSpace();
+        Set<String> deleting = redisDocumentChunkRepository.pendingKnowledgeBaseTombstones();
+        for (String kbId : knowledgeBaseMapper.findActiveIds()) {
+            String active = embeddingSpaces.activeSpace(kbId);
+            if (active.equals(target) || deleting.contains(kbId)) {
+                continue;
+            }
+            String lockKey = LOCK_PREFIX + kbId;
+            String token = target + ":" + UUID.randomUUID();
+            if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, token, LOCK_TTL))) {
+                continue;
+            }
+            try {
+                if (!migrate(kbId, active, target, token)) {
+                    return;
+                }
+            } finally {
+                stringRedisTemplate.execute(RELEASE_LOCK_SCRIPT, List.of(lockKey), token);
+            }
+        }
+    }
+
+    /**
+     * 逐页找出缺少目标空间向量的分块并补齐，再用 ZSCAN 重新检查仍存在的分块，没有缺少向量的才切换检索空间
+     * 写入数为 0 不代表完整：旧版字符串分块写不进新向量、分页期间的并发删除会让排名偏移而漏掉分块
+     * 索引新文件时会同时写入当前空间的向量，所以通常第一轮补齐后即可确认完整
+     *
+     * @return 线程被中断或锁已失效时返回 false，停止本次迁移；其余情况（含本次未能确认完整）返回 true
+     */
+    private boolean migrate(String kbId, String from, String target, String token) {
+        long start = System.currentTimeMillis();
+        int total = 0;
+        log.info("开始迁移知识库 {} 的向量空间: {} → {}", kbId, from, target);
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            int embedded = 0;
+            long offset = 0;
+            List<String> page;
+            while (!(page = redisDocumentChunkRepository.findKnowledgeBaseChunkIds(kbId, offset, PAGE_SIZE)).isEmpty()) {
+                offset += page.size();
+                List<String> missing = redisDocumentChunkRepository.findMissingVectors(page, target);
+                int batchSize = Math.max(embeddingProperties.getMigration().getBatchSize(), 1);
+                for (int i = 0; i < missing.size(); i += batchSize) {
+                    if (!yieldToInteractive()) {
+                        return false;
+                    }
+                    embedded += embed(missing.subList(i, Math.min(i + batchSize, missing.size())), target);
+                    if (!renewLock(kbId, token)) {
+                        log.warn("知识库 {} 的迁移锁已失效，停止本次迁移", kbId);
+                        return false;
+                    }
+                }
+            }
+            total += embedded;
+            int remaining = redisDocumentChunkRepository.countMissingVectors(kbId, target, PAGE_SIZE);
+            if (remaining == 0) {
+                embeddingSpaces.activate(kbId, target, from);
+                log.info("知识库 {} 已切换向量空间 {} → {}: 补齐 {} 个分块, 耗时 {}ms", kbId, from, target, total,
+                        System.currentTimeMillis() - start);
+                return true;
+            }
+            log.info("知识库 {} 第 {} 轮补齐 {} 个分块，仍有 {} 个缺少向量，重新检查", kbId, pass + 1, embedded, remaining);
+        }
+        log.info("知识库 {} 迁移期间持续有分块缺少向量，下次继续", kbId);
+        return true;
+    }
+
+    private boolean renewLock(String kbId, String token) {
+        Long renewed = stringRedisTemplate.execute(RENEW_LOCK_SCRIPT, List.of(LOCK_PREFIX + kbId), token,
+                String.valueOf(LOCK_TTL.toMillis()));
+        return renewed != null && renewed > 0;
+    }
+
+    /**
+     * 为一批分块生成目标空间的向量，并按速率上限补足耗时
+     *
+     * @return 写入的分块数（已删除的分块被跳过）
+     */
+    private int embed(List<String> chunkIds, String target) {
+        long began = System.currentTimeMillis();
+        List<DocumentChunk> chunks = redisDocumentChunkRepository.findByIds(chunkIds);
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        List<String> texts = new ArrayList<>(chunks.size());
+        for (DocumentChunk chunk : chunks) {
+            texts.add(chunk.getContent());
+        }
+        List<List<Double>> embeddings = embeddingService.embedBatch(texts, target);
+        if (embeddings == null || embeddings.size() != chunks.size()) {
+            throw new IllegalStateException("向量数量与分块数量不一致: "
+                    + (embeddings != null ? embeddings.size() : 0) + " != " + chunks.size());
+        }
+        Map<String, float[]> vectors = new LinkedHashMap<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            vectors.put(chunks.get(i).getId(), VectorCodec.fromList(embeddings.get(i)));
+        }
+        int written = redisDocumentChunkRepository.saveVectors(target, vectors);
+        long minMillis = chunks.size() * 1000L / Math.max(embeddingProperties.getMigration().getMaxChunksPerSecond(), 1);
+        sleep(minMillis - (System.currentTimeMillis() - began));
+        return written;
+    }
+
+    /**
+     * 交互式上传有任务排队时暂停迁移，把 Embedding API 配额让给在线请求，最多等待 yieldMaxWaitMs
+     *
+     * @return 线程被中断时返回 false
+     */
+    private boolean yieldToInteractive() {
+        long deadline = System.currentTimeMillis() + embeddingProperties.getMigration().getYieldMaxWaitMs();
+        while (interactiveQueued() > 0 && System.currentTimeMillis() < deadline) {
+            if (!sleep(YIELD_POLL_MS)) {
+                return false;
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    private int interactiveQueued() {
+        IndexingStatsVO stats = indexingScheduler.stats();
+        if (stats == null || stats.getLanes() == null) {
+            return 0;
+        }
+        for (IndexingStatsVO.LaneStats lane : stats.getLanes()) {
+            if (IndexingScheduler.Lane.INTERACTIVE.name().equals(lane.getLane()) && lane.getQueued() != null) {
+                return lane.getQueued();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 切换超过 retireDelaySeconds 的知识库：删除旧空间的向量，释放 Redis 内存
+     */
+    private void retireOldSpaces() {
+        long delayMs = embeddingProperties.getMigration().getRetireDelaySeconds() * 1000L;
+        for (Map.Entry<String, String[]> entry : embeddingSpaces.retiredSpaces().entrySet()) {
+            String kbId = entry.getKey();
+            String[] retired = entry.getValue();
+            long switchedAt = retired.length > 1 ? parseLong(retired[1]) : 0;
+            if (System.currentTimeMillis() - switchedAt < delayMs) {
+                continue;
+            }
+            String oldSpace = retired[0];
+            if (!oldSpace.equals(embeddingSpaces.activeSpace(kbId))) {
+                long offset = 0;
+                List<String> page;
+                while (!(page = redisDocumentChunkRepository.findKnowledgeBaseChunkIds(kbId, offset, PAGE_SIZE)).isEmpty()) {
+                    redisDocumentChunkRepository.removeVectors(oldSpace, page);
+                    offset += page.size();
+                }
+                log.info("知识库 {} 已删除旧向量空间 {} 的向量: {} 个分块", kbId, oldSpace, offset);
+            }
+            embeddingSpaces.clearRetired(kbId);
+        }
+    }
+
+    private static boolean sleep(long millis) {
+        if (millis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.entity.UploadedFile;
+
+/**
+ * 文件索引结束（COMPLETED / FAILED）且状态已提交后在进程内发布的事件，供批量导入工具等同进程组件跟踪进度
+ */
+public record FileIndexedEvent(String fileId, String userId, String kbId, UploadedFile.FileStatus status, int chunks) {
+}
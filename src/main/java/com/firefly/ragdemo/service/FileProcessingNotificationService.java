@@ -8,4 +8,9 @@ public interface FileProcessingNotificationService {
     SseEmitter subscribe(String userId);
 
     void notifyStatus(UploadedFile file, UploadedFile.FileStatus status, String message);
+
+    /**
+     * 推送索引进度（已写入分块数 / 分块总数）
+     */
+    void notifyProgress(UploadedFile file, int processedChunks, int totalChunks, String message);
 }
@@ -15,6 +15,18 @@ public interface FileService {
 
     FileVO uploadFile(MultipartFile file, User user, String kbId) throws IOException;
 
+    /**
+     * 上传文件并在指定优先级队列中排队索引
+     */
+    FileVO uploadFile(MultipartFile file, User user, String kbId, IndexingScheduler.Lane lane) throws IOException;
+
+    /**
+     * 登记已写入存储目录的文件（如分片上传合并后的文件），事务提交后提交索引任务
+     * 同一用户在同一知识库中已有相同内容的文件时不再新增记录，直接返回已有文件
+     */
+    FileVO registerStoredFile(FileStorageService.StoredBlob blob, String filename, long fileSize, User user,
+                              String kbId, IndexingScheduler.Lane lane);
+
     PageResult<FileVO> getUserFiles(String userId, int page, int limit);
 
     Optional<UploadedFile> findById(String fileId);
@@ -0,0 +1,51 @@
+package com.firefly.ragdemo.service;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 上传文件的磁盘存储
+ * 按内容寻址：文件以 SHA-256 命名，存放在 ab/cd/&lt;hash&gt; 分片目录下，内容相同的文件只保存一份（与文件名、扩展名无关）
+ */
+public interface FileStorageService {
+
+    /**
+     * 保存上传的文件：读取 multipart 内容写入临时文件的同时计算 SHA-256，只过一遍数据
+     */
+    StoredBlob store(MultipartFile file) throws IOException;
+
+    /**
+     * 导入本地文件：先读一遍计算 SHA-256，内容已存在时不再写盘；否则用 FileChannel 零拷贝传输复制一份（不硬链接，源文件之后被修改不影响存储内容）
+     */
+    StoredBlob importFile(Path source) throws IOException;
+
+    /**
+     * 临时文件目录，与存储目录位于同一文件系统，便于 {@link #moveIn} 原子重命名
+     */
+    Path stagingDirectory() throws IOException;
+
+    /**
+     * 把已写完且已知 SHA-256 的临时文件移入存储目录（同一文件系统内原子重命名，不复制数据）；内容已存在时直接删除临时文件
+     */
+    StoredBlob moveIn(Path staged, String contentHash) throws IOException;
+
+    void delete(Path path);
+
+    /**
+     * 释放共用的存储文件：在该内容的存储锁内确认没有记录引用后才删除，与写入时的"内容已存在"判断互斥；
+     * 最近刚被写入或复用的内容（引用它的记录可能尚未提交）本次保留
+     *
+     * @param referenced 查询是否仍有记录引用该文件，在锁内调用
+     */
+    void deleteIfUnreferenced(Path path, String contentHash, BooleanSupplier referenced);
+
+    /**
+     * @param contentHash 小写十六进制 SHA-256
+     * @param existed     存储中已有相同内容，本次没有写盘
+     */
+    record StoredBlob(Path path, String contentHash, boolean existed) {
+    }
+}
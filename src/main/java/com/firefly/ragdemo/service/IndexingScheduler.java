@@ -0,0 +1,41 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.vo.IndexingStatsVO;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 文件索引调度器：交互式上传优先于批量导入，同一队列内按用户轮转
+ */
+public interface IndexingScheduler {
+
+    enum Lane {
+        INTERACTIVE, BULK
+    }
+
+    /**
+     * 提交索引任务
+     * @param fileId 文件ID
+     * @param userId 文件所属用户，用于公平调度
+     * @param lane 优先级队列
+     * @return 提交结果；队列已满时 accepted=false，不会在调用线程上执行索引
+     */
+    Submission submit(String fileId, String userId, Lane lane);
+
+    /**
+     * 当前队列深度与等待时间统计
+     */
+    IndexingStatsVO stats();
+
+    /**
+     * @param accepted 是否已入队
+     * @param queuePosition 入队时前方等待的任务数（含更高优先级队列）
+     * @param completion 索引执行结束（成功或失败）时完成；未入队时为已失败的 future
+     */
+    record Submission(boolean accepted, int queuePosition, CompletableFuture<Void> completion) {
+
+        public static Submission rejected(String reason) {
+            return new Submission(false, -1, CompletableFuture.failedFuture(new IllegalStateException(reason)));
+        }
+    }
+}
@@ -1,112 +1,245 @@
 package com.firefly.ragdemo.service;
 
-import com.firefly.ragdemo.vo.FileVO;
+import com.firefly.ragdemo.config.BulkIngestProperties;
+import com.firefly.ragdemo.entity.UploadedFile;
 import com.firefly.ragdemo.entity.User;
-import lombok.RequiredArgsConstructor;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.messaging.IndexJobProducer;
+import com.firefly.ragdemo.util.FileTypeUtils;
+import com.firefly.ragdemo.vo.BulkIngestReportVO;
+import com.firefly.ragdemo.vo.FileVO;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.time.Instant;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * 目录批量导入引擎
+ * 1. 递归遍历目录，并行导入文件（按内容寻址，已有的内容不再写盘；否则以零拷贝传输复制，不经过堆内存）
+ * 2. uploaded_files 按批多行插入
+ * 3. 每批插入后在 BULK 队列提交索引任务
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class KnowledgeBaseBulkUploadService {
 
-    private final FileService fileService;
     private final KnowledgeBaseService knowledgeBaseService;
+    private final FileStorageService fileStorageService;
+    private final UploadedFileMapper uploadedFileMapper;
+    private final IndexJobProducer indexJobProducer;
+    private final BulkIngestProperties properties;
+    private final Executor bulkIngestExecutor;
+
+    public KnowledgeBaseBulkUploadService(KnowledgeBaseService knowledgeBaseService,
+                                          FileStorageService fileStorageService,
+                                          UploadedFileMapper uploadedFileMapper,
+                                          IndexJobProducer indexJobProducer,
+                                          BulkIngestProperties properties,
+                                          @Qualifier("bulkIngestExecutor") Executor bulkIngestExecutor) {
+        this.knowledgeBaseService = knowledgeBaseService;
+        this.fileStorageService = fileStorageService;
+        this.uploadedFileMapper = uploadedFileMapper;
+        this.indexJobProducer = indexJobProducer;
+        this.properties = properties;
+        this.bulkIngestExecutor = bulkIngestExecutor;
+    }
 
     /**
-     * 将目录下的所有文件上传到指定知识库（可用于公共知识库导入）
+     * 将目录（含子目录）下的所有文件上传到指定知识库（可用于公共知识库导入）
      */
     public List<FileVO> uploadDirectory(Path directory, User user, String targetKbId) throws IOException {
+        return ingestDirectory(directory, user, targetKbId).getFiles();
+    }
+
+    public BulkIngestReportVO ingestDirectory(Path directory, User user, String targetKbId) throws IOException {
         if (directory == null || !Files.isDirectory(directory)) {
             throw new IllegalArgumentException("目录不存在或不可访问: " + directory);
         }
         String resolvedKbId = knowledgeBaseService.resolveUploadKb(user.getId(), user.getUsername(), targetKbId);
-        List<FileVO> uploaded = new ArrayList<>();
-        try (var paths = Files.list(directory)) {
-            paths.filter(Files::isRegularFile).forEach(path -> {
-                try {
-                    MultipartFile multipartFile = toMultipartFile(path);
-                    FileVO vo = fileService.uploadFile(multipartFile, user, resolvedKbId);
-                    uploaded.add(vo);
-                } catch (Exception e) {
-                    log.warn("上传文件失败，已跳过: {} ({})", path, e.getMessage());
-                }
-            });
+        long startNanos = System.nanoTime();
+        IngestState state = new IngestState();
+        CompletionService<UploadedFile> completion = new ExecutorCompletionService<>(bulkIngestExecutor);
+        int batchSize = Math.max(properties.getBatchSize(), 1);
+
+        boolean followLinks = properties.isFollowLinks();
+        FileVisitOption[] options = followLinks ? new FileVisitOption[]{FileVisitOption.FOLLOW_LINKS} : new FileVisitOption[0];
+        LinkOption[] linkOptions = followLinks ? new LinkOption[0] : new LinkOption[]{LinkOption.NOFOLLOW_LINKS};
+        try (Stream<Path> paths = Files.walk(directory, options)) {
+            for (Path path : (Iterable<Path>) paths.filter(p -> Files.isRegularFile(p, linkOptions))::iterator) {
+                state.discovered++;
+                completion.submit(() -> stage(directory, path, user.getId(), resolvedKbId));
+                state.pending++;
+                drain(completion, state, batchSize, false);
+            }
         }
-        return uploaded;
-    }
-
-    private MultipartFile toMultipartFile(Path path) throws IOException {
-        byte[] bytes = Files.readAllBytes(path);
-        String originalName = path.getFileName().toString();
-        String contentType = Files.probeContentType(path);
-        return new SimplePathMultipartFile(originalName, bytes, contentType);
+        drain(completion, state, batchSize, true);
+        flush(state);
+
+        long elapsedMs = Math.max((System.nanoTime() - startNanos) / 1_000_000, 1);
+        double seconds = elapsedMs / 1000.0;
+        BulkIngestReportVO report = BulkIngestReportVO.builder()
+                .kbId(resolvedKbId)
+                .discovered(state.discovered)
+                .imported(state.files.size())
+                .skipped(state.skipped)
+                .failed(state.failed)
+                .totalBytes(state.totalBytes)
+                .elapsedMs(elapsedMs)
+                .filesPerSecond(state.files.size() / seconds)
+                .mbPerSecond(state.totalBytes / 1024.0 / 1024.0 / seconds)
+                .files(state.files)
+                .build();
+        log.info("目录导入完成: dir={}, kb={}, 导入={}, 跳过={}, 失败={}, 耗时={}ms, {} 文件/秒, {} MB/秒",
+                directory, resolvedKbId, report.getImported(), report.getSkipped(), report.getFailed(), elapsedMs,
+                String.format("%.1f", report.getFilesPerSecond()), String.format("%.2f", report.getMbPerSecond()));
+        return report;
     }
 
     /**
-     * 轻量级 MultipartFile 实现，避免引入额外依赖
+     * 工作线程：校验并导入单个文件，返回待插入的记录；不支持或知识库中已有相同内容的文件返回 null
      */
-    private static class SimplePathMultipartFile implements MultipartFile {
-
-        private final String originalFilename;
-        private final byte[] content;
-        private final String contentType;
-
-        SimplePathMultipartFile(String originalFilename, byte[] content, String contentType) {
-            this.originalFilename = originalFilename;
-            this.content = content;
-            this.contentType = contentType;
+    private UploadedFile stage(Path root, Path path, String userId, String kbId) throws IOException {
+        String filename = relativeName(root, path);
+        long size = Files.size(path);
+        if (!FileTypeUtils.isAllowed(filename, size)) {
+            log.debug("跳过不支持或超出大小限制的文件: {} ({} bytes)", path, size);
+            return null;
         }
-
-        @Override
-        public String getName() {
-            return StringUtils.hasText(originalFilename) ? originalFilename : "file-" + Instant.now().toEpochMilli();
+        String extension = FileTypeUtils.extensionOf(filename);
+        byte[] head;
+        try (InputStream in = Files.newInputStream(path)) {
+            head = FileTypeUtils.readHead(in);
         }
-
-        @Override
-        public String getOriginalFilename() {
-            return originalFilename;
+        if (!FileTypeUtils.matchesContent(extension, head)) {
+            log.debug("跳过内容与扩展名不符的文件: {}", path);
+            return null;
         }
-
-        @Override
-        public String getContentType() {
-            return contentType;
+        FileStorageService.StoredBlob stored = fileStorageService.importFile(path);
+        if (stored.existed()
+                && uploadedFileMapper.findByContentHashAndOwner(stored.contentHash(), userId, kbId).isPresent()) {
+            log.debug("知识库中已有相同内容的文件，跳过: {}", path);
+            return null;
         }
+        return UploadedFile.builder()
+                .id(UUID.randomUUID().toString())
+                .userId(userId)
+                .filename(filename)
+                .filePath(stored.path().toString())
+                .fileSize(size)
+                .fileType(extension)
+                .uploadTime(LocalDateTime.now())
+                .kbId(kbId)
+                .contentHash(stored.contentHash())
+                .status(UploadedFile.FileStatus.PROCESSING)
+                .build();
+    }
 
-        @Override
-        public boolean isEmpty() {
-            return content.length == 0;
+    private void drain(CompletionService<UploadedFile> completion, IngestState state, int batchSize, boolean waitAll) {
+        while (state.pending > 0) {
+            Future<UploadedFile> future;
+            try {
+                future = waitAll ? completion.take() : completion.poll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("目录导入被中断", e);
+            }
+            if (future == null) {
+                return;
+            }
+            state.pending--;
+            try {
+                UploadedFile staged = future.get();
+                if (staged == null || !state.contentHashes.add(staged.getContentHash())) {
+                    // 同一目录内的重复文件只导入一份
+                    state.skipped++;
+                } else {
+                    state.batch.add(staged);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("目录导入被中断", e);
+            } catch (ExecutionException e) {
+                state.failed++;
+                log.warn("导入文件失败，已跳过: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            }
+            if (state.batch.size() >= batchSize) {
+                flush(state);
+            }
         }
+    }
 
-        @Override
-        public long getSize() {
-            return content.length;
+    private void flush(IngestState state) {
+        if (state.batch.isEmpty()) {
+            return;
         }
-
-        @Override
-        public byte[] getBytes() {
-            return content;
+        List<UploadedFile> batch = new ArrayList<>(state.batch);
+        state.batch.clear();
+        try {
+            uploadedFileMapper.batchInsert(batch);
+        } catch (Exception e) {
+            log.error("批量写入文件记录失败，本批 {} 个文件已回滚", batch.size(), e);
+            for (UploadedFile file : batch) {
+                // 存储文件按内容共用，仍被其他记录引用时保留
+                fileStorageService.deleteIfUnreferenced(Paths.get(file.getFilePath()), file.getContentHash(),
+                        () -> uploadedFileMapper.countByContentHashAndPath(file.getContentHash(), file.getFilePath()) > 0);
+            }
+            state.failed += batch.size();
+            return;
         }
-
-        @Override
-        public InputStream getInputStream() {
-            return new java.io.ByteArrayInputStream(content);
+        for (UploadedFile file : batch) {
+            try {
+                indexJobProducer.publish(file.getId(), file.getUserId(), file.getKbId(), IndexingScheduler.Lane.BULK);
+            } catch (Exception e) {
+                // 记录仍为 PROCESSING，下次启动时由 IndexJobRecoverySweeper 重新投递
+                log.warn("提交索引任务失败 fileId={}: {}", file.getId(), e.getMessage());
+            }
+            state.totalBytes += file.getFileSize();
+            state.files.add(FileVO.builder()
+                    .id(file.getId())
+                    .filename(file.getFilename())
+                    .fileSize(file.getFileSize())
+                    .fileType(file.getFileType())
+                    .uploadTime(file.getUploadTime())
+                    .kbId(file.getKbId())
+                    .status(file.getStatus())
+                    .build());
         }
+    }
 
-        @Override
-        public void transferTo(java.io.File dest) throws IOException {
-            Files.write(dest.toPath(), content);
-        }
+    private static String relativeName(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    /**
+     * 单次导入的进度，只在调用线程中读写
+     */
+    private static class IngestState {
+        private final List<UploadedFile> batch = new ArrayList<>();
+        private final List<FileVO> files = new ArrayList<>();
+        private final Set<String> contentHashes = new HashSet<>();
+        private int discovered;
+        private int pending;
+        private int skipped;
+        private int failed;
+        private long totalBytes;
     }
 }
@@ -18,4 +18,15 @@ public interface KnowledgeBaseService {
      * 获取一个默认公共知识库ID（若不存在则自动创建）。
      */
     String ensureDefaultSharedKb();
+
+    /**
+     * 删除知识库：立即停用并对检索隐藏，分块、文件与记录在后台清理。
+     * 仅共享知识库可删除，且需要该知识库的 ADMIN 授权；私人知识库不可删除。
+     */
+    void deleteKnowledgeBase(String userId, String kbId);
+
+    /**
+     * 是否为平台管理员：持有默认公共知识库的 ADMIN 授权，可查看索引队列等运维信息。
+     */
+    boolean isPlatformAdmin(String userId);
 }
@@ -1,6 +1,18 @@
 package com.firefly.ragdemo.service;
 
+import com.firefly.ragdemo.entity.UploadedFile;
+
+import java.io.InputStream;
+
 public interface RagIndexService {
 
+    /**
+     * 在当前线程同步执行索引；异步调度请通过 {@link IndexingScheduler} 提交
+     */
     void indexFile(String fileId);
-} 
\ No newline at end of file
+
+    /**
+     * 使用调用方提供的内容流索引已入库的文件记录（如归档条目），流由本方法关闭；结束后 file 的状态会被更新
+     */
+    void indexFile(UploadedFile file, InputStream content);
+}
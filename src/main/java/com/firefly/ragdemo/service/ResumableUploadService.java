@@ -0,0 +1,34 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.entity.User;
+import com.firefly.ragdemo.vo.FileVO;
+import com.firefly.ragdemo.vo.UploadSessionVO;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 分片/断点续传上传：创建会话 → 按偏移上传分片（可乱序、可重传） → 合并完成并提交索引
+ */
+public interface ResumableUploadService {
+
+    UploadSessionVO initiate(User user, String filename, long fileSize, String kbId) throws IOException;
+
+    /**
+     * 查询会话进度，断线重连后据 missingParts 续传
+     */
+    UploadSessionVO status(String userId, String uploadId);
+
+    /**
+     * 写入一个分片：offset 必须是分片大小的整数倍，长度必须等于该分片长度
+     */
+    UploadSessionVO writePart(String userId, String uploadId, long offset, long contentLength, InputStream body)
+            throws IOException;
+
+    /**
+     * 所有分片到齐后完成上传；expectedSha256 不为空时校验整个文件的 SHA-256
+     */
+    FileVO complete(User user, String uploadId, String expectedSha256) throws IOException;
+
+    void abort(String userId, String uploadId);
+}
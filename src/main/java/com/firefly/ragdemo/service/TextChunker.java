@@ -1,8 +1,41 @@
 package com.firefly.ragdemo.service;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public interface TextChunker {
 
     List<String> split(String text);
-} 
\ No newline at end of file
+
+    /**
+     * 带元数据的分块结果，默认实现不携带标题路径
+     */
+    default List<Chunk> chunk(String text) {
+        List<String> parts = split(text);
+        List<Chunk> chunks = new ArrayList<>(parts.size());
+        for (String part : parts) {
+            chunks.add(new Chunk(part, null));
+        }
+        return chunks;
+    }
+
+    /**
+     * 是否需要结构化输入（标题、代码块、表格以 Markdown 形式保留）
+     */
+    default boolean structureAware() {
+        return false;
+    }
+
+    /**
+     * 分块配置指纹：同一文本在指纹不变时必须得到相同的分块结果，用于校验索引断点是否仍然有效
+     */
+    default String fingerprint() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @param content     分块文本
+     * @param headingPath 分块所在的标题路径，如 "第3章 类 > 3.2 构造函数"，无标题时为 null
+     */
+    record Chunk(String content, String headingPath) {}
+}
@@ -0,0 +1,49 @@
+package com.firefly.ragdemo.service;
+
+/**
+ * 本地分词器：用于按 token 数控制分块与 Prompt 大小
+ * 计数接口直接作用于 CharSequence 的区间视图，调用方无需截取子串
+ */
+public interface Tokenizer {
+
+    /**
+     * 分词器名称，参与分块配置指纹的计算
+     */
+    String name();
+
+    /**
+     * 统计 text[start, end) 的 token 数
+     */
+    int count(CharSequence text, int start, int end);
+
+    default int count(CharSequence text) {
+        return text == null ? 0 : count(text, 0, text.length());
+    }
+
+    /**
+     * 返回最大的 cut（start < cut <= end），使 text[start, cut) 不超过 maxTokens；
+     * 默认实现对区间做二分查找，保证至少前进一个字符
+     */
+    default int truncate(CharSequence text, int start, int end, int maxTokens) {
+        if (start >= end) {
+            return end;
+        }
+        if (count(text, start, end) <= maxTokens) {
+            return end;
+        }
+        int lo = start + 1;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (count(text, start, mid) <= maxTokens) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (lo < end && Character.isHighSurrogate(text.charAt(lo - 1))) {
+            lo++;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,511 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.service.Tokenizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 字节级 BPE 分词器，词表为 tiktoken 格式（每行 "base64(token) rank"）
+ * 预分词按 cl100k 规则手写扫描（字母串、1~3 位数字、标点串、空白），不使用正则；
+ * 加载时把词表展开为"左 token + 右 token → 合并后 rank"的 long 键表，合并过程用链表 + 最小堆，单个片段 O(n log n)，
+ * 查表与合并不分配对象；片段直接编码到线程内复用的 UTF-8 缓冲区，较短片段的 token 数会被缓存
+ */
+public class BpeTokenizer implements Tokenizer {
+
+    // 超过该长度的片段（如整段中文）很少重复出现，不进入缓存
+    private static final int MAX_CACHED_PIECE_CHARS = 32;
+
+    private final String name;
+    // key 为 token 字节按 ISO-8859-1 映射成的字符串，只在加载与整片段命中判断时使用
+    private final Map<String, Integer> ranks;
+    private final int[] byteRanks = new int[256];
+    private final LongIntMap merges;
+    private final int maxTokenBytes;
+    private final int cacheSize;
+    private final Map<PieceKey, Integer> pieceCache = new ConcurrentHashMap<>();
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    public BpeTokenizer(String name, Map<String, Integer> ranks, int cacheSize) {
+        this.name = name;
+        this.ranks = ranks;
+        this.cacheSize = cacheSize;
+        Arrays.fill(byteRanks, -1);
+        int longest = 1;
+        int pairs = 0;
+        for (Map.Entry<String, Integer> entry : ranks.entrySet()) {
+            String token = entry.getKey();
+            longest = Math.max(longest, token.length());
+            if (token.length() == 1) {
+                byteRanks[token.charAt(0) & 0xFF] = entry.getValue();
+            } else {
+                pairs += token.length() - 1;
+            }
+        }
+        this.maxTokenBytes = longest;
+        this.merges = new LongIntMap(pairs);
+        for (Map.Entry<String, Integer> entry : ranks.entrySet()) {
+            String token = entry.getKey();
+            for (int k = 1; k < token.length(); k++) {
+                Integer left = ranks.get(token.substring(0, k));
+                Integer right = left != null ? ranks.get(token.substring(k)) : null;
+                if (right != null) {
+                    merges.putIfAbsent(pairKey(left, right), entry.getValue());
+                }
+            }
+        }
+    }
+
+    public static BpeTokenizer load(InputStream in, String name, int cacheSize) throws IOException {
+        Map<String, Integer> ranks = new HashMap<>(131072);
+        Base64.Decoder decoder = Base64.getDecoder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    continue;
+                }
+                byte[] token = decoder.decode(line.substring(0, space));
+                ranks.put(new String(token, StandardCharsets.ISO_8859_1), Integer.parseInt(line.substring(space + 1).trim()));
+            }
+        }
+        if (ranks.isEmpty()) {
+            throw new IOException("BPE 词表为空");
+        }
+        return new BpeTokenizer(name, ranks, cacheSize);
+    }
+
+    @Override
+    public String name() {
+        return "bpe:" + name;
+    }
+
+    public int vocabularySize() {
+        return ranks.size();
+    }
+
+    @Override
+    public int count(CharSequence text, int start, int end) {
+        Scratch buffers = scratch.get();
+        int tokens = 0;
+        int i = start;
+        while (i < end) {
+            int pieceEnd = nextPiece(text, i, end);
+            tokens += countPiece(text, i, pieceEnd, buffers);
+            i = pieceEnd;
+        }
+        return tokens;
+    }
+
+    private int countPiece(CharSequence text, int start, int end, Scratch buffers) {
+        boolean cacheable = end - start <= MAX_CACHED_PIECE_CHARS;
+        if (cacheable) {
+            Integer cached = pieceCache.get(buffers.key.set(text, start, end));
+            if (cached != null) {
+                return cached;
+            }
+        }
+        int tokens = bpeCount(buffers, buffers.encode(text, start, end));
+        if (cacheable) {
+            if (pieceCache.size() >= cacheSize) {
+                pieceCache.clear();
+            }
+            pieceCache.put(buffers.key.copy(), tokens);
+        }
+        return tokens;
+    }
+
+    /**
+     * 标准 BPE 合并：每轮合并 rank 最小（同 rank 取最靠左）的相邻片段，直到无法合并，剩余片段数即 token 数
+     * 片段为双向链表，候选合并按 (rank, 位置) 放入最小堆，失效的候选在出堆时丢弃
+     */
+    private int bpeCount(Scratch buffers, int n) {
+        byte[] bytes = buffers.bytes;
+        if (n <= 1) {
+            return n;
+        }
+        if (n <= maxTokenBytes && ranks.containsKey(new String(bytes, 0, n, StandardCharsets.ISO_8859_1))) {
+            return 1;
+        }
+        buffers.ensureParts(n);
+        int[] token = buffers.token;
+        int[] next = buffers.next;
+        int[] prev = buffers.prev;
+        int[] pairRank = buffers.pairRank;
+        LongHeap heap = buffers.heap;
+        heap.clear();
+        for (int i = 0; i < n; i++) {
+            token[i] = byteRanks[bytes[i] & 0xFF];
+            next[i] = i + 1;
+            prev[i] = i - 1;
+        }
+        next[n - 1] = -1;
+        for (int i = 0; i + 1 < n; i++) {
+            pairRank[i] = mergeRank(token[i], token[i + 1]);
+            if (pairRank[i] >= 0) {
+                heap.push(candidate(pairRank[i], i));
+            }
+        }
+        pairRank[n - 1] = -1;
+        int parts = n;
+        while (!heap.isEmpty()) {
+            long top = heap.pop();
+            int rank = (int) (top >>> 32);
+            int i = (int) top;
+            // 该位置已被合并掉或其右邻已变化
+            if (token[i] < 0 || pairRank[i] != rank) {
+                continue;
+            }
+            int j = next[i];
+            token[i] = rank;
+            token[j] = -1;
+            next[i] = next[j];
+            if (next[j] >= 0) {
+                prev[next[j]] = i;
+            }
+            parts--;
+            pairRank[i] = next[i] >= 0 ? mergeRank(token[i], token[next[i]]) : -1;
+            if (pairRank[i] >= 0) {
+                heap.push(candidate(pairRank[i], i));
+            }
+            int p = prev[i];
+            if (p >= 0) {
+                pairRank[p] = mergeRank(token[p], token[i]);
+                if (pairRank[p] >= 0) {
+                    heap.push(candidate(pairRank[p], p));
+                }
+            }
+        }
+        return parts;
+    }
+
+    private int mergeRank(int left, int right) {
+        if (left < 0 || right < 0) {
+            return -1;
+        }
+        return merges.get(pairKey(left, right));
+    }
+
+    private static long pairKey(int left, int right) {
+        return ((long) left << 32) | (right & 0xFFFFFFFFL);
+    }
+
+    private static long candidate(int rank, int position) {
+        return ((long) rank << 32) | position;
+    }
+
+    /**
+     * 近似 cl100k 预分词规则，返回从 i 开始的片段结束位置
+     */
+    static int nextPiece(CharSequence text, int i, int end) {
+        int c = Character.codePointAt(text, i);
+        int width = Character.charCount(c);
+
+        // 英文缩写 's 't 're 've 'm 'll 'd
+        if (c == '\'' && i + 1 < end) {
+            int contraction = contractionLength(text, i + 1, end);
+            if (contraction > 0) {
+                return i + 1 + contraction;
+            }
+        }
+        // [^\r\n\p{L}\p{N}]?\p{L}+
+        if (Character.isLetter(c)) {
+            return letterRunEnd(text, i, end);
+        }
+        if (c != '\r' && c != '\n' && !Character.isDigit(c) && i + width < end
+                && Character.isLetter(Character.codePointAt(text, i + width))) {
+            return letterRunEnd(text, i + width, end);
+        }
+        // \p{N}{1,3}
+        if (Character.isDigit(c)) {
+            int j = i;
+            int digits = 0;
+            while (j < end && digits < 3 && Character.isDigit(Character.codePointAt(text, j))) {
+                j += Character.charCount(Character.codePointAt(text, j));
+                digits++;
+            }
+            return j;
+        }
+        // ' ?[^\s\p{L}\p{N}]+[\r\n]*'
+        int punctStart = i;
+        if (c == ' ' && i + 1 < end && isPunct(Character.codePointAt(text, i + 1))) {
+            punctStart = i + 1;
+        }
+        if (isPunct(Character.codePointAt(text, punctStart))) {
+            int j = punctStart;
+            while (j < end && isPunct(Character.codePointAt(text, j))) {
+                j += Character.charCount(Character.codePointAt(text, j));
+            }
+            while (j < end && (text.charAt(j) == '\r' || text.charAt(j) == '\n')) {
+                j++;
+            }
+            return j;
+        }
+        // 空白：\s*[\r\n]+ 或 \s+(?!\S)，末尾的单个空格留给后续片段
+        int j = i;
+        int lastNewline = -1;
+        while (j < end && Character.isWhitespace(text.charAt(j))) {
+            if (text.charAt(j) == '\r' || text.charAt(j) == '\n') {
+                lastNewline = j;
+            }
+            j++;
+        }
+        if (lastNewline >= 0) {
+            return lastNewline + 1;
+        }
+        if (j < end && j - i > 1) {
+            return j - 1;
+        }
+        return Math.max(j, i + width);
+    }
+
+    private static int letterRunEnd(CharSequence text, int from, int end) {
+        int j = from;
+        while (j < end) {
+            int cp = Character.codePointAt(text, j);
+            if (!Character.isLetter(cp)) {
+                break;
+            }
+            j += Character.charCount(cp);
+        }
+        return j;
+    }
+
+    private static int contractionLength(CharSequence text, int from, int end) {
+        char a = Character.toLowerCase(text.charAt(from));
+        if (a == 's' || a == 't' || a == 'm' || a == 'd') {
+            return 1;
+        }
+        if (from + 1 < end) {
+            char b = Character.toLowerCase(text.charAt(from + 1));
+            if ((a == 'r' && b == 'e') || (a == 'v' && b == 'e') || (a == 'l' && b == 'l')) {
+                return 2;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isPunct(int cp) {
+        return !Character.isWhitespace(cp) && !Character.isLetter(cp) && !Character.isDigit(cp);
+    }
+
+    /**
+     * 线程内复用的缓冲区：UTF-8 字节、链表与候选堆、缓存查询键
+     */
+    private static final class Scratch {
+
+        private byte[] bytes = new byte[256];
+        private int[] token = new int[0];
+        private int[] next = new int[0];
+        private int[] prev = new int[0];
+        private int[] pairRank = new int[0];
+        private final LongHeap heap = new LongHeap();
+        private final PieceKey key = new PieceKey();
+
+        /**
+         * 按 String.getBytes(UTF_8) 的规则编码（孤立代理字符编码为 '?'），返回字节数
+         */
+        int encode(CharSequence text, int start, int end) {
+            int required = (end - start) * 3;
+            if (bytes.length < required) {
+                bytes = new byte[Math.max(required, bytes.length * 2)];
+            }
+            int n = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[n++] = (byte) (0xC0 | (c >> 6));
+                    bytes[n++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[n++] = (byte) (0xF0 | (cp >> 18));
+                    bytes[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    bytes[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    bytes[n++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    bytes[n++] = '?';
+                } else {
+                    bytes[n++] = (byte) (0xE0 | (c >> 12));
+                    bytes[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[n++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return n;
+        }
+
+        void ensureParts(int n) {
+            if (token.length < n) {
+                int size = Math.max(n, token.length * 2);
+                token = new int[size];
+                next = new int[size];
+                prev = new int[size];
+                pairRank = new int[size];
+            }
+        }
+    }
+
+    /**
+     * 片段缓存键：查询时复用同一个实例指向原文区间，只有写入缓存时才复制出字符串
+     */
+    private static final class PieceKey {
+
+        private CharSequence text;
+        private int start;
+        private int end;
+        private int hash;
+
+        PieceKey set(CharSequence text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + text.charAt(i);
+            }
+            this.hash = h;
+            return this;
+        }
+
+        PieceKey copy() {
+            String piece = text.subSequence(start, end).toString();
+            return new PieceKey().set(piece, 0, piece.length());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PieceKey other) || other.hash != hash || other.end - other.start != end - start) {
+                return false;
+            }
+            for (int i = 0; i < end - start; i++) {
+                if (text.charAt(start + i) != other.text.charAt(other.start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * long → int 开放寻址表，加载后只读；不存在时返回 -1
+     */
+    private static final class LongIntMap {
+
+        private static final long EMPTY = -1L;
+
+        private final long[] keys;
+        private final int[] values;
+        private final int mask;
+
+        LongIntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+            keys = new long[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            Arrays.fill(keys, EMPTY);
+        }
+
+        void putIfAbsent(long key, int value) {
+            int slot = slot(key);
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        int get(long key) {
+            int slot = slot(key);
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+
+    /**
+     * long 最小堆，元素为 (rank << 32 | 位置)
+     */
+    private static final class LongHeap {
+
+        private long[] items = new long[64];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(long item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (items[parent] <= item) {
+                    break;
+                }
+                items[i] = items[parent];
+                i = parent;
+            }
+            items[i] = item;
+        }
+
+        long pop() {
+            long top = items[0];
+            long last = items[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && items[child + 1] < items[child]) {
+                    child++;
+                }
+                if (items[child] >= last) {
+                    break;
+                }
+                items[i] = items[child];
+                i = child;
+            }
+            if (size > 0) {
+                items[i] = last;
+            }
+            return top;
+        }
+    }
+}
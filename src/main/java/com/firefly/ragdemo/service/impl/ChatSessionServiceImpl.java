@@ -1,13 +1,15 @@
 package com.firefly.ragdemo.service.impl;
 
+import com.firefly.ragdemo.config.ChatHistoryProperties;
 import com.firefly.ragdemo.dto.ChatRequest;
 import com.firefly.ragdemo.entity.ChatMessageRecord;
 import com.firefly.ragdemo.entity.ChatSession;
 import com.firefly.ragdemo.mapper.ChatMessageRecordMapper;
 import com.firefly.ragdemo.mapper.ChatSessionMapper;
 import com.firefly.ragdemo.messaging.ChatHistoryPersistPayload;
+import com.firefly.ragdemo.repository.RedisChatHistoryRepository;
 import com.firefly.ragdemo.service.ChatSessionService;
-import java.time.Instant;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
@@ -32,6 +34,8 @@ public class ChatSessionServiceImpl implements ChatSessionService {
 
     private final ChatSessionMapper chatSessionMapper;
     private final ChatMessageRecordMapper chatMessageRecordMapper;
+    private final RedisChatHistoryRepository chatHistoryRepository;
+    private final ChatHistoryProperties chatHistoryProperties;
 
     @Override
     @Transactional
@@ -41,6 +45,12 @@ public class ChatSessionServiceImpl implements ChatSessionService {
                     payload != null ? payload.getUserId() : null);
             return;
         }
+        // 同一事件的消息 ID 由 eventId 派生，重复投递时第一条消息已存在即可判定为已处理
+        String eventId = payload.getEventId();
+        if (StringUtils.hasText(eventId) && chatMessageRecordMapper.countById(messageId(eventId, 0)) > 0) {
+            log.debug("会话持久化事件已处理过，忽略 eventId={}", eventId);
+            return;
+        }
         LocalDateTime baseTime = payload.getCreatedAt() != null
                 ? LocalDateTime.ofInstant(payload.getCreatedAt(), ZoneOffset.UTC)
                 : LocalDateTime.now();
@@ -78,7 +88,7 @@ public class ChatSessionServiceImpl implements ChatSessionService {
                     : baseTime;
             seq += 1;
             ChatMessageRecord record = ChatMessageRecord.builder()
-                    .id(UUID.randomUUID().toString())
+                    .id(StringUtils.hasText(eventId) ? messageId(eventId, toInsert.size()) : UUID.randomUUID().toString())
                     .sessionId(session.getId())
                     .userId(session.getUserId())
                     .role(msg.getRole())
@@ -116,6 +126,14 @@ public class ChatSessionServiceImpl implements ChatSessionService {
         return chatSessionMapper.countByUser(userId);
     }
 
+    @Override
+    public Optional<ChatSession> findSession(String sessionId, String userId) {
+        if (!StringUtils.hasText(sessionId) || !StringUtils.hasText(userId)) {
+            return Optional.empty();
+        }
+        return chatSessionMapper.findById(sessionId).filter(session -> userId.equals(session.getUserId()));
+    }
+
     @Override
     public List<ChatMessageRecord> listMessages(String sessionId, String userId, int limit) {
         Optional<ChatSession> sessionOpt = chatSessionMapper.findById(sessionId);
@@ -128,12 +146,13 @@ public class ChatSessionServiceImpl implements ChatSessionService {
 
     @Override
     public List<ChatRequest.ChatMessage> buildHistory(String sessionId, String userId, int limit) {
-        List<ChatMessageRecord> records = listMessages(sessionId, userId, limit);
+        List<ChatMessageRecord> records = recentHistory(sessionId, userId).messages();
         if (records.isEmpty()) {
             return Collections.emptyList();
         }
+        int safeLimit = limit > 0 ? limit : DEFAULT_LIMIT;
         List<ChatRequest.ChatMessage> history = new ArrayList<>();
-        for (ChatMessageRecord record : records) {
+        for (ChatMessageRecord record : records.subList(Math.max(records.size() - safeLimit, 0), records.size())) {
             ChatRequest.ChatMessage msg = new ChatRequest.ChatMessage();
             msg.setRole(record.getRole());
             msg.setContent(record.getContent());
@@ -142,6 +161,73 @@ public class ChatSessionServiceImpl implements ChatSessionService {
         return history;
     }
 
+    @Override
+    public RedisChatHistoryRepository.HistoryWindow recentHistory(String sessionId, String userId) {
+        if (!StringUtils.hasText(sessionId) || !StringUtils.hasText(userId)) {
+            return RedisChatHistoryRepository.HistoryWindow.empty();
+        }
+        try {
+            Optional<RedisChatHistoryRepository.HistoryWindow> cached = chatHistoryRepository.find(userId, sessionId);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        } catch (Exception e) {
+            log.warn("读取会话窗口失败，改从数据库加载 sessionId={}: {}", sessionId, e.getMessage());
+            return loadWindow(sessionId, userId).window();
+        }
+        LoadedWindow loaded = loadWindow(sessionId, userId);
+        try {
+            chatHistoryRepository.warm(userId, sessionId, loaded.window(), loaded.seq(), windowTtl());
+        } catch (Exception e) {
+            log.warn("预热会话窗口失败 sessionId={}: {}", sessionId, e.getMessage());
+        }
+        return loaded.window();
+    }
+
+    @Override
+    public void appendHistory(String sessionId, String userId, List<ChatRequest.ChatMessage> messages) {
+        if (!StringUtils.hasText(sessionId) || !StringUtils.hasText(userId) || messages == null || messages.isEmpty()) {
+            return;
+        }
+        List<ChatMessageRecord> records = new ArrayList<>(messages.size());
+        for (ChatRequest.ChatMessage message : messages) {
+            records.add(ChatMessageRecord.builder().role(message.getRole()).content(message.getContent()).build());
+        }
+        try {
+            int windowSize = chatHistoryProperties.getWindowMessages();
+            if (!chatHistoryRepository.append(userId, sessionId, records, windowSize, windowTtl())) {
+                // 窗口已过期：先用数据库中已持久化的消息预热，再追加本轮
+                recentHistory(sessionId, userId);
+                chatHistoryRepository.append(userId, sessionId, records, windowSize, windowTtl());
+            }
+        } catch (Exception e) {
+            log.warn("追加会话窗口失败，下次请求将从数据库加载 sessionId={}: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 从数据库加载摘要与最近消息；seq 为最后一条消息的序号，没有消息时为会话的消息数
+     */
+    private LoadedWindow loadWindow(String sessionId, String userId) {
+        Optional<ChatSession> session = findSession(sessionId, userId);
+        if (session.isEmpty()) {
+            return new LoadedWindow(RedisChatHistoryRepository.HistoryWindow.empty(), 0);
+        }
+        List<ChatMessageRecord> records = new ArrayList<>(chatMessageRecordMapper.findRecentBySession(
+                sessionId, userId, Math.max(chatHistoryProperties.getWindowMessages(), 1)));
+        Collections.reverse(records);
+        ChatSession current = session.get();
+        int seq = !records.isEmpty() ? records.get(records.size() - 1).getSeq()
+                : current.getMessageCount() != null ? current.getMessageCount() : 0;
+        int summarySeq = current.getSummarySeq() != null ? current.getSummarySeq() : 0;
+        return new LoadedWindow(
+                new RedisChatHistoryRepository.HistoryWindow(current.getSummary(), summarySeq, records), seq);
+    }
+
+    private Duration windowTtl() {
+        return Duration.ofMinutes(Math.max(chatHistoryProperties.getTtlMinutes(), 1));
+    }
+
     private String extractFirstUserMessage(ChatHistoryPersistPayload payload) {
         if (payload.getMessages() == null) {
             return null;
@@ -162,4 +248,11 @@ public class ChatSessionServiceImpl implements ChatSessionService {
         String trimmed = base.strip();
         return trimmed.length() > 50 ? trimmed.substring(0, 50) : trimmed;
     }
+
+    private static String messageId(String eventId, int index) {
+        return eventId + "-" + index;
+    }
+
+    private record LoadedWindow(RedisChatHistoryRepository.HistoryWindow window, int seq) {
+    }
 }
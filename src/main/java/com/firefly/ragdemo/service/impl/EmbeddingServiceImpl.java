@@ -1,9 +1,13 @@
 package com.firefly.ragdemo.service.impl;
 
+import com.firefly.ragdemo.config.EmbeddingProperties;
 import com.firefly.ragdemo.service.EmbeddingService;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingRequest;
 import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingOptions;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
@@ -15,11 +19,20 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class EmbeddingServiceImpl implements EmbeddingService {
 
+    private static final String VERSION_SEPARATOR = "@";
+
     private final OpenAiEmbeddingModel embeddingModel;
+    private final String currentSpace;
+
+    public EmbeddingServiceImpl(OpenAiEmbeddingModel embeddingModel,
+                                EmbeddingProperties embeddingProperties,
+                                @Value("${spring.ai.openai.embedding.options.model:text-embedding-ada-002}") String model) {
+        this.embeddingModel = embeddingModel;
+        this.currentSpace = embeddingProperties.spaceOf(model);
+    }
 
     @Override
     @Retryable(
@@ -62,6 +75,61 @@ public class EmbeddingServiceImpl implements EmbeddingService {
         }
     }
 
+    @Override
+    public String currentSpace() {
+        return currentSpace;
+    }
+
+    @Override
+    @Retryable(
+        retryFor = {ResourceAccessException.class, HttpServerErrorException.class, HttpClientErrorException.TooManyRequests.class},
+        maxAttempts = 3,
+        backoff = @Backoff(delay = 1000, multiplier = 2, maxDelay = 10000)
+    )
+    public List<Double> embed(String text, String space) {
+        if (currentSpace.equals(space)) {
+            return embed(text);
+        }
+        List<float[]> embeddings = callModel(List.of(text != null ? text : ""), space);
+        return toDoubleList(embeddings.get(0));
+    }
+
+    @Override
+    @Retryable(
+        retryFor = {ResourceAccessException.class, HttpServerErrorException.class, HttpClientErrorException.TooManyRequests.class},
+        maxAttempts = 3,
+        backoff = @Backoff(delay = 1000, multiplier = 2, maxDelay = 10000)
+    )
+    public List<List<Double>> embedBatch(List<String> texts, String space) {
+        if (texts == null || texts.isEmpty()) {
+            return List.of();
+        }
+        if (currentSpace.equals(space)) {
+            return embedBatch(texts);
+        }
+        return callModel(texts, space).stream()
+                .map(this::toDoubleList)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 非当前空间：同一端点上按请求指定模型名（去掉 @version 后缀）
+     */
+    private List<float[]> callModel(List<String> texts, String space) {
+        int separator = space.lastIndexOf(VERSION_SEPARATOR);
+        String model = separator > 0 ? space.substring(0, separator) : space;
+        try {
+            log.debug("调用Embedding API: 空间={}, 批量大小={}", space, texts.size());
+            OpenAiEmbeddingOptions options = OpenAiEmbeddingOptions.builder().model(model).build();
+            return embeddingModel.call(new EmbeddingRequest(texts, options)).getResults().stream()
+                    .map(Embedding::getOutput)
+                    .collect(Collectors.toList());
+        } catch (Exception e) {
+            log.error("Embedding失败 space={}: {}", space, e.getMessage());
+            throw new RuntimeException("Embedding失败: " + e.getMessage(), e);
+        }
+    }
+
     private List<Double> toDoubleList(float[] embedding) {
         return java.util.stream.IntStream.range(0, embedding.length)
                 .mapToDouble(i -> embedding[i])
@@ -0,0 +1,92 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.service.Tokenizer;
+
+/**
+ * 无词表时的 token 估算：CJK 字符按 1 个 token，拉丁字母/数字串按每 4 个字符 1 个 token，
+ * 标点各算 1 个，空白不计。单次扫描、不分配对象
+ */
+public class EstimatingTokenizer implements Tokenizer {
+
+    private static final int CHARS_PER_WORD_TOKEN = 4;
+
+    @Override
+    public String name() {
+        return "estimate";
+    }
+
+    @Override
+    public int count(CharSequence text, int start, int end) {
+        int tokens = 0;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (isCjk(c)) {
+                tokens++;
+                i++;
+            } else if (Character.isLetterOrDigit(c)) {
+                int runEnd = wordEnd(text, i, end);
+                tokens += (runEnd - i + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+                i = runEnd;
+            } else {
+                tokens++;
+                i += Character.isHighSurrogate(c) && i + 1 < end ? 2 : 1;
+            }
+        }
+        return tokens;
+    }
+
+    @Override
+    public int truncate(CharSequence text, int start, int end, int maxTokens) {
+        int tokens = 0;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (Character.isLetterOrDigit(c) && !isCjk(c)) {
+                int runEnd = wordEnd(text, i, end);
+                int runTokens = (runEnd - i + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+                if (tokens + runTokens > maxTokens) {
+                    // 长单词在 token 边界处截断
+                    int cut = i + (maxTokens - tokens) * CHARS_PER_WORD_TOKEN;
+                    return Math.max(cut, start + 1);
+                }
+                tokens += runTokens;
+                i = runEnd;
+                continue;
+            }
+            if (tokens + 1 > maxTokens) {
+                return Math.max(i, start + 1);
+            }
+            tokens++;
+            i += Character.isHighSurrogate(c) && i + 1 < end ? 2 : 1;
+        }
+        return end;
+    }
+
+    private static int wordEnd(CharSequence text, int from, int end) {
+        int i = from;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c) || isCjk(c)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    static boolean isCjk(char c) {
+        return (c >= 0x4E00 && c <= 0x9FFF)      // CJK 统一表意文字
+                || (c >= 0x3400 && c <= 0x4DBF)  // 扩展 A
+                || (c >= 0x3000 && c <= 0x30FF)  // CJK 标点、日文假名
+                || (c >= 0xAC00 && c <= 0xD7AF)  // 韩文音节
+                || (c >= 0xF900 && c <= 0xFAFF)  // 兼容表意文字
+                || (c >= 0xFF00 && c <= 0xFFEF); // 全角字符
+    }
+}
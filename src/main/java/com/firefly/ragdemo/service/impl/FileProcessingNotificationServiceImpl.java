@@ -44,10 +44,21 @@ public class FileProcessingNotificationServiceImpl implements FileProcessingNoti
         if (file == null || file.getUserId() == null) {
             return;
         }
-        FileProcessingNotification notification = FileProcessingNotification.from(file, status, message);
-        List<SseEmitter> emitters = emittersByUser.get(file.getUserId());
+        send(file.getUserId(), FileProcessingNotification.from(file, status, message));
+    }
+
+    @Override
+    public void notifyProgress(UploadedFile file, int processedChunks, int totalChunks, String message) {
+        if (file == null || file.getUserId() == null) {
+            return;
+        }
+        send(file.getUserId(), FileProcessingNotification.progress(file, processedChunks, totalChunks, message));
+    }
+
+    private void send(String userId, FileProcessingNotification notification) {
+        List<SseEmitter> emitters = emittersByUser.get(userId);
         if (emitters == null || emitters.isEmpty()) {
-            log.debug("用户{}暂无SSE连接，跳过推送", file.getUserId());
+            log.debug("用户{}暂无SSE连接，跳过推送", userId);
             return;
         }
         emitters.removeIf(Objects::isNull);
@@ -55,8 +66,8 @@ public class FileProcessingNotificationServiceImpl implements FileProcessingNoti
             try {
                 emitter.send(SseEmitter.event().name("file-processing").data(notification));
             } catch (Exception e) {
-                log.debug("推送给用户{}失败: {}", file.getUserId(), e.getMessage());
-                completeEmitter(file.getUserId(), emitter);
+                log.debug("推送给用户{}失败: {}", userId, e.getMessage());
+                completeEmitter(userId, emitter);
             }
         }
     }
@@ -5,24 +5,24 @@ import com.firefly.ragdemo.entity.UploadedFile;
 import com.firefly.ragdemo.entity.User;
 import com.firefly.ragdemo.mapper.DocumentChunkMapper;
 import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.messaging.IndexJobProducer;
+import com.firefly.ragdemo.service.ChunkGarbageCollector;
+import com.firefly.ragdemo.service.FileProcessingNotificationService;
 import com.firefly.ragdemo.service.FileService;
-import com.firefly.ragdemo.service.RagIndexService;
-import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.service.FileStorageService;
+import com.firefly.ragdemo.service.IndexingScheduler;
 import com.firefly.ragdemo.service.KnowledgeBaseService;
+import com.firefly.ragdemo.util.FileTypeUtils;
 import com.firefly.ragdemo.util.PageResult;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -33,15 +33,11 @@ public class FileServiceImpl implements FileService {
 
     private final UploadedFileMapper uploadedFileMapper;
     private final DocumentChunkMapper documentChunkMapper;
-    private final RagIndexService ragIndexService;
-    private final RedisDocumentChunkRepository redisDocumentChunkRepository;
+    private final IndexJobProducer indexJobProducer;
+    private final FileProcessingNotificationService fileProcessingNotificationService;
+    private final ChunkGarbageCollector chunkGarbageCollector;
     private final KnowledgeBaseService knowledgeBaseService;
-
-    @Value("${app.file.upload-dir:uploads}")
-    private String uploadDir;
-
-    private final List<String> ALLOWED_EXTENSIONS = Arrays.asList("txt", "md", "pdf", "docx");
-    private final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
+    private final FileStorageService fileStorageService;
 
     @Override
     @Transactional
@@ -52,47 +48,54 @@ public class FileServiceImpl implements FileService {
     @Override
     @Transactional
     public FileVO uploadFile(MultipartFile file, User user, String kbId) throws IOException {
-        validateFile(file);
+        return uploadFile(file, user, kbId, IndexingScheduler.Lane.INTERACTIVE);
+    }
 
-        Path uploadPath = Paths.get(uploadDir);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
-        }
+    @Override
+    @Transactional
+    public FileVO uploadFile(MultipartFile file, User user, String kbId, IndexingScheduler.Lane lane) throws IOException {
+        validateFile(file);
 
         String originalFilename = file.getOriginalFilename();
-        String extension = getFileExtension(originalFilename);
-        String newFilename = UUID.randomUUID().toString() + "." + extension;
-        Path filePath = uploadPath.resolve(newFilename);
+        FileStorageService.StoredBlob blob = fileStorageService.store(file);
 
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+        return registerStoredFile(blob, originalFilename, file.getSize(), user, kbId, lane);
+    }
 
+    @Override
+    @Transactional
+    public FileVO registerStoredFile(FileStorageService.StoredBlob blob, String filename, long fileSize, User user,
+                                     String kbId, IndexingScheduler.Lane lane) {
         String resolvedKbId = knowledgeBaseService.resolveUploadKb(user.getId(), user.getUsername(), kbId);
 
+        if (blob.existed()) {
+            Optional<UploadedFile> duplicate = uploadedFileMapper.findByContentHashAndOwner(
+                    blob.contentHash(), user.getId(), resolvedKbId);
+            if (duplicate.isPresent()) {
+                log.info("知识库中已有相同内容的文件，跳过重复上传: {} -> {}", filename, duplicate.get().getId());
+                return toVO(duplicate.get());
+            }
+        }
+
         UploadedFile uploadedFile = UploadedFile.builder()
                 .id(UUID.randomUUID().toString())
                 .userId(user.getId())
-                .filename(originalFilename)
-                .filePath(filePath.toString())
-                .fileSize(file.getSize())
-                .fileType(extension)
+                .filename(filename)
+                .filePath(blob.path().toString())
+                .fileSize(fileSize)
+                .fileType(FileTypeUtils.extensionOf(filename))
                 .uploadTime(LocalDateTime.now())
                 .kbId(resolvedKbId)
+                .contentHash(blob.contentHash())
                 .status(UploadedFile.FileStatus.PROCESSING)
                 .build();
 
         uploadedFileMapper.insert(uploadedFile);
 
-        processFileAfterCommit(uploadedFile.getId());
+        // 内容已索引过时，索引任务会直接复用已有分块而不重新解析与向量化
+        processFileAfterCommit(uploadedFile, lane);
 
-        return FileVO.builder()
-                .id(uploadedFile.getId())
-                .filename(uploadedFile.getFilename())
-                .fileSize(uploadedFile.getFileSize())
-                .fileType(uploadedFile.getFileType())
-                .uploadTime(uploadedFile.getUploadTime())
-                .kbId(uploadedFile.getKbId())
-                .status(uploadedFile.getStatus())
-                .build();
+        return toVO(uploadedFile);
     }
 
     @Override
@@ -108,15 +111,7 @@ public class FileServiceImpl implements FileService {
 
         List<FileVO> items = new ArrayList<>();
         for (UploadedFile f : files) {
-            items.add(FileVO.builder()
-                    .id(f.getId())
-                    .filename(f.getFilename())
-                    .fileSize(f.getFileSize())
-                    .fileType(f.getFileType())
-                    .uploadTime(f.getUploadTime())
-                    .kbId(f.getKbId())
-                    .status(f.getStatus())
-                    .build());
+            items.add(toVO(f));
         }
 
         return PageResult.<FileVO>builder()
@@ -145,64 +140,110 @@ public class FileServiceImpl implements FileService {
         if (!Objects.equals(file.getUserId(), userId)) {
             throw new AccessDeniedException("无权删除他人文件");
         }
-        // 删除Redis中的chunks
-        redisDocumentChunkRepository.deleteByFileIdAndUser(fileId, userId, file.getKbId());
         // 删除MySQL中的chunks
         int deletedChunks = documentChunkMapper.deleteByFileId(fileId);
         log.info("已删除文件{}的MySQL chunks记录: {}条", fileId, deletedChunks);
-        // 删除磁盘文件
-        try {
-            Path p = Paths.get(file.getFilePath());
-            Files.deleteIfExists(p);
-        } catch (Exception e) {
-            log.warn("删除磁盘文件失败: {} ({})", file.getFilePath(), e.getMessage());
-        }
         // 删除uploaded_files记录
         uploadedFileMapper.deleteById(fileId);
+        purgeFileAfterCommit(file);
+    }
+
+    /**
+     * 记录删除提交后才隐藏并清理 Redis 分块、释放存储文件：事务回滚时文件仍可检索，
+     * 引用计数也不会漏算尚未提交删除的记录而提前删掉共享的内容寻址文件
+     */
+    private void purgeFileAfterCommit(UploadedFile file) {
+        if (org.springframework.transaction.support.TransactionSynchronizationManager.isSynchronizationActive()) {
+            org.springframework.transaction.support.TransactionSynchronizationManager.registerSynchronization(
+                    new org.springframework.transaction.support.TransactionSynchronization() {
+                        @Override
+                        public void afterCommit() {
+                            purgeFile(file);
+                        }
+                    }
+            );
+        } else {
+            purgeFile(file);
+        }
+    }
+
+    private void purgeFile(UploadedFile file) {
+        // Redis 中的 chunks 立即对检索隐藏，由后台分批清理，不阻塞请求线程
+        chunkGarbageCollector.deleteFileChunks(file.getId(), file.getUserId(), file.getKbId());
+        chunkGarbageCollector.releaseStoredFile(file);
+    }
+
+    private static FileVO toVO(UploadedFile file) {
+        return FileVO.builder()
+                .id(file.getId())
+                .filename(file.getFilename())
+                .fileSize(file.getFileSize())
+                .fileType(file.getFileType())
+                .uploadTime(file.getUploadTime())
+                .kbId(file.getKbId())
+                .status(file.getStatus())
+                .build();
     }
 
-    private void validateFile(MultipartFile file) {
+    private void validateFile(MultipartFile file) throws IOException {
         if (file.isEmpty()) {
             throw new IllegalArgumentException("文件不能为空");
         }
-        if (file.getSize() > MAX_FILE_SIZE) {
+        if (file.getSize() > FileTypeUtils.MAX_FILE_SIZE) {
             throw new IllegalArgumentException("文件大小不能超过10MB");
         }
         String originalFilename = file.getOriginalFilename();
         if (originalFilename == null || originalFilename.isEmpty()) {
             throw new IllegalArgumentException("文件名不能为空");
         }
-        String extension = getFileExtension(originalFilename);
-        if (!ALLOWED_EXTENSIONS.contains(extension.toLowerCase())) {
-            throw new IllegalArgumentException("不支持的文件类型，支持的类型: " + String.join(", ", ALLOWED_EXTENSIONS));
+        String extension = FileTypeUtils.extensionOf(originalFilename);
+        if (!FileTypeUtils.isAllowedExtension(extension)) {
+            throw new IllegalArgumentException("不支持的文件类型，支持的类型: " + String.join(", ", FileTypeUtils.ALLOWED_EXTENSIONS));
         }
-    }
-
-    private String getFileExtension(String filename) {
-        if (filename == null || filename.isEmpty()) {
-            return "";
+        // 只读取文件头嗅探类型，不把整个文件读入内存
+        byte[] head;
+        try (InputStream in = file.getInputStream()) {
+            head = FileTypeUtils.readHead(in);
         }
-        int lastDotIndex = filename.lastIndexOf('.');
-        if (lastDotIndex > 0 && lastDotIndex < filename.length() - 1) {
-            return filename.substring(lastDotIndex + 1);
+        if (!FileTypeUtils.matchesContent(extension, head)) {
+            throw new IllegalArgumentException("文件内容与扩展名 ." + extension + " 不符");
         }
-        return "";
     }
 
-    private void processFileAfterCommit(String fileId) {
+    private void processFileAfterCommit(UploadedFile uploadedFile, IndexingScheduler.Lane lane) {
         if (org.springframework.transaction.support.TransactionSynchronizationManager.isSynchronizationActive()) {
             org.springframework.transaction.support.TransactionSynchronizationManager.registerSynchronization(
                     new org.springframework.transaction.support.TransactionSynchronization() {
                         @Override
                         public void afterCommit() {
-                            log.info("事务提交后开始异步索引文件: {}", fileId);
-                            ragIndexService.indexFile(fileId);
+                            log.info("事务提交后提交索引任务: {} (lane={})", uploadedFile.getId(), lane);
+                            submitIndexing(uploadedFile, lane);
                         }
                     }
             );
         } else {
-            log.info("直接开始异步索引文件: {}", fileId);
-            ragIndexService.indexFile(fileId);
+            log.info("直接提交索引任务: {} (lane={})", uploadedFile.getId(), lane);
+            submitIndexing(uploadedFile, lane);
+        }
+    }
+
+    private void submitIndexing(UploadedFile uploadedFile, IndexingScheduler.Lane lane) {
+        try {
+            indexJobProducer.publish(uploadedFile.getId(), uploadedFile.getUserId(), uploadedFile.getKbId(), lane);
+        } catch (Exception e) {
+            // 消息未能写入队列：标记失败并告知用户重新上传
+            log.error("提交索引任务失败: {}", uploadedFile.getId(), e);
+            uploadedFileMapper.updateStatus(uploadedFile.getId(), UploadedFile.FileStatus.FAILED.name());
+            uploadedFile.setStatus(UploadedFile.FileStatus.FAILED);
+            fileProcessingNotificationService.notifyStatus(
+                    uploadedFile,
+                    UploadedFile.FileStatus.FAILED,
+                    "索引任务提交失败，请稍后重新上传");
+            return;
         }
+        fileProcessingNotificationService.notifyStatus(
+                uploadedFile,
+                UploadedFile.FileStatus.PROCESSING,
+                "已提交索引任务，等待处理");
     }
 }
@@ -0,0 +1,284 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.IndexingProperties;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import com.firefly.ragdemo.service.RagIndexService;
+import com.firefly.ragdemo.vo.IndexingStatsVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 两级优先队列 + 按用户轮转的索引调度器
+ * 线程池只接收"取任务令牌"，真正执行哪个文件由令牌运行时从公平队列中挑选，
+ * 因此先提交的批量任务不会挡住后提交的交互式任务。
+ */
+@Service
+@Slf4j
+public class IndexingSchedulerImpl implements IndexingScheduler {
+
+    private final RagIndexService ragIndexService;
+    private final Executor ragIndexExecutor;
+    private final IndexingProperties properties;
+
+    private final Map<Lane, FairQueue> queues = new EnumMap<>(Lane.class);
+    private final Map<Lane, LaneMetrics> metrics = new EnumMap<>(Lane.class);
+    private final Set<String> pendingFileIds = new HashSet<>();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private long dispatchCount;
+
+    public IndexingSchedulerImpl(RagIndexService ragIndexService,
+                                 @Qualifier("ragIndexExecutor") Executor ragIndexExecutor,
+                                 IndexingProperties properties) {
+        this.ragIndexService = ragIndexService;
+        this.ragIndexExecutor = ragIndexExecutor;
+        this.properties = properties;
+        for (Lane lane : Lane.values()) {
+            queues.put(lane, new FairQueue());
+            metrics.put(lane, new LaneMetrics());
+        }
+    }
+
+    @Override
+    public Submission submit(String fileId, String userId, Lane lane) {
+        Lane target = lane != null ? lane : Lane.INTERACTIVE;
+        IndexingProperties.Lane limits = limitsOf(target);
+        String owner = userId != null ? userId : "";
+        LaneMetrics laneMetrics = metrics.get(target);
+        Task task;
+        int position;
+        synchronized (this) {
+            if (pendingFileIds.contains(fileId)) {
+                // 同一文件已在排队，直接复用，避免重复索引
+                Task existing = findPending(fileId);
+                if (existing != null) {
+                    return new Submission(true, positionOf(existing.lane), existing.completion);
+                }
+            }
+            FairQueue queue = queues.get(target);
+            if (queue.size() >= limits.getCapacity()) {
+                laneMetrics.rejected.incrementAndGet();
+                log.warn("索引队列已满，拒绝任务 fileId={}, lane={}, queued={}", fileId, target, queue.size());
+                return Submission.rejected("索引队列已满");
+            }
+            if (queue.sizeOf(owner) >= limits.getPerUserLimit()) {
+                laneMetrics.rejected.incrementAndGet();
+                log.warn("用户排队任务过多，拒绝任务 fileId={}, userId={}, lane={}", fileId, userId, target);
+                return Submission.rejected("排队中的文件过多，请等待已有文件处理完成");
+            }
+            position = positionOf(target);
+            task = new Task(fileId, owner, target, System.nanoTime(), new CompletableFuture<>());
+            queue.offer(task);
+            pendingFileIds.add(fileId);
+            laneMetrics.submitted.incrementAndGet();
+        }
+        try {
+            ragIndexExecutor.execute(this::runNext);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                queues.get(target).remove(task);
+                pendingFileIds.remove(fileId);
+            }
+            laneMetrics.rejected.incrementAndGet();
+            log.error("索引线程池拒绝任务 fileId={}", fileId, e);
+            return Submission.rejected("索引线程池不可用");
+        }
+        log.debug("索引任务已入队 fileId={}, lane={}, position={}", fileId, target, position);
+        return new Submission(true, position, task.completion);
+    }
+
+    @Override
+    public IndexingStatsVO stats() {
+        List<IndexingStatsVO.LaneStats> lanes = new ArrayList<>();
+        synchronized (this) {
+            for (Lane lane : Lane.values()) {
+                FairQueue queue = queues.get(lane);
+                LaneMetrics m = metrics.get(lane);
+                long dispatched = m.dispatched.get();
+                lanes.add(IndexingStatsVO.LaneStats.builder()
+                        .lane(lane.name())
+                        .queued(queue.size())
+                        .capacity(limitsOf(lane).getCapacity())
+                        .waitingUsers(queue.userCount())
+                        .submitted(m.submitted.get())
+                        .rejected(m.rejected.get())
+                        .completed(m.completed.get())
+                        .avgWaitMs(dispatched > 0 ? TimeUnit.NANOSECONDS.toMillis(m.totalWaitNanos.get() / dispatched) : 0L)
+                        .maxWaitMs(TimeUnit.NANOSECONDS.toMillis(m.maxWaitNanos.get()))
+                        .build());
+            }
+        }
+        return IndexingStatsVO.builder()
+                .workers(properties.getWorkers())
+                .activeWorkers(activeWorkers.get())
+                .lanes(lanes)
+                .build();
+    }
+
+    private void runNext() {
+        Task task;
+        synchronized (this) {
+            task = pollNext();
+            if (task == null) {
+                return;
+            }
+            pendingFileIds.remove(task.fileId);
+        }
+        long waitNanos = System.nanoTime() - task.enqueuedAt;
+        LaneMetrics laneMetrics = metrics.get(task.lane);
+        laneMetrics.dispatched.incrementAndGet();
+        laneMetrics.totalWaitNanos.addAndGet(waitNanos);
+        laneMetrics.maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        activeWorkers.incrementAndGet();
+        try {
+            log.info("开始索引 fileId={}, lane={}, 排队耗时={}ms", task.fileId, task.lane,
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            ragIndexService.indexFile(task.fileId);
+            task.completion.complete(null);
+        } catch (Throwable e) {
+            log.error("索引任务执行异常 fileId={}", task.fileId, e);
+            task.completion.completeExceptionally(e);
+        } finally {
+            activeWorkers.decrementAndGet();
+            laneMetrics.completed.incrementAndGet();
+        }
+    }
+
+    /**
+     * 交互式队列优先；两边都有任务时每 bulkEvery 次调度让出一次给批量队列
+     */
+    private Task pollNext() {
+        FairQueue interactive = queues.get(Lane.INTERACTIVE);
+        FairQueue bulk = queues.get(Lane.BULK);
+        if (interactive.isEmpty() && bulk.isEmpty()) {
+            return null;
+        }
+        dispatchCount++;
+        int bulkEvery = Math.max(properties.getBulkEvery(), 1);
+        boolean bulkTurn = dispatchCount % bulkEvery == 0;
+        if (interactive.isEmpty() || (bulkTurn && !bulk.isEmpty())) {
+            return bulk.poll();
+        }
+        return interactive.poll();
+    }
+
+    private int positionOf(Lane lane) {
+        int ahead = queues.get(Lane.INTERACTIVE).size();
+        if (lane == Lane.BULK) {
+            ahead += queues.get(Lane.BULK).size();
+        }
+        return ahead;
+    }
+
+    private Task findPending(String fileId) {
+        for (FairQueue queue : queues.values()) {
+            Task task = queue.find(fileId);
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private IndexingProperties.Lane limitsOf(Lane lane) {
+        return lane == Lane.BULK ? properties.getBulk() : properties.getInteractive();
+    }
+
+    private record Task(String fileId, String userId, Lane lane, long enqueuedAt, CompletableFuture<Void> completion) {}
+
+    private static class LaneMetrics {
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+    }
+
+    /**
+     * 每个用户一个 FIFO，用户之间轮转出队。调用方负责加锁。
+     */
+    private static class FairQueue {
+        private final Map<String, ArrayDeque<Task>> byUser = new HashMap<>();
+        private final ArrayDeque<String> rotation = new ArrayDeque<>();
+        private int size;
+
+        void offer(Task task) {
+            ArrayDeque<Task> deque = byUser.computeIfAbsent(task.userId, k -> new ArrayDeque<>());
+            if (deque.isEmpty()) {
+                rotation.addLast(task.userId);
+            }
+            deque.addLast(task);
+            size++;
+        }
+
+        Task poll() {
+            String userId = rotation.pollFirst();
+            if (userId == null) {
+                return null;
+            }
+            ArrayDeque<Task> deque = byUser.get(userId);
+            Task task = deque.pollFirst();
+            if (deque.isEmpty()) {
+                byUser.remove(userId);
+            } else {
+                rotation.addLast(userId);
+            }
+            size--;
+            return task;
+        }
+
+        void remove(Task task) {
+            ArrayDeque<Task> deque = byUser.get(task.userId);
+            if (deque != null && deque.remove(task)) {
+                size--;
+                if (deque.isEmpty()) {
+                    byUser.remove(task.userId);
+                    rotation.remove(task.userId);
+                }
+            }
+        }
+
+        Task find(String fileId) {
+            for (ArrayDeque<Task> deque : byUser.values()) {
+                for (Task task : deque) {
+                    if (task.fileId.equals(fileId)) {
+                        return task;
+                    }
+                }
+            }
+            return null;
+        }
+
+        int sizeOf(String userId) {
+            ArrayDeque<Task> deque = byUser.get(userId);
+            return deque != null ? deque.size() : 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int userCount() {
+            return byUser.size();
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -2,12 +2,15 @@ package com.firefly.ragdemo.service.impl;
 
 import com.firefly.ragdemo.entity.KnowledgeBase;
 import com.firefly.ragdemo.mapper.KnowledgeBaseMapper;
+import com.firefly.ragdemo.service.ChunkGarbageCollector;
 import com.firefly.ragdemo.service.KnowledgeBaseService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 
 import java.util.ArrayList;
@@ -24,6 +27,7 @@ public class KnowledgeBaseServiceImpl implements KnowledgeBaseService {
     private static final String DEFAULT_SHARED_ID = "kb_shared_cpp_tutorial";
 
     private final KnowledgeBaseMapper knowledgeBaseMapper;
+    private final ChunkGarbageCollector chunkGarbageCollector;
 
     @Override
     @Transactional
@@ -97,6 +101,48 @@ public class KnowledgeBaseServiceImpl implements KnowledgeBaseService {
         }
     }
 
+    @Override
+    @Transactional
+    public void deleteKnowledgeBase(String userId, String kbId) {
+        KnowledgeBase kb = knowledgeBaseMapper.findById(kbId)
+                .orElseThrow(() -> new IllegalArgumentException("知识库不存在: " + kbId));
+        if ("PRIVATE".equalsIgnoreCase(kb.getType())) {
+            throw new IllegalArgumentException("私人知识库不可删除，请删除其中的文件");
+        }
+        if (DEFAULT_SHARED_ID.equals(kbId)) {
+            // 默认共享知识库被访问时会自动重建，且其 ADMIN 角色用于判定平台管理员
+            throw new IllegalArgumentException("默认共享知识库不可删除，请删除其中的文件");
+        }
+        if (!"ADMIN".equalsIgnoreCase(knowledgeBaseMapper.findAccessRole(userId, kbId))) {
+            throw new AccessDeniedException("无权删除该知识库");
+        }
+        // 重复删除时只重新提交清理任务
+        knowledgeBaseMapper.deactivate(kbId);
+        purgeAfterCommit(kbId);
+        log.info("知识库 {} 已停用，后台清理中 (操作人 {})", kbId, userId);
+    }
+
+    /**
+     * 停用提交后才写墓碑并提交清理：事务回滚时知识库保持可用，清理任务也不会读到未提交的停用状态
+     */
+    private void purgeAfterCommit(String kbId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    chunkGarbageCollector.deleteKnowledgeBase(kbId);
+                }
+            });
+        } else {
+            chunkGarbageCollector.deleteKnowledgeBase(kbId);
+        }
+    }
+
+    @Override
+    public boolean isPlatformAdmin(String userId) {
+        return "ADMIN".equalsIgnoreCase(knowledgeBaseMapper.findAccessRole(userId, DEFAULT_SHARED_ID));
+    }
+
     private String ensurePrivateKnowledgeBase(String userId, String username) {
         KnowledgeBase existing = knowledgeBaseMapper.findPrivateByOwner(userId);
         if (existing != null) {
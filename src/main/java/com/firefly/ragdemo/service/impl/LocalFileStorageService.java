@@ -0,0 +1,248 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.service.FileStorageService;
+import com.firefly.ragdemo.util.HashUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 本地磁盘存储。存储目录只属于本节点，共用文件的写入与释放用进程内的按内容分段锁互斥：
+ * 写入时"内容已存在"的判断与释放时"无引用才删除"的判断不会交错；刚写入或复用的内容在租约内不删除，租约到期后由定时任务重新检查
+ */
+@Service
+@Slf4j
+public class LocalFileStorageService implements FileStorageService {
+
+    @Value("${app.file.upload-dir:uploads}")
+    private String uploadDir;
+
+    private static final String STAGING_DIR = ".staging";
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final int LOCK_STRIPES = 64;
+    // 需覆盖写入存储到记录提交之间的时间（目录导入按批插入，可能间隔较久）
+    private static final long REUSE_LEASE_MS = Duration.ofMinutes(10).toMillis();
+    private static final int LEASE_PRUNE_THRESHOLD = 10_000;
+
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+    private final Map<String, Long> reuseLeases = new ConcurrentHashMap<>();
+    private final Map<Path, PendingRelease> pendingReleases = new ConcurrentHashMap<>();
+
+    public LocalFileStorageService() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public StoredBlob store(MultipartFile file) throws IOException {
+        // 边写临时文件边计算摘要：写完即得到哈希，不必再把落盘的文件读一遍
+        Path staged = stagingDirectory().resolve(UUID.randomUUID() + ".tmp");
+        MessageDigest digest = HashUtils.newSha256();
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            Files.copy(in, staged);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        }
+        try {
+            return moveIn(staged, HashUtils.toHex(digest));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        }
+    }
+
+    @Override
+    public StoredBlob importFile(Path source) throws IOException {
+        String contentHash = sha256Of(source);
+        Path target = blobPath(contentHash);
+        Lock lock = lockFor(contentHash);
+        lock.lock();
+        try {
+            if (Files.exists(target)) {
+                leaseReuse(contentHash);
+                return new StoredBlob(target, contentHash, true);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // 复制而不硬链接：硬链接与源文件共用数据，源文件之后被修改会改变已按哈希寻址的存储内容
+        // 先传输到临时文件再重命名，存储路径上出现的文件总是完整的
+        Path staged = stagingDirectory().resolve(UUID.randomUUID() + ".tmp");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(staged, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        }
+        return moveIn(staged, contentHash);
+    }
+
+    @Override
+    public Path stagingDirectory() throws IOException {
+        Path staging = Paths.get(uploadDir, STAGING_DIR);
+        Files.createDirectories(staging);
+        return staging;
+    }
+
+    @Override
+    public StoredBlob moveIn(Path staged, String contentHash) throws IOException {
+        Path target = blobPath(contentHash);
+        Lock lock = lockFor(contentHash);
+        lock.lock();
+        try {
+            leaseReuse(contentHash);
+            if (Files.exists(target)) {
+                Files.deleteIfExists(staged);
+                return new StoredBlob(target, contentHash, true);
+            }
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                try {
+                    Files.move(staged, target);
+                } catch (FileAlreadyExistsException exists) {
+                    Files.deleteIfExists(staged);
+                    return new StoredBlob(target, contentHash, true);
+                }
+            }
+            return new StoredBlob(target, contentHash, false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("删除磁盘文件失败: {} ({})", path, e.getMessage());
+        }
+    }
+
+    @Override
+    public void deleteIfUnreferenced(Path path, String contentHash, BooleanSupplier referenced) {
+        if (path == null) {
+            return;
+        }
+        if (contentHash == null) {
+            // 早期记录不按内容寻址，存储文件不共用
+            if (!referenced.getAsBoolean()) {
+                delete(path);
+            }
+            return;
+        }
+        Lock lock = lockFor(contentHash);
+        lock.lock();
+        try {
+            Long leasedUntil = reuseLeases.get(contentHash);
+            if (leasedUntil != null && leasedUntil > System.currentTimeMillis()) {
+                log.info("存储文件刚被写入或复用，租约到期后再检查: {}", path);
+                pendingReleases.put(path, new PendingRelease(contentHash, referenced));
+                return;
+            }
+            pendingReleases.remove(path);
+            if (referenced.getAsBoolean()) {
+                log.info("存储文件仍被其他记录引用，保留: {}", path);
+                return;
+            }
+            reuseLeases.remove(contentHash);
+            delete(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 通过 FileChannel 读入直接缓冲区计算 SHA-256，只读不写
+     */
+    private static String sha256Of(Path path) throws IOException {
+        MessageDigest digest = HashUtils.newSha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HashUtils.toHex(digest);
+    }
+
+    /**
+     * 重新检查因租约未到期而保留的存储文件；进程重启会丢失待检查列表，最坏情况是遗留未引用的文件
+     */
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void retryPendingReleases() {
+        pendingReleases.forEach((path, pending) -> {
+            pendingReleases.remove(path, pending);
+            try {
+                deleteIfUnreferenced(path, pending.contentHash(), pending.referenced());
+            } catch (RuntimeException e) {
+                log.warn("重新检查存储文件引用失败: {} ({})", path, e.getMessage());
+                pendingReleases.putIfAbsent(path, pending);
+            }
+        });
+    }
+
+    /**
+     * 在锁内调用：记录该内容刚被写入或复用，引用它的记录提交前不会被释放
+     */
+    private void leaseReuse(String contentHash) {
+        long now = System.currentTimeMillis();
+        if (reuseLeases.size() > LEASE_PRUNE_THRESHOLD) {
+            reuseLeases.values().removeIf(until -> until <= now);
+        }
+        reuseLeases.put(contentHash, now + REUSE_LEASE_MS);
+    }
+
+    private Lock lockFor(String contentHash) {
+        return locks[Math.floorMod(contentHash.hashCode(), LOCK_STRIPES)];
+    }
+
+    /**
+     * 按哈希前两个字节分两级目录，避免单个目录下文件过多；文件名只含哈希，扩展名不同的相同内容也只存一份
+     */
+    private Path blobPath(String contentHash) {
+        String hash = contentHash.toLowerCase(Locale.ROOT);
+        return Paths.get(uploadDir, hash.substring(0, 2), hash.substring(2, 4), hash);
+    }
+
+    private record PendingRelease(String contentHash, BooleanSupplier referenced) {
+    }
+}
@@ -0,0 +1,578 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.IndexingProperties;
+import com.firefly.ragdemo.service.TextChunker;
+import com.firefly.ragdemo.service.Tokenizer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 结构感知分块器：单次线性扫描 Markdown（或由 Tika 转换而来的结构化文本），不使用正则
+ * 1. 围栏代码块、表格作为整体，不在块中间切断；超长时按行切分并补齐围栏/表头
+ * 2. 标题开启新分块，并把标题路径记录到分块元数据
+ * 3. 普通段落超长时按中英文句末标点切分，相邻分块保留少量句子重叠
+ * 分块大小与重叠均以 token 计（app.indexing.chunk-tokens / overlap-tokens）
+ */
+@Component
+@RequiredArgsConstructor
+public class MarkdownStructureChunker implements TextChunker {
+
+    // 代码块/表格允许超出分块大小的倍数，超过后才按行切分
+    private static final int ATOMIC_BLOCK_FACTOR = 2;
+    private static final int MAX_HEADING_LEVEL = 6;
+    private static final String HEADING_SEPARATOR = " > ";
+    // 与 document_chunks.heading_path 的列宽一致，超长时保留最深的几级标题
+    static final int MAX_HEADING_PATH_LENGTH = 512;
+    private static final String ELIDED = "…";
+
+    private final Tokenizer tokenizer;
+    private final IndexingProperties indexingProperties;
+
+    @Override
+    public List<String> split(String text) {
+        List<Chunk> chunks = chunk(text);
+        List<String> result = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            result.add(chunk.content());
+        }
+        return result;
+    }
+
+    @Override
+    public boolean structureAware() {
+        return true;
+    }
+
+    @Override
+    public String fingerprint() {
+        return "markdown:v2:" + tokenizer.name() + ":" + chunkTokens() + ":" + overlapTokens();
+    }
+
+    @Override
+    public List<Chunk> chunk(String text) {
+        List<Chunk> out = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return out;
+        }
+        Packer packer = new Packer(out, chunkTokens(), overlapTokens());
+        String[] headings = new String[MAX_HEADING_LEVEL + 1];
+        StringBuilder paragraph = new StringBuilder();
+        int len = text.length();
+        int pos = 0;
+        while (pos < len) {
+            int end = lineEnd(text, pos);
+            int next = end < len ? end + 1 : len;
+            int contentEnd = end > pos && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            int indent = leadingSpaces(text, pos, contentEnd);
+
+            if (indent == contentEnd - pos) {
+                // 空行：段落结束
+                packer.addProse(paragraph);
+                pos = next;
+                continue;
+            }
+
+            int start = pos + indent;
+            if (indent <= 3) {
+                int fenceLength = fenceLength(text, start, contentEnd);
+                if (fenceLength > 0) {
+                    packer.addProse(paragraph);
+                    pos = consumeFence(text, pos, contentEnd, next, text.charAt(start), fenceLength, packer);
+                    continue;
+                }
+                int level = headingLevel(text, start, contentEnd);
+                if (level > 0) {
+                    packer.addProse(paragraph);
+                    headings[level] = headingTitle(text, start + level, contentEnd);
+                    for (int i = level + 1; i <= MAX_HEADING_LEVEL; i++) {
+                        headings[i] = null;
+                    }
+                    packer.startSection(headingPath(headings), text.substring(pos, contentEnd).strip());
+                    pos = next;
+                    continue;
+                }
+                if (text.charAt(start) == '|') {
+                    packer.addProse(paragraph);
+                    pos = consumeTable(text, pos, packer);
+                    continue;
+                }
+            }
+
+            if (paragraph.length() > 0) {
+                paragraph.append('\n');
+            }
+            paragraph.append(text, pos, contentEnd);
+            pos = next;
+        }
+        packer.addProse(paragraph);
+        packer.flush();
+        return out;
+    }
+
+    private int chunkTokens() {
+        return Math.max(indexingProperties.getChunkTokens(), 1);
+    }
+
+    private int overlapTokens() {
+        return Math.max(Math.min(indexingProperties.getOverlapTokens(), chunkTokens() / 2), 0);
+    }
+
+    private int consumeFence(String text, int pos, int openEnd, int next, char fenceChar, int fenceLength, Packer packer) {
+        int len = text.length();
+        String open = text.substring(pos, openEnd).strip();
+        List<String> body = new ArrayList<>();
+        String close = null;
+        int cursor = next;
+        while (cursor < len) {
+            int end = lineEnd(text, cursor);
+            int contentEnd = end > cursor && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            int following = end < len ? end + 1 : len;
+            int indent = leadingSpaces(text, cursor, contentEnd);
+            if (indent <= 3 && isClosingFence(text, cursor + indent, contentEnd, fenceChar, fenceLength)) {
+                close = text.substring(cursor + indent, contentEnd).strip();
+                cursor = following;
+                break;
+            }
+            body.add(text.substring(cursor, contentEnd));
+            cursor = following;
+        }
+        // 未闭合的代码块一直延续到文末，输出时补齐结束围栏
+        packer.addCode(open, body, close != null ? close : String.valueOf(fenceChar).repeat(fenceLength));
+        return cursor;
+    }
+
+    private int consumeTable(String text, int pos, Packer packer) {
+        int len = text.length();
+        List<String> rows = new ArrayList<>();
+        int cursor = pos;
+        while (cursor < len) {
+            int end = lineEnd(text, cursor);
+            int contentEnd = end > cursor && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            int indent = leadingSpaces(text, cursor, contentEnd);
+            if (indent == contentEnd - cursor || indent > 3 || text.charAt(cursor + indent) != '|') {
+                break;
+            }
+            rows.add(text.substring(cursor + indent, contentEnd));
+            cursor = end < len ? end + 1 : len;
+        }
+        packer.addTable(rows);
+        return cursor;
+    }
+
+    private static int lineEnd(String text, int from) {
+        int idx = text.indexOf('\n', from);
+        return idx >= 0 ? idx : text.length();
+    }
+
+    private static int leadingSpaces(String text, int from, int to) {
+        int i = from;
+        while (i < to && (text.charAt(i) == ' ' || text.charAt(i) == '\t')) {
+            i++;
+        }
+        return i - from;
+    }
+
+    private static int fenceLength(String text, int from, int to) {
+        char c = text.charAt(from);
+        if (c != '`' && c != '~') {
+            return 0;
+        }
+        int i = from;
+        while (i < to && text.charAt(i) == c) {
+            i++;
+        }
+        return i - from >= 3 ? i - from : 0;
+    }
+
+    private static boolean isClosingFence(String text, int from, int to, char fenceChar, int fenceLength) {
+        int i = from;
+        while (i < to && text.charAt(i) == fenceChar) {
+            i++;
+        }
+        if (i - from < fenceLength) {
+            return false;
+        }
+        while (i < to) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    private static int headingLevel(String text, int from, int to) {
+        int i = from;
+        while (i < to && text.charAt(i) == '#') {
+            i++;
+        }
+        int level = i - from;
+        if (level == 0 || level > MAX_HEADING_LEVEL) {
+            return 0;
+        }
+        return i == to || text.charAt(i) == ' ' || text.charAt(i) == '\t' ? level : 0;
+    }
+
+    private static String headingTitle(String text, int from, int to) {
+        int end = to;
+        while (end > from && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        // 去掉可选的结尾 "#"（需以空白与标题分隔，避免把 "C#" 截成 "C"）
+        int hashes = end;
+        while (hashes > from && text.charAt(hashes - 1) == '#') {
+            hashes--;
+        }
+        if (hashes < end && (hashes == from || Character.isWhitespace(text.charAt(hashes - 1)))) {
+            end = hashes;
+        }
+        return text.substring(from, end).strip();
+    }
+
+    private static String headingPath(String[] headings) {
+        List<String> segments = new ArrayList<>(MAX_HEADING_LEVEL);
+        for (int i = 1; i <= MAX_HEADING_LEVEL; i++) {
+            if (headings[i] != null && !headings[i].isEmpty()) {
+                segments.add(headings[i]);
+            }
+        }
+        if (segments.isEmpty()) {
+            return null;
+        }
+        String path = String.join(HEADING_SEPARATOR, segments);
+        return path.length() <= MAX_HEADING_PATH_LENGTH ? path : elideHeadingPath(segments);
+    }
+
+    /**
+     * 从最深一级向上保留放得下的标题，省略的上级标题用 "…" 代替；最深一级本身超长时只保留其末尾
+     */
+    private static String elideHeadingPath(List<String> segments) {
+        String prefix = ELIDED + HEADING_SEPARATOR;
+        String last = segments.get(segments.size() - 1);
+        if (prefix.length() + last.length() > MAX_HEADING_PATH_LENGTH) {
+            int from = last.length() - (MAX_HEADING_PATH_LENGTH - ELIDED.length());
+            if (Character.isLowSurrogate(last.charAt(from))) {
+                from++;
+            }
+            return ELIDED + last.substring(from);
+        }
+        StringBuilder kept = new StringBuilder(last);
+        for (int i = segments.size() - 2; i >= 0; i--) {
+            String segment = segments.get(i);
+            if (prefix.length() + segment.length() + HEADING_SEPARATOR.length() + kept.length() > MAX_HEADING_PATH_LENGTH) {
+                break;
+            }
+            kept.insert(0, segment + HEADING_SEPARATOR);
+        }
+        return prefix + kept;
+    }
+
+    /**
+     * 单次扫描返回各句子的结束位置（不含）
+     */
+    static List<Integer> sentenceEnds(CharSequence text) {
+        List<Integer> ends = new ArrayList<>();
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            char c = text.charAt(i);
+            boolean boundary;
+            if (c == '\n' || c == '。' || c == '！' || c == '？' || c == '；' || c == '…') {
+                boundary = true;
+            } else if (c == '.' || c == '!' || c == '?' || c == ';') {
+                // 英文标点后需跟空白才算句末，避免切断 3.14、std::vector 等
+                boundary = i + 1 >= len || Character.isWhitespace(text.charAt(i + 1));
+            } else {
+                boundary = false;
+            }
+            i++;
+            if (boundary) {
+                while (i < len && isClosingPunctuation(text.charAt(i))) {
+                    i++;
+                }
+                ends.add(i);
+            }
+        }
+        if (ends.isEmpty() || ends.get(ends.size() - 1) < len) {
+            ends.add(len);
+        }
+        return ends;
+    }
+
+    private static boolean isClosingPunctuation(char c) {
+        return c == '”' || c == '’' || c == '"' || c == '\'' || c == '）' || c == ')' || c == '」' || c == '』'
+                || c == '…' || c == '。';
+    }
+
+    /**
+     * 按块组装分块；标题只开启新段，不单独成块。当前分块的 token 数增量累计，不重复计数
+     */
+    private final class Packer {
+
+        private final List<Chunk> out;
+        private final int size;
+        private final int overlap;
+        private final int atomicLimit;
+        private final StringBuilder current = new StringBuilder();
+        private int currentTokens;
+        private String headingPath;
+        private boolean hasBody;
+
+        Packer(List<Chunk> out, int size, int overlap) {
+            this.out = out;
+            this.size = size;
+            this.overlap = overlap;
+            this.atomicLimit = size * ATOMIC_BLOCK_FACTOR;
+        }
+
+        void startSection(String path, String headingLine) {
+            if (hasBody) {
+                flush();
+            }
+            headingPath = path;
+            appendBlock(headingLine, tokenizer.count(headingLine));
+        }
+
+        void addProse(StringBuilder paragraph) {
+            if (paragraph.length() == 0) {
+                return;
+            }
+            String text = paragraph.toString().strip();
+            paragraph.setLength(0);
+            if (text.isEmpty()) {
+                return;
+            }
+            int tokens = tokenizer.count(text);
+            if (fits(tokens)) {
+                appendBody(text, tokens);
+                return;
+            }
+            if (hasBody) {
+                flush();
+            }
+            if (fits(tokens)) {
+                appendBody(text, tokens);
+                return;
+            }
+            addSentences(text);
+        }
+
+        void addCode(String open, List<String> body, String close) {
+            int fenceTokens = tokenizer.count(open) + tokenizer.count(close);
+            int[] lineTokens = new int[body.size()];
+            int total = fenceTokens;
+            for (int i = 0; i < body.size(); i++) {
+                lineTokens[i] = tokenizer.count(body.get(i));
+                total += lineTokens[i];
+            }
+            if (fits(total)) {
+                appendBody(joinFence(open, body, 0, body.size(), close), total);
+                return;
+            }
+            if (hasBody) {
+                flush();
+            }
+            if (currentTokens + total <= atomicLimit) {
+                appendBody(joinFence(open, body, 0, body.size(), close), total);
+                flush();
+                return;
+            }
+            // 超长代码块：按行切分，每段都补齐开始/结束围栏，保证每个分块都是完整代码块
+            int budget = Math.max(size - fenceTokens, 1);
+            int from = 0;
+            int pieceTokens = 0;
+            for (int i = 0; i < body.size(); i++) {
+                if (i > from && pieceTokens + lineTokens[i] > budget) {
+                    appendBody(joinFence(open, body, from, i, close), pieceTokens + fenceTokens);
+                    flush();
+                    from = i;
+                    pieceTokens = 0;
+                }
+                pieceTokens += lineTokens[i];
+            }
+            if (from < body.size()) {
+                appendBody(joinFence(open, body, from, body.size(), close), pieceTokens + fenceTokens);
+                flush();
+            }
+        }
+
+        void addTable(List<String> rows) {
+            int[] rowTokens = new int[rows.size()];
+            int total = 0;
+            for (int i = 0; i < rows.size(); i++) {
+                rowTokens[i] = tokenizer.count(rows.get(i));
+                total += rowTokens[i];
+            }
+            if (fits(total)) {
+                appendBody(String.join("\n", rows), total);
+                return;
+            }
+            if (hasBody) {
+                flush();
+            }
+            if (currentTokens + total <= atomicLimit) {
+                appendBody(String.join("\n", rows), total);
+                flush();
+                return;
+            }
+            // 超长表格：按行切分，每段重复表头
+            int headerRows = rows.size() > 1 && isSeparatorRow(rows.get(1)) ? 2 : Math.min(1, rows.size());
+            List<String> header = rows.subList(0, headerRows);
+            int headerTokens = 0;
+            for (int i = 0; i < headerRows; i++) {
+                headerTokens += rowTokens[i];
+            }
+            List<String> piece = new ArrayList<>(header);
+            int pieceTokens = headerTokens;
+            for (int i = headerRows; i < rows.size(); i++) {
+                if (piece.size() > headerRows && pieceTokens + rowTokens[i] > size) {
+                    appendBody(String.join("\n", piece), pieceTokens);
+                    flush();
+                    piece = new ArrayList<>(header);
+                    pieceTokens = headerTokens;
+                }
+                piece.add(rows.get(i));
+                pieceTokens += rowTokens[i];
+            }
+            if (piece.size() > headerRows || rows.size() == headerRows) {
+                appendBody(String.join("\n", piece), pieceTokens);
+                flush();
+            }
+        }
+
+        void flush() {
+            String content = current.toString().strip();
+            if (!content.isEmpty()) {
+                out.add(new Chunk(content, headingPath));
+            }
+            current.setLength(0);
+            currentTokens = 0;
+            hasBody = false;
+        }
+
+        private void addSentences(String text) {
+            List<int[]> spans = new ArrayList<>();
+            int sentenceStart = 0;
+            for (int end : sentenceEnds(text)) {
+                int start = skipWhitespace(text, sentenceStart, end);
+                if (start < end) {
+                    spans.add(new int[]{start, end});
+                }
+                sentenceStart = end;
+            }
+            int n = spans.size();
+            int[] spanTokens = new int[n];
+            for (int i = 0; i < n; i++) {
+                spanTokens[i] = tokenizer.count(text, spans.get(i)[0], spans.get(i)[1]);
+            }
+            int from = 0;
+            while (from < n) {
+                int[] first = spans.get(from);
+                if (spanTokens[from] > size) {
+                    splitByWindow(text, first[0], first[1]);
+                    from++;
+                    continue;
+                }
+                int limit = size - currentTokens;
+                int to = from + 1;
+                int tokens = spanTokens[from];
+                while (to < n && tokens + spanTokens[to] <= limit) {
+                    tokens += spanTokens[to];
+                    to++;
+                }
+                appendBody(text.substring(first[0], spans.get(to - 1)[1]).strip(), tokens);
+                if (to >= n) {
+                    // 段落最后一部分不立即输出，允许与后续小块合并
+                    return;
+                }
+                flush();
+                from = overlapStart(spanTokens, from, to);
+            }
+        }
+
+        /**
+         * 超长句子：按 token 窗口切分，相邻窗口重叠 overlap 个 token
+         */
+        private void splitByWindow(String text, int start, int end) {
+            int i = start;
+            while (i < end) {
+                int cut = tokenizer.truncate(text, i, end, size);
+                appendBody(text.substring(i, cut), tokenizer.count(text, i, cut));
+                flush();
+                if (cut >= end) {
+                    break;
+                }
+                int next = tokenizer.truncate(text, i, end, size - overlap);
+                i = Math.max(Math.min(next, cut), i + 1);
+            }
+        }
+
+        /**
+         * 从上一分块末尾取若干完整句子作为下一分块的开头，总 token 数不超过 overlap，且保证向前推进
+         */
+        private int overlapStart(int[] spanTokens, int from, int to) {
+            int next = to;
+            int tokens = 0;
+            while (next - 1 > from && tokens + spanTokens[next - 1] <= overlap) {
+                tokens += spanTokens[next - 1];
+                next--;
+            }
+            if (next < to && tokens + spanTokens[to] > size) {
+                return to;
+            }
+            return next;
+        }
+
+        private static int skipWhitespace(String text, int from, int to) {
+            int i = from;
+            while (i < to && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        private boolean fits(int tokens) {
+            return currentTokens + tokens <= size;
+        }
+
+        private void appendBody(String block, int tokens) {
+            appendBlock(block, tokens);
+            hasBody = true;
+        }
+
+        private void appendBlock(String block, int tokens) {
+            if (block.isEmpty()) {
+                return;
+            }
+            currentTokens += tokens;
+            if (current.length() > 0) {
+                current.append(hasBody ? "\n\n" : "\n");
+            }
+            current.append(block);
+        }
+
+        private static String joinFence(String open, List<String> body, int from, int to, String close) {
+            StringBuilder sb = new StringBuilder(open).append('\n');
+            for (int i = from; i < to; i++) {
+                sb.append(body.get(i)).append('\n');
+            }
+            return sb.append(close).toString();
+        }
+
+        private static boolean isSeparatorRow(String row) {
+            boolean hasDash = false;
+            for (int i = 0; i < row.length(); i++) {
+                char c = row.charAt(i);
+                if (c == '-') {
+                    hasDash = true;
+                } else if (c != '|' && c != ':' && c != ' ' && c != '\t') {
+                    return false;
+                }
+            }
+            return hasDash;
+        }
+    }
+}
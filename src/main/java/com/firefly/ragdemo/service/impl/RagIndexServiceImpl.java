@@ -1,28 +1,47 @@
 package com.firefly.ragdemo.service.impl;
 
+import com.firefly.ragdemo.config.IndexingProperties;
 import com.firefly.ragdemo.entity.DocumentChunk;
 import com.firefly.ragdemo.entity.UploadedFile;
 import com.firefly.ragdemo.mapper.UploadedFileMapper;
 import com.firefly.ragdemo.messaging.DocumentChunkSyncProducer;
 import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.repository.RedisEmbeddingSpaceRepository;
+import com.firefly.ragdemo.repository.RedisIndexCheckpointRepository;
 import com.firefly.ragdemo.service.EmbeddingService;
+import com.firefly.ragdemo.service.FileIndexedEvent;
 import com.firefly.ragdemo.service.FileProcessingNotificationService;
 import com.firefly.ragdemo.service.RagIndexService;
 import com.firefly.ragdemo.service.TextChunker;
+import com.firefly.ragdemo.util.ArchiveUtils;
+import com.firefly.ragdemo.util.MarkdownContentHandler;
+import com.firefly.ragdemo.util.VectorCodec;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.tika.Tika;
-import org.springframework.scheduling.annotation.Async;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.ParseContext;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 @Service
@@ -31,16 +50,22 @@ import java.util.UUID;
 public class RagIndexServiceImpl implements RagIndexService {
 
     private final UploadedFileMapper uploadedFileMapper;
-    private final TextChunker textChunker;
+    private final TextChunkerRegistry textChunkerRegistry;
     private final EmbeddingService embeddingService;
     private final RedisDocumentChunkRepository redisDocumentChunkRepository;
     private final FileProcessingNotificationService fileProcessingNotificationService;
     private final DocumentChunkSyncProducer documentChunkSyncProducer;
+    private final RedisIndexCheckpointRepository redisIndexCheckpointRepository;
+    private final RedisEmbeddingSpaceRepository embeddingSpaces;
+    private final IndexingProperties indexingProperties;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // 纯文本类文件直接读取原文，保留其中的 Markdown 标记
+    private static final Set<String> PLAIN_TEXT_TYPES = Set.of("txt", "md", "markdown");
 
     private final Tika tika = new Tika();
 
     @Override
-    @Async("ragIndexExecutor")
     @Transactional
     public void indexFile(String fileId) {
         Optional<UploadedFile> fileOpt = uploadedFileMapper.findById(fileId);
@@ -49,17 +74,28 @@ public class RagIndexServiceImpl implements RagIndexService {
             return;
         }
         UploadedFile file = fileOpt.get();
+        index(file, () -> openContent(file));
+    }
+
+    @Override
+    @Transactional
+    public void indexFile(UploadedFile file, InputStream content) {
+        index(file, () -> content);
+    }
+
+    private void index(UploadedFile file, ContentSource source) {
+        String fileId = file.getId();
         try {
-            Path path = Paths.get(file.getFilePath());
+            if (reuseIndexedChunks(file)) {
+                return;
+            }
+            TextChunker textChunker = textChunkerRegistry.forFileType(file.getFileType());
             String text;
-            if (Files.exists(path)) {
-                text = tika.parseToString(path);
-            } else {
-                log.warn("文件不存在于磁盘: {}", file.getFilePath());
-                text = "";
+            try (InputStream in = source.open()) {
+                text = in != null ? extractText(in, file, textChunker) : "";
             }
             log.info("索引提取文本长度: {} (fileId={})", text != null ? text.length() : 0, fileId);
-            List<String> chunks = textChunker.split(text);
+            List<TextChunker.Chunk> chunks = textChunker.chunk(text);
             log.info("分块数量: {} (fileId={})", chunks.size(), fileId);
             if (chunks.isEmpty()) {
                 log.info("文件无可索引内容: {}", fileId);
@@ -69,27 +105,52 @@ public class RagIndexServiceImpl implements RagIndexService {
                         file,
                         UploadedFile.FileStatus.COMPLETED,
                         "文件无可索引内容，直接标记为完成");
+                publishIndexed(file, 0);
                 return;
             }
-            List<List<Double>> embeddings = embeddingService.embedBatch(chunks);
-            log.info("已生成向量数: {} (fileId={})", embeddings != null ? embeddings.size() : 0, fileId);
-            List<DocumentChunk> entities = new ArrayList<>();
-            for (int i = 0; i < chunks.size(); i++) {
-                List<Double> vec = embeddings.get(i);
-                String json = toJsonArray(vec);
-                entities.add(DocumentChunk.builder()
-                        .id(UUID.randomUUID().toString())
-                        .userId(file.getUserId())
-                        .fileId(file.getId())
-                        .kbId(file.getKbId())
-                        .chunkIndex(i)
-                        .content(chunks.get(i))
-                        .embeddingJson(json)
-                        .createdAt(LocalDateTime.now())
-                        .build());
+            int total = chunks.size();
+            String fingerprint = textChunker.fingerprint();
+            int start = resolveResumeIndex(file, fingerprint, total);
+            int batchSize = Math.max(indexingProperties.getBatchSize(), 1);
+            String space = embeddingService.currentSpace();
+            String activeSpace = embeddingSpaces.activeSpace(file.getKbId());
+            for (int from = start; from < total; from += batchSize) {
+                int to = Math.min(total, from + batchSize);
+                List<String> batch = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    batch.add(chunks.get(i).content());
+                }
+                List<List<Double>> embeddings = embeddingService.embedBatch(batch);
+                if (embeddings == null || embeddings.size() != batch.size()) {
+                    throw new IllegalStateException("向量数量与分块数量不一致: "
+                            + (embeddings != null ? embeddings.size() : 0) + " != " + batch.size());
+                }
+                List<DocumentChunk> entities = new ArrayList<>(batch.size());
+                for (int i = from; i < to; i++) {
+                    entities.add(DocumentChunk.builder()
+                            .id(chunkId(fileId, i))
+                            .userId(file.getUserId())
+                            .fileId(file.getId())
+                            .kbId(file.getKbId())
+                            .chunkIndex(i)
+                            .content(chunks.get(i).content())
+                            .headingPath(chunks.get(i).headingPath())
+                            .embedding(VectorCodec.fromList(embeddings.get(i - from)))
+                            .embeddingSpace(space)
+                            .createdAt(LocalDateTime.now())
+                            .build());
+                }
+                redisDocumentChunkRepository.saveAll(entities);
+                if (!activeSpace.equals(space)) {
+                    saveActiveSpaceVectors(entities, batch, activeSpace, fileId);
+                }
+                redisIndexCheckpointRepository.save(fileId, fingerprint, to, total);
+                log.debug("已写入Redis分块 {}/{} (fileId={})", to, total, fileId);
+                fileProcessingNotificationService.notifyProgress(file, to, total,
+                        "已完成 " + to + "/" + total + " 个分块");
             }
-            redisDocumentChunkRepository.saveAll(entities);
-            log.info("已写入Redis分块记录数: {} (fileId={})", entities.size(), fileId);
+            log.info("已写入Redis分块记录数: {} (fileId={}, 断点续传起点={})", total, fileId, start);
+            redisIndexCheckpointRepository.delete(fileId);
             documentChunkSyncProducer.publish(file.getId(), file.getUserId(), file.getKbId());
             uploadedFileMapper.updateStatus(fileId, UploadedFile.FileStatus.COMPLETED.name());
             file.setStatus(UploadedFile.FileStatus.COMPLETED);
@@ -97,6 +158,7 @@ public class RagIndexServiceImpl implements RagIndexService {
                     file,
                     UploadedFile.FileStatus.COMPLETED,
                     "文件向量生成并写入Redis成功");
+            publishIndexed(file, total);
         } catch (Exception e) {
             log.error("索引文件失败: {}", fileId, e);
             uploadedFileMapper.updateStatus(fileId, UploadedFile.FileStatus.FAILED.name());
@@ -104,19 +166,153 @@ public class RagIndexServiceImpl implements RagIndexService {
             fileProcessingNotificationService.notifyStatus(
                     file,
                     UploadedFile.FileStatus.FAILED,
-                    "文件处理失败，请稍后重试");
+                    "文件处理失败，请稍后重试，已完成的分块不会重复处理");
+            publishIndexed(file, 0);
         }
     }
 
-    private String toJsonArray(List<Double> vec) {
-        StringBuilder sb = new StringBuilder();
-        sb.append('[');
-        for (int i = 0; i < vec.size(); i++) {
-            if (i > 0) sb.append(',');
-            // 保留足够精度
-            sb.append(String.format(java.util.Locale.US, "%.8f", vec.get(i)));
+    /**
+     * 知识库尚未切换到当前向量空间：新分块同时写入它正在使用的空间，切换前也能被检索到
+     * 旧空间的模型不可用时只记录警告，这些分块在知识库切换后才能被检索到
+     */
+    private void saveActiveSpaceVectors(List<DocumentChunk> entities, List<String> texts, String activeSpace, String fileId) {
+        try {
+            List<List<Double>> embeddings = embeddingService.embedBatch(texts, activeSpace);
+            Map<String, float[]> vectors = new LinkedHashMap<>();
+            for (int i = 0; i < entities.size() && i < embeddings.size(); i++) {
+                vectors.put(entities.get(i).getId(), VectorCodec.fromList(embeddings.get(i)));
+            }
+            redisDocumentChunkRepository.saveVectors(activeSpace, vectors);
+        } catch (Exception e) {
+            log.warn("写入知识库当前向量空间 {} 失败 (fileId={}): {}", activeSpace, fileId, e.getMessage());
+        }
+    }
+
+    /**
+     * 内容相同的文件已索引完成时复制其分块（正文与向量），归属改为当前文件、用户与知识库，跳过解析与向量化
+     * 找不到可复用的分块，或目标知识库尚未切换到当前向量空间时返回 false，按常规流程索引
+     */
+    private boolean reuseIndexedChunks(UploadedFile file) {
+        String space = embeddingService.currentSpace();
+        if (file.getContentHash() == null || !space.equals(embeddingSpaces.activeSpace(file.getKbId()))) {
+            return false;
+        }
+        Optional<UploadedFile> donor = uploadedFileMapper.findCompletedByContentHash(file.getContentHash(), file.getId());
+        if (donor.isEmpty()) {
+            return false;
+        }
+        List<DocumentChunk> indexed = redisDocumentChunkRepository.findByFileId(donor.get().getId(), space);
+        if (indexed.isEmpty() || indexed.stream().anyMatch(chunk -> chunk.getEmbedding() == null)) {
+            return false;
+        }
+        String fileId = file.getId();
+        redisDocumentChunkRepository.deleteByFileIdAndUser(fileId, file.getUserId(), file.getKbId());
+        redisIndexCheckpointRepository.delete(fileId);
+        List<DocumentChunk> copies = new ArrayList<>(indexed.size());
+        for (DocumentChunk chunk : indexed) {
+            copies.add(DocumentChunk.builder()
+                    .id(chunkId(fileId, chunk.getChunkIndex()))
+                    .userId(file.getUserId())
+                    .fileId(fileId)
+                    .kbId(file.getKbId())
+                    .chunkIndex(chunk.getChunkIndex())
+                    .content(chunk.getContent())
+                    .headingPath(chunk.getHeadingPath())
+                    .embedding(chunk.getEmbedding())
+                    .embeddingSpace(space)
+                    .createdAt(LocalDateTime.now())
+                    .build());
         }
-        sb.append(']');
-        return sb.toString();
+        redisDocumentChunkRepository.saveAll(copies);
+        documentChunkSyncProducer.publish(fileId, file.getUserId(), file.getKbId());
+        uploadedFileMapper.updateStatus(fileId, UploadedFile.FileStatus.COMPLETED.name());
+        file.setStatus(UploadedFile.FileStatus.COMPLETED);
+        log.info("内容与已索引文件相同，复用分块 {} 个 (fileId={}, 来源={})", copies.size(), fileId, donor.get().getId());
+        fileProcessingNotificationService.notifyStatus(
+                file,
+                UploadedFile.FileStatus.COMPLETED,
+                "文件内容已索引过，直接复用已有分块");
+        publishIndexed(file, copies.size());
+        return true;
+    }
+
+    /**
+     * 事务提交后才发布：监听方收到事件时查到的一定是已提交的终态，回滚时也不会收到不存在的结果
+     */
+    private void publishIndexed(UploadedFile file, int chunks) {
+        FileIndexedEvent event = new FileIndexedEvent(
+                file.getId(), file.getUserId(), file.getKbId(), file.getStatus(), chunks);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    eventPublisher.publishEvent(event);
+                }
+            });
+        } else {
+            eventPublisher.publishEvent(event);
+        }
+    }
+
+    /**
+     * 打开文件内容：普通文件直接读取磁盘，归档条目（"归档路径!/条目名"）从归档中定位读取；文件不存在时返回 null
+     */
+    private InputStream openContent(UploadedFile file) throws IOException {
+        String filePath = file.getFilePath();
+        Path path = ArchiveUtils.isEntryPath(filePath) ? ArchiveUtils.archiveOf(filePath) : Paths.get(filePath);
+        if (!Files.exists(path)) {
+            log.warn("文件不存在于磁盘: {}", filePath);
+            return null;
+        }
+        return ArchiveUtils.isEntryPath(filePath) ? ArchiveUtils.openEntry(filePath) : Files.newInputStream(path);
+    }
+
+    /**
+     * 结构感知分块器需要保留标题/表格/代码块：PDF、Word 等通过 Tika 的 XHTML 事件流转换为 Markdown
+     */
+    private String extractText(InputStream in, UploadedFile file, TextChunker textChunker) throws Exception {
+        String type = file.getFileType() != null ? file.getFileType().toLowerCase(Locale.ROOT) : "";
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, file.getFilename());
+        if (!textChunker.structureAware() || PLAIN_TEXT_TYPES.contains(type)) {
+            return tika.parseToString(in, metadata);
+        }
+        MarkdownContentHandler handler = new MarkdownContentHandler();
+        tika.getParser().parse(in, handler, metadata, new ParseContext());
+        return handler.toString();
+    }
+
+    /**
+     * 读取断点：分块配置指纹与分块总数都一致时从断点继续，否则清理残留分块后从头开始
+     */
+    private int resolveResumeIndex(UploadedFile file, String fingerprint, int total) {
+        Optional<RedisIndexCheckpointRepository.IndexCheckpoint> checkpoint =
+                redisIndexCheckpointRepository.find(file.getId());
+        if (checkpoint.isPresent()
+                && fingerprint.equals(checkpoint.get().fingerprint())
+                && checkpoint.get().total() == total
+                && checkpoint.get().nextIndex() <= total) {
+            log.info("从断点继续索引 fileId={}, 已完成 {}/{}", file.getId(), checkpoint.get().nextIndex(), total);
+            return checkpoint.get().nextIndex();
+        }
+        if (checkpoint.isPresent()) {
+            log.info("分块配置已变化，断点失效，重新索引 fileId={}", file.getId());
+        }
+        // 清理上次未完成的残留分块（含配置变化前写入的分块）
+        redisDocumentChunkRepository.deleteByFileIdAndUser(file.getId(), file.getUserId(), file.getKbId());
+        redisIndexCheckpointRepository.delete(file.getId());
+        return 0;
+    }
+
+    /**
+     * 分块ID由 fileId + 序号确定，重试时覆盖写入而不会产生重复分块
+     */
+    private String chunkId(String fileId, int chunkIndex) {
+        return UUID.nameUUIDFromBytes((fileId + ":" + chunkIndex).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    @FunctionalInterface
+    private interface ContentSource {
+        InputStream open() throws IOException;
     }
-} 
+}
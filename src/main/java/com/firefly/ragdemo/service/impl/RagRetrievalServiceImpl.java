@@ -1,34 +1,57 @@
 package com.firefly.ragdemo.service.impl;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.firefly.ragdemo.config.RetrievalProperties;
 import com.firefly.ragdemo.entity.DocumentChunk;
 import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository.ChunkVector;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository.Tombstones;
+import com.firefly.ragdemo.repository.RedisEmbeddingSpaceRepository;
 import com.firefly.ragdemo.service.EmbeddingService;
 import com.firefly.ragdemo.service.RagRetrievalService;
+import com.firefly.ragdemo.util.VectorCodec;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class RagRetrievalServiceImpl implements RagRetrievalService {
 
     private final EmbeddingService embeddingService;
     private final RedisDocumentChunkRepository redisDocumentChunkRepository;
-    private final ObjectMapper objectMapper;
+    private final RedisEmbeddingSpaceRepository embeddingSpaces;
+    private final RetrievalProperties retrievalProperties;
 
     @Override
     public List<String> retrieveContext(List<String> kbIds, String query, int topK, int candidateLimit) {
         if (kbIds == null || kbIds.isEmpty()) {
             return Collections.emptyList();
         }
-        int perKb = candidateLimit > 0 ? candidateLimit : Math.max(topK * 4, 20);
-        List<DocumentChunk> chunks = redisDocumentChunkRepository.findByKnowledgeBases(kbIds, perKb);
-        return rankChunks(query, topK, chunks);
+        Tombstones tombstones = redisDocumentChunkRepository.loadTombstones();
+        // 按知识库当前使用的向量空间分组，每组用对应空间的向量打分
+        Map<String, List<String>> kbIdsBySpace = new LinkedHashMap<>();
+        for (String kbId : kbIds) {
+            if (!tombstones.kbIds().contains(kbId)) {
+                kbIdsBySpace.computeIfAbsent(embeddingSpaces.activeSpace(kbId), k -> new ArrayList<>()).add(kbId);
+            }
+        }
+        boolean coarse = coarseToFine();
+        int perKb = candidateCount(topK, candidateLimit, coarse);
+        List<ChunkVector> candidates = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : kbIdsBySpace.entrySet()) {
+            candidates.addAll(redisDocumentChunkRepository.findVectorsByKnowledgeBases(
+                    entry.getValue(), perKb, entry.getKey(), coarse));
+        }
+        return rankChunks(query, topK, candidates, tombstones, coarse);
     }
 
     @Override
@@ -36,73 +59,142 @@ public class RagRetrievalServiceImpl implements RagRetrievalService {
         if (!StringUtils.hasText(userId)) {
             return Collections.emptyList();
         }
-        int perUser = candidateLimit > 0 ? candidateLimit : Math.max(topK * 4, 20);
-        List<DocumentChunk> chunks = redisDocumentChunkRepository.findByUser(userId, perUser);
-        return rankChunks(query, topK, chunks);
+        boolean coarse = coarseToFine();
+        int perUser = candidateCount(topK, candidateLimit, coarse);
+        List<ChunkVector> candidates = redisDocumentChunkRepository.findVectorsByUser(userId, perUser, coarse);
+        return rankChunks(query, topK, candidates, redisDocumentChunkRepository.loadTombstones(), coarse);
     }
 
-    private List<String> rankChunks(String query, int topK, List<DocumentChunk> chunks) {
-        List<Double> q = embeddingService.embed(query);
-        if (q == null || q.isEmpty() || chunks == null || chunks.isEmpty()) {
+    private boolean coarseToFine() {
+        return retrievalProperties.getMode() == RetrievalProperties.Mode.COARSE_TO_FINE;
+    }
+
+    /**
+     * 粗排只读前缀向量，扫描范围可以放大到 coarseScanLimit（0 表示全部分块）
+     */
+    private int candidateCount(int topK, int candidateLimit, boolean coarse) {
+        int exact = candidateLimit > 0 ? candidateLimit : Math.max(topK * 4, 20);
+        if (!coarse) {
+            return exact;
+        }
+        int scan = retrievalProperties.getCoarseScanLimit();
+        return scan > 0 ? Math.max(scan, exact) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * 两阶段检索：候选只带向量参与打分，正文只为排名前 topK 的分块读取
+     * 粗排模式下候选带的是归一化的前缀向量，按点积排序后只为前 rerankSize 个读取完整向量重新打分
+     * 查询在每个候选向量空间中各向量化一次；迁移期间不同空间的余弦相似度直接合并排序
+     * 已删除但尚未清理完的文件/知识库的分块在第二阶段按元数据排除，不足 topK 时按名次继续补取
+     */
+    private List<String> rankChunks(String query, int topK, List<ChunkVector> candidates, Tombstones tombstones,
+                                    boolean coarse) {
+        if (candidates == null || candidates.isEmpty()) {
             return Collections.emptyList();
         }
-        double[] queryVector = toPrimitive(q);
-        List<ScoredChunk> scored = new ArrayList<>();
-        for (DocumentChunk chunk : chunks) {
-            double[] chunkVector = parseEmbedding(chunk.getEmbeddingJson());
-            if (chunkVector.length == 0 || chunk.getContent() == null) {
-                continue;
+        Map<String, float[]> queryVectors = new HashMap<>();
+        List<ScoredChunk> scored = coarse
+                ? rerank(score(query, candidates, queryVectors, true), queryVectors)
+                : score(query, candidates, queryVectors, false);
+        List<String> results = new ArrayList<>(topK);
+        int next = 0;
+        while (results.size() < topK && next < scored.size()) {
+            int end = Math.min(next + topK - results.size(), scored.size());
+            List<String> winners = new ArrayList<>(end - next);
+            for (int i = next; i < end; i++) {
+                winners.add(scored.get(i).chunkId());
+            }
+            next = end;
+            for (DocumentChunk chunk : redisDocumentChunkRepository.findByIds(winners)) {
+                if (!tombstones.hides(chunk)) {
+                    results.add(withHeading(chunk));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 粗排时查询向量按候选前缀的维度截断并归一化，用点积代替余弦
+     */
+    private List<ScoredChunk> score(String query, List<ChunkVector> candidates, Map<String, float[]> queryVectors,
+                                    boolean prefix) {
+        Map<String, float[]> queryPrefixes = new HashMap<>();
+        List<ScoredChunk> scored = new ArrayList<>(candidates.size());
+        for (ChunkVector candidate : candidates) {
+            float[] queryVector = queryVectors.computeIfAbsent(candidate.space(), space -> embedQuery(query, space));
+            int dims = candidate.vector().length;
+            double score;
+            if (prefix) {
+                if (queryVector.length < dims) {
+                    continue;
+                }
+                float[] queryPrefix = queryPrefixes.computeIfAbsent(candidate.space() + "#" + dims,
+                        key -> VectorCodec.truncate(queryVector, dims));
+                score = VectorCodec.dot(queryPrefix, candidate.vector());
+            } else {
+                if (queryVector.length != dims) {
+                    continue;
+                }
+                score = VectorCodec.cosine(queryVector, candidate.vector());
             }
-            double score = cosineSimilarity(queryVector, chunkVector);
             if (!Double.isNaN(score)) {
-                scored.add(new ScoredChunk(chunk.getContent(), score));
+                scored.add(new ScoredChunk(candidate.chunkId(), candidate.space(), score));
             }
         }
         scored.sort((a, b) -> Double.compare(b.score, a.score));
-        List<String> results = new ArrayList<>();
-        for (int i = 0; i < Math.min(topK, scored.size()); i++) {
-            results.add(scored.get(i).content());
-        }
-        return results;
+        return scored;
     }
 
-    private double[] parseEmbedding(String embeddingJson) {
-        if (embeddingJson == null || embeddingJson.isBlank()) {
-            return new double[0];
+    /**
+     * 完整向量重排粗排的前 rerankSize 个分块，其余分块保持粗排顺序排在后面（只在补取被隐藏的分块时用到）
+     */
+    private List<ScoredChunk> rerank(List<ScoredChunk> coarse, Map<String, float[]> queryVectors) {
+        int size = Math.min(Math.max(retrievalProperties.getRerankSize(), 1), coarse.size());
+        Map<String, List<String>> idsBySpace = new LinkedHashMap<>();
+        for (ScoredChunk chunk : coarse.subList(0, size)) {
+            idsBySpace.computeIfAbsent(chunk.space(), k -> new ArrayList<>()).add(chunk.chunkId());
         }
-        try {
-            return objectMapper.readValue(embeddingJson, double[].class);
-        } catch (Exception e) {
-            return new double[0];
+        List<ScoredChunk> reranked = new ArrayList<>(coarse.size());
+        for (Map.Entry<String, List<String>> entry : idsBySpace.entrySet()) {
+            float[] queryVector = queryVectors.get(entry.getKey());
+            for (ChunkVector full : redisDocumentChunkRepository.findVectorsByIds(entry.getValue(), entry.getKey())) {
+                double score = VectorCodec.cosine(queryVector, full.vector());
+                if (!Double.isNaN(score)) {
+                    reranked.add(new ScoredChunk(full.chunkId(), full.space(), score));
+                }
+            }
         }
+        reranked.sort((a, b) -> Double.compare(b.score, a.score));
+        reranked.addAll(coarse.subList(size, coarse.size()));
+        return reranked;
     }
 
-    private double[] toPrimitive(List<Double> values) {
-        double[] result = new double[values.size()];
-        for (int i = 0; i < values.size(); i++) {
-            result[i] = values.get(i) != null ? values.get(i) : 0d;
+    /**
+     * 旧空间的模型已不可用时跳过该空间的候选（返回空向量），其余知识库照常检索；当前空间失败时照常抛出
+     */
+    private float[] embedQuery(String query, String space) {
+        try {
+            List<Double> q = embeddingService.embed(query, space);
+            return q != null ? VectorCodec.fromList(q) : new float[0];
+        } catch (RuntimeException e) {
+            if (space.equals(embeddingService.currentSpace())) {
+                throw e;
+            }
+            log.warn("查询向量化失败，跳过向量空间 {} 的候选: {}", space, e.getMessage());
+            return new float[0];
         }
-        return result;
     }
 
-    private double cosineSimilarity(double[] a, double[] b) {
-        if (a.length == 0 || b.length == 0 || a.length != b.length) {
-            return Double.NaN;
-        }
-        double dot = 0d;
-        double normA = 0d;
-        double normB = 0d;
-        for (int i = 0; i < a.length; i++) {
-            dot += a[i] * b[i];
-            normA += a[i] * a[i];
-            normB += b[i] * b[i];
-        }
-        double denom = Math.sqrt(normA) * Math.sqrt(normB);
-        if (denom == 0d) {
-            return Double.NaN;
+    /**
+     * 结构化分块带上标题路径，便于模型判断片段出处
+     */
+    private String withHeading(DocumentChunk chunk) {
+        if (!StringUtils.hasText(chunk.getHeadingPath())) {
+            return chunk.getContent();
         }
-        return dot / denom;
+        return "【" + chunk.getHeadingPath() + "】\n" + chunk.getContent();
     }
 
-    private record ScoredChunk(String content, double score) {}
+    private record ScoredChunk(String chunkId, String space, double score) {}
 }
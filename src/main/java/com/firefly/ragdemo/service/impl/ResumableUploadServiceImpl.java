@@ -0,0 +1,328 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.UploadProperties;
+import com.firefly.ragdemo.entity.User;
+import com.firefly.ragdemo.repository.RedisUploadSessionRepository;
+import com.firefly.ragdemo.repository.RedisUploadSessionRepository.UploadSession;
+import com.firefly.ragdemo.service.FileService;
+import com.firefly.ragdemo.service.FileStorageService;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import com.firefly.ragdemo.service.KnowledgeBaseService;
+import com.firefly.ragdemo.service.ResumableUploadService;
+import com.firefly.ragdemo.util.FileTypeUtils;
+import com.firefly.ragdemo.util.HashUtils;
+import com.firefly.ragdemo.vo.FileVO;
+import com.firefly.ragdemo.vo.UploadSessionVO;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分片上传实现
+ * 1. 创建会话时按文件大小预分配临时文件，分片通过 FileChannel 按偏移直接写入，不在内存中拼接
+ * 2. 已接收分片记录在 Redis 位图中，断线重连后只需补传缺失分片
+ * 3. SHA-256 按文件顺序增量计算：连续的前缀分片到齐即推进，完成时只需补算剩余部分
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ResumableUploadServiceImpl implements ResumableUploadService {
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final String STAGING_SUFFIX = ".part";
+
+    private final RedisUploadSessionRepository uploadSessionRepository;
+    private final FileStorageService fileStorageService;
+    private final FileService fileService;
+    private final KnowledgeBaseService knowledgeBaseService;
+    private final UploadProperties uploadProperties;
+
+    // 增量摘要只保存在本节点内存中；重启后丢失时，完成上传时从临时文件补算
+    private final Map<String, HashState> hashStates = new ConcurrentHashMap<>();
+
+    @Override
+    public UploadSessionVO initiate(User user, String filename, long fileSize, String kbId) throws IOException {
+        if (!FileTypeUtils.isAllowedExtension(FileTypeUtils.extensionOf(filename))) {
+            throw new IllegalArgumentException("不支持的文件类型，支持的类型: " + String.join(", ", FileTypeUtils.ALLOWED_EXTENSIONS));
+        }
+        if (fileSize <= 0 || fileSize > uploadProperties.getMaxFileSize()) {
+            throw new IllegalArgumentException("文件大小不能超过" + uploadProperties.getMaxFileSize() / 1024 / 1024 + "MB");
+        }
+        String resolvedKbId = knowledgeBaseService.resolveUploadKb(user.getId(), user.getUsername(), kbId);
+
+        String uploadId = UUID.randomUUID().toString();
+        Path staging = fileStorageService.stagingDirectory().resolve(uploadId + STAGING_SUFFIX);
+        try (RandomAccessFile file = new RandomAccessFile(staging.toFile(), "rw")) {
+            file.setLength(fileSize);
+        }
+        UploadSession session = new UploadSession(uploadId, user.getId(), resolvedKbId, filename, fileSize,
+                Math.max(uploadProperties.getPartSize(), 1), staging.toString());
+        uploadSessionRepository.save(session, sessionTtl());
+        log.info("创建分片上传会话 uploadId={}, user={}, file={}, size={}, parts={}",
+                uploadId, user.getId(), filename, fileSize, session.partCount());
+        return toVO(session, new BitSet());
+    }
+
+    @Override
+    public UploadSessionVO status(String userId, String uploadId) {
+        UploadSession session = requireSession(userId, uploadId);
+        return toVO(session, uploadSessionRepository.receivedParts(uploadId, session.partCount()));
+    }
+
+    @Override
+    public UploadSessionVO writePart(String userId, String uploadId, long offset, long contentLength, InputStream body)
+            throws IOException {
+        UploadSession session = requireSession(userId, uploadId);
+        if (offset < 0 || offset >= session.fileSize() || offset % session.partSize() != 0) {
+            throw new IllegalArgumentException("分片偏移必须是分片大小(" + session.partSize() + ")的整数倍且小于文件大小");
+        }
+        int partIndex = (int) (offset / session.partSize());
+        long expected = session.partLength(partIndex);
+        if (contentLength >= 0 && contentLength != expected) {
+            throw new IllegalArgumentException("第 " + partIndex + " 个分片长度应为 " + expected + " 字节");
+        }
+        Path staging = Paths.get(session.stagingPath());
+        if (!Files.exists(staging)) {
+            throw new IllegalArgumentException("上传会话的临时文件已丢失，请重新上传");
+        }
+
+        writeAt(staging, offset, expected, body);
+        if (partIndex == 0) {
+            rejectIfContentMismatch(session, staging);
+        }
+        uploadSessionRepository.markPartReceived(uploadId, partIndex, sessionTtl());
+
+        BitSet received = uploadSessionRepository.receivedParts(uploadId, session.partCount());
+        try {
+            advanceHash(session, received, false);
+        } catch (IOException e) {
+            // 摘要状态可能只推进了一半：丢弃，完成上传时从头补算
+            log.warn("增量计算 SHA-256 失败，完成时重新计算 uploadId={}: {}", uploadId, e.getMessage());
+            hashStates.remove(uploadId);
+        }
+        return toVO(session, received);
+    }
+
+    @Override
+    public FileVO complete(User user, String uploadId, String expectedSha256) throws IOException {
+        UploadSession session = requireSession(user.getId(), uploadId);
+        BitSet received = uploadSessionRepository.receivedParts(uploadId, session.partCount());
+        int missing = session.partCount() - received.cardinality();
+        if (missing > 0) {
+            throw new IllegalArgumentException("还有 " + missing + " 个分片未上传");
+        }
+
+        advanceHash(session, received, true);
+        HashState state = hashStates.remove(uploadId);
+        String sha256 = HashUtils.toHex(state.digest);
+        Path staging = Paths.get(session.stagingPath());
+        if (expectedSha256 != null && !expectedSha256.isBlank() && !sha256.equalsIgnoreCase(expectedSha256.trim())) {
+            uploadSessionRepository.delete(uploadId);
+            fileStorageService.delete(staging);
+            throw new IllegalArgumentException("文件校验失败（SHA-256 不一致），请重新上传");
+        }
+
+        // 摘要已在接收分片时算出，直接按内容寻址移入存储，内容已存在时不再占用磁盘
+        FileStorageService.StoredBlob blob = fileStorageService.moveIn(staging, sha256);
+        uploadSessionRepository.delete(uploadId);
+        log.info("分片上传完成 uploadId={}, file={}, size={}, sha256={}, 重复内容={}",
+                uploadId, session.filename(), session.fileSize(), sha256, blob.existed());
+        try {
+            return fileService.registerStoredFile(blob, session.filename(), session.fileSize(), user,
+                    session.kbId(), IndexingScheduler.Lane.INTERACTIVE);
+        } catch (RuntimeException e) {
+            if (!blob.existed()) {
+                fileStorageService.delete(blob.path());
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void abort(String userId, String uploadId) {
+        UploadSession session = requireSession(userId, uploadId);
+        hashStates.remove(uploadId);
+        uploadSessionRepository.delete(uploadId);
+        fileStorageService.delete(Paths.get(session.stagingPath()));
+        log.info("已取消分片上传 uploadId={}", uploadId);
+    }
+
+    /**
+     * 定时清理已过期会话遗留的临时文件（每小时执行一次）
+     */
+    @Scheduled(fixedRate = 3600000)
+    public void cleanupExpiredUploads() {
+        Instant expiredBefore = Instant.now().minus(sessionTtl());
+        int removed = 0;
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(
+                fileStorageService.stagingDirectory(), "*" + STAGING_SUFFIX)) {
+            for (Path part : parts) {
+                String name = part.getFileName().toString();
+                String uploadId = name.substring(0, name.length() - STAGING_SUFFIX.length());
+                if (Files.getLastModifiedTime(part).toInstant().isBefore(expiredBefore)
+                        && !uploadSessionRepository.exists(uploadId)) {
+                    hashStates.remove(uploadId);
+                    fileStorageService.delete(part);
+                    removed++;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("清理过期分片上传临时文件失败: {}", e.getMessage());
+            return;
+        }
+        if (removed > 0) {
+            log.info("已清理过期分片上传临时文件: {}个", removed);
+        }
+    }
+
+    /**
+     * 第一个分片写入后按文件头嗅探类型，与扩展名不符时直接取消会话，不必等全部分片传完
+     */
+    private void rejectIfContentMismatch(UploadSession session, Path staging) throws IOException {
+        byte[] head;
+        try (InputStream in = Files.newInputStream(staging)) {
+            head = in.readNBytes((int) Math.min(FileTypeUtils.SNIFF_LENGTH, session.partLength(0)));
+        }
+        String extension = FileTypeUtils.extensionOf(session.filename());
+        if (!FileTypeUtils.matchesContent(extension, head)) {
+            hashStates.remove(session.uploadId());
+            uploadSessionRepository.delete(session.uploadId());
+            fileStorageService.delete(staging);
+            log.warn("分片上传内容与扩展名不符，已取消 uploadId={}, file={}", session.uploadId(), session.filename());
+            throw new IllegalArgumentException("文件内容与扩展名 ." + extension + " 不符，已取消上传");
+        }
+    }
+
+    private void writeAt(Path staging, long offset, long expected, InputStream body) throws IOException {
+        ReadableByteChannel in = Channels.newChannel(body);
+        ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(staging, StandardOpenOption.WRITE)) {
+            while (written < expected) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), expected - written));
+                if (in.read(buffer) < 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, offset + written);
+                }
+            }
+        }
+        if (written < expected) {
+            throw new IllegalArgumentException("分片数据不完整（收到 " + written + "/" + expected + " 字节），请重传该分片");
+        }
+        if (body.read() != -1) {
+            throw new IllegalArgumentException("分片数据超出预期长度 " + expected + " 字节");
+        }
+    }
+
+    /**
+     * 按文件顺序推进摘要：从已摘要的位置起，连续到齐的分片依次读回（刚写入，通常命中页缓存）计入摘要。
+     * wait=false 时若其他请求正在推进则直接返回，由其顺带处理或在完成时补算
+     */
+    private void advanceHash(UploadSession session, BitSet received, boolean wait) throws IOException {
+        HashState state = hashStates.computeIfAbsent(session.uploadId(), id -> new HashState());
+        if (wait) {
+            state.lock.lock();
+        } else if (!state.lock.tryLock()) {
+            return;
+        }
+        try {
+            if (state.hashedBytes >= session.fileSize()) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            try (FileChannel channel = FileChannel.open(Paths.get(session.stagingPath()), StandardOpenOption.READ)) {
+                while (state.hashedBytes < session.fileSize()) {
+                    int next = (int) (state.hashedBytes / session.partSize());
+                    if (!received.get(next)) {
+                        break;
+                    }
+                    long end = state.hashedBytes + session.partLength(next);
+                    long position = state.hashedBytes;
+                    while (position < end) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                        int read = channel.read(buffer, position);
+                        if (read < 0) {
+                            throw new IOException("临时文件长度不足: " + session.stagingPath());
+                        }
+                        buffer.flip();
+                        state.digest.update(buffer);
+                        position += read;
+                    }
+                    state.hashedBytes = end;
+                }
+            }
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    private UploadSession requireSession(String userId, String uploadId) {
+        UploadSession session = uploadSessionRepository.find(uploadId)
+                .orElseThrow(() -> new IllegalArgumentException("上传会话不存在或已过期"));
+        if (!session.userId().equals(userId)) {
+            throw new AccessDeniedException("无权访问他人的上传会话");
+        }
+        return session;
+    }
+
+    private UploadSessionVO toVO(UploadSession session, BitSet received) {
+        List<Integer> missingParts = new ArrayList<>();
+        long receivedBytes = 0;
+        for (int i = 0; i < session.partCount(); i++) {
+            if (received.get(i)) {
+                receivedBytes += session.partLength(i);
+            } else {
+                missingParts.add(i);
+            }
+        }
+        return UploadSessionVO.builder()
+                .uploadId(session.uploadId())
+                .filename(session.filename())
+                .fileSize(session.fileSize())
+                .partSize(session.partSize())
+                .partCount(session.partCount())
+                .receivedBytes(receivedBytes)
+                .missingParts(missingParts)
+                .build();
+    }
+
+    private Duration sessionTtl() {
+        return Duration.ofHours(Math.max(uploadProperties.getSessionTtlHours(), 1));
+    }
+
+    private static class HashState {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final MessageDigest digest = HashUtils.newSha256();
+        private long hashedBytes;
+    }
+}
@@ -1,57 +1,81 @@
 package com.firefly.ragdemo.service.impl;
 
+import com.firefly.ragdemo.config.IndexingProperties;
 import com.firefly.ragdemo.service.TextChunker;
+import com.firefly.ragdemo.service.Tokenizer;
+import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.List;
 
 @Component
+@RequiredArgsConstructor
 public class SimpleTextChunker implements TextChunker {
 
-    private static final int CHUNK_SIZE = 800;
-    private static final int CHUNK_OVERLAP = 100;
+    private final Tokenizer tokenizer;
+    private final IndexingProperties indexingProperties;
+
+    @Override
+    public String fingerprint() {
+        return "simple:" + tokenizer.name() + ":" + chunkTokens() + ":" + overlapTokens();
+    }
 
     @Override
     public List<String> split(String text) {
         List<String> chunks = new ArrayList<>();
         if (text == null || text.isBlank()) return chunks;
+        int chunkTokens = chunkTokens();
         String normalized = text.replaceAll("\r\n?", "\n");
-        // 先按段落再做滑窗
+        // 先按段落再做滑窗，大小以 token 计
         String[] paras = normalized.split("\n\n+");
         StringBuilder buffer = new StringBuilder();
+        int bufferTokens = 0;
         for (String p : paras) {
-            if (buffer.length() + p.length() + 1 <= CHUNK_SIZE) {
+            int tokens = tokenizer.count(p);
+            if (bufferTokens + tokens <= chunkTokens) {
                 if (buffer.length() > 0) buffer.append('\n');
                 buffer.append(p);
+                bufferTokens += tokens;
             } else {
                 if (buffer.length() > 0) {
-                    slideAndCollect(chunks, buffer.toString());
+                    chunks.add(buffer.toString());
                     buffer.setLength(0);
+                    bufferTokens = 0;
                 }
-                if (p.length() <= CHUNK_SIZE) {
-                    slideAndCollect(chunks, p);
+                if (tokens <= chunkTokens) {
+                    buffer.append(p);
+                    bufferTokens = tokens;
                 } else {
-                    // 长段落分割
-                    for (int i = 0; i < p.length(); i += (CHUNK_SIZE - CHUNK_OVERLAP)) {
-                        int end = Math.min(p.length(), i + CHUNK_SIZE);
-                        chunks.add(p.substring(i, end));
-                    }
+                    // 长段落按 token 窗口分割
+                    slideAndCollect(chunks, p);
                 }
             }
         }
-        if (buffer.length() > 0) slideAndCollect(chunks, buffer.toString());
+        if (buffer.length() > 0) chunks.add(buffer.toString());
         return chunks;
     }
 
     private void slideAndCollect(List<String> chunks, String text) {
-        if (text.length() <= CHUNK_SIZE) {
-            chunks.add(text);
-            return;
-        }
-        for (int i = 0; i < text.length(); i += (CHUNK_SIZE - CHUNK_OVERLAP)) {
-            int end = Math.min(text.length(), i + CHUNK_SIZE);
+        int chunkTokens = chunkTokens();
+        int step = chunkTokens - overlapTokens();
+        int i = 0;
+        while (i < text.length()) {
+            int end = tokenizer.truncate(text, i, text.length(), chunkTokens);
             chunks.add(text.substring(i, end));
+            if (end >= text.length()) {
+                break;
+            }
+            int next = tokenizer.truncate(text, i, text.length(), step);
+            i = Math.max(Math.min(next, end), i + 1);
         }
     }
-} 
\ No newline at end of file
+
+    private int chunkTokens() {
+        return Math.max(indexingProperties.getChunkTokens(), 1);
+    }
+
+    private int overlapTokens() {
+        return Math.max(Math.min(indexingProperties.getOverlapTokens(), chunkTokens() / 2), 0);
+    }
+}
@@ -0,0 +1,36 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.IndexingProperties;
+import com.firefly.ragdemo.service.TextChunker;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 按文件类型选择分块器，映射关系见 app.indexing.chunkers，值为分块器的 Bean 名称
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class TextChunkerRegistry {
+
+    private final Map<String, TextChunker> chunkersByBeanName;
+    private final IndexingProperties indexingProperties;
+
+    public TextChunker forFileType(String fileType) {
+        String key = fileType != null ? fileType.toLowerCase(Locale.ROOT) : "";
+        String beanName = indexingProperties.getChunkers().getOrDefault(key, indexingProperties.getDefaultChunker());
+        TextChunker chunker = chunkersByBeanName.get(beanName);
+        if (chunker == null) {
+            log.warn("未找到分块器 {}（文件类型 {}），使用默认分块器 {}", beanName, key, indexingProperties.getDefaultChunker());
+            chunker = chunkersByBeanName.get(indexingProperties.getDefaultChunker());
+        }
+        if (chunker == null) {
+            throw new IllegalStateException("默认分块器不存在: " + indexingProperties.getDefaultChunker());
+        }
+        return chunker;
+    }
+}
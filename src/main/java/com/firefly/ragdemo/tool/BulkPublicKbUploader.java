@@ -1,12 +1,13 @@
 package com.firefly.ragdemo.tool;
 
+import com.firefly.ragdemo.vo.BulkIngestReportVO;
 import com.firefly.ragdemo.vo.FileVO;
 import com.firefly.ragdemo.RaGdemoApplication;
 import com.firefly.ragdemo.entity.User;
-import com.firefly.ragdemo.entity.UploadedFile;
 import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.service.ArchiveIngestService;
 import com.firefly.ragdemo.service.KnowledgeBaseBulkUploadService;
-import com.firefly.ragdemo.service.RagIndexService;
+import com.firefly.ragdemo.messaging.IndexJobProducer;
 import com.firefly.ragdemo.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.WebApplicationType;
@@ -18,17 +19,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 /**
- * 命令行工具：将目录下所有文件批量上传到公共知识库（默认 kb_shared_cpp_tutorial）。
+ * 命令行工具：将目录（含子目录）或归档（zip/tar.gz/tar）中的所有文件批量上传到公共知识库（默认 kb_shared_cpp_tutorial）。
  * 不启动Web服务，仅加载Spring上下文。
  *
  * 用法示例：
  * mvn -q -DskipTests -Dexec.mainClass=com.firefly.ragdemo.tool.BulkPublicKbUploader \
  *   exec:java -Dexec.args="dir=/abs/path/to/files user=admin kb=kb_shared_cpp_tutorial"
+ * mvn -q -DskipTests -Dexec.mainClass=com.firefly.ragdemo.tool.BulkPublicKbUploader \
+ *   exec:java -Dexec.args="archive=/abs/path/to/course.zip user=admin kb=kb_shared_cpp_tutorial"
  */
 @Slf4j
 public class BulkPublicKbUploader {
@@ -38,13 +38,14 @@ public class BulkPublicKbUploader {
     public static void main(String[] args) {
         Map<String, String> params = parseArgs(args);
         String dir = params.get("dir");
+        String archive = params.get("archive");
         String username = params.get("user");
         String kbId = params.getOrDefault("kb", DEFAULT_KB);
         long waitSeconds = parseLong(params.get("waitSeconds"), 180);
         boolean retryFailedOnce = !"false".equalsIgnoreCase(params.getOrDefault("retryFailedOnce", "true"));
 
-        if (dir == null || username == null) {
-            System.err.println("用法: dir=/abs/path user=<username> [kb=kb_shared_cpp_tutorial] [waitSeconds=180] [retryFailedOnce=true|false]");
+        if ((dir == null && archive == null) || username == null) {
+            System.err.println("用法: dir=/abs/path|archive=/abs/path/to/pack.zip user=<username> [kb=kb_shared_cpp_tutorial] [waitSeconds=180] [retryFailedOnce=true|false]");
             System.exit(1);
         }
 
@@ -53,7 +54,6 @@ public class BulkPublicKbUploader {
                 .run();
         try {
             UserService userService = ctx.getBean(UserService.class);
-            KnowledgeBaseBulkUploadService bulkUploadService = ctx.getBean(KnowledgeBaseBulkUploadService.class);
 
             Optional<User> userOpt = userService.findByUsername(username);
             if (userOpt.isEmpty()) {
@@ -62,16 +62,28 @@ public class BulkPublicKbUploader {
             }
             User user = userOpt.get();
 
-            System.out.printf("开始上传目录: %s -> 知识库: %s (用户: %s)%n", dir, kbId, username);
-            List<FileVO> uploaded = bulkUploadService.uploadDirectory(Path.of(dir), user, kbId);
-            System.out.printf("提交上传完成，总计: %d 个文件，开始轮询索引状态...%n", uploaded.size());
+            // 先订阅索引完成事件，避免错过导入过程中已完成的索引
+            IndexCompletionTracker tracker = new IndexCompletionTracker(
+                    ctx.getBean(UploadedFileMapper.class), ctx.getBean(IndexJobProducer.class));
+            ctx.addApplicationListener(tracker);
+
+            BulkIngestReportVO report;
+            if (archive != null) {
+                System.out.printf("开始导入归档: %s -> 知识库: %s (用户: %s)%n", archive, kbId, username);
+                report = ctx.getBean(ArchiveIngestService.class).importArchive(Path.of(archive), user, kbId);
+            } else {
+                System.out.printf("开始上传目录: %s -> 知识库: %s (用户: %s)%n", dir, kbId, username);
+                report = ctx.getBean(KnowledgeBaseBulkUploadService.class).ingestDirectory(Path.of(dir), user, kbId);
+            }
+            List<FileVO> uploaded = report.getFiles();
+            System.out.printf("提交上传完成，导入: %d 个文件 (跳过 %d, 失败 %d)，%.1f MB，耗时 %.1f 秒，%.1f 文件/秒，%.2f MB/秒%n",
+                    report.getImported(), report.getSkipped(), report.getFailed(),
+                    report.getTotalBytes() / 1024.0 / 1024.0, report.getElapsedMs() / 1000.0,
+                    report.getFilesPerSecond(), report.getMbPerSecond());
+            System.out.println("等待索引完成...");
 
             if (!uploaded.isEmpty()) {
-                pollUntilDone(ctx.getBean(UploadedFileMapper.class),
-                        ctx.getBean(RagIndexService.class),
-                        uploaded,
-                        waitSeconds,
-                        retryFailedOnce);
+                tracker.await(uploaded, user.getId(), kbId, waitSeconds, retryFailedOnce);
             }
             System.out.println("任务结束。");
         } catch (Exception e) {
@@ -107,47 +119,4 @@ public class BulkPublicKbUploader {
             return def;
         }
     }
-
-    private static void pollUntilDone(UploadedFileMapper uploadedFileMapper,
-                                      RagIndexService ragIndexService,
-                                      List<FileVO> uploaded,
-                                      long waitSeconds,
-                                      boolean retryFailedOnce) throws InterruptedException {
-        Map<String, String> status = new HashMap<>();
-        Set<String> retried = ConcurrentHashMap.newKeySet();
-        for (FileVO vo : uploaded) {
-            status.put(vo.getId(), "PROCESSING");
-        }
-        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(waitSeconds);
-        while (System.currentTimeMillis() < deadline && status.values().stream().anyMatch(s -> s.equals("PROCESSING") || s.equals("FAILED"))) {
-            boolean allFinal = true;
-            for (FileVO vo : uploaded) {
-                Optional<UploadedFile> db = uploadedFileMapper.findById(vo.getId());
-                if (db.isEmpty()) {
-                    System.out.printf("文件[%s] 不存在数据库记录，跳过%n", vo.getId());
-                    continue;
-                }
-                String st = db.get().getStatus().name();
-                status.put(vo.getId(), st);
-                if ("PROCESSING".equals(st)) {
-                    allFinal = false;
-                } else if ("FAILED".equals(st)) {
-                    if (retryFailedOnce && retried.add(vo.getId())) {
-                        System.out.printf("检测到 FAILED，重试索引: %s%n", vo.getFilename());
-                        ragIndexService.indexFile(vo.getId());
-                        allFinal = false; // 等待重试结果
-                    } else {
-                        System.out.printf("文件索引失败: %s (id=%s)%n", vo.getFilename(), vo.getId());
-                    }
-                }
-            }
-            if (allFinal) {
-                break;
-            }
-            Thread.sleep(3000);
-        }
-
-        System.out.println("最终状态：");
-        status.forEach((id, st) -> System.out.printf(" - %s : %s%n", id, st));
-    }
 }
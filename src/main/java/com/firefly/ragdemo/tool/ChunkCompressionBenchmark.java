@@ -0,0 +1,187 @@
+package com.firefly.ragdemo.tool;
+
+import com.firefly.ragdemo.RaGdemoApplication;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.util.ChunkTextCodec;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * 命令行工具：评估分块正文压缩节省的内存与检索路径上的解压开销。
+ * 语料取自目录下的 .txt/.md 文件（按段落切成约 chunkChars 字符的分块），或直接从 Redis 抽样已入库的分块；
+ * 一半样本训练字典，另一半评估，分别统计 原文 / Deflate / Deflate+字典 的字节数，以及每个分块与每次 top-k 的平均解压耗时。
+ *
+ * 用法示例：
+ * mvn -q -DskipTests -Dexec.mainClass=com.firefly.ragdemo.tool.ChunkCompressionBenchmark \
+ *   exec:java -Dexec.args="dir=/abs/path/to/docs [chunkChars=800] [minBytes=256] [level=6] [topK=5]"
+ * mvn -q -DskipTests -Dexec.mainClass=com.firefly.ragdemo.tool.ChunkCompressionBenchmark \
+ *   exec:java -Dexec.args="source=redis [samples=4000]"
+ */
+public class ChunkCompressionBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 10;
+
+    private static volatile long blackhole;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> params = parseArgs(args);
+        String dir = params.get("dir");
+        boolean fromRedis = "redis".equalsIgnoreCase(params.get("source"));
+        int chunkChars = (int) parseLong(params.get("chunkChars"), 800);
+        int minBytes = (int) parseLong(params.get("minBytes"), 256);
+        int level = (int) parseLong(params.get("level"), 6);
+        int topK = (int) parseLong(params.get("topK"), 5);
+        int sampleCount = (int) parseLong(params.get("samples"), 4000);
+
+        if (dir == null && !fromRedis) {
+            System.err.println("用法: dir=/abs/path|source=redis [samples=4000] [chunkChars=800] [minBytes=256] [level=6] [topK=5]");
+            System.exit(1);
+        }
+
+        List<String> corpus = fromRedis ? loadFromRedis(sampleCount) : loadFromDirectory(Path.of(dir), chunkChars);
+        if (corpus.size() < 4) {
+            System.err.println("样本过少: " + corpus.size());
+            System.exit(1);
+        }
+        Collections.shuffle(corpus, new Random(42));
+        List<String> training = corpus.subList(0, corpus.size() / 2);
+        List<String> evaluation = corpus.subList(corpus.size() / 2, corpus.size());
+
+        long trainStart = System.nanoTime();
+        byte[] dictionary = ChunkTextCodec.trainDictionary(training, ChunkTextCodec.MAX_DICTIONARY_SIZE);
+        long trainMs = (System.nanoTime() - trainStart) / 1_000_000;
+        Map<Long, byte[]> dictionaries = Map.of(ChunkTextCodec.dictionaryId(dictionary), dictionary);
+
+        long rawBytes = 0;
+        for (String text : evaluation) {
+            rawBytes += text.getBytes(StandardCharsets.UTF_8).length;
+        }
+        List<byte[]> plain = encodeAll(evaluation, minBytes, level, null);
+        List<byte[]> withDictionary = encodeAll(evaluation, minBytes, level, dictionary);
+
+        System.out.printf("样本 %d 个（训练 %d / 评估 %d），字典 %d 字节，训练耗时 %dms%n",
+                corpus.size(), training.size(), evaluation.size(), dictionary.length, trainMs);
+        System.out.printf("%-16s %12s %8s %14s %16s%n", "格式", "字节", "节省", "解压 µs/块", "解压 µs/top-" + topK);
+        report("原文", rawBytes, rawBytes, evaluation.size(), topK, 0);
+        report("Deflate", total(plain), rawBytes, evaluation.size(), topK, decodeNanos(plain, dictionaries));
+        report("Deflate+字典", total(withDictionary), rawBytes, evaluation.size(), topK,
+                decodeNanos(withDictionary, dictionaries));
+    }
+
+    private static List<String> loadFromRedis(int sampleCount) {
+        ConfigurableApplicationContext ctx = new SpringApplicationBuilder(RaGdemoApplication.class)
+                .web(WebApplicationType.NONE)
+                .run();
+        try {
+            return new ArrayList<>(ctx.getBean(RedisDocumentChunkRepository.class).sampleContents(sampleCount));
+        } finally {
+            ctx.close();
+        }
+    }
+
+    private static List<String> loadFromDirectory(Path dir, int chunkChars) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.filter(Files::isRegularFile).toList()) {
+                String name = path.getFileName().toString().toLowerCase();
+                if (!name.endsWith(".txt") && !name.endsWith(".md")) {
+                    continue;
+                }
+                StringBuilder current = new StringBuilder();
+                for (String paragraph : Files.readString(path, StandardCharsets.UTF_8).split("\\n\\s*\\n")) {
+                    if (current.length() > 0 && current.length() + paragraph.length() > chunkChars) {
+                        chunks.add(current.toString());
+                        current.setLength(0);
+                    }
+                    current.append(paragraph).append("\n\n");
+                }
+                if (!current.isEmpty()) {
+                    chunks.add(current.toString());
+                }
+            }
+        }
+        return chunks;
+    }
+
+    private static List<byte[]> encodeAll(List<String> texts, int minBytes, int level, byte[] dictionary) {
+        List<byte[]> encoded = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            encoded.add(ChunkTextCodec.encode(text, minBytes, level, dictionary));
+        }
+        return encoded;
+    }
+
+    private static long total(List<byte[]> encoded) {
+        long sum = 0;
+        for (byte[] bytes : encoded) {
+            sum += bytes.length;
+        }
+        return sum;
+    }
+
+    /**
+     * @return 每个分块的平均解压耗时（纳秒），预热后取多轮平均
+     */
+    private static double decodeNanos(List<byte[]> encoded, Map<Long, byte[]> dictionaries) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            for (byte[] bytes : encoded) {
+                sink += ChunkTextCodec.decode(bytes, dictionaries::get).length();
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            for (byte[] bytes : encoded) {
+                sink += ChunkTextCodec.decode(bytes, dictionaries::get).length();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        // 防止解压结果被 JIT 当作无用计算消除
+        blackhole = sink;
+        return (double) elapsed / MEASURE_ROUNDS / encoded.size();
+    }
+
+    private static void report(String label, long bytes, long rawBytes, int count, int topK, double nanosPerChunk) {
+        System.out.printf("%-16s %12d %7.1f%% %14.2f %16.2f%n", label, bytes,
+                rawBytes > 0 ? 100.0 * (rawBytes - bytes) / rawBytes : 0, nanosPerChunk / 1000,
+                nanosPerChunk * Math.min(topK, count) / 1000);
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> map = new HashMap<>();
+        if (args == null) {
+            return map;
+        }
+        for (String arg : args) {
+            if (arg == null || arg.isBlank()) continue;
+            String cleaned = arg.startsWith("--") ? arg.substring(2) : arg;
+            int idx = cleaned.indexOf('=');
+            if (idx > 0 && idx < cleaned.length() - 1) {
+                map.put(cleaned.substring(0, idx), cleaned.substring(idx + 1));
+            }
+        }
+        return map;
+    }
+
+    private static long parseLong(String v, long def) {
+        try {
+            return v == null ? def : Long.parseLong(v);
+        } catch (Exception e) {
+            return def;
+        }
+    }
+}
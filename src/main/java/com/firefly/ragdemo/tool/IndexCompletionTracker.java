@@ -0,0 +1,168 @@
+package com.firefly.ragdemo.tool;
+
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.messaging.IndexJobProducer;
+import com.firefly.ragdemo.service.FileIndexedEvent;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import com.firefly.ragdemo.vo.FileVO;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量导入工具的索引完成跟踪
+ * 1. 订阅进程内发布的 {@link FileIndexedEvent}，文件索引结束即可感知，无需逐个查询
+ * 2. 由其他节点消费的索引任务不会在本进程产生事件，定期用一条 IN 查询批量补查已结束的文件
+ * 3. FAILED 以数据库状态为准：重试前先把状态改回 PROCESSING，之后再查到 FAILED 才是重试后的结果
+ */
+class IndexCompletionTracker implements ApplicationListener<PayloadApplicationEvent<FileIndexedEvent>> {
+
+    private static final long FALLBACK_QUERY_INTERVAL_MS = 10_000;
+    private static final long FAILED_RECHECK_DELAY_MS = 200;
+    private static final long PROGRESS_INTERVAL_MS = 1_000;
+    private static final int QUERY_BATCH_SIZE = 500;
+
+    private final UploadedFileMapper uploadedFileMapper;
+    private final IndexJobProducer indexJobProducer;
+    private final BlockingQueue<FileIndexedEvent> events = new LinkedBlockingQueue<>();
+
+    IndexCompletionTracker(UploadedFileMapper uploadedFileMapper, IndexJobProducer indexJobProducer) {
+        this.uploadedFileMapper = uploadedFileMapper;
+        this.indexJobProducer = indexJobProducer;
+    }
+
+    /**
+     * 事件在索引线程上同步回调：只入队，处理在等待线程中进行
+     */
+    @Override
+    public void onApplicationEvent(PayloadApplicationEvent<FileIndexedEvent> event) {
+        events.offer(event.getPayload());
+    }
+
+    /**
+     * 等待所有文件索引结束或超时，期间刷新进度行，结束后打印按状态的汇总
+     */
+    void await(List<FileVO> files, String userId, String kbId, long waitSeconds, boolean retryFailedOnce)
+            throws InterruptedException {
+        Map<String, FileVO> byId = new LinkedHashMap<>();
+        for (FileVO vo : files) {
+            byId.put(vo.getId(), vo);
+        }
+        Set<String> pending = new HashSet<>(byId.keySet());
+        Set<String> retried = new HashSet<>();
+        Map<String, UploadedFile.FileStatus> finished = new LinkedHashMap<>();
+
+        long start = System.currentTimeMillis();
+        long deadline = start + TimeUnit.SECONDS.toMillis(waitSeconds);
+        long nextQuery = start;
+        long nextProgress = start;
+        while (!pending.isEmpty()) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                break;
+            }
+            if (now >= nextQuery) {
+                for (UploadedFile file : queryFinished(pending)) {
+                    UploadedFile.FileStatus status = file.getStatus();
+                    if (status == UploadedFile.FileStatus.FAILED && retryFailedOnce && retried.add(file.getId())) {
+                        FileVO vo = byId.get(file.getId());
+                        System.out.printf("%n检测到 FAILED，重试索引: %s%n", vo.getFilename());
+                        uploadedFileMapper.updateStatus(file.getId(), UploadedFile.FileStatus.PROCESSING.name());
+                        indexJobProducer.publish(file.getId(), userId, kbId, IndexingScheduler.Lane.BULK);
+                        continue;
+                    }
+                    pending.remove(file.getId());
+                    finished.put(file.getId(), status);
+                }
+                nextQuery = System.currentTimeMillis() + FALLBACK_QUERY_INTERVAL_MS;
+            }
+            if (now >= nextProgress) {
+                printProgress(byId.size(), finished, start);
+                nextProgress = now + PROGRESS_INTERVAL_MS;
+            }
+
+            long waitMs = Math.max(Math.min(Math.min(nextQuery, nextProgress), deadline) - now, 1);
+            FileIndexedEvent event = events.poll(waitMs, TimeUnit.MILLISECONDS);
+            while (event != null) {
+                if (pending.contains(event.fileId())) {
+                    if (event.status() == UploadedFile.FileStatus.COMPLETED) {
+                        pending.remove(event.fileId());
+                        finished.put(event.fileId(), event.status());
+                    } else {
+                        // 失败是否重试由数据库状态决定，事件只负责让补查提前
+                        nextQuery = Math.min(nextQuery, System.currentTimeMillis() + FAILED_RECHECK_DELAY_MS);
+                    }
+                }
+                event = events.poll();
+            }
+        }
+        printProgress(byId.size(), finished, start);
+        System.out.println();
+        printSummary(byId, finished, System.currentTimeMillis() - start);
+    }
+
+    private List<UploadedFile> queryFinished(Set<String> pending) {
+        List<UploadedFile> result = new ArrayList<>();
+        List<String> batch = new ArrayList<>(Math.min(pending.size(), QUERY_BATCH_SIZE));
+        for (String id : pending) {
+            batch.add(id);
+            if (batch.size() == QUERY_BATCH_SIZE) {
+                result.addAll(uploadedFileMapper.findFinishedByIds(batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            result.addAll(uploadedFileMapper.findFinishedByIds(batch));
+        }
+        return result;
+    }
+
+    private static void printProgress(int total, Map<String, UploadedFile.FileStatus> finished, long start) {
+        long done = finished.size();
+        long failed = finished.values().stream().filter(s -> s == UploadedFile.FileStatus.FAILED).count();
+        double seconds = Math.max(System.currentTimeMillis() - start, 1) / 1000.0;
+        double rate = done / seconds;
+        String eta = rate > 0 ? formatDuration((long) ((total - done) / rate)) : "--:--";
+        System.out.printf("\r索引进度: %d/%d (%.1f%%)  完成 %d  失败 %d  %.1f 文件/秒  预计剩余 %s    ",
+                done, total, total == 0 ? 100.0 : done * 100.0 / total, done - failed, failed, rate, eta);
+        System.out.flush();
+    }
+
+    private static void printSummary(Map<String, FileVO> byId, Map<String, UploadedFile.FileStatus> finished,
+                                     long elapsedMs) {
+        Map<UploadedFile.FileStatus, List<FileVO>> byStatus = new EnumMap<>(UploadedFile.FileStatus.class);
+        for (FileVO vo : byId.values()) {
+            UploadedFile.FileStatus status = finished.getOrDefault(vo.getId(), UploadedFile.FileStatus.PROCESSING);
+            byStatus.computeIfAbsent(status, k -> new ArrayList<>()).add(vo);
+        }
+        System.out.printf("最终状态（用时 %s）：%n", formatDuration(elapsedMs / 1000));
+        for (UploadedFile.FileStatus status : UploadedFile.FileStatus.values()) {
+            List<FileVO> group = byStatus.getOrDefault(status, List.of());
+            String label = status == UploadedFile.FileStatus.PROCESSING ? "PROCESSING（超时未完成）" : status.name();
+            System.out.printf(" - %s : %d%n", label, group.size());
+            if (status != UploadedFile.FileStatus.COMPLETED) {
+                for (FileVO vo : group) {
+                    System.out.printf("     %s (id=%s)%n", vo.getFilename(), vo.getId());
+                }
+            }
+        }
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%02d:%02d", seconds / 60, seconds % 60);
+    }
+}
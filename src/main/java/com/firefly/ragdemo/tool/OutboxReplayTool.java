@@ -0,0 +1,71 @@
+package com.firefly.ragdemo.tool;
+
+import com.firefly.ragdemo.RaGdemoApplication;
+import com.firefly.ragdemo.mapper.OutboxEventMapper;
+import com.firefly.ragdemo.messaging.OutboxRelay;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 命令行工具：broker 故障（如队列数据丢失）恢复后，把最近一段时间已投递的发件箱事件重新排期，由运行中的中继重新投递。
+ * 只能重放保留期（app.outbox.retention-hours）内的事件；消费端按 messageId / eventId 去重，重复投递无副作用。
+ *
+ * 用法示例：
+ * mvn -q -DskipTests -Dexec.mainClass=com.firefly.ragdemo.tool.OutboxReplayTool \
+ *   exec:java -Dexec.args="minutes=120 [exchange=kb.chunk.sync.exchange]"
+ */
+public class OutboxReplayTool {
+
+    public static void main(String[] args) {
+        Map<String, String> params = parseArgs(args);
+        long minutes = parseLong(params.get("minutes"), -1);
+        String exchange = params.get("exchange");
+
+        if (minutes <= 0) {
+            System.err.println("用法: minutes=<重放最近多少分钟的事件> [exchange=<只重放该交换机>]");
+            System.exit(1);
+        }
+
+        ConfigurableApplicationContext ctx = new SpringApplicationBuilder(RaGdemoApplication.class)
+                .web(WebApplicationType.NONE)
+                .run();
+        try {
+            int replayed = ctx.getBean(OutboxRelay.class).replay(minutes, exchange);
+            System.out.printf("已重新排期 %d 个事件，当前待投递 %d 个%n",
+                    replayed, ctx.getBean(OutboxEventMapper.class).countPending());
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            ctx.close();
+        }
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> map = new HashMap<>();
+        if (args == null) {
+            return map;
+        }
+        for (String arg : args) {
+            if (arg == null || arg.isBlank()) continue;
+            String cleaned = arg.startsWith("--") ? arg.substring(2) : arg;
+            int idx = cleaned.indexOf('=');
+            if (idx > 0 && idx < cleaned.length() - 1) {
+                map.put(cleaned.substring(0, idx), cleaned.substring(idx + 1));
+            }
+        }
+        return map;
+    }
+
+    private static long parseLong(String v, long def) {
+        try {
+            return v == null ? def : Long.parseLong(v);
+        } catch (Exception e) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.firefly.ragdemo.util;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * 归档文件（zip / tar.gz / tar）读取工具
+ * 归档内条目的存储路径记为 "归档文件路径!/条目名"，重新索引时按该路径直接从归档中读取条目，不解压到磁盘
+ */
+public final class ArchiveUtils {
+
+    public static final String ENTRY_SEPARATOR = "!/";
+
+    private ArchiveUtils() {
+    }
+
+    /**
+     * 按文件名识别归档类型：zip、tar.gz（含 .tgz）、tar；不是归档时返回 null
+     */
+    public static String archiveType(String filename) {
+        if (filename == null) {
+            return null;
+        }
+        String lower = filename.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".zip")) {
+            return "zip";
+        }
+        if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) {
+            return "tar.gz";
+        }
+        if (lower.endsWith(".tar")) {
+            return "tar";
+        }
+        return null;
+    }
+
+    /**
+     * 以流式方式顺序读取归档，调用方负责关闭
+     */
+    public static ArchiveInputStream<? extends ArchiveEntry> open(InputStream in, String type) throws IOException {
+        InputStream buffered = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+        return switch (type) {
+            case "zip" -> new ZipArchiveInputStream(buffered);
+            case "tar.gz" -> new TarArchiveInputStream(new GzipCompressorInputStream(buffered));
+            case "tar" -> new TarArchiveInputStream(buffered);
+            default -> throw new IllegalArgumentException("不支持的归档类型: " + type);
+        };
+    }
+
+    /**
+     * 规范化条目名：统一分隔符并去掉开头的 "/" 与 "./"；macOS 生成的 __MACOSX/ 与 "._" 元数据条目返回 null
+     */
+    public static String normalizeEntryName(String name) {
+        if (name == null) {
+            return null;
+        }
+        String normalized = name.replace('\\', '/');
+        while (normalized.startsWith("/") || normalized.startsWith("./")) {
+            normalized = normalized.substring(normalized.startsWith("/") ? 1 : 2);
+        }
+        String baseName = normalized.substring(normalized.lastIndexOf('/') + 1);
+        if (normalized.isEmpty() || normalized.startsWith("__MACOSX/") || baseName.startsWith("._")) {
+            return null;
+        }
+        return normalized;
+    }
+
+    public static String entryPath(Path archive, String entryName) {
+        return archive.toString() + ENTRY_SEPARATOR + entryName;
+    }
+
+    public static boolean isEntryPath(String filePath) {
+        return filePath != null && filePath.contains(ENTRY_SEPARATOR);
+    }
+
+    /**
+     * 条目路径所在的归档文件
+     */
+    public static Path archiveOf(String entryPath) {
+        return Paths.get(entryPath.substring(0, entryPath.indexOf(ENTRY_SEPARATOR)));
+    }
+
+    /**
+     * 打开归档中的单个条目：zip 通过中央目录直接定位，tar 顺序扫描到该条目；关闭返回的流时一并关闭归档
+     */
+    public static InputStream openEntry(String entryPath) throws IOException {
+        int separator = entryPath.indexOf(ENTRY_SEPARATOR);
+        Path archive = Paths.get(entryPath.substring(0, separator));
+        String entryName = entryPath.substring(separator + ENTRY_SEPARATOR.length());
+        String type = archiveType(archive.getFileName().toString());
+        if (type == null) {
+            throw new IllegalArgumentException("不是归档文件: " + archive);
+        }
+        if ("zip".equals(type)) {
+            ZipFile zip = ZipFile.builder().setPath(archive).get();
+            try {
+                ZipArchiveEntry entry = findZipEntry(zip, entryName);
+                if (entry == null || !zip.canReadEntryData(entry)) {
+                    throw new FileNotFoundException("归档中找不到可读取的条目: " + entryPath);
+                }
+                return new ClosingInputStream(zip.getInputStream(entry), zip);
+            } catch (IOException | RuntimeException e) {
+                zip.close();
+                throw e;
+            }
+        }
+        ArchiveInputStream<? extends ArchiveEntry> in = open(Files.newInputStream(archive), type);
+        try {
+            ArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (!entry.isDirectory() && entryName.equals(normalizeEntryName(entry.getName()))) {
+                    // 归档流此时只读出当前条目的数据，关闭时一并关闭归档文件
+                    return in;
+                }
+            }
+            throw new FileNotFoundException("归档中找不到条目: " + entryPath);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static ZipArchiveEntry findZipEntry(ZipFile zip, String entryName) {
+        ZipArchiveEntry entry = zip.getEntry(entryName);
+        if (entry != null) {
+            return entry;
+        }
+        // 条目名在导入时做过规范化，与原始名称不同时逐个比对
+        var entries = zip.getEntries();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry candidate = entries.nextElement();
+            if (!candidate.isDirectory() && entryName.equals(normalizeEntryName(candidate.getName()))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static class ClosingInputStream extends FilterInputStream {
+
+        private final Closeable resource;
+
+        ClosingInputStream(InputStream in, Closeable resource) {
+            super(in);
+            this.resource = resource;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                resource.close();
+            }
+        }
+    }
+}
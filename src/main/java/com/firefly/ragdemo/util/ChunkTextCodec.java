@@ -0,0 +1,170 @@
+package com.firefly.ragdemo.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 分块正文编解码：超过阈值的正文用 Deflater（可带预训练的共享字典）压缩
+ * 压缩后的格式为 [0x00][0x01][zlib 数据]，未压缩的正文就是 UTF-8 原文（以 NUL 开头的正文总是压缩保存），据此区分新旧格式
+ * 使用字典时 zlib 数据头中带有字典的 Adler-32，解压时按它查找对应字典，字典重新训练后旧数据仍可读取
+ */
+public final class ChunkTextCodec {
+
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte MARKER = 0x00;
+    private static final byte FORMAT_DEFLATE = 0x01;
+    private static final int HEADER_SIZE = 2;
+    private static final int NGRAM_CHARS = 12;
+
+    private ChunkTextCodec() {
+    }
+
+    /**
+     * @param minBytes   UTF-8 长度小于该值时原样保存
+     * @param dictionary 共享字典，可为 null
+     */
+    public static byte[] encode(String text, int minBytes, int level, byte[] dictionary) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        // 极少见的以 NUL 开头的正文必须压缩保存，否则会与压缩格式混淆
+        boolean mustWrap = raw.length > 0 && raw[0] == MARKER;
+        if (raw.length < minBytes && !mustWrap) {
+            return raw;
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null && dictionary.length > 0) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+            out.write(MARKER);
+            out.write(FORMAT_DEFLATE);
+            byte[] buffer = new byte[Math.max(raw.length, 64)];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            byte[] compressed = out.toByteArray();
+            // 压缩无收益（如很短或已高度随机的文本）时保存原文，解压开销也一并省掉
+            return compressed.length < raw.length || mustWrap ? compressed : raw;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param dictionaries 按字典 Adler-32 查找字典，找不到时返回 null
+     */
+    public static String decode(byte[] stored, LongFunction<byte[]> dictionaries) {
+        if (stored == null) {
+            return null;
+        }
+        if (!isCompressed(stored)) {
+            return new String(stored, StandardCharsets.UTF_8);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, HEADER_SIZE, stored.length - HEADER_SIZE);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 3);
+            byte[] buffer = new byte[Math.max(stored.length * 2, 256)];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        // getAdler() 的返回值可能带符号扩展，按无符号 32 位取值
+                        long dictionaryId = inflater.getAdler() & 0xFFFFFFFFL;
+                        byte[] dictionary = dictionaries.apply(dictionaryId);
+                        if (dictionary == null) {
+                            throw new IllegalStateException("缺少压缩字典: " + Long.toHexString(dictionaryId));
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalStateException("压缩数据不完整");
+                    }
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("压缩数据损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public static boolean isCompressed(byte[] stored) {
+        return stored.length > HEADER_SIZE && stored[0] == MARKER && stored[1] == FORMAT_DEFLATE;
+    }
+
+    /**
+     * 字典标识，与 zlib 数据头中记录的 DICTID 一致
+     */
+    public static long dictionaryId(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return adler.getValue();
+    }
+
+    /**
+     * 从样本正文训练共享字典：统计在多个样本中重复出现的定长片段，按 出现次数 × 长度 选取，
+     * 最常用的片段放在字典末尾（Deflate 回溯距离越近，编码越短）
+     */
+    public static byte[] trainDictionary(List<String> samples, int maxSize) {
+        int limit = Math.min(Math.max(maxSize, 0), MAX_DICTIONARY_SIZE);
+        Map<String, Integer> counts = new HashMap<>();
+        for (String sample : samples) {
+            if (sample == null) {
+                continue;
+            }
+            // 每个样本内同一片段只计一次，字典要捕捉的是跨分块的公共内容
+            Map<String, Boolean> seen = new HashMap<>();
+            for (int i = 0; i + NGRAM_CHARS <= sample.length(); i += NGRAM_CHARS / 2) {
+                String gram = sample.substring(i, i + NGRAM_CHARS);
+                if (gram.isBlank() || seen.putIfAbsent(gram, Boolean.TRUE) != null) {
+                    continue;
+                }
+                counts.merge(gram, 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) {
+                ranked.add(entry);
+            }
+        }
+        ranked.sort((a, b) -> Long.compare(score(b), score(a)));
+
+        List<byte[]> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : ranked) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > limit) {
+                break;
+            }
+            selected.add(bytes);
+            size += bytes.length;
+        }
+        byte[] dictionary = new byte[size];
+        int position = size;
+        for (byte[] bytes : selected) {
+            position -= bytes.length;
+            System.arraycopy(bytes, 0, dictionary, position, bytes.length);
+        }
+        return dictionary;
+    }
+
+    private static long score(Map.Entry<String, Integer> entry) {
+        return (long) entry.getValue() * entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,105 @@
+package com.firefly.ragdemo.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 可索引文件类型、大小限制与文件头校验，单文件上传、分片上传、目录与归档导入共用同一套规则
+ */
+public final class FileTypeUtils {
+
+    public static final List<String> ALLOWED_EXTENSIONS = List.of("txt", "md", "pdf", "docx");
+
+    public static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
+
+    /**
+     * 类型嗅探读取的文件头长度，覆盖 tar 头部 257 字节处的 "ustar" 标记
+     */
+    public static final int SNIFF_LENGTH = 8192;
+
+    private static final byte[] PDF_MAGIC = {'%', 'P', 'D', 'F', '-'};
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 0x03, 0x04};
+    private static final byte[] ZIP_EMPTY_MAGIC = {'P', 'K', 0x05, 0x06};
+    private static final byte[] GZIP_MAGIC = {0x1f, (byte) 0x8b};
+    private static final byte[] TAR_MAGIC = {'u', 's', 't', 'a', 'r'};
+    private static final int TAR_MAGIC_OFFSET = 257;
+
+    private FileTypeUtils() {
+    }
+
+    /**
+     * 取文件扩展名（不含点），无扩展名时返回空串
+     */
+    public static String extensionOf(String filename) {
+        if (filename == null || filename.isEmpty()) {
+            return "";
+        }
+        int lastDotIndex = filename.lastIndexOf('.');
+        int lastSeparator = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\'));
+        if (lastDotIndex > lastSeparator + 1 && lastDotIndex < filename.length() - 1) {
+            return filename.substring(lastDotIndex + 1);
+        }
+        return "";
+    }
+
+    public static boolean isAllowedExtension(String extension) {
+        return extension != null && ALLOWED_EXTENSIONS.contains(extension.toLowerCase(Locale.ROOT));
+    }
+
+    public static boolean isAllowed(String filename, long size) {
+        return size > 0 && size <= MAX_FILE_SIZE && isAllowedExtension(extensionOf(filename));
+    }
+
+    /**
+     * 读取文件头用于类型嗅探，不读取其余内容
+     */
+    public static byte[] readHead(InputStream in) throws IOException {
+        return in.readNBytes(SNIFF_LENGTH);
+    }
+
+    /**
+     * 按文件头（magic bytes）校验内容与扩展名是否一致：
+     * pdf 以 "%PDF-" 开头，docx 与 zip 为 zip 容器，tar.gz 为 gzip，tar 在 257 字节处有 "ustar"，
+     * txt/md 为文本（不含 NUL 字节，UTF-16 BOM 开头的除外）
+     */
+    public static boolean matchesContent(String extension, byte[] head) {
+        if (extension == null || head == null) {
+            return false;
+        }
+        return switch (extension.toLowerCase(Locale.ROOT)) {
+            case "pdf" -> startsWith(head, 0, PDF_MAGIC);
+            case "docx", "zip" -> startsWith(head, 0, ZIP_MAGIC) || startsWith(head, 0, ZIP_EMPTY_MAGIC);
+            case "tar.gz", "tgz" -> startsWith(head, 0, GZIP_MAGIC);
+            case "tar" -> startsWith(head, TAR_MAGIC_OFFSET, TAR_MAGIC);
+            case "txt", "md" -> isText(head);
+            default -> false;
+        };
+    }
+
+    private static boolean isText(byte[] head) {
+        if (head.length >= 2 && ((head[0] == (byte) 0xff && head[1] == (byte) 0xfe)
+                || (head[0] == (byte) 0xfe && head[1] == (byte) 0xff))) {
+            return true;
+        }
+        for (byte b : head) {
+            if (b == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] head, int offset, byte[] magic) {
+        if (head.length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (head[offset + i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
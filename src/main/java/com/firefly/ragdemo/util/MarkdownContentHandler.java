@@ -0,0 +1,150 @@
+package com.firefly.ragdemo.util;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * 把 Tika 输出的 XHTML 事件流转换为 Markdown，保留标题、代码块、列表与表格结构，供结构感知分块器使用
+ */
+public class MarkdownContentHandler extends DefaultHandler {
+
+    private final StringBuilder out = new StringBuilder();
+    private int headDepth;
+    private int preDepth;
+    private int cellDepth;
+    private int listDepth;
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        String name = elementName(localName, qName);
+        switch (name) {
+            case "head" -> headDepth++;
+            case "h1", "h2", "h3", "h4", "h5", "h6" -> {
+                blankLine();
+                out.append("#".repeat(name.charAt(1) - '0')).append(' ');
+            }
+            case "p", "div" -> {
+                if (cellDepth == 0 && preDepth == 0) {
+                    blankLine();
+                } else if (cellDepth > 0) {
+                    space();
+                }
+            }
+            case "ul", "ol" -> {
+                if (listDepth == 0) {
+                    blankLine();
+                }
+                listDepth++;
+            }
+            case "li" -> {
+                newLine();
+                out.append("  ".repeat(Math.max(listDepth - 1, 0))).append("- ");
+            }
+            case "pre" -> {
+                blankLine();
+                out.append("```\n");
+                preDepth++;
+            }
+            case "table" -> blankLine();
+            case "tr" -> {
+                newLine();
+                out.append('|');
+            }
+            case "td", "th" -> {
+                out.append(' ');
+                cellDepth++;
+            }
+            case "br" -> {
+                if (cellDepth > 0) {
+                    space();
+                } else {
+                    out.append('\n');
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        String name = elementName(localName, qName);
+        switch (name) {
+            case "head" -> headDepth--;
+            case "h1", "h2", "h3", "h4", "h5", "h6", "p", "div" -> {
+                if (cellDepth == 0 && preDepth == 0) {
+                    out.append('\n');
+                }
+            }
+            case "ul", "ol" -> {
+                listDepth--;
+                if (listDepth == 0) {
+                    out.append('\n');
+                }
+            }
+            case "pre" -> {
+                preDepth--;
+                newLine();
+                out.append("```\n\n");
+            }
+            case "td", "th" -> {
+                cellDepth--;
+                out.append(" |");
+            }
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (headDepth > 0) {
+            return;
+        }
+        if (cellDepth > 0) {
+            // 单元格内容必须保持在一行，且不能包含列分隔符
+            for (int i = start; i < start + length; i++) {
+                char c = ch[i];
+                out.append(c == '\n' || c == '\r' || c == '|' ? ' ' : c);
+            }
+            return;
+        }
+        out.append(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        if (preDepth > 0) {
+            out.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private static String elementName(String localName, String qName) {
+        return localName != null && !localName.isEmpty() ? localName : qName;
+    }
+
+    private void newLine() {
+        if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+            out.append('\n');
+        }
+    }
+
+    private void blankLine() {
+        newLine();
+        int len = out.length();
+        if (len > 0 && (len < 2 || out.charAt(len - 2) != '\n')) {
+            out.append('\n');
+        }
+    }
+
+    private void space() {
+        if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+            out.append(' ');
+        }
+    }
+}
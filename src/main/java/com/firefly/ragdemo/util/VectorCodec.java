@@ -0,0 +1,136 @@
+package com.firefly.ragdemo.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 向量编解码：Redis 中以小端 float32 二进制保存（每维 4 字节），比 JSON 文本小约 3 倍且无需解析
+ */
+public final class VectorCodec {
+
+    private VectorCodec() {
+    }
+
+    public static float[] fromList(List<Double> values) {
+        float[] vector = new float[values.size()];
+        for (int i = 0; i < vector.length; i++) {
+            Double value = values.get(i);
+            vector[i] = value != null ? value.floatValue() : 0f;
+        }
+        return vector;
+    }
+
+    public static byte[] encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    /**
+     * 长度不是 4 的整数倍时视为损坏，返回空向量
+     */
+    public static float[] decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0 || bytes.length % Float.BYTES != 0) {
+            return new float[0];
+        }
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * 解析 JSON 数组形式的向量（旧版分块格式与 MySQL 中的 embedding 列）
+     */
+    public static float[] parseJson(String json) {
+        if (json == null) {
+            return new float[0];
+        }
+        String body = json.trim();
+        if (body.length() < 2 || body.charAt(0) != '[' || body.charAt(body.length() - 1) != ']') {
+            return new float[0];
+        }
+        body = body.substring(1, body.length() - 1).trim();
+        if (body.isEmpty()) {
+            return new float[0];
+        }
+        String[] parts = body.split(",");
+        float[] vector = new float[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                vector[i] = Float.parseFloat(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            return new float[0];
+        }
+        return vector;
+    }
+
+    public static String toJson(float[] vector) {
+        StringBuilder sb = new StringBuilder(vector.length * 12);
+        sb.append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(String.format(Locale.US, "%.8f", vector[i]));
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    /**
+     * 余弦相似度，维度不一致或存在零向量时返回 NaN
+     */
+    public static double cosine(float[] a, float[] b) {
+        if (a.length == 0 || b.length == 0 || a.length != b.length) {
+            return Double.NaN;
+        }
+        double dot = 0d;
+        double normA = 0d;
+        double normB = 0d;
+        for (int i = 0; i < a.length; i++) {
+            dot += (double) a[i] * b[i];
+            normA += (double) a[i] * a[i];
+            normB += (double) b[i] * b[i];
+        }
+        double denom = Math.sqrt(normA) * Math.sqrt(normB);
+        if (denom == 0d) {
+            return Double.NaN;
+        }
+        return dot / denom;
+    }
+
+    /**
+     * Matryoshka 截断：取前 dims 维并重新归一化为单位向量；向量不足 dims 维时归一化整个向量
+     * 零向量原样返回（截断后的点积为 0）
+     */
+    public static float[] truncate(float[] vector, int dims) {
+        int length = Math.min(vector.length, Math.max(dims, 0));
+        double norm = 0d;
+        for (int i = 0; i < length; i++) {
+            norm += (double) vector[i] * vector[i];
+        }
+        float[] prefix = new float[length];
+        double scale = norm > 0d ? 1d / Math.sqrt(norm) : 0d;
+        for (int i = 0; i < length; i++) {
+            prefix[i] = (float) (vector[i] * scale);
+        }
+        return prefix;
+    }
+
+    /**
+     * 点积：两个向量都已归一化（如 {@link #truncate} 的结果）时即为余弦相似度，省去求模；维度不一致时返回 NaN
+     */
+    public static double dot(float[] a, float[] b) {
+        if (a.length == 0 || a.length != b.length) {
+            return Double.NaN;
+        }
+        double dot = 0d;
+        for (int i = 0; i < a.length; i++) {
+            dot += (double) a[i] * b[i];
+        }
+        return dot;
+    }
+}
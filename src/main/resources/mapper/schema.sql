@@ -88,6 +88,8 @@ CREATE TABLE IF NOT EXISTS uploaded_files (
     upload_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     status VARCHAR(32) DEFAULT 'PROCESSING',
     kb_id VARCHAR(64),
+    content_hash CHAR(64),
+    index_lease_until DATETIME NULL,
     CONSTRAINT fk_uploaded_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
     CONSTRAINT fk_file_kb FOREIGN KEY (kb_id) REFERENCES knowledge_bases(id) ON DELETE CASCADE,
     CONSTRAINT chk_uploaded_status CHECK (status IN ('PROCESSING', 'COMPLETED', 'FAILED'))
@@ -118,6 +120,53 @@ PREPARE stmt_idx_upload_kb FROM @sql_idx_upload_kb;
 EXECUTE stmt_idx_upload_kb;
 DEALLOCATE PREPARE stmt_idx_upload_kb;
 
+-- 兼容旧版本：uploaded_files 补充 content_hash（内容寻址存储与去重）
+SET @col_content_hash := (
+    SELECT COUNT(*)
+    FROM information_schema.columns
+    WHERE table_schema = DATABASE()
+      AND table_name = 'uploaded_files'
+      AND column_name = 'content_hash'
+);
+SET @sql_add_content_hash := IF(
+    @col_content_hash = 0,
+    'ALTER TABLE uploaded_files ADD COLUMN content_hash CHAR(64) AFTER kb_id',
+    'SELECT 1'
+);
+PREPARE stmt_add_content_hash FROM @sql_add_content_hash;
+EXECUTE stmt_add_content_hash;
+DEALLOCATE PREPARE stmt_add_content_hash;
+
+SET @idx_upload_hash := (
+    SELECT COUNT(*) FROM information_schema.statistics
+    WHERE table_schema = DATABASE() AND table_name = 'uploaded_files' AND index_name = 'idx_uploaded_files_hash'
+);
+SET @sql_idx_upload_hash := IF(
+    @idx_upload_hash = 0,
+    'CREATE INDEX idx_uploaded_files_hash ON uploaded_files(content_hash)',
+    'SELECT 1'
+);
+PREPARE stmt_idx_upload_hash FROM @sql_idx_upload_hash;
+EXECUTE stmt_idx_upload_hash;
+DEALLOCATE PREPARE stmt_idx_upload_hash;
+
+-- 兼容旧版本：uploaded_files 补充 index_lease_until（索引任务租约，入队与处理心跳时续期，过期后才由启动扫描重新投递）
+SET @col_index_lease := (
+    SELECT COUNT(*)
+    FROM information_schema.columns
+    WHERE table_schema = DATABASE()
+      AND table_name = 'uploaded_files'
+      AND column_name = 'index_lease_until'
+);
+SET @sql_add_index_lease := IF(
+    @col_index_lease = 0,
+    'ALTER TABLE uploaded_files ADD COLUMN index_lease_until DATETIME NULL AFTER content_hash',
+    'SELECT 1'
+);
+PREPARE stmt_add_index_lease FROM @sql_add_index_lease;
+EXECUTE stmt_add_index_lease;
+DEALLOCATE PREPARE stmt_add_index_lease;
+
 CREATE TABLE IF NOT EXISTS document_chunks (
     id VARCHAR(64) PRIMARY KEY,
     user_id VARCHAR(64) NOT NULL,
@@ -125,7 +174,10 @@ CREATE TABLE IF NOT EXISTS document_chunks (
     kb_id VARCHAR(64),
     chunk_index INT NOT NULL,
     content TEXT,
-    embedding JSON,
+    heading_path VARCHAR(512),
+    embedding JSON COMMENT '旧版 JSON 向量，新数据写入 embedding_vec',
+    embedding_vec MEDIUMBLOB COMMENT '小端 float32 向量',
+    embedding_space VARCHAR(128) COMMENT '向量所属的向量空间（模型名[@版本]）',
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     CONSTRAINT fk_chunk_file FOREIGN KEY (file_id) REFERENCES uploaded_files (id) ON DELETE CASCADE,
     CONSTRAINT fk_chunk_user FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE,
@@ -178,6 +230,8 @@ CREATE TABLE IF NOT EXISTS chat_sessions (
     first_message TEXT,
     model VARCHAR(100),
     message_count INT DEFAULT 0,
+    summary TEXT COMMENT '滚动摘要：seq <= summary_seq 的消息折叠后的内容',
+    summary_seq INT NOT NULL DEFAULT 0 COMMENT '摘要已覆盖到的消息序号',
     last_message_at TIMESTAMP NULL,
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
@@ -251,6 +305,93 @@ PREPARE stmt_idx_files_kb FROM @sql_idx_files_kb;
 EXECUTE stmt_idx_files_kb;
 DEALLOCATE PREPARE stmt_idx_files_kb;
 
+-- 事件发件箱：业务线程只写表，由 OutboxRelay 异步投递到 RabbitMQ 并等待发布确认
+CREATE TABLE IF NOT EXISTS event_outbox (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    exchange VARCHAR(255) NOT NULL,
+    routing_key VARCHAR(255) NOT NULL,
+    payload_type VARCHAR(255) NOT NULL,
+    payload MEDIUMTEXT NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    claimed_by VARCHAR(64),
+    claimed_until TIMESTAMP NULL,
+    published_at TIMESTAMP NULL,
+    last_error VARCHAR(512),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    INDEX idx_outbox_pending (published_at, next_attempt_at),
+    INDEX idx_outbox_claimed (claimed_by),
+    INDEX idx_outbox_created (created_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+-- 兼容旧版本：document_chunks 补充 heading_path（结构化分块的标题路径）
+SET @col_heading_path := (
+    SELECT COUNT(*)
+    FROM information_schema.columns
+    WHERE table_schema = DATABASE()
+      AND table_name = 'document_chunks'
+      AND column_name = 'heading_path'
+);
+SET @sql_add_heading_path := IF(
+    @col_heading_path = 0,
+    'ALTER TABLE document_chunks ADD COLUMN heading_path VARCHAR(512) AFTER content',
+    'SELECT 1'
+);
+PREPARE stmt_add_heading_path FROM @sql_add_heading_path;
+EXECUTE stmt_add_heading_path;
+DEALLOCATE PREPARE stmt_add_heading_path;
+
+-- 兼容旧版本：document_chunks 补充 embedding_vec（二进制向量，替代 JSON 列）
+SET @col_embedding_vec := (
+    SELECT COUNT(*)
+    FROM information_schema.columns
+    WHERE table_schema = DATABASE()
+      AND table_name = 'document_chunks'
+      AND column_name = 'embedding_vec'
+);
+SET @sql_add_embedding_vec := IF(
+    @col_embedding_vec = 0,
+    'ALTER TABLE document_chunks ADD COLUMN embedding_vec MEDIUMBLOB AFTER embedding',
+    'SELECT 1'
+);
+PREPARE stmt_add_embedding_vec FROM @sql_add_embedding_vec;
+EXECUTE stmt_add_embedding_vec;
+DEALLOCATE PREPARE stmt_add_embedding_vec;
+
+-- 兼容旧版本：document_chunks 补充 embedding_space（向量所属的模型/版本）
+SET @col_embedding_space := (
+    SELECT COUNT(*)
+    FROM information_schema.columns
+    WHERE table_schema = DATABASE()
+      AND table_name = 'document_chunks'
+      AND column_name = 'embedding_space'
+);
+SET @sql_add_embedding_space := IF(
+    @col_embedding_space = 0,
+    'ALTER TABLE document_chunks ADD COLUMN embedding_space VARCHAR(128) AFTER embedding_vec',
+    'SELECT 1'
+);
+PREPARE stmt_add_embedding_space FROM @sql_add_embedding_space;
+EXECUTE stmt_add_embedding_space;
+DEALLOCATE PREPARE stmt_add_embedding_space;
+
+-- 兼容旧版本：chat_sessions 补充滚动摘要 summary / summary_seq
+SET @col_session_summary := (
+    SELECT COUNT(*)
+    FROM information_schema.columns
+    WHERE table_schema = DATABASE()
+      AND table_name = 'chat_sessions'
+      AND column_name = 'summary_seq'
+);
+SET @sql_add_session_summary := IF(
+    @col_session_summary = 0,
+    'ALTER TABLE chat_sessions ADD COLUMN summary TEXT AFTER message_count, ADD COLUMN summary_seq INT NOT NULL DEFAULT 0 AFTER summary',
+    'SELECT 1'
+);
+PREPARE stmt_add_session_summary FROM @sql_add_session_summary;
+EXECUTE stmt_add_session_summary;
+DEALLOCATE PREPARE stmt_add_session_summary;
+
 -- 默认数据：创建公共知识库
 INSERT IGNORE INTO knowledge_bases (id, name, description, type, owner_id, is_active)
 VALUES (
@@ -0,0 +1,116 @@
+package com.firefly.ragdemo.ai;
+
+import com.firefly.ragdemo.config.AdmissionProperties;
+import com.firefly.ragdemo.exception.AdmissionRejectedException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LlmAdmissionControllerTest {
+
+    private AdmissionProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new AdmissionProperties();
+        properties.setInitialLimit(2);
+        properties.setMinLimit(1);
+        properties.setMaxLimit(8);
+        properties.setPerUserLimit(1);
+        properties.setPerUserQueue(2);
+        properties.setMaxQueue(10);
+    }
+
+    @Test
+    void perUserLimitQueuesSecondRequestAndRejectsWhenUserQueueIsFull() {
+        LlmAdmissionController controller = new LlmAdmissionController(properties);
+
+        CompletableFuture<LlmAdmissionController.Permit> first = controller.acquire("alice", null);
+        List<Integer> positions = new ArrayList<>();
+        CompletableFuture<LlmAdmissionController.Permit> second = controller.acquire("alice", positions::add);
+        controller.acquire("alice", null);
+
+        assertThat(first).isCompleted();
+        assertThat(second).isNotDone();
+        assertThat(positions).containsExactly(1);
+        assertThatThrownBy(() -> controller.acquire("alice", null))
+                .isInstanceOf(AdmissionRejectedException.class);
+
+        first.join().release();
+        assertThat(second).isCompleted();
+    }
+
+    @Test
+    void queuedRequestsAreAdmittedRoundRobinAcrossUsers() {
+        properties.setInitialLimit(1);
+        properties.setMaxLimit(1);
+        properties.setPerUserLimit(1);
+        properties.setPerUserQueue(3);
+        LlmAdmissionController controller = new LlmAdmissionController(properties);
+
+        LlmAdmissionController.Permit running = controller.acquire("carol", null).join();
+        CompletableFuture<LlmAdmissionController.Permit> a1 = controller.acquire("alice", null);
+        CompletableFuture<LlmAdmissionController.Permit> a2 = controller.acquire("alice", null);
+        CompletableFuture<LlmAdmissionController.Permit> b1 = controller.acquire("bob", null);
+
+        running.release();
+        assertThat(a1).isCompleted();
+        assertThat(b1).isNotDone();
+
+        a1.join().release();
+        assertThat(b1).isCompleted();
+        assertThat(a2).isNotDone();
+    }
+
+    @Test
+    void slowSyncCallDoesNotShrinkLimitButSlowFirstTokenDoes() throws Exception {
+        properties.setInitialLimit(4);
+        properties.setLatencyThresholdMs(10);
+        properties.setBackoffRatio(0.5);
+        LlmAdmissionController controller = new LlmAdmissionController(properties);
+
+        LlmAdmissionController.Permit sync = controller.acquire("alice", null).join();
+        Thread.sleep(30);
+        sync.release();
+        assertThat(controller.limit()).isEqualTo(4);
+
+        LlmAdmissionController.Permit stream = controller.acquire("alice", null).join();
+        Thread.sleep(30);
+        stream.firstToken();
+        stream.release();
+        assertThat(controller.limit()).isEqualTo(2);
+    }
+
+    @Test
+    void overloadErrorShrinksLimitAndCancelledWaiterLeavesQueue() {
+        properties.setInitialLimit(4);
+        properties.setPerUserLimit(4);
+        properties.setBackoffRatio(0.5);
+        LlmAdmissionController controller = new LlmAdmissionController(properties);
+
+        LlmAdmissionController.Permit permit = controller.acquire("alice", null).join();
+        permit.release(new RuntimeException("wrapped",
+                HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", null, null, null)));
+        assertThat(controller.limit()).isEqualTo(2);
+
+        controller.acquire("alice", null).join();
+        controller.acquire("bob", null).join();
+        CompletableFuture<LlmAdmissionController.Permit> waiting = controller.acquire("carol", null);
+        assertThat(waiting).isNotDone();
+        waiting.cancel(false);
+
+        List<Integer> positions = new ArrayList<>();
+        CompletableFuture<LlmAdmissionController.Permit> next = controller.acquire("dave", positions::add);
+        assertThat(next).isNotDone();
+        assertThat(positions).containsExactly(1);
+        assertThat(controller.retryAfterSeconds()).isPositive();
+    }
+}
@@ -0,0 +1,72 @@
+package com.firefly.ragdemo.ai;
+
+import com.firefly.ragdemo.config.PromptProperties;
+import com.firefly.ragdemo.dto.ChatRequest;
+import com.firefly.ragdemo.service.impl.EstimatingTokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptBudgeterTest {
+
+    private final PromptBudgeter budgeter = new PromptBudgeter(new EstimatingTokenizer(), properties());
+
+    @Test
+    void shouldKeepEverythingWhenWithinBudget() {
+        List<ChatRequest.ChatMessage> history = List.of(message("user", "什么是虚函数？"),
+                message("assistant", "虚函数支持运行时多态。"), message("user", "那纯虚函数呢？"));
+
+        PromptBudgeter.BudgetedPrompt prompt = budgeter.budget(4096, null, null, List.of("片段A", "片段B"), history);
+
+        assertThat(prompt.messages()).hasSize(5);
+        assertThat(prompt.messages().get(1).content()).contains("# 片段2\n片段B");
+        assertThat(prompt.promptTokens()).isEqualTo(budgeter.count(prompt.messages()));
+    }
+
+    @Test
+    void shouldTruncateLowScoredSnippetsAndDropOldestHistoryFirst() {
+        List<ChatRequest.ChatMessage> history = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            history.add(message(i % 2 == 0 ? "user" : "assistant", "第" + i + "条" + "进程调度".repeat(30)));
+        }
+        history.add(message("user", "最后的问题"));
+        String snippet = "页表".repeat(200);
+        int contextWindow = 1024 + 2000;
+
+        PromptBudgeter.BudgetedPrompt prompt = budgeter.budget(contextWindow, null, null, List.of(snippet, snippet, snippet), history);
+
+        assertThat(prompt.promptTokens()).isLessThanOrEqualTo(contextWindow - 1024);
+        List<PromptMessage> messages = prompt.messages();
+        assertThat(messages.get(messages.size() - 1).content()).isEqualTo("最后的问题");
+        String context = messages.get(1).content();
+        assertThat(context).contains("# 片段1\n" + snippet).doesNotContain("# 片段3");
+        // 保留的历史是最近的连续若干条
+        assertThat(messages.get(messages.size() - 2).content()).startsWith("第9条");
+        assertThat(messages.size() - 3).isLessThan(10);
+    }
+
+    @Test
+    void shouldTruncateOversizedLatestMessage() {
+        PromptBudgeter.BudgetedPrompt prompt = budgeter.budget(1024 + 600, null, null, List.of("片段"),
+                List.of(message("user", "栈".repeat(2000))));
+
+        assertThat(prompt.promptTokens()).isLessThanOrEqualTo(600);
+        assertThat(prompt.messages().get(prompt.messages().size() - 1).content()).startsWith("栈").hasSizeLessThan(600);
+    }
+
+    private static PromptProperties properties() {
+        PromptProperties properties = new PromptProperties();
+        properties.setCompletionReserveTokens(1024);
+        return properties;
+    }
+
+    private static ChatRequest.ChatMessage message(String role, String content) {
+        ChatRequest.ChatMessage message = new ChatRequest.ChatMessage();
+        message.setRole(role);
+        message.setContent(content);
+        return message;
+    }
+}
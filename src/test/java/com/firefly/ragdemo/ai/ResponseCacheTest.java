@@ -0,0 +1,131 @@
+package com.firefly.ragdemo.ai;
+
+import com.firefly.ragdemo.config.LlmCacheProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ResponseCacheTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private AIModel model;
+
+    private ResponseCache cache;
+    private AIHelper helper;
+
+    private final List<PromptMessage> messages = List.of(PromptMessage.system("sys"), PromptMessage.user("什么是RAII？"));
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(model.getModelName()).thenReturn("gpt");
+        lenient().when(model.getTemperature()).thenReturn(0.7);
+        cache = new ResponseCache(stringRedisTemplate, new LlmCacheProperties());
+        helper = new AIHelper("u1", "s1", model);
+    }
+
+    @Test
+    void concurrentIdenticalStreamsShouldShareOneUpstreamAndStoreTheResult() {
+        Sinks.Many<String> sink = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger subscriptions = new AtomicInteger();
+        when(model.stream(anyList())).thenReturn(Flux.defer(() -> {
+            subscriptions.incrementAndGet();
+            return sink.asFlux();
+        }));
+
+        List<String> first = new CopyOnWriteArrayList<>();
+        List<String> second = new CopyOnWriteArrayList<>();
+        AtomicInteger ownerTokens = new AtomicInteger();
+        AtomicInteger joinerTokens = new AtomicInteger();
+        cache.stream(helper, messages, ownerTokens::incrementAndGet).subscribe(first::add);
+        sink.tryEmitNext("RAII ");
+        cache.stream(helper, messages, joinerTokens::incrementAndGet).subscribe(second::add);
+        sink.tryEmitNext("是资源获取即初始化");
+        sink.tryEmitComplete();
+
+        assertThat(subscriptions).hasValue(1);
+        // 只有发起调用的请求采集首 token 延迟，加入的请求不计入
+        assertThat(ownerTokens).hasValue(2);
+        assertThat(joinerTokens).hasValue(0);
+        assertThat(String.join("", first)).isEqualTo("RAII 是资源获取即初始化");
+        assertThat(String.join("", second)).isEqualTo("RAII 是资源获取即初始化");
+        verify(valueOperations).set(anyString(), eq("RAII 是资源获取即初始化"), any(Duration.class));
+    }
+
+    @Test
+    void upstreamShouldBeCancelledOnceEverySubscriberCancels() {
+        Sinks.Many<String> sink = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger cancellations = new AtomicInteger();
+        when(model.stream(anyList())).thenReturn(sink.asFlux().doOnCancel(cancellations::incrementAndGet));
+
+        Disposable first = cache.stream(helper, messages, () -> { }).subscribe();
+        Disposable second = cache.stream(helper, messages, () -> { }).subscribe();
+        sink.tryEmitNext("RAII ");
+
+        first.dispose();
+        assertThat(cancellations).hasValue(0);
+        second.dispose();
+        assertThat(cancellations).hasValue(1);
+        verify(valueOperations, never()).set(anyString(), anyString(), any(Duration.class));
+    }
+
+    @Test
+    void cachedStreamShouldNotReportUpstreamTokens() {
+        String key = "rag:llm:cache:" + ResponseCache.key("gpt", 0.7, messages);
+        when(valueOperations.get(key)).thenReturn("缓存的回答");
+        AtomicInteger tokens = new AtomicInteger();
+
+        assertThat(cache.stream(helper, messages, tokens::incrementAndGet).collectList().block())
+                .containsExactly("缓存的回答");
+        assertThat(tokens).hasValue(0);
+        verify(model, never()).stream(anyList());
+    }
+
+    @Test
+    void cachedAnswerShouldBeReturnedWithoutCallingTheModel() {
+        String key = "rag:llm:cache:" + ResponseCache.key("gpt", 0.7, messages);
+        when(valueOperations.get(key)).thenReturn("缓存的回答");
+
+        assertThat(cache.call(helper, messages)).isEqualTo("缓存的回答");
+        verify(model, never()).call(anyList());
+    }
+
+    @Test
+    void keyShouldDependOnRolesAndSettings() {
+        String base = ResponseCache.key("gpt", 0.7, messages);
+
+        assertThat(ResponseCache.key("gpt", 0.2, messages)).isNotEqualTo(base);
+        assertThat(ResponseCache.key("gpt", 0.7, List.of(PromptMessage.user("sys"), PromptMessage.user("什么是RAII？"))))
+                .isNotEqualTo(base);
+        assertThat(ResponseCache.key("gpt", 0.7, List.copyOf(messages))).isEqualTo(base);
+    }
+}
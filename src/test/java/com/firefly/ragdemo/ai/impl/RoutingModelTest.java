@@ -0,0 +1,137 @@
+package com.firefly.ragdemo.ai.impl;
+
+import com.firefly.ragdemo.ai.AIModel;
+import com.firefly.ragdemo.ai.PromptMessage;
+import com.firefly.ragdemo.config.LlmRouterProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RoutingModelTest {
+
+    private static final List<PromptMessage> MESSAGES = List.of(PromptMessage.user("什么是虚函数？"));
+
+    @Mock
+    private AIModel primary;
+
+    @Mock
+    private AIModel secondary;
+
+    private LlmRouterProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new LlmRouterProperties();
+        properties.setHedgeDelayMs(0);
+        lenient().when(primary.getModelName()).thenReturn("primary");
+        lenient().when(secondary.getModelName()).thenReturn("secondary");
+    }
+
+    @Test
+    void callFailsOverToNextBackend() {
+        when(primary.call(anyList())).thenThrow(new RuntimeException("503"));
+        when(secondary.call(anyList())).thenReturn("答案");
+
+        assertThat(router(1).call(MESSAGES)).isEqualTo("答案");
+    }
+
+    @Test
+    void slowCallIsHedgedOnAnotherBackend() {
+        properties.setHedgeDelayMs(50);
+        when(primary.call(anyList())).thenAnswer(invocation -> {
+            Thread.sleep(2000);
+            return "慢";
+        });
+        when(secondary.call(anyList())).thenReturn("快");
+
+        long startedAt = System.currentTimeMillis();
+        assertThat(router(1).call(MESSAGES)).isEqualTo("快");
+        assertThat(System.currentTimeMillis() - startedAt).isLessThan(1500);
+    }
+
+    @Test
+    void hedgeLoserIsCancelledAndInterrupted() throws Exception {
+        properties.setHedgeDelayMs(50);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(primary.call(anyList())).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return "慢";
+        });
+        when(secondary.call(anyList())).thenReturn("快");
+
+        assertThat(router(1).call(MESSAGES)).isEqualTo("快");
+        assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void hedgeDelayFollowsObservedLatencyInsteadOfFixedDefault() throws Exception {
+        properties.setHedgeDelayMs(10000);
+        AtomicInteger primaryCalls = new AtomicInteger();
+        when(primary.call(anyList())).thenAnswer(invocation -> {
+            Thread.sleep(primaryCalls.incrementAndGet() > 3 ? 5000 : 100);
+            return "主";
+        });
+        when(secondary.call(anyList())).thenAnswer(invocation -> {
+            Thread.sleep(1000);
+            return "备";
+        });
+        RoutingModel router = router(1);
+        // 未采样的后端优先试用：依次为 primary、secondary，之后 primary 延迟更低一直被选中
+        for (int i = 0; i < 4; i++) {
+            router.call(MESSAGES);
+        }
+        assertThat(primaryCalls).hasValue(3);
+
+        long startedAt = System.currentTimeMillis();
+        assertThat(router.call(MESSAGES)).isEqualTo("备");
+        assertThat(System.currentTimeMillis() - startedAt).isLessThan(3000);
+    }
+
+    @Test
+    void streamFailsOverOnlyBeforeFirstToken() {
+        when(primary.stream(anyList())).thenReturn(Flux.error(new RuntimeException("429 Too Many Requests")));
+        when(secondary.stream(anyList())).thenReturn(Flux.just("虚", "函数"));
+        assertThat(router(1).stream(MESSAGES).collectList().block()).containsExactly("虚", "函数");
+
+        when(primary.stream(anyList())).thenReturn(Flux.concat(Flux.just("虚"), Flux.error(new RuntimeException("reset"))));
+        RoutingModel fresh = router(1);
+        assertThatThrownBy(() -> fresh.stream(MESSAGES).collectList().block()).hasMessageContaining("reset");
+    }
+
+    @Test
+    void saturatedBackendIsSkipped() {
+        when(primary.stream(anyList())).thenReturn(Flux.never());
+        when(secondary.stream(anyList())).thenReturn(Flux.just("答案"));
+        RoutingModel router = router(1);
+
+        Disposable pending = router.stream(MESSAGES).subscribe();
+        assertThat(router.stream(MESSAGES).collectList().block()).containsExactly("答案");
+        pending.dispose();
+    }
+
+    private RoutingModel router(int maxConcurrency) {
+        return new RoutingModel(List.of(new RoutingModel.Route(primary, maxConcurrency),
+                new RoutingModel.Route(secondary, maxConcurrency)), properties);
+    }
+}
@@ -0,0 +1,176 @@
+package com.firefly.ragdemo.messaging;
+
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IndexJobListenerTest {
+
+    @Mock
+    private UploadedFileMapper uploadedFileMapper;
+
+    @Mock
+    private IndexingScheduler indexingScheduler;
+
+    @Mock
+    private IndexJobProducer indexJobProducer;
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    private IndexJobListener listener;
+
+    private final RecordingDelivery delivery = new RecordingDelivery();
+
+    @BeforeEach
+    void setUp() {
+        listener = new IndexJobListener(uploadedFileMapper, indexingScheduler, indexJobProducer,
+                new IndexJobMessagingProperties(), stringRedisTemplate);
+        lenient().when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+    }
+
+    @Test
+    void completedFileShouldBeSkipped() {
+        when(uploadedFileMapper.findById("f1")).thenReturn(Optional.of(file(UploadedFile.FileStatus.COMPLETED)));
+
+        listener.handle(payload(0), delivery);
+
+        verify(indexingScheduler, never()).submit(anyString(), anyString(), any());
+        assertThat(delivery.acks).isEqualTo(1);
+    }
+
+    @Test
+    void fileLockedByAnotherNodeShouldBeSkipped() {
+        when(uploadedFileMapper.findById("f1")).thenReturn(Optional.of(file(UploadedFile.FileStatus.PROCESSING)));
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+
+        listener.handle(payload(0), delivery);
+
+        verify(indexingScheduler, never()).submit(anyString(), anyString(), any());
+        verify(uploadedFileMapper, never()).renewIndexLease(anyString(), any());
+    }
+
+    @Test
+    void failedIndexingShouldGoToNextRetryTierAndRenewLease() {
+        when(uploadedFileMapper.findById("f1"))
+                .thenReturn(Optional.of(file(UploadedFile.FileStatus.PROCESSING)))
+                .thenReturn(Optional.of(file(UploadedFile.FileStatus.FAILED)));
+        when(indexingScheduler.submit("f1", "u1", IndexingScheduler.Lane.BULK))
+                .thenReturn(new IndexingScheduler.Submission(true, 1, CompletableFuture.completedFuture(null)));
+        IndexJobPayload payload = payload(1);
+
+        listener.handle(payload, delivery);
+
+        verify(uploadedFileMapper).renewIndexLease(eq("f1"), any());
+        verify(indexJobProducer).publishRetry(payload, 1);
+        assertThat(payload.getAttempt()).isEqualTo(2);
+        assertThat(delivery.acks).isEqualTo(1);
+    }
+
+    @Test
+    void messageIsAcknowledgedOnlyWhenSchedulerFinishes() {
+        when(uploadedFileMapper.findById("f1"))
+                .thenReturn(Optional.of(file(UploadedFile.FileStatus.PROCESSING)))
+                .thenReturn(Optional.of(file(UploadedFile.FileStatus.COMPLETED)));
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        when(indexingScheduler.submit("f1", "u1", IndexingScheduler.Lane.BULK))
+                .thenReturn(new IndexingScheduler.Submission(true, 7, completion));
+
+        listener.handle(payload(0), delivery);
+        assertThat(delivery.acks).isZero();
+
+        listener.heartbeat();
+        verify(uploadedFileMapper, times(2)).renewIndexLease(eq("f1"), any());
+
+        completion.complete(null);
+        assertThat(delivery.acks).isEqualTo(1);
+        verify(indexJobProducer, never()).publishRetry(any(), anyInt());
+    }
+
+    @Test
+    void exhaustedRetriesShouldGoToDeadLetterQueue() {
+        when(uploadedFileMapper.findById("f1"))
+                .thenReturn(Optional.of(file(UploadedFile.FileStatus.PROCESSING)))
+                .thenReturn(Optional.of(file(UploadedFile.FileStatus.FAILED)));
+        when(indexingScheduler.submit("f1", "u1", IndexingScheduler.Lane.BULK))
+                .thenReturn(new IndexingScheduler.Submission(true, 1,
+                        CompletableFuture.failedFuture(new IllegalStateException("embedding down"))));
+        IndexJobPayload payload = payload(3);
+
+        listener.handle(payload, delivery);
+
+        verify(indexJobProducer).publishDeadLetter(payload);
+        verify(indexJobProducer, never()).publishRetry(any(), eq(3));
+    }
+
+    @Test
+    void rejectedSubmissionShouldBeRetriedLaterWithoutUsingARetryTier() {
+        when(uploadedFileMapper.findById("f1")).thenReturn(Optional.of(file(UploadedFile.FileStatus.PROCESSING)));
+        when(indexingScheduler.submit("f1", "u1", IndexingScheduler.Lane.BULK))
+                .thenReturn(IndexingScheduler.Submission.rejected("队列已满"));
+        IndexJobPayload payload = payload(2);
+
+        listener.handle(payload, delivery);
+
+        verify(indexJobProducer).publishRetry(payload, 0);
+        assertThat(payload.getAttempt()).isEqualTo(2);
+        assertThat(delivery.acks).isEqualTo(1);
+    }
+
+    private IndexJobPayload payload(int attempt) {
+        return IndexJobPayload.builder()
+                .fileId("f1")
+                .userId("u1")
+                .kbId("kb1")
+                .lane(IndexingScheduler.Lane.BULK.name())
+                .attempt(attempt)
+                .build();
+    }
+
+    private static class RecordingDelivery implements IndexJobListener.Delivery {
+
+        private int acks;
+        private int requeues;
+
+        @Override
+        public void ack() {
+            acks++;
+        }
+
+        @Override
+        public void requeue() {
+            requeues++;
+        }
+    }
+
+    private UploadedFile file(UploadedFile.FileStatus status) {
+        return UploadedFile.builder().id("f1").userId("u1").kbId("kb1").status(status).build();
+    }
+}
@@ -0,0 +1,55 @@
+package com.firefly.ragdemo.messaging;
+
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IndexJobRecoverySweeperTest {
+
+    @Mock
+    private UploadedFileMapper uploadedFileMapper;
+
+    @Mock
+    private IndexJobProducer indexJobProducer;
+
+    @Test
+    void onlyExpiredLeasesClaimedByThisNodeShouldBeRepublished() {
+        IndexJobMessagingProperties properties = new IndexJobMessagingProperties();
+        properties.setSweepBatchSize(2);
+        when(uploadedFileMapper.findExpiredIndexLeases(any(), any(), eq(""), anyInt()))
+                .thenReturn(List.of(file("a"), file("b")));
+        when(uploadedFileMapper.findExpiredIndexLeases(any(), any(), eq("b"), anyInt()))
+                .thenReturn(List.of(file("c")));
+        when(uploadedFileMapper.findExpiredIndexLeases(any(), any(), eq("c"), anyInt()))
+                .thenReturn(List.of());
+        when(uploadedFileMapper.claimExpiredIndexLease(anyString(), any(), any())).thenReturn(1);
+        // b 已被同时启动的其他节点占有
+        when(uploadedFileMapper.claimExpiredIndexLease(eq("b"), any(), any())).thenReturn(0);
+
+        new IndexJobRecoverySweeper(uploadedFileMapper, indexJobProducer, properties).requeueStaleFiles();
+
+        verify(indexJobProducer).publish("a", "u1", "kb1", IndexingScheduler.Lane.BULK);
+        verify(indexJobProducer).publish("c", "u1", "kb1", IndexingScheduler.Lane.BULK);
+        verify(indexJobProducer, never()).publish(eq("b"), anyString(), anyString(), any());
+    }
+
+    private UploadedFile file(String id) {
+        return UploadedFile.builder().id(id).userId("u1").kbId("kb1")
+                .status(UploadedFile.FileStatus.PROCESSING).build();
+    }
+}
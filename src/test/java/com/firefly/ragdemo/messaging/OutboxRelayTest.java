@@ -0,0 +1,93 @@
+package com.firefly.ragdemo.messaging;
+
+import com.firefly.ragdemo.entity.OutboxEvent;
+import com.firefly.ragdemo.mapper.OutboxEventMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxRelayTest {
+
+    @Mock
+    private OutboxEventMapper outboxEventMapper;
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    @Mock
+    private ConnectionFactory connectionFactory;
+
+    private OutboxRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        OutboxProperties properties = new OutboxProperties();
+        properties.setConfirmTimeoutMs(200);
+        relay = new OutboxRelay(outboxEventMapper, rabbitTemplate, properties);
+        when(rabbitTemplate.getConnectionFactory()).thenReturn(connectionFactory);
+        when(connectionFactory.isPublisherConfirms()).thenReturn(true);
+    }
+
+    @Test
+    void onlyConfirmedEventsShouldBeMarkedPublishedAndTheRestRescheduled() {
+        List<OutboxEvent> events = List.of(event(1L, 0), event(2L, 0), event(3L, 3));
+        when(outboxEventMapper.claimBatch(anyString(), anyInt(), anyInt())).thenReturn(events.size());
+        when(outboxEventMapper.findClaimed(anyString())).thenReturn(events);
+        doAnswer(invocation -> {
+            CorrelationData correlation = invocation.getArgument(3);
+            // 1 被确认，2 被拒绝，3 迟迟得不到确认
+            if ("1".equals(correlation.getId())) {
+                correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+            } else if ("2".equals(correlation.getId())) {
+                correlation.getFuture().complete(new CorrelationData.Confirm(false, "queue full"));
+            }
+            return null;
+        }).when(rabbitTemplate).send(eq("kb.chunk.sync.exchange"), eq("kb.chunk.sync.routing"), any(Message.class),
+                any(CorrelationData.class));
+
+        assertThat(relay.relayBatch()).isEqualTo(3);
+
+        verify(outboxEventMapper).markPublished(List.of(1L));
+        verify(outboxEventMapper).markFailed(eq(2L), contains("queue full"), eq(1L));
+        // 第 4 次尝试退避 2^3 秒
+        verify(outboxEventMapper).markFailed(eq(3L), eq("confirm timeout"), eq(8L));
+        ArgumentCaptor<Message> message = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitTemplate, times(3)).send(anyString(), anyString(), message.capture(),
+                any(CorrelationData.class));
+        assertThat(message.getAllValues().get(0).getMessageProperties().getHeaders())
+                .containsEntry("__TypeId__", DocumentChunkSyncPayload.class.getName());
+        assertThat(message.getAllValues().get(0).getMessageProperties().getMessageId()).isEqualTo("outbox-1");
+    }
+
+    private static OutboxEvent event(Long id, int attempts) {
+        return OutboxEvent.builder()
+                .id(id)
+                .exchange("kb.chunk.sync.exchange")
+                .routingKey("kb.chunk.sync.routing")
+                .payloadType(DocumentChunkSyncPayload.class.getName())
+                .payload("{\"fileId\":\"file-" + id + "\"}")
+                .attempts(attempts)
+                .build();
+    }
+}
@@ -0,0 +1,385 @@
+package com.firefly.ragdemo.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.firefly.ragdemo.config.ChunkStoreProperties;
+import com.firefly.ragdemo.config.RetrievalProperties;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用内存中的键空间模拟 Redis 的 Hash / 字符串 / 集合命令，验证分块的 Hash 布局、旧版字符串分块的读取回退与迁移、
+ * 分页清理与墓碑；清理脚本按其注释约定的 KEYS / ARGV / 返回值在内存中模拟（测试环境没有 Redis 执行 Lua）
+ */
+class RedisDocumentChunkRepositoryTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    // 值为 byte[]（字符串）或 Map<String, byte[]>（Hash）
+    private final Map<String, Object> keyspace = new HashMap<>();
+
+    private RedisDocumentChunkRepository repository;
+    private int purgePages;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        // 不指定序列化器时模板把结果中的 byte[] 反序列化为字符串
+        when(template.executePipelined(any(RedisCallback.class)))
+                .thenAnswer(invocation -> pipeline(invocation.getArgument(0)).stream().map(this::deserialize).toList());
+        when(template.executePipelined(any(RedisCallback.class), any()))
+                .thenAnswer(invocation -> pipeline(invocation.getArgument(0)));
+        ValueOperations<String, String> values = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(values);
+        when(values.multiGet(anyList())).thenAnswer(invocation -> {
+            List<String> result = new ArrayList<>();
+            for (String key : (List<String>) invocation.getArgument(0)) {
+                result.add(keyspace.get(key) instanceof byte[] value ? new String(value, StandardCharsets.UTF_8) : null);
+            }
+            return result;
+        });
+        doAnswer(invocation -> keyspace.put(invocation.getArgument(1), keyspace.remove(invocation.getArgument(0, String.class))))
+                .when(template).rename(anyString(), anyString());
+        when(template.scan(any())).thenAnswer(invocation -> cursor(keyspace.keySet().stream()
+                .filter(key -> key.startsWith("rag:chunk:")).toList().iterator()));
+        when(template.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenAnswer(invocation -> {
+            Object[] raw = invocation.getRawArguments();
+            String script = ((RedisScript<?>) raw[0]).getScriptAsString();
+            List<String> keys = (List<String>) raw[1];
+            Object[] argv = (Object[]) raw[2];
+            return script.contains("SSCAN")
+                    ? purgeFilePage(keys, argv) : purgeKbPage(keys, argv);
+        });
+        HashOperations<String, Object, Object> hashes = mock(HashOperations.class);
+        when(template.opsForHash()).thenReturn(hashes);
+        doAnswer(invocation -> ((Map<String, byte[]>) keyspace.computeIfAbsent(invocation.getArgument(0), k -> new HashMap<>()))
+                .put(invocation.getArgument(1), String.valueOf(invocation.getArgument(2, Object.class)).getBytes(StandardCharsets.UTF_8)))
+                .when(hashes).put(anyString(), any(), any());
+        when(hashes.entries(anyString())).thenAnswer(invocation -> {
+            Map<Object, Object> entries = new HashMap<>();
+            if (keyspace.get(invocation.getArgument(0, String.class)) instanceof Map<?, ?> hash) {
+                hash.forEach((field, v) -> entries.put(field, new String((byte[]) v, StandardCharsets.UTF_8)));
+            }
+            return entries;
+        });
+        doAnswer(invocation -> {
+            Map<String, byte[]> hash = (Map<String, byte[]>) keyspace.get(invocation.getArgument(0, String.class));
+            return hash != null && hash.remove(invocation.getArgument(1, Object.class)) != null ? 1L : 0L;
+        }).when(hashes).delete(anyString(), any(Object[].class));
+
+        RedisEmbeddingSpaceRepository embeddingSpaces = mock(RedisEmbeddingSpaceRepository.class);
+        when(embeddingSpaces.vectorField(any())).thenReturn("v".getBytes(StandardCharsets.UTF_8));
+        when(embeddingSpaces.prefixField(any())).thenReturn("p".getBytes(StandardCharsets.UTF_8));
+        RetrievalProperties retrievalProperties = new RetrievalProperties();
+        retrievalProperties.setPrefixDims(0);
+        ChunkStoreProperties chunkStoreProperties = new ChunkStoreProperties();
+        chunkStoreProperties.getCompression().setEnabled(false);
+        repository = new RedisDocumentChunkRepository(template, objectMapper,
+                new ChunkTextCompressor(template, chunkStoreProperties), embeddingSpaces, retrievalProperties);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void savedChunkIsStoredAsHashWithVectorContentAndCompactMeta() throws Exception {
+        repository.saveAll(List.of(chunk("c1", "虚函数通过虚表分派")));
+
+        Map<String, byte[]> hash = (Map<String, byte[]>) keyspace.get("rag:chunk:c1");
+        assertThat(hash).containsOnlyKeys("v", "c", "m");
+        assertThat(hash.get("v")).hasSize(3 * Float.BYTES);
+        Map<String, Object> meta = objectMapper.readValue(hash.get("m"), Map.class);
+        assertThat(meta).containsEntry("u", "user-1").containsEntry("f", "file-1").containsEntry("k", "kb-1");
+
+        DocumentChunk loaded = repository.findWithVectorsByIds(List.of("c1"), null).get(0);
+        assertThat(loaded.getContent()).isEqualTo("虚函数通过虚表分派");
+        assertThat(loaded.getEmbedding()).containsExactly(0.1f, 0.2f, 0.3f);
+        assertThat(loaded.getHeadingPath()).isEqualTo("第3章 > 3.1");
+    }
+
+    @Test
+    void legacyStringChunkIsReadWithoutFailingTheWholePipeline() throws Exception {
+        repository.saveAll(List.of(chunk("c1", "新格式")));
+        putLegacy(chunk("c2", "旧格式"));
+
+        List<DocumentChunk> chunks = repository.findByIds(List.of("c1", "c2", "gone"));
+
+        assertThat(chunks).extracting(DocumentChunk::getId).containsExactly("c1", "c2");
+        assertThat(chunks.get(1).getContent()).isEqualTo("旧格式");
+        assertThat(chunks.get(1).getFileId()).isEqualTo("file-1");
+        assertThat(repository.findVectorsByIds(List.of("c1", "c2"), null))
+                .allMatch(vector -> vector.vector().length == 3);
+        // 已删除的分块不算缺少向量，否则向量空间迁移永远无法确认完整
+        assertThat(repository.findMissingVectors(List.of("c1", "c2", "gone"), null)).isEmpty();
+    }
+
+    @Test
+    void migrationConvertsLegacyChunksAndQuarantinesUnparseableOnes() throws Exception {
+        putLegacy(chunk("c2", "旧格式"));
+        keyspace.put("rag:chunk:broken", "{not json".getBytes(StandardCharsets.UTF_8));
+
+        int migrated = repository.migrateLegacyChunks(10);
+
+        assertThat(migrated).isEqualTo(1);
+        assertThat(keyspace.get("rag:chunk:c2")).isInstanceOf(Map.class);
+        assertThat(keyspace).doesNotContainKey("rag:chunk:broken").containsKey("rag:chunk-quarantine:broken");
+        assertThat(repository.findByIds(List.of("c2")).get(0).getContent()).isEqualTo("旧格式");
+    }
+
+    @Test
+    void deleteByFileShouldPageUntilCursorEndsAndOnlyRemoveThatFilesChunks() {
+        List<DocumentChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < 450; i++) {
+            chunks.add(chunk("f1-" + i, "正文" + i));
+        }
+        DocumentChunk other = chunk("f2-0", "另一个文件");
+        other.setFileId("file-2");
+        chunks.add(other);
+        repository.saveAll(chunks);
+
+        int deleted = repository.deleteByFileIdAndUser("file-1", "user-1", "kb-1");
+
+        assertThat(deleted).isEqualTo(450);
+        assertThat(purgePages).isEqualTo(3);
+        assertThat(keyspace).doesNotContainKeys("rag:chunk:f1-0", "rag:chunk:f1-449", "rag:file:file-1:chunks");
+        assertThat(members("rag:user:user-1:chunks")).containsExactly("f2-0");
+        assertThat(members("rag:kb:kb-1:chunks")).containsExactly("f2-0");
+        assertThat(repository.findByIds(List.of("f2-0"))).hasSize(1);
+    }
+
+    @Test
+    void deleteByKnowledgeBaseShouldPageAndCleanUserAndFileIndexesIncludingLegacyChunks() throws Exception {
+        List<DocumentChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            chunks.add(chunk("k-" + i, "正文" + i));
+        }
+        repository.saveAll(chunks);
+        putLegacy(chunk("k-legacy", "旧格式"));
+        members("rag:kb:kb-1:chunks").add("k-legacy");
+        members("rag:user:user-1:chunks").add("k-legacy");
+        members("rag:file:file-1:chunks").add("k-legacy");
+
+        int deleted = repository.deleteByKnowledgeBase("kb-1");
+
+        assertThat(deleted).isEqualTo(251);
+        assertThat(purgePages).isEqualTo(2);
+        assertThat(members("rag:user:user-1:chunks")).isEmpty();
+        assertThat(members("rag:file:file-1:chunks")).isEmpty();
+        assertThat(keyspace.keySet()).noneMatch(key -> key.startsWith("rag:chunk:"));
+    }
+
+    @Test
+    void tombstonesHideDeletedFilesAndKnowledgeBasesUntilCleared() {
+        DocumentChunk kept = chunk("c1", "保留");
+        DocumentChunk inDeletedFile = chunk("c2", "文件已删除");
+        inDeletedFile.setFileId("file-gone");
+        DocumentChunk inDeletedKb = chunk("c3", "知识库已删除");
+        inDeletedKb.setKbId("kb-gone");
+
+        repository.tombstoneFile("file-gone", "user-1", "kb-1");
+        repository.tombstoneKnowledgeBase("kb-gone");
+        RedisDocumentChunkRepository.Tombstones tombstones = repository.loadTombstones();
+
+        assertThat(tombstones.hides(kept)).isFalse();
+        assertThat(tombstones.hides(inDeletedFile)).isTrue();
+        assertThat(tombstones.hides(inDeletedKb)).isTrue();
+        assertThat(repository.pendingFileTombstones().get("file-gone")).containsExactly("user-1", "kb-1");
+
+        repository.clearFileTombstone("file-gone");
+        repository.clearKnowledgeBaseTombstone("kb-gone");
+        assertThat(repository.loadTombstones().isEmpty()).isTrue();
+    }
+
+    private void putLegacy(DocumentChunk chunk) throws Exception {
+        chunk.setEmbeddingJson("[0.1,0.2,0.3]");
+        chunk.setEmbedding(null);
+        keyspace.put("rag:chunk:" + chunk.getId(), objectMapper.writeValueAsBytes(chunk));
+    }
+
+    private static DocumentChunk chunk(String id, String content) {
+        return DocumentChunk.builder()
+                .id(id)
+                .userId("user-1")
+                .fileId("file-1")
+                .kbId("kb-1")
+                .chunkIndex(0)
+                .headingPath("第3章 > 3.1")
+                .content(content)
+                .embedding(new float[]{0.1f, 0.2f, 0.3f})
+                .createdAt(LocalDateTime.of(2025, 1, 1, 0, 0))
+                .build();
+    }
+
+    /**
+     * 按流水线语义执行：命令依次返回结果，出错的命令在对应位置放入异常，结束时抛出 RedisPipelineException
+     */
+    private List<Object> pipeline(RedisCallback<?> callback) {
+        List<Object> results = new ArrayList<>();
+        RedisConnection connection = mock(RedisConnection.class, invocation -> {
+            results.add(execute(invocation));
+            return null;
+        });
+        callback.doInRedis(connection);
+        for (Object result : results) {
+            if (result instanceof Exception error) {
+                throw new RedisPipelineException(error, results);
+            }
+        }
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object execute(InvocationOnMock invocation) {
+        Object[] args = invocation.getRawArguments();
+        String key = args.length > 0 && args[0] instanceof byte[] raw ? new String(raw, StandardCharsets.UTF_8) : null;
+        Object value = keyspace.get(key);
+        String command = invocation.getMethod().getName();
+        Map<String, byte[]> hash = value instanceof Map<?, ?> ? (Map<String, byte[]>) value : null;
+        if (command.startsWith("h") && value != null && hash == null) {
+            return new InvalidDataAccessApiUsageException("WRONGTYPE Operation against a key holding the wrong kind of value");
+        }
+        switch (command) {
+            case "hMSet" -> {
+                Map<String, byte[]> target = (Map<String, byte[]>) keyspace.computeIfAbsent(key, k -> new HashMap<>());
+                ((Map<byte[], byte[]>) args[1]).forEach((field, v) -> target.put(new String(field, StandardCharsets.UTF_8), v));
+                return true;
+            }
+            case "hMGet" -> {
+                List<byte[]> reply = new ArrayList<>();
+                for (byte[] field : (byte[][]) args[1]) {
+                    reply.add(hash != null ? hash.get(new String(field, StandardCharsets.UTF_8)) : null);
+                }
+                return reply;
+            }
+            case "hExists" -> {
+                return hash != null && hash.containsKey(new String((byte[]) args[1], StandardCharsets.UTF_8));
+            }
+            case "type" -> {
+                return value instanceof byte[] ? DataType.STRING : value != null ? DataType.HASH : DataType.NONE;
+            }
+            case "zAdd", "sAdd" -> {
+                Object member = args[args.length - 1];
+                byte[] raw = member instanceof byte[][] values ? values[0] : (byte[]) member;
+                return members(key).add(new String(raw, StandardCharsets.UTF_8)) ? 1L : 0L;
+            }
+            case "hKeys" -> {
+                Set<byte[]> fields = new LinkedHashSet<>();
+                if (hash != null) {
+                    hash.keySet().forEach(field -> fields.add(field.getBytes(StandardCharsets.UTF_8)));
+                }
+                return fields;
+            }
+            case "del" -> {
+                return keyspace.remove(key) != null ? 1L : 0L;
+            }
+            case "rename" -> {
+                keyspace.put(new String((byte[]) args[1], StandardCharsets.UTF_8), keyspace.remove(key));
+                return true;
+            }
+            default -> {
+                return 1L;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cursor<String> cursor(Iterator<String> keys) {
+        Cursor<String> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> keys.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> keys.next());
+        return cursor;
+    }
+
+    /**
+     * PURGE_FILE_PAGE_SCRIPT：KEYS 文件集合、用户 ZSet、知识库 ZSet；ARGV cursor、COUNT、分块前缀、是否清理用户/知识库索引
+     */
+    private List<Object> purgeFilePage(List<String> keys, Object[] argv) {
+        purgePages++;
+        Set<String> file = members(keys.get(0));
+        List<String> page = file.stream().limit(Long.parseLong((String) argv[1])).toList();
+        for (String id : page) {
+            keyspace.remove(argv[2] + id);
+            if ("1".equals(argv[3])) {
+                members(keys.get(1)).remove(id);
+            }
+            if ("1".equals(argv[4])) {
+                members(keys.get(2)).remove(id);
+            }
+            file.remove(id);
+        }
+        if (file.isEmpty()) {
+            keyspace.remove(keys.get(0));
+        }
+        return List.of(file.isEmpty() ? "0" : String.valueOf(purgePages), (long) page.size());
+    }
+
+    /**
+     * PURGE_KB_PAGE_SCRIPT：KEYS 知识库 ZSet；ARGV 每页数量、分块/用户/文件前缀；按 Hash 的 m 或旧版 JSON 清理用户与文件索引
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> purgeKbPage(List<String> keys, Object[] argv) throws Exception {
+        purgePages++;
+        Set<String> kb = members(keys.get(0));
+        List<String> page = kb.stream().limit(Long.parseLong((String) argv[0])).toList();
+        for (String id : page) {
+            Object value = keyspace.remove(argv[1] + id);
+            Map<String, Object> meta = value instanceof Map<?, ?> hash
+                    ? objectMapper.readValue(((Map<String, byte[]>) hash).get("m"), Map.class)
+                    : value instanceof byte[] json ? objectMapper.readValue(json, Map.class) : Map.of();
+            Object user = meta.containsKey("u") ? meta.get("u") : meta.get("userId");
+            Object fileId = meta.containsKey("f") ? meta.get("f") : meta.get("fileId");
+            if (user != null) {
+                members(argv[2] + String.valueOf(user) + ":chunks").remove(id);
+            }
+            if (fileId != null) {
+                members(argv[3] + String.valueOf(fileId) + ":chunks").remove(id);
+            }
+            kb.remove(id);
+        }
+        return List.of((long) page.size(), (long) kb.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> members(String key) {
+        return (Set<String>) keyspace.computeIfAbsent(key, k -> new LinkedHashSet<String>());
+    }
+
+    private Object deserialize(Object result) {
+        if (result instanceof byte[] raw) {
+            return new String(raw, StandardCharsets.UTF_8);
+        }
+        if (result instanceof Collection<?> values) {
+            return values.stream().map(this::deserialize).collect(Collectors.toCollection(LinkedHashSet::new));
+        }
+        return result;
+    }
+}
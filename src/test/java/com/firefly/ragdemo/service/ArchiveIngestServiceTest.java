@@ -0,0 +1,156 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.vo.BulkIngestReportVO;
+import com.firefly.ragdemo.config.BulkIngestProperties;
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.entity.User;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.util.ArchiveUtils;
+import com.firefly.ragdemo.util.HashUtils;
+import com.firefly.ragdemo.vo.FileVO;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveIngestServiceTest {
+
+    @Mock
+    private KnowledgeBaseService knowledgeBaseService;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private UploadedFileMapper uploadedFileMapper;
+
+    @Mock
+    private FileService fileService;
+
+    private ArchiveIngestService archiveIngestService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        archiveIngestService = new ArchiveIngestService(knowledgeBaseService, fileStorageService, fileService,
+                uploadedFileMapper, new BulkIngestProperties());
+    }
+
+    @Test
+    void shouldStoreEachSupportedZipEntryAndQueueItForIndexing() throws Exception {
+        Path archive = tempDir.resolve("course.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            zip.putNextEntry(new ZipEntry("course/"));
+            writeEntry(zip, "course/week1.md", "# 第一周\n指针与引用");
+            writeEntry(zip, "course/notes/week2.txt", "模板");
+            writeEntry(zip, "course/copy/week2.txt", "模板");
+            writeEntry(zip, "course/tool.exe", "binary");
+            writeEntry(zip, "course/empty.md", "");
+            writeEntry(zip, "__MACOSX/course/._week1.md", "metadata");
+        }
+
+        User user = User.builder().id("user-1").username("tester").build();
+        String kbId = "kb_course";
+        when(knowledgeBaseService.resolveUploadKb(user.getId(), user.getUsername(), kbId)).thenReturn(kbId);
+        Path staging = Files.createDirectories(tempDir.resolve("staging"));
+        when(fileStorageService.stagingDirectory()).thenReturn(staging);
+        when(fileStorageService.moveIn(any(Path.class), anyString())).thenAnswer(invocation -> {
+            Path blob = tempDir.resolve(invocation.getArgument(1, String.class));
+            Files.move(invocation.getArgument(0, Path.class), blob);
+            return new FileStorageService.StoredBlob(blob, invocation.getArgument(1), false);
+        });
+        doAnswer(invocation -> Files.deleteIfExists(invocation.getArgument(0, Path.class)))
+                .when(fileStorageService).delete(any(Path.class));
+        when(fileService.registerStoredFile(any(), anyString(), anyLong(), any(), anyString(),
+                any(IndexingScheduler.Lane.class))).thenAnswer(invocation -> FileVO.builder()
+                .filename(invocation.getArgument(1))
+                .kbId(invocation.getArgument(4))
+                .status(UploadedFile.FileStatus.PROCESSING)
+                .build());
+
+        BulkIngestReportVO report = archiveIngestService.importArchive(archive, user, kbId);
+
+        assertThat(report.getDiscovered()).isEqualTo(6);
+        assertThat(report.getImported()).isEqualTo(2);
+        assertThat(report.getSkipped()).isEqualTo(4);
+        assertThat(report.getFailed()).isZero();
+        assertThat(report.getFiles()).extracting("filename")
+                .containsExactlyInAnyOrder("course/week1.md", "course/notes/week2.txt");
+        assertThat(report.getFiles()).allMatch(vo -> vo.getStatus() == UploadedFile.FileStatus.PROCESSING);
+
+        ArgumentCaptor<FileStorageService.StoredBlob> blobs = ArgumentCaptor.forClass(FileStorageService.StoredBlob.class);
+        verify(fileService, times(2)).registerStoredFile(blobs.capture(), anyString(), anyLong(), eq(user), eq(kbId),
+                eq(IndexingScheduler.Lane.BULK));
+        List<String> contents = new ArrayList<>();
+        for (FileStorageService.StoredBlob blob : blobs.getAllValues()) {
+            String content = Files.readString(blob.path());
+            contents.add(content);
+            assertThat(blob.contentHash()).isEqualTo(HashUtils.sha256Hex(content.getBytes(StandardCharsets.UTF_8)));
+        }
+        assertThat(contents).containsExactlyInAnyOrder("# 第一周\n指针与引用", "模板");
+        try (Stream<Path> leftovers = Files.list(staging)) {
+            assertThat(leftovers).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldReopenTarGzEntryFromItsStoredPath() throws Exception {
+        Path archive = tempDir.resolve("pack.tar.gz");
+        Map<String, String> entries = Map.of("./a.md", "alpha", "dir/b.txt", "beta");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(Files.newOutputStream(archive)))) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                byte[] data = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                TarArchiveEntry tarEntry = new TarArchiveEntry(entry.getKey());
+                tarEntry.setSize(data.length);
+                tar.putArchiveEntry(tarEntry);
+                tar.write(data);
+                tar.closeArchiveEntry();
+            }
+        }
+
+        assertThat(ArchiveUtils.archiveType(archive.getFileName().toString())).isEqualTo("tar.gz");
+        try (InputStream in = ArchiveUtils.openEntry(ArchiveUtils.entryPath(archive, "dir/b.txt"))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("beta");
+        }
+        try (InputStream in = ArchiveUtils.openEntry(ArchiveUtils.entryPath(archive, "a.md"))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("alpha");
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream zip, String name, String content) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,129 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.ai.AIModel;
+import com.firefly.ragdemo.ai.AIModelFactory;
+import com.firefly.ragdemo.ai.LlmAdmissionController;
+import com.firefly.ragdemo.ai.PromptMessage;
+import com.firefly.ragdemo.config.AdmissionProperties;
+import com.firefly.ragdemo.config.ChatSummaryProperties;
+import com.firefly.ragdemo.entity.ChatMessageRecord;
+import com.firefly.ragdemo.entity.ChatSession;
+import com.firefly.ragdemo.mapper.ChatMessageRecordMapper;
+import com.firefly.ragdemo.mapper.ChatSessionMapper;
+import com.firefly.ragdemo.repository.RedisChatHistoryRepository;
+import com.firefly.ragdemo.service.impl.EstimatingTokenizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ChatSummarizerTest {
+
+    @Mock
+    private ChatSessionMapper chatSessionMapper;
+
+    @Mock
+    private ChatMessageRecordMapper chatMessageRecordMapper;
+
+    @Mock
+    private RedisChatHistoryRepository chatHistoryRepository;
+
+    @Mock
+    private AIModelFactory aiModelFactory;
+
+    @Mock
+    private AIModel model;
+
+    private AdmissionProperties admissionProperties;
+
+    private ChatSummarizer summarizer;
+
+    @BeforeEach
+    void setUp() {
+        ChatSummaryProperties properties = new ChatSummaryProperties();
+        properties.setTriggerTokens(200);
+        properties.setKeepRecentMessages(2);
+        admissionProperties = new AdmissionProperties();
+        summarizer = new ChatSummarizer(chatSessionMapper, chatMessageRecordMapper, chatHistoryRepository, aiModelFactory,
+                new LlmAdmissionController(admissionProperties), new EstimatingTokenizer(), properties, Runnable::run);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldFoldOnlyMessagesAfterPreviousSummary() {
+        when(chatSessionMapper.findById("s1")).thenReturn(Optional.of(
+                ChatSession.builder().id("s1").summary("旧摘要").summarySeq(4).build()));
+        when(chatMessageRecordMapper.findAfterSeq(eq("s1"), eq(4), anyInt())).thenReturn(records(5, 6));
+        when(aiModelFactory.getDefaultModel()).thenReturn(model);
+        when(model.call(anyList())).thenReturn(" 新摘要 ");
+        when(chatSessionMapper.updateSummary("s1", "新摘要", 8, 4)).thenReturn(1);
+
+        assertThat(summarizer.summarize("s1")).isTrue();
+
+        ArgumentCaptor<List<PromptMessage>> prompt = ArgumentCaptor.forClass(List.class);
+        verify(model).call(prompt.capture());
+        String input = prompt.getValue().get(1).content();
+        assertThat(input).contains("旧摘要").contains("第5条").contains("第8条").doesNotContain("第9条");
+        verify(chatHistoryRepository).saveSummary(null, "s1", "新摘要", 8);
+    }
+
+    @Test
+    void shouldSkipWhenPendingHistoryIsBelowThreshold() {
+        when(chatSessionMapper.findById("s1")).thenReturn(Optional.of(ChatSession.builder().id("s1").build()));
+        when(chatMessageRecordMapper.findAfterSeq(eq("s1"), eq(0), anyInt())).thenReturn(records(1, 4).subList(0, 3));
+
+        assertThat(summarizer.summarize("s1")).isFalse();
+        verify(chatSessionMapper, never()).updateSummary(anyString(), anyString(), anyInt(), anyInt());
+    }
+
+    @Test
+    void shouldPostponeWhenBackgroundAdmissionIsFull() {
+        admissionProperties.setPerUserLimit(1);
+        admissionProperties.setPerUserQueue(0);
+        LlmAdmissionController admission = new LlmAdmissionController(admissionProperties);
+        ChatSummaryProperties properties = new ChatSummaryProperties();
+        properties.setTriggerTokens(200);
+        properties.setKeepRecentMessages(2);
+        ChatSummarizer busy = new ChatSummarizer(chatSessionMapper, chatMessageRecordMapper, chatHistoryRepository,
+                aiModelFactory, admission, new EstimatingTokenizer(), properties, Runnable::run);
+        admission.acquire(ChatSummarizer.ADMISSION_KEY, null).join();
+        when(chatSessionMapper.findById("s1")).thenReturn(Optional.of(ChatSession.builder().id("s1").build()));
+        when(chatMessageRecordMapper.findAfterSeq(eq("s1"), eq(0), anyInt())).thenReturn(records(1, 6));
+
+        // 该身份不允许排队：立即被拒绝并推迟摘要，而不是排队等到 max-wait-ms 超时
+        long start = System.nanoTime();
+        assertThat(busy.summarize("s1")).isFalse();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+        verify(aiModelFactory, never()).getDefaultModel();
+    }
+
+    private static List<ChatMessageRecord> records(int fromSeq, int count) {
+        List<ChatMessageRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int seq = fromSeq + i;
+            records.add(ChatMessageRecord.builder()
+                    .seq(seq)
+                    .role(i % 2 == 0 ? "user" : "assistant")
+                    .content("第" + seq + "条" + "内存管理".repeat(20))
+                    .build());
+        }
+        return records;
+    }
+}
@@ -0,0 +1,137 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.mapper.KnowledgeBaseMapper;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.repository.RedisEmbeddingSpaceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ChunkGarbageCollectorTest {
+
+    private static final String LOCK_KEY = "rag:gc:lock:file:file-1";
+
+    @Mock
+    private RedisDocumentChunkRepository repository;
+
+    @Mock
+    private RedisEmbeddingSpaceRepository embeddingSpaces;
+
+    @Mock
+    private UploadedFileMapper uploadedFileMapper;
+
+    @Mock
+    private KnowledgeBaseMapper knowledgeBaseMapper;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    private ChunkGarbageCollector collector;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        collector = new ChunkGarbageCollector(repository, embeddingSpaces, uploadedFileMapper, knowledgeBaseMapper,
+                fileStorageService, stringRedisTemplate, Runnable::run);
+    }
+
+    @Test
+    void fileIsHiddenBeforePurgeAndTombstoneClearedAfter() {
+        collector.deleteFileChunks("file-1", "user-1", "kb-1");
+
+        ArgumentCaptor<String> token = ArgumentCaptor.forClass(String.class);
+        verify(valueOperations).setIfAbsent(eq(LOCK_KEY), token.capture(), any(Duration.class));
+        InOrder order = inOrder(repository, stringRedisTemplate);
+        order.verify(repository).tombstoneFile("file-1", "user-1", "kb-1");
+        order.verify(repository).deleteByFileIdAndUser("file-1", "user-1", "kb-1");
+        order.verify(repository).clearFileTombstone("file-1");
+        // 锁按本次令牌比较后删除，不会误删过期后被其他节点重新获取的锁
+        order.verify(stringRedisTemplate).execute(
+                argThat((RedisScript<Long> script) -> script.getScriptAsString().contains("DEL")),
+                eq(List.of(LOCK_KEY)), eq(token.getValue()));
+        verify(stringRedisTemplate, never()).delete(anyString());
+    }
+
+    @Test
+    void knowledgeBasePurgePagesFileRecordsAndReleasesBlobsBeforeClearingTombstone() {
+        UploadedFile stored = UploadedFile.builder().id("f1").filePath("/data/ab/cd").contentHash("hash-1").build();
+        UploadedFile entry = UploadedFile.builder().id("f2").filePath("/data/archive.zip!/a.md").contentHash("hash-2").build();
+        when(uploadedFileMapper.findByKbId(eq("kb-1"), anyInt())).thenReturn(List.of(stored, entry), List.of());
+        when(repository.deleteByKnowledgeBase("kb-1")).thenReturn(3, 0);
+
+        collector.deleteKnowledgeBase("kb-1");
+
+        InOrder order = inOrder(repository, uploadedFileMapper, knowledgeBaseMapper, embeddingSpaces);
+        order.verify(repository).tombstoneKnowledgeBase("kb-1");
+        order.verify(repository).deleteByKnowledgeBase("kb-1");
+        order.verify(uploadedFileMapper).deleteById("f1");
+        order.verify(uploadedFileMapper).deleteById("f2");
+        order.verify(knowledgeBaseMapper).deleteById("kb-1");
+        order.verify(repository).deleteByKnowledgeBase("kb-1");
+        order.verify(embeddingSpaces).forget("kb-1");
+        order.verify(repository).clearKnowledgeBaseTombstone("kb-1");
+        verify(fileStorageService).deleteIfUnreferenced(eq(Paths.get("/data/ab/cd")), eq("hash-1"), any(BooleanSupplier.class));
+        verify(fileStorageService, never()).deleteIfUnreferenced(eq(Paths.get("/data/archive.zip!/a.md")), anyString(),
+                any(BooleanSupplier.class));
+    }
+
+    @Test
+    void storedFileIsKeptWhileAnotherRecordStillReferencesIt() {
+        UploadedFile file = UploadedFile.builder().id("f1").filePath("/data/ab/cd").contentHash("hash-1").build();
+        when(uploadedFileMapper.countByContentHashAndPath("hash-1", "/data/ab/cd")).thenReturn(1L);
+
+        collector.releaseStoredFile(file);
+
+        ArgumentCaptor<BooleanSupplier> referenced = ArgumentCaptor.forClass(BooleanSupplier.class);
+        verify(fileStorageService).deleteIfUnreferenced(eq(Paths.get("/data/ab/cd")), eq("hash-1"), referenced.capture());
+        assertThat(referenced.getValue().getAsBoolean()).isTrue();
+    }
+
+    @Test
+    void purgeHeldByAnotherNodeLeavesTombstoneForLaterRetry() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+
+        collector.deleteKnowledgeBase("kb-1");
+
+        verify(repository).tombstoneKnowledgeBase("kb-1");
+        verify(repository, never()).deleteByKnowledgeBase(anyString());
+        verify(repository, never()).clearKnowledgeBaseTombstone(anyString());
+        verify(stringRedisTemplate, never()).delete(anyString());
+        verify(stringRedisTemplate, never()).execute(any(RedisScript.class), anyList(), any(Object[].class));
+    }
+}
@@ -0,0 +1,131 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.config.EmbeddingProperties;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.mapper.KnowledgeBaseMapper;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.repository.RedisEmbeddingSpaceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EmbeddingSpaceMigratorTest {
+
+    private static final String LOCK_KEY = "rag:embedding:lock:kb-1";
+
+    @Mock
+    private RedisDocumentChunkRepository repository;
+
+    @Mock
+    private RedisEmbeddingSpaceRepository embeddingSpaces;
+
+    @Mock
+    private EmbeddingService embeddingService;
+
+    @Mock
+    private KnowledgeBaseMapper knowledgeBaseMapper;
+
+    @Mock
+    private IndexingScheduler indexingScheduler;
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    private final AtomicLong renewReply = new AtomicLong(1);
+
+    private EmbeddingSpaceMigrator migrator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        EmbeddingProperties properties = new EmbeddingProperties();
+        properties.getMigration().setMaxChunksPerSecond(1_000_000);
+        lenient().when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        lenient().when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenAnswer(invocation -> invocation.getArgument(0, RedisScript.class).getScriptAsString().contains("PEXPIRE")
+                        ? renewReply.get() : 1L);
+        when(knowledgeBaseMapper.findActiveIds()).thenReturn(List.of("kb-1"));
+        when(embeddingService.currentSpace()).thenReturn("v2");
+        when(embeddingSpaces.activeSpace("kb-1")).thenReturn("base");
+        lenient().when(repository.findKnowledgeBaseChunkIds(eq("kb-1"), eq(0L), anyInt())).thenReturn(List.of("c1", "c2"));
+        lenient().when(repository.findMissingVectors(List.of("c1", "c2"), "v2")).thenReturn(List.of("c2"));
+        lenient().when(repository.findByIds(List.of("c2")))
+                .thenReturn(List.of(DocumentChunk.builder().id("c2").content("虚函数").build()));
+        lenient().when(embeddingService.embedBatch(List.of("虚函数"), "v2")).thenReturn(List.of(List.of(0.1, 0.2)));
+        migrator = new EmbeddingSpaceMigrator(repository, embeddingSpaces, embeddingService, knowledgeBaseMapper,
+                indexingScheduler, stringRedisTemplate, properties, Runnable::run);
+    }
+
+    @Test
+    void switchesSpaceOnlyAfterRecheckFindsNoLiveChunkMissingVectors() {
+        when(repository.saveVectors(eq("v2"), anyMap())).thenReturn(1);
+        when(repository.countMissingVectors("kb-1", "v2", 500)).thenReturn(0);
+
+        migrator.schedule();
+
+        verify(embeddingSpaces).activate("kb-1", "v2", "base");
+        verifyLockReleasedWithOwnToken();
+    }
+
+    @Test
+    void chunkThatCannotReceiveVectorKeepsOldSpaceEvenWhenNothingWasWritten() {
+        // 旧版字符串分块写入新向量时被跳过：写入数为 0，但分块仍缺少向量
+        when(repository.saveVectors(eq("v2"), anyMap())).thenReturn(0);
+        when(repository.countMissingVectors("kb-1", "v2", 500)).thenReturn(1);
+
+        migrator.schedule();
+
+        verify(embeddingSpaces, never()).activate(anyString(), anyString(), anyString());
+        verify(repository, times(3)).countMissingVectors("kb-1", "v2", 500);
+        verifyLockReleasedWithOwnToken();
+    }
+
+    @Test
+    void lostLockStopsMigrationWithoutSwitchingSpace() {
+        renewReply.set(0);
+
+        migrator.schedule();
+
+        verify(repository, never()).countMissingVectors(anyString(), anyString(), anyInt());
+        verify(embeddingSpaces, never()).activate(anyString(), anyString(), anyString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void verifyLockReleasedWithOwnToken() {
+        ArgumentCaptor<String> token = ArgumentCaptor.forClass(String.class);
+        verify(valueOperations).setIfAbsent(eq(LOCK_KEY), token.capture(), any(Duration.class));
+        assertThat(token.getValue()).startsWith("v2:");
+        verify(stringRedisTemplate).execute(argThat((RedisScript<Long> script) -> script.getScriptAsString().contains("DEL")),
+                eq(List.of(LOCK_KEY)), eq(token.getValue()));
+        verify(stringRedisTemplate, never()).delete(anyString());
+    }
+}
@@ -1,21 +1,26 @@
 package com.firefly.ragdemo.service;
 
-import com.firefly.ragdemo.VO.FileVO;
+import com.firefly.ragdemo.vo.BulkIngestReportVO;
+import com.firefly.ragdemo.config.BulkIngestProperties;
+import com.firefly.ragdemo.entity.UploadedFile;
 import com.firefly.ragdemo.entity.User;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.messaging.IndexJobProducer;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -26,44 +31,70 @@ import org.junit.jupiter.api.extension.ExtendWith;
 class KnowledgeBaseBulkUploadServiceTest {
 
     @Mock
-    private FileService fileService;
+    private KnowledgeBaseService knowledgeBaseService;
 
     @Mock
-    private KnowledgeBaseService knowledgeBaseService;
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private UploadedFileMapper uploadedFileMapper;
+
+    @Mock
+    private IndexJobProducer indexJobProducer;
 
-    @InjectMocks
     private KnowledgeBaseBulkUploadService bulkUploadService;
 
     @TempDir
     Path tempDir;
 
+    @BeforeEach
+    void setUp() {
+        BulkIngestProperties properties = new BulkIngestProperties();
+        properties.setBatchSize(2);
+        bulkUploadService = new KnowledgeBaseBulkUploadService(knowledgeBaseService, fileStorageService,
+                uploadedFileMapper, indexJobProducer, properties, Runnable::run);
+    }
+
     @Test
-    void shouldUploadAllFilesInDirectoryToSharedKnowledgeBase() throws Exception {
-        Path file1 = tempDir.resolve("a.txt");
-        Path file2 = tempDir.resolve("b.md");
-        Files.writeString(file1, "hello");
-        Files.writeString(file2, "world");
-        Files.createDirectory(tempDir.resolve("nested")); // 目录应被忽略
+    void shouldRecursivelyImportSupportedFilesInBatchesToSharedKnowledgeBase() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "hello");
+        Files.writeString(tempDir.resolve("b.md"), "world");
+        Path nested = Files.createDirectory(tempDir.resolve("nested"));
+        Files.writeString(nested.resolve("c.md"), "nested");
+        Files.writeString(nested.resolve("ignored.exe"), "binary");
 
         User user = User.builder().id("user-1").username("tester").build();
         String sharedKbId = "kb_shared_cpp_tutorial";
 
         when(knowledgeBaseService.resolveUploadKb(user.getId(), user.getUsername(), sharedKbId))
                 .thenReturn(sharedKbId);
+        when(fileStorageService.importFile(any(Path.class)))
+                .thenAnswer(invocation -> {
+                    Path source = invocation.getArgument(0, Path.class);
+                    return new FileStorageService.StoredBlob(tempDir.resolve("stored-" + source.getFileName()),
+                            source.getFileName().toString(), false);
+                });
+        List<List<UploadedFile>> batches = new ArrayList<>();
+        when(uploadedFileMapper.batchInsert(any())).thenAnswer(invocation -> {
+            List<UploadedFile> batch = invocation.getArgument(0);
+            batches.add(new ArrayList<>(batch));
+            return batch.size();
+        });
 
-        AtomicInteger counter = new AtomicInteger();
-        when(fileService.uploadFile(any(MultipartFile.class), eq(user), eq(sharedKbId)))
-                .thenAnswer(invocation -> FileVO.builder()
-                        .id("file-" + counter.incrementAndGet())
-                        .kbId(sharedKbId)
-                        .build());
-
-        List<FileVO> uploaded = bulkUploadService.uploadDirectory(tempDir, user, sharedKbId);
+        BulkIngestReportVO report = bulkUploadService.ingestDirectory(tempDir, user, sharedKbId);
 
-        assertThat(uploaded).hasSize(2);
-        assertThat(uploaded).allMatch(vo -> sharedKbId.equals(vo.getKbId()));
+        assertThat(report.getDiscovered()).isEqualTo(4);
+        assertThat(report.getImported()).isEqualTo(3);
+        assertThat(report.getSkipped()).isEqualTo(1);
+        assertThat(report.getFiles()).allMatch(vo -> sharedKbId.equals(vo.getKbId()));
+        assertThat(report.getFiles()).extracting("filename").contains("nested/c.md");
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(0)).hasSize(2);
 
         verify(knowledgeBaseService).resolveUploadKb(user.getId(), user.getUsername(), sharedKbId);
-        verify(fileService, times(2)).uploadFile(any(MultipartFile.class), eq(user), eq(sharedKbId));
+        ArgumentCaptor<String> fileIds = ArgumentCaptor.forClass(String.class);
+        verify(indexJobProducer, times(3))
+                .publish(fileIds.capture(), eq(user.getId()), eq(sharedKbId), eq(IndexingScheduler.Lane.BULK));
+        assertThat(fileIds.getAllValues()).doesNotHaveDuplicates();
     }
 }
@@ -0,0 +1,116 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.IndexingProperties;
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import com.firefly.ragdemo.service.RagIndexService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexingSchedulerImplTest {
+
+    private final List<String> executed = new ArrayList<>();
+    private final ArrayDeque<Runnable> tokens = new ArrayDeque<>();
+    private IndexingProperties properties;
+    private IndexingSchedulerImpl scheduler;
+
+    @BeforeEach
+    void setUp() {
+        properties = new IndexingProperties();
+        RagIndexService ragIndexService = new RagIndexService() {
+            @Override
+            public void indexFile(String fileId) {
+                executed.add(fileId);
+            }
+
+            @Override
+            public void indexFile(UploadedFile file, InputStream content) {
+                executed.add(file.getId());
+            }
+        };
+        scheduler = new IndexingSchedulerImpl(ragIndexService, tokens::add, properties);
+    }
+
+    @Test
+    void interactiveUploadShouldRunBeforeQueuedBulkImports() {
+        scheduler.submit("bulk-1", "admin", IndexingScheduler.Lane.BULK);
+        scheduler.submit("bulk-2", "admin", IndexingScheduler.Lane.BULK);
+        IndexingScheduler.Submission submission =
+                scheduler.submit("student-1", "student", IndexingScheduler.Lane.INTERACTIVE);
+
+        drain();
+
+        assertThat(submission.accepted()).isTrue();
+        assertThat(submission.completion()).isCompleted();
+        assertThat(executed).containsExactly("student-1", "bulk-1", "bulk-2");
+    }
+
+    @Test
+    void usersShouldBeServedRoundRobinWithinLane() {
+        scheduler.submit("a-1", "alice", IndexingScheduler.Lane.INTERACTIVE);
+        scheduler.submit("a-2", "alice", IndexingScheduler.Lane.INTERACTIVE);
+        scheduler.submit("a-3", "alice", IndexingScheduler.Lane.INTERACTIVE);
+        scheduler.submit("b-1", "bob", IndexingScheduler.Lane.INTERACTIVE);
+
+        drain();
+
+        assertThat(executed).containsExactly("a-1", "b-1", "a-2", "a-3");
+    }
+
+    @Test
+    void bulkLaneShouldNotStarveUnderInteractiveLoad() {
+        properties.setBulkEvery(2);
+        scheduler.submit("bulk-1", "admin", IndexingScheduler.Lane.BULK);
+        scheduler.submit("i-1", "u1", IndexingScheduler.Lane.INTERACTIVE);
+        scheduler.submit("i-2", "u2", IndexingScheduler.Lane.INTERACTIVE);
+
+        drain();
+
+        assertThat(executed).containsExactly("i-1", "bulk-1", "i-2");
+    }
+
+    @Test
+    void shouldRejectWhenLaneIsFullInsteadOfRunningOnCaller() {
+        properties.setInteractive(new IndexingProperties.Lane(2, 10));
+
+        assertThat(scheduler.submit("f-1", "u1", IndexingScheduler.Lane.INTERACTIVE).accepted()).isTrue();
+        assertThat(scheduler.submit("f-2", "u2", IndexingScheduler.Lane.INTERACTIVE).accepted()).isTrue();
+        IndexingScheduler.Submission rejected = scheduler.submit("f-3", "u3", IndexingScheduler.Lane.INTERACTIVE);
+
+        assertThat(rejected.accepted()).isFalse();
+        assertThat(rejected.completion()).isCompletedExceptionally();
+        assertThat(executed).isEmpty();
+        assertThat(scheduler.stats().getLanes().get(0).getRejected()).isEqualTo(1L);
+        assertThat(scheduler.stats().getLanes().get(0).getQueued()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldEnforcePerUserLimitAndDeduplicateQueuedFiles() {
+        properties.setInteractive(new IndexingProperties.Lane(100, 1));
+
+        IndexingScheduler.Submission first = scheduler.submit("f-1", "u1", IndexingScheduler.Lane.INTERACTIVE);
+        IndexingScheduler.Submission duplicate = scheduler.submit("f-1", "u1", IndexingScheduler.Lane.INTERACTIVE);
+        IndexingScheduler.Submission overLimit = scheduler.submit("f-2", "u1", IndexingScheduler.Lane.INTERACTIVE);
+
+        assertThat(duplicate.accepted()).isTrue();
+        assertThat(duplicate.completion()).isSameAs(first.completion());
+        assertThat(overLimit.accepted()).isFalse();
+
+        drain();
+        assertThat(executed).containsExactly("f-1");
+    }
+
+    private void drain() {
+        Runnable token;
+        while ((token = tokens.poll()) != null) {
+            token.run();
+        }
+    }
+}
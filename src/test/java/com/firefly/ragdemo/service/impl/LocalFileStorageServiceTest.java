@@ -0,0 +1,94 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.service.FileStorageService.StoredBlob;
+import com.firefly.ragdemo.util.HashUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalFileStorageServiceTest {
+
+    @TempDir
+    Path uploadDir;
+
+    private LocalFileStorageService storageService;
+
+    @BeforeEach
+    void setUp() {
+        storageService = new LocalFileStorageService();
+        ReflectionTestUtils.setField(storageService, "uploadDir", uploadDir.toString());
+    }
+
+    @Test
+    void identicalContentShouldBeStoredOnceUnderItsHash() throws Exception {
+        byte[] content = "# 第一章\n指针与引用".getBytes(StandardCharsets.UTF_8);
+        String hash = HashUtils.sha256Hex(content);
+
+        StoredBlob first = storageService.store(new MockMultipartFile("file", "a.md", "text/markdown", content));
+        Path source = Files.write(uploadDir.resolveSibling(uploadDir.getFileName() + "-src.md"), content);
+        StoredBlob second = storageService.importFile(source);
+
+        assertThat(first.contentHash()).isEqualTo(hash);
+        assertThat(first.existed()).isFalse();
+        assertThat(first.path()).isEqualTo(uploadDir.resolve(hash.substring(0, 2))
+                .resolve(hash.substring(2, 4)).resolve(hash));
+        assertThat(Files.readAllBytes(first.path())).isEqualTo(content);
+        assertThat(second.existed()).isTrue();
+        assertThat(second.path()).isEqualTo(first.path());
+        Files.delete(source);
+    }
+
+    @Test
+    void moveInShouldDropStagedCopyWhenContentAlreadyStored() throws Exception {
+        byte[] content = "模板特化".getBytes(StandardCharsets.UTF_8);
+        String hash = HashUtils.sha256Hex(content);
+        Path staged = Files.write(storageService.stagingDirectory().resolve("u1.part"), content);
+        StoredBlob first = storageService.moveIn(staged, hash);
+
+        Path again = Files.write(storageService.stagingDirectory().resolve("u2.part"), content);
+        StoredBlob second = storageService.moveIn(again, hash);
+
+        assertThat(first.existed()).isFalse();
+        assertThat(second.existed()).isTrue();
+        assertThat(second.path()).isEqualTo(first.path());
+        assertThat(again).doesNotExist();
+        assertThat(Files.readAllBytes(first.path())).isEqualTo(content);
+    }
+
+    @Test
+    void importShouldCopySoLaterSourceEditsDoNotChangeStoredContent() throws Exception {
+        byte[] content = "虚函数表".getBytes(StandardCharsets.UTF_8);
+        Path source = Files.write(uploadDir.resolveSibling(uploadDir.getFileName() + "-vtable.md"), content);
+
+        StoredBlob blob = storageService.importFile(source);
+        Files.writeString(source, "已修改");
+
+        assertThat(Files.readAllBytes(blob.path())).isEqualTo(content);
+        Files.delete(source);
+    }
+
+    @Test
+    void releaseShouldWaitForReuseLeaseBeforeDeletingUnreferencedBlob() throws Exception {
+        byte[] content = "模板元编程".getBytes(StandardCharsets.UTF_8);
+        String hash = HashUtils.sha256Hex(content);
+        Path staged = Files.write(storageService.stagingDirectory().resolve("u3.part"), content);
+        StoredBlob blob = storageService.moveIn(staged, hash);
+
+        // 刚写入的内容：引用它的记录可能尚未提交，即使当前查不到引用也保留
+        storageService.deleteIfUnreferenced(blob.path(), hash, () -> false);
+        assertThat(blob.path()).exists();
+
+        ((Map<?, ?>) ReflectionTestUtils.getField(storageService, "reuseLeases")).clear();
+        storageService.retryPendingReleases();
+        assertThat(blob.path()).doesNotExist();
+    }
+}
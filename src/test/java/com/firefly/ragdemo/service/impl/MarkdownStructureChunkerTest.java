@@ -0,0 +1,102 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.IndexingProperties;
+import com.firefly.ragdemo.service.TextChunker;
+import com.firefly.ragdemo.service.Tokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MarkdownStructureChunkerTest {
+
+    private final Tokenizer tokenizer = new EstimatingTokenizer();
+    private final IndexingProperties properties = new IndexingProperties();
+    private final MarkdownStructureChunker chunker = new MarkdownStructureChunker(tokenizer, properties);
+
+    @Test
+    void shouldKeepCodeBlockIntactAndRecordHeadingPath() {
+        StringBuilder code = new StringBuilder("```cpp\n");
+        for (int i = 0; i < 25; i++) {
+            code.append("    std::cout << \"line ").append(i).append("\" << std::endl;\n");
+        }
+        code.append("```");
+        String text = "# 第3章 类\n\n类是C++的核心。\n\n## 3.2 构造函数\n\n构造函数用于初始化对象。\n\n" + code;
+
+        List<TextChunker.Chunk> chunks = chunker.chunk(text);
+
+        TextChunker.Chunk codeChunk = chunks.stream()
+                .filter(c -> c.content().contains("```cpp"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(codeChunk.content()).contains("line 0").contains("line 24").endsWith("```");
+        assertThat(codeChunk.headingPath()).isEqualTo("第3章 类 > 3.2 构造函数");
+        assertThat(chunks.get(0).headingPath()).isEqualTo("第3章 类");
+        assertThat(chunks.get(0).content()).startsWith("# 第3章 类").doesNotContain("构造函数用于");
+    }
+
+    @Test
+    void shouldSplitOversizedCodeBlockIntoClosedFences() {
+        StringBuilder code = new StringBuilder("```\n");
+        for (int i = 0; i < 200; i++) {
+            code.append("int value").append(i).append(" = ").append(i).append(";\n");
+        }
+        code.append("```\n");
+
+        List<String> chunks = chunker.split(code.toString());
+
+        assertThat(chunks).hasSizeGreaterThan(1);
+        assertThat(chunks).allSatisfy(c -> assertThat(c).startsWith("```").endsWith("```"));
+        assertThat(String.join("\n", chunks)).contains("int value0 = 0;").contains("int value199 = 199;");
+    }
+
+    @Test
+    void shouldSplitLongCjkParagraphOnSentenceBoundaries() {
+        StringBuilder paragraph = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            paragraph.append("这是第").append(i).append("句关于指针与引用的说明。");
+        }
+
+        List<String> chunks = chunker.split(paragraph.toString());
+
+        assertThat(chunks).hasSizeGreaterThan(1);
+        assertThat(chunks).allSatisfy(c -> {
+            assertThat(tokenizer.count(c)).isLessThanOrEqualTo(properties.getChunkTokens());
+            assertThat(c).startsWith("这是第").endsWith("。");
+        });
+    }
+
+    @Test
+    void shouldRepeatTableHeaderWhenSplittingLargeTable() {
+        StringBuilder table = new StringBuilder("| 运算符 | 说明 |\n| --- | --- |\n");
+        for (int i = 0; i < 120; i++) {
+            table.append("| op").append(i).append(" | 第").append(i).append("个运算符的详细说明 |\n");
+        }
+
+        List<String> chunks = chunker.split(table.toString());
+
+        assertThat(chunks).hasSizeGreaterThan(1);
+        assertThat(chunks).allSatisfy(c -> assertThat(c).startsWith("| 运算符 | 说明 |\n| --- | --- |"));
+    }
+
+    @Test
+    void shouldNotTreatHashInsideTitleAsClosingSequence() {
+        List<TextChunker.Chunk> chunks = chunker.chunk("# C# 与 C++\n\n内容");
+
+        assertThat(chunks).hasSize(1);
+        assertThat(chunks.get(0).headingPath()).isEqualTo("C# 与 C++");
+    }
+
+    @Test
+    void shouldElideOuterHeadingsWhenPathExceedsColumnWidth() {
+        String longTitle = "很长的章节标题".repeat(40);
+        String text = "# " + longTitle + "\n\n## " + longTitle + "\n\n### 3.2.1 拷贝构造\n\n内容";
+
+        String path = chunker.chunk(text).get(0).headingPath();
+
+        assertThat(path).hasSizeLessThanOrEqualTo(MarkdownStructureChunker.MAX_HEADING_PATH_LENGTH)
+                .startsWith("… > ")
+                .endsWith(longTitle + " > 3.2.1 拷贝构造");
+    }
+}
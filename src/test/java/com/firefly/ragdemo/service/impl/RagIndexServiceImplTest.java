@@ -0,0 +1,150 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.IndexingProperties;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.messaging.DocumentChunkSyncProducer;
+import com.firefly.ragdemo.repository.RedisDocumentChunkRepository;
+import com.firefly.ragdemo.repository.RedisEmbeddingSpaceRepository;
+import com.firefly.ragdemo.repository.RedisIndexCheckpointRepository;
+import com.firefly.ragdemo.service.EmbeddingService;
+import com.firefly.ragdemo.service.FileProcessingNotificationService;
+import com.firefly.ragdemo.service.TextChunker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RagIndexServiceImplTest {
+
+    private static final List<String> PARTS = List.of("c0", "c1", "c2", "c3", "c4");
+
+    @Mock
+    private UploadedFileMapper uploadedFileMapper;
+
+    @Mock
+    private TextChunkerRegistry textChunkerRegistry;
+
+    @Mock
+    private EmbeddingService embeddingService;
+
+    @Mock
+    private RedisDocumentChunkRepository redisDocumentChunkRepository;
+
+    @Mock
+    private FileProcessingNotificationService fileProcessingNotificationService;
+
+    @Mock
+    private DocumentChunkSyncProducer documentChunkSyncProducer;
+
+    @Mock
+    private RedisIndexCheckpointRepository redisIndexCheckpointRepository;
+
+    @Mock
+    private RedisEmbeddingSpaceRepository embeddingSpaces;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private RagIndexServiceImpl service;
+
+    /**
+     * Redis 中的分块（按分块ID）与断点，模拟两次索引之间保留的状态
+     */
+    private final Map<String, DocumentChunk> stored = new HashMap<>();
+    private final Map<String, RedisIndexCheckpointRepository.IndexCheckpoint> checkpoints = new HashMap<>();
+    private final List<String> embedded = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        IndexingProperties properties = new IndexingProperties();
+        properties.setBatchSize(2);
+        service = new RagIndexServiceImpl(uploadedFileMapper, textChunkerRegistry, embeddingService,
+                redisDocumentChunkRepository, fileProcessingNotificationService, documentChunkSyncProducer,
+                redisIndexCheckpointRepository, embeddingSpaces, properties, eventPublisher);
+        TextChunker chunker = text -> PARTS;
+        when(textChunkerRegistry.forFileType("txt")).thenReturn(chunker);
+        lenient().when(embeddingService.currentSpace()).thenReturn("space-a");
+        lenient().when(embeddingSpaces.activeSpace(anyString())).thenReturn("space-a");
+        doAnswer(invocation -> {
+            List<DocumentChunk> chunks = invocation.getArgument(0);
+            chunks.forEach(chunk -> stored.put(chunk.getId(), chunk));
+            return null;
+        }).when(redisDocumentChunkRepository).saveAll(anyList());
+        doAnswer(invocation -> {
+            checkpoints.put(invocation.getArgument(0), new RedisIndexCheckpointRepository.IndexCheckpoint(
+                    invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3)));
+            return null;
+        }).when(redisIndexCheckpointRepository).save(anyString(), anyString(), anyInt(), anyInt());
+        lenient().when(redisIndexCheckpointRepository.find(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(checkpoints.get(invocation.<String>getArgument(0))));
+        lenient().doAnswer(invocation -> checkpoints.remove(invocation.<String>getArgument(0)))
+                .when(redisIndexCheckpointRepository).delete(anyString());
+    }
+
+    @Test
+    void resumeAfterInterruptionShouldSkipWrittenChunksWithoutDuplicates() {
+        AtomicInteger calls = new AtomicInteger();
+        when(embeddingService.embedBatch(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            // 第一次索引在第二批时中断（例如向量服务不可用）
+            if (calls.incrementAndGet() == 2) {
+                throw new IllegalStateException("embedding service unavailable");
+            }
+            embedded.addAll(texts);
+            List<List<Double>> vectors = new ArrayList<>();
+            texts.forEach(text -> vectors.add(List.of(1.0, 0.0)));
+            return vectors;
+        });
+
+        UploadedFile first = file();
+        service.indexFile(first, content());
+        assertThat(first.getStatus()).isEqualTo(UploadedFile.FileStatus.FAILED);
+        assertThat(stored).hasSize(2);
+        assertThat(checkpoints.get("f1").nextIndex()).isEqualTo(2);
+
+        UploadedFile retry = file();
+        service.indexFile(retry, content());
+
+        assertThat(retry.getStatus()).isEqualTo(UploadedFile.FileStatus.COMPLETED);
+        assertThat(embedded).containsExactly("c0", "c1", "c2", "c3", "c4");
+        assertThat(stored).hasSize(PARTS.size());
+        assertThat(stored.values()).extracting(DocumentChunk::getChunkIndex)
+                .containsExactlyInAnyOrder(0, 1, 2, 3, 4);
+        assertThat(checkpoints).isEmpty();
+        verify(redisDocumentChunkRepository, times(1))
+                .deleteByFileIdAndUser("f1", "u1", "kb1");
+    }
+
+    private UploadedFile file() {
+        return UploadedFile.builder().id("f1").userId("u1").kbId("kb1").filename("notes.txt").fileType("txt")
+                .status(UploadedFile.FileStatus.PROCESSING).build();
+    }
+
+    private ByteArrayInputStream content() {
+        return new ByteArrayInputStream("虚函数与多态".getBytes(StandardCharsets.UTF_8));
+    }
+}
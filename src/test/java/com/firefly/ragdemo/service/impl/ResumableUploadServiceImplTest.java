@@ -0,0 +1,165 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.UploadProperties;
+import com.firefly.ragdemo.entity.User;
+import com.firefly.ragdemo.repository.RedisUploadSessionRepository;
+import com.firefly.ragdemo.repository.RedisUploadSessionRepository.UploadSession;
+import com.firefly.ragdemo.service.FileService;
+import com.firefly.ragdemo.service.FileStorageService;
+import com.firefly.ragdemo.service.IndexingScheduler;
+import com.firefly.ragdemo.service.KnowledgeBaseService;
+import com.firefly.ragdemo.vo.FileVO;
+import com.firefly.ragdemo.vo.UploadSessionVO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.access.AccessDeniedException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ResumableUploadServiceImplTest {
+
+    private static final int PART_SIZE = 1000;
+
+    @Mock
+    private RedisUploadSessionRepository uploadSessionRepository;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private FileService fileService;
+
+    @Mock
+    private KnowledgeBaseService knowledgeBaseService;
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, UploadSession> sessions = new HashMap<>();
+    private final Map<String, BitSet> parts = new HashMap<>();
+    private final User user = User.builder().id("user-1").username("tester").build();
+    private ResumableUploadServiceImpl uploadService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        UploadProperties properties = new UploadProperties();
+        properties.setPartSize(PART_SIZE);
+        uploadService = new ResumableUploadServiceImpl(uploadSessionRepository, fileStorageService, fileService,
+                knowledgeBaseService, properties);
+
+        when(knowledgeBaseService.resolveUploadKb(eq("user-1"), eq("tester"), any())).thenReturn("kb-1");
+        when(fileStorageService.stagingDirectory()).thenReturn(tempDir);
+        doAnswer(invocation -> {
+            UploadSession session = invocation.getArgument(0);
+            sessions.put(session.uploadId(), session);
+            return null;
+        }).when(uploadSessionRepository).save(any(), any());
+        lenient().when(uploadSessionRepository.find(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(sessions.get(invocation.getArgument(0, String.class))));
+        lenient().doAnswer(invocation -> {
+            parts.computeIfAbsent(invocation.getArgument(0), k -> new BitSet()).set(invocation.getArgument(1, Integer.class));
+            return null;
+        }).when(uploadSessionRepository).markPartReceived(anyString(), anyInt(), any());
+        lenient().when(uploadSessionRepository.receivedParts(anyString(), anyInt()))
+                .thenAnswer(invocation -> (BitSet) parts.getOrDefault(invocation.getArgument(0), new BitSet()).clone());
+    }
+
+    @Test
+    void outOfOrderAndResumedPartsShouldAssembleIntoTheOriginalFile() throws Exception {
+        byte[] content = new byte[2500];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        System.arraycopy("%PDF-1.7".getBytes(StandardCharsets.US_ASCII), 0, content, 0, 8);
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        Path stored = tempDir.resolve("stored.pdf");
+        FileStorageService.StoredBlob blob = new FileStorageService.StoredBlob(stored, sha256, false);
+        when(fileStorageService.moveIn(any(Path.class), eq(sha256))).thenAnswer(invocation -> {
+            Files.move(invocation.getArgument(0, Path.class), stored);
+            return blob;
+        });
+        when(fileService.registerStoredFile(eq(blob), eq("lecture.pdf"), eq(2500L), eq(user), eq("kb-1"),
+                eq(IndexingScheduler.Lane.INTERACTIVE)))
+                .thenReturn(FileVO.builder().id("file-1").build());
+
+        UploadSessionVO session = uploadService.initiate(user, "lecture.pdf", content.length, null);
+        assertThat(session.getPartCount()).isEqualTo(3);
+        String uploadId = session.getUploadId();
+
+        uploadService.writePart("user-1", uploadId, 2000, 500, part(content, 2));
+        uploadService.writePart("user-1", uploadId, 0, 1000, part(content, 0));
+        // 模拟断线：第二片只传了一半
+        assertThatThrownBy(() -> uploadService.writePart("user-1", uploadId, 1000, -1,
+                new ByteArrayInputStream(Arrays.copyOfRange(content, 1000, 1400))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(uploadService.status("user-1", uploadId).getMissingParts()).containsExactly(1);
+
+        UploadSessionVO resumed = uploadService.writePart("user-1", uploadId, 1000, 1000, part(content, 1));
+        assertThat(resumed.getMissingParts()).isEmpty();
+        assertThat(resumed.getReceivedBytes()).isEqualTo(2500);
+
+        FileVO file = uploadService.complete(user, uploadId, sha256.toUpperCase());
+
+        assertThat(file.getId()).isEqualTo("file-1");
+        assertThat(Files.readAllBytes(stored)).isEqualTo(content);
+    }
+
+    @Test
+    void completeShouldRejectMissingPartsAndMisalignedOffsets() throws Exception {
+        UploadSessionVO session = uploadService.initiate(user, "notes.md", 1500, "kb-1");
+
+        assertThatThrownBy(() -> uploadService.writePart("user-1", session.getUploadId(), 10, 100,
+                new ByteArrayInputStream(new byte[100])))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> uploadService.complete(user, session.getUploadId(), null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("2");
+        assertThatThrownBy(() -> uploadService.status("someone-else", session.getUploadId()))
+                .isInstanceOf(AccessDeniedException.class);
+    }
+
+    @Test
+    void firstPartWithMismatchedMagicBytesShouldCancelTheSession() throws Exception {
+        UploadSessionVO session = uploadService.initiate(user, "slides.pdf", 1200, "kb-1");
+        byte[] zipHeader = new byte[PART_SIZE];
+        System.arraycopy(new byte[]{'P', 'K', 0x03, 0x04}, 0, zipHeader, 0, 4);
+
+        assertThatThrownBy(() -> uploadService.writePart("user-1", session.getUploadId(), 0, PART_SIZE,
+                new ByteArrayInputStream(zipHeader)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining(".pdf");
+        verify(uploadSessionRepository).delete(session.getUploadId());
+        verify(fileStorageService).delete(tempDir.resolve(session.getUploadId() + ".part"));
+    }
+
+    private static ByteArrayInputStream part(byte[] content, int index) {
+        int from = index * PART_SIZE;
+        return new ByteArrayInputStream(Arrays.copyOfRange(content, from, Math.min(from + PART_SIZE, content.length)));
+    }
+}
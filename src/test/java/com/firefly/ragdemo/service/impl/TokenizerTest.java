@@ -0,0 +1,77 @@
+package com.firefly.ragdemo.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenizerTest {
+
+    private final EstimatingTokenizer estimating = new EstimatingTokenizer();
+
+    @Test
+    void estimatingTokenizerShouldCountCjkPerCharacterAndLatinPerWordPiece() {
+        assertThat(estimating.count("指针与引用")).isEqualTo(5);
+        assertThat(estimating.count("pointer and reference")).isEqualTo(2 + 1 + 3);
+        assertThat(estimating.count("int x = 1;")).isEqualTo(1 + 1 + 1 + 1 + 1);
+    }
+
+    @Test
+    void estimatingTokenizerShouldCountRangeWithoutSubstring() {
+        String text = "前缀content后缀";
+
+        assertThat(estimating.count(text, 2, 9)).isEqualTo(estimating.count("content"));
+    }
+
+    @Test
+    void truncateShouldStayWithinBudgetAndAlwaysAdvance() {
+        String text = "这是一段用于测试截断的中文文本";
+
+        int cut = estimating.truncate(text, 0, text.length(), 4);
+
+        assertThat(cut).isEqualTo(4);
+        assertThat(estimating.truncate(text, 0, text.length(), 0)).isEqualTo(1);
+    }
+
+    @Test
+    void bpeTokenizerShouldMergeByRank() {
+        Map<String, Integer> ranks = new HashMap<>();
+        for (int b = 0; b < 256; b++) {
+            ranks.put(new String(new byte[]{(byte) b}, StandardCharsets.ISO_8859_1), b);
+        }
+        ranks.put("ab", 256);
+        ranks.put("abc", 257);
+        ranks.put(" ab", 258);
+        BpeTokenizer bpe = new BpeTokenizer("test", ranks, 100);
+
+        assertThat(bpe.count("abc")).isEqualTo(1);
+        assertThat(bpe.count("abd")).isEqualTo(2);
+        assertThat(bpe.count("abc ab")).isEqualTo(2);
+        assertThat(bpe.count("12345")).isEqualTo(5);
+    }
+
+    @Test
+    void bpeTokenizerShouldPreferLowestRankThenLeftmostPairInLongPieces() {
+        Map<String, Integer> ranks = new HashMap<>();
+        for (int b = 0; b < 256; b++) {
+            ranks.put(new String(new byte[]{(byte) b}, StandardCharsets.ISO_8859_1), b);
+        }
+        ranks.put("bc", 256);
+        ranks.put("ab", 257);
+        ranks.put("aa", 258);
+        ranks.put("aaaa", 259);
+        BpeTokenizer bpe = new BpeTokenizer("test", ranks, 100);
+
+        // bc 先于 ab 合并，剩下 a + bc
+        assertThat(bpe.count("abc")).isEqualTo(2);
+        // 超过缓存长度的片段：100 个 a 两两合并再四四合并
+        assertThat(bpe.count("a".repeat(100))).isEqualTo(25);
+        assertThat(bpe.count("a".repeat(5))).isEqualTo(2);
+        // 中文按 UTF-8 字节计，孤立代理字符按 '?' 计
+        assertThat(bpe.count("指针")).isEqualTo(6);
+        assertThat(bpe.count("\uD800")).isEqualTo(1);
+    }
+}
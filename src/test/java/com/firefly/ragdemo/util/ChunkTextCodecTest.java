@@ -0,0 +1,52 @@
+package com.firefly.ragdemo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChunkTextCodecTest {
+
+    @Test
+    void shortAndLegacyTextShouldStayRawWhileLongTextRoundTrips() {
+        String shortText = "构造函数没有返回值";
+        String longText = "析构函数在对象生命周期结束时调用，用于释放资源。".repeat(20);
+
+        byte[] shortEncoded = ChunkTextCodec.encode(shortText, 256, 6, null);
+        byte[] longEncoded = ChunkTextCodec.encode(longText, 256, 6, null);
+
+        assertThat(shortEncoded).isEqualTo(shortText.getBytes(StandardCharsets.UTF_8));
+        assertThat(ChunkTextCodec.isCompressed(longEncoded)).isTrue();
+        assertThat(longEncoded.length).isLessThan(longText.getBytes(StandardCharsets.UTF_8).length);
+        assertThat(ChunkTextCodec.decode(longEncoded, id -> null)).isEqualTo(longText);
+        // 旧数据就是 UTF-8 原文
+        assertThat(ChunkTextCodec.decode(shortText.getBytes(StandardCharsets.UTF_8), id -> null)).isEqualTo(shortText);
+        assertThat(ChunkTextCodec.decode(ChunkTextCodec.encode("\0x", 256, 6, null), id -> null)).isEqualTo("\0x");
+    }
+
+    @Test
+    void trainedDictionaryShouldShrinkSimilarChunksAndBeRequiredToDecode() {
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            samples.add("第" + i + "章 类与对象 > 成员函数\n类的成员函数可以访问该类的私有成员，const 成员函数不能修改对象状态。"
+                    + "示例 " + i + "：int Point::getX() const { return x_; }");
+        }
+        byte[] dictionary = ChunkTextCodec.trainDictionary(samples.subList(0, 30), ChunkTextCodec.MAX_DICTIONARY_SIZE);
+        String text = samples.get(35);
+
+        byte[] plain = ChunkTextCodec.encode(text, 64, 6, null);
+        byte[] withDictionary = ChunkTextCodec.encode(text, 64, 6, dictionary);
+        long dictionaryId = ChunkTextCodec.dictionaryId(dictionary);
+
+        assertThat(dictionary).isNotEmpty();
+        assertThat(withDictionary.length).isLessThan(plain.length);
+        assertThat(ChunkTextCodec.decode(withDictionary, Map.of(dictionaryId, dictionary)::get)).isEqualTo(text);
+        assertThatThrownBy(() -> ChunkTextCodec.decode(withDictionary, id -> null))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
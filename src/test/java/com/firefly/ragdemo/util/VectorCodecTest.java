@@ -0,0 +1,50 @@
+package com.firefly.ragdemo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class VectorCodecTest {
+
+    @Test
+    void binaryEncodingShouldRoundTripAndUseFourBytesPerDimension() {
+        float[] vector = VectorCodec.fromList(List.of(0.125, -1.5, 3.0e-7, 42.0));
+
+        byte[] encoded = VectorCodec.encode(vector);
+
+        assertThat(encoded).hasSize(16);
+        // 小端：0.125f = 0x3E000000
+        assertThat(encoded[3]).isEqualTo((byte) 0x3E);
+        assertThat(VectorCodec.decode(encoded)).containsExactly(vector);
+        assertThat(VectorCodec.decode(new byte[]{1, 2, 3})).isEmpty();
+    }
+
+    @Test
+    void legacyJsonShouldParseAndScoreLikeTheOriginal() {
+        float[] parsed = VectorCodec.parseJson("[0.60000000, 0.80000000,0]");
+
+        assertThat(parsed).containsExactly(0.6f, 0.8f, 0f);
+        assertThat(VectorCodec.parseJson(VectorCodec.toJson(parsed))).containsExactly(parsed);
+        assertThat(VectorCodec.cosine(parsed, new float[]{0.6f, 0.8f, 0f})).isCloseTo(1.0, within(1e-6));
+        assertThat(VectorCodec.cosine(parsed, new float[]{1f, 0f})).isNaN();
+        assertThat(VectorCodec.parseJson("not json")).isEmpty();
+    }
+
+    @Test
+    void truncatedPrefixShouldBeUnitLengthAndDotShouldMatchCosine() {
+        float[] vector = {3f, 4f, 12f, 0.5f};
+
+        float[] prefix = VectorCodec.truncate(vector, 2);
+
+        assertThat(prefix).containsExactly(0.6f, 0.8f);
+        assertThat(VectorCodec.dot(prefix, prefix)).isCloseTo(1.0, within(1e-6));
+        float[] other = VectorCodec.truncate(new float[]{1f, 2f, -7f}, 2);
+        assertThat(VectorCodec.dot(prefix, other))
+                .isCloseTo(VectorCodec.cosine(new float[]{3f, 4f}, new float[]{1f, 2f}), within(1e-6));
+        assertThat(VectorCodec.truncate(vector, 10)).hasSize(4);
+        assertThat(VectorCodec.dot(prefix, vector)).isNaN();
+    }
+}